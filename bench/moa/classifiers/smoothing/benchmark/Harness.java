@@ -0,0 +1,131 @@
+package moa.classifiers.smoothing.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A minimal benchmark harness: runs an operation through warm up and measurement iterations and reports
+ * the throughput, latency percentiles and the bytes allocated per operation by the benchmark thread.
+ */
+public class Harness {
+
+	/**
+	 * A single benchmarked operation.
+	 */
+	public static abstract class Operation {
+
+		/**
+		 * Called once before each iteration, not measured.
+		 */
+		public void setUp() {
+		}
+
+		/**
+		 * Runs the operation once.
+		 * @param i the number of the operation in the iteration.
+		 * @return a value that depends on the work done, so it can not be optimised away.
+		 */
+		public abstract long run(int i);
+	}
+
+	private final int warmupIterations, iterations, operations;
+	// Keeps the results of the operations alive.
+	private long sink;
+
+	/**
+	 * @param warmupIterations the iterations run before measuring.
+	 * @param iterations the measured iterations.
+	 * @param operations the operations per iteration.
+	 */
+	public Harness(final int warmupIterations, final int iterations, final int operations) {
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+		this.operations = operations;
+	}
+
+	/**
+	 * Prints the column headers of the results.
+	 */
+	public static void printHeader() {
+		System.out.println(String.format(Locale.ROOT, "%-48s %12s %10s %10s %10s %10s %12s",
+				"benchmark", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "alloc B/op"));
+	}
+
+	/**
+	 * Measures the operation and prints a line of results.
+	 * @param name the name of the benchmark.
+	 * @param operation the operation to measure.
+	 * @param operations the operations per iteration, overrides the default of the harness.
+	 */
+	public void measure(final String name, final Operation operation, final int operations) {
+		for (int iteration = 0; iteration < this.warmupIterations; iteration++) {
+			operation.setUp();
+			for (int i = 0; i < operations; i++)
+				this.sink += operation.run(i);
+		}
+
+		final long[] latencies = new long[this.iterations * operations];
+		long elapsed = 0, allocated = 0;
+		for (int iteration = 0; iteration < this.iterations; iteration++) {
+			operation.setUp();
+			long allocatedBefore = Harness.allocatedBytes();
+			long iterationStart = System.nanoTime(), start = iterationStart;
+			for (int i = 0; i < operations; i++) {
+				this.sink += operation.run(i);
+				long end = System.nanoTime();
+				latencies[iteration * operations + i] = end - start;
+				start = end;
+			}
+			elapsed += start - iterationStart;
+			if (allocatedBefore < 0 || allocated < 0)
+				allocated = -1;
+			else
+				allocated += Harness.allocatedBytes() - allocatedBefore;
+		}
+
+		Arrays.sort(latencies);
+		System.out.println(String.format(Locale.ROOT, "%-48s %12.0f %10.2f %10.2f %10.2f %10.2f %12s",
+				name,
+				latencies.length / (elapsed / 1e9d),
+				Harness.percentile(latencies, 0.5d),
+				Harness.percentile(latencies, 0.9d),
+				Harness.percentile(latencies, 0.99d),
+				Harness.percentile(latencies, 0.999d),
+				allocated < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f", allocated / (double) latencies.length)));
+	}
+
+	/**
+	 * Measures the operation with the default operations per iteration.
+	 * @param name the name of the benchmark.
+	 * @param operation the operation to measure.
+	 */
+	public void measure(final String name, final Operation operation) {
+		this.measure(name, operation, this.operations);
+	}
+
+	/**
+	 * @return the sum of the operation results, print it so the work is not dead code.
+	 */
+	public long getSink() {
+		return this.sink;
+	}
+
+	// Latency in microseconds at the given quantile of the sorted nanosecond latencies.
+	private static double percentile(final long[] sorted, final double quantile) {
+		int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+		return sorted[Math.max(index, 0)] / 1e3d;
+	}
+
+	// Bytes allocated by the current thread, -1 if the JVM does not track allocation.
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+		if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
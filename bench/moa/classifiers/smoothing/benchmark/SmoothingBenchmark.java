@@ -0,0 +1,328 @@
+package moa.classifiers.smoothing.benchmark;
+
+import moa.classifiers.smoothing.SmoothingTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.*;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.CountMinSketch;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.Forget;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.Queue;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.TweetTokenizer;
+import moa.streams.ArffFileStream;
+import weka.core.Instance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Benchmarks the train and predict hot paths on synthetic Zipfian tweets: the classifier end to end for
+ * every smoothing technique, the perplexity of each foreground model, history eviction and building the
+ * background model. Also prints the prequential accuracy so the techniques can be compared on cost and
+ * accuracy together.
+ *
+ * Arguments are name=value pairs, see the fields for the names and defaults, e.g.
+ * java -cp lib/moa.jar:out moa.classifiers.smoothing.benchmark.SmoothingBenchmark historySize=5000
+ */
+public class SmoothingBenchmark {
+
+	private static final String HashTag = "#topic";
+	private static final String[] SmoothingTechniques = { "ABSOLUTEDISCOUNTING", "JALINEKMERCERSMOOTHING",
+			"BAYESIANSMOOTHING", "STUPIDBACKOFF", "BACKGROUNDONLY" };
+	private static final String[] HistoryTechniques = { "FORGET", "QUEUE", "COUNTMINSKETCH" };
+	private static final int BatchSize = 256;
+
+	private int vocabularySize = 50000;
+	private double exponent = 1d;
+	private double topicRate = 0.3d;
+	private int backgroundTweets = 50000;
+	private int streamTweets = 20000;
+	private int historySize = 1000;
+	private int minWordsInTweet = 5;
+	private double threshold = 300d;
+	private int warmup = 3;
+	private int iterations = 5;
+	private long seed = 42;
+	// Run the classifier benchmarks with the hot path metrics collected, to measure their overhead.
+	private boolean collectMetrics = false;
+	// The tokenizing threads of the pipelined trainOnStream() benchmark.
+	private int ingestThreads = Runtime.getRuntime().availableProcessors();
+
+	private File backgroundFile, streamFile;
+	private List<Instance> stream;
+	private Harness harness;
+
+	public static void main(String[] args) throws IOException {
+		SmoothingBenchmark benchmark = new SmoothingBenchmark();
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			if (option.length != 2)
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			benchmark.setOption(option[0], option[1]);
+		}
+		benchmark.run();
+	}
+
+	private void setOption(final String name, final String value) {
+		switch (name) {
+			case "vocabularySize" : this.vocabularySize = Integer.parseInt(value); break;
+			case "exponent" : this.exponent = Double.parseDouble(value); break;
+			case "topicRate" : this.topicRate = Double.parseDouble(value); break;
+			case "backgroundTweets" : this.backgroundTweets = Integer.parseInt(value); break;
+			case "streamTweets" : this.streamTweets = Integer.parseInt(value); break;
+			case "historySize" : this.historySize = Integer.parseInt(value); break;
+			case "minWordsInTweet" : this.minWordsInTweet = Integer.parseInt(value); break;
+			case "threshold" : this.threshold = Double.parseDouble(value); break;
+			case "warmup" : this.warmup = Integer.parseInt(value); break;
+			case "iterations" : this.iterations = Integer.parseInt(value); break;
+			case "seed" : this.seed = Long.parseLong(value); break;
+			case "collectMetrics" : this.collectMetrics = Boolean.parseBoolean(value); break;
+			case "ingestThreads" : this.ingestThreads = Integer.parseInt(value); break;
+			default : throw new IllegalArgumentException("Unknown option " + name);
+		}
+	}
+
+	private void run() throws IOException {
+		File directory = Files.createTempDirectory("smoothing-benchmark").toFile();
+		this.backgroundFile = new File(directory, "background.arff");
+		this.streamFile = new File(directory, "stream.arff");
+		try {
+			ZipfTweets tweets = new ZipfTweets(this.vocabularySize, this.exponent, HashTag, this.topicRate, this.seed);
+			tweets.writeBackgroundArff(this.backgroundFile, this.backgroundTweets);
+			tweets.writeArff(this.streamFile, this.streamTweets);
+			this.stream = this.readStream();
+			this.harness = new Harness(this.warmup, this.iterations, this.stream.size());
+
+			System.out.println("vocabularySize=" + this.vocabularySize + " exponent=" + this.exponent
+					+ " backgroundTweets=" + this.backgroundTweets + " streamTweets=" + this.streamTweets
+					+ " historySize=" + this.historySize + " collectMetrics=" + this.collectMetrics);
+			Harness.printHeader();
+			this.benchmarkClassifier();
+			this.benchmarkIngest();
+			this.benchmarkPerplexity();
+			this.benchmarkEviction();
+			this.benchmarkBackgroundModel();
+			System.out.println();
+			this.printAccuracy();
+			System.out.println("sink " + this.harness.getSink());
+		} finally {
+			this.backgroundFile.delete();
+			this.streamFile.delete();
+			directory.delete();
+		}
+	}
+
+	// trainOnInstanceImpl(), getVotesForInstance(), getVotesForInstances() and a prequential test then train
+	// per smoothing technique, with the Queue history. A getVotesForInstances() operation scores a whole batch.
+	private void benchmarkClassifier() {
+		for (String technique : SmoothingTechniques) {
+			final SmoothingTechnique classifier = this.createClassifier(technique, "QUEUE");
+			final List<Instance> stream = this.stream;
+			this.harness.measure("trainOnInstanceImpl " + technique, new Harness.Operation() {
+				@Override
+				public long run(int i) {
+					classifier.trainOnInstanceImpl(stream.get(i));
+					return i;
+				}
+			});
+			this.harness.measure("getVotesForInstance " + technique, new Harness.Operation() {
+				@Override
+				public long run(int i) {
+					return classifier.getVotesForInstance(stream.get(i)).length;
+				}
+			});
+			final Instance[] instances = stream.toArray(new Instance[stream.size()]);
+			this.harness.measure("getVotesForInstances x" + BatchSize + " " + technique, new Harness.Operation() {
+				private double[] votes;
+
+				@Override
+				public long run(int i) {
+					int offset = i * BatchSize;
+					this.votes = classifier.getVotesForInstances(instances, offset,
+							Math.min(BatchSize, instances.length - offset), this.votes);
+					return this.votes.length;
+				}
+			}, (instances.length + BatchSize - 1) / BatchSize);
+			this.harness.measure("testThenTrain " + technique, new Harness.Operation() {
+				@Override
+				public long run(int i) {
+					Instance instance = stream.get(i);
+					int length = classifier.getVotesForInstance(instance).length;
+					classifier.trainOnInstanceImpl(instance);
+					return length;
+				}
+			});
+		}
+	}
+
+	// trainOnStream() reading the stream file, on the calling thread and pipelined, one pass per operation.
+	private void benchmarkIngest() {
+		for (int threads : new int[] { 0, this.ingestThreads }) {
+			final SmoothingTechnique classifier = this.createClassifier("STUPIDBACKOFF", "QUEUE");
+			classifier.setIngestThreads(threads);
+			this.harness.measure("trainOnStream ingestThreads=" + threads, new Harness.Operation() {
+				@Override
+				public long run(int i) {
+					return classifier.trainOnStream(new ArffFileStream(SmoothingBenchmark.this.streamFile.getPath(), -1), -1);
+				}
+			}, 1);
+		}
+	}
+
+	// ForegroundModel.getPerplexity() per smoothing technique, scoring against a full Queue history.
+	private void benchmarkPerplexity() {
+		Tokenizer tokenizer = this.createTokenizer();
+		BackgroundModel bm = this.buildBackgroundModel(tokenizer);
+		Vocabulary vocabulary = new Vocabulary(bm);
+		final List<int[]> tweets = this.resolveStream(tokenizer, vocabulary, false);
+		HistoryRetentionTechnique history = new Queue(vocabulary, this.historySize);
+		for (int[] tweet : this.resolveStream(tokenizer, vocabulary, true))
+			history.addTweet(tweet, tweet.length);
+
+		ForegroundModel[] models = {
+				new AbsoluteDiscounting(bm, history, this.threshold, 0.9d),
+				new JalinekMercerSmoothing(bm, history, this.threshold, 0.4d),
+				new BayesianSmoothing(bm, history, this.threshold, 10000d),
+				new StupidBackoff(bm, history, this.threshold, 0.3d),
+				new BackgroundOnly(bm, history, this.threshold)
+		};
+		for (int m = 0; m < models.length; m++) {
+			final ForegroundModel model = models[m];
+			this.harness.measure("getPerplexity " + SmoothingTechniques[m], new Harness.Operation() {
+				@Override
+				public long run(int i) {
+					int[] tweet = tweets.get(i);
+					return Double.doubleToRawLongBits(model.getPerplexity(tweet, tweet.length));
+				}
+			}, tweets.size());
+		}
+	}
+
+	// HistoryRetentionTechnique.addTweet() from an empty history, every tweet past historySize evicts.
+	private void benchmarkEviction() {
+		Tokenizer tokenizer = this.createTokenizer();
+		BackgroundModel bm = this.buildBackgroundModel(tokenizer);
+		for (String technique : HistoryTechniques) {
+			Vocabulary vocabulary = new Vocabulary(bm);
+			final List<int[]> tweets = this.resolveStream(tokenizer, vocabulary, true);
+			final HistoryRetentionTechnique history;
+			switch (technique) {
+				case "FORGET" : history = new Forget(vocabulary, this.historySize); break;
+				case "COUNTMINSKETCH" :
+					history = new CountMinSketch(vocabulary, this.historySize, 1 << 16, 4, false, false);
+					break;
+				default : history = new Queue(vocabulary, this.historySize);
+			}
+			this.harness.measure("addTweet " + technique, new Harness.Operation() {
+				@Override
+				public void setUp() {
+					history.reset();
+				}
+
+				@Override
+				public long run(int i) {
+					int[] tweet = tweets.get(i);
+					history.addTweet(tweet, tweet.length);
+					return history.getTotalUniqueWordCount();
+				}
+			}, tweets.size());
+		}
+	}
+
+	// BackgroundModel.buildProbabilities() over the words of the background data, one build per operation.
+	private void benchmarkBackgroundModel() {
+		final List<String> words = new ArrayList<>();
+		Tokenizer tokenizer = this.createTokenizer();
+		ArffFileStream background = new ArffFileStream(this.backgroundFile.getPath(), -1);
+		while (background.hasMoreInstances()) {
+			tokenizer.tokenize(background.nextInstance().stringValue(0));
+			if (tokenizer.accept(true))
+				tokenizer.getTokens(words);
+		}
+
+		final BackgroundModel bm = new BackgroundModel();
+		this.harness.measure("buildProbabilities", new Harness.Operation() {
+			@Override
+			public long run(int i) {
+				bm.buildProbabilities(words);
+				return bm.size();
+			}
+		}, 1);
+	}
+
+	// One prequential pass per smoothing and history technique on fresh classifiers.
+	private void printAccuracy() {
+		for (String history : HistoryTechniques) {
+			for (String technique : SmoothingTechniques) {
+				SmoothingTechnique classifier = this.createClassifier(technique, history);
+				for (Instance instance : this.stream) {
+					classifier.getVotesForInstance(instance);
+					classifier.trainOnInstanceImpl(instance);
+				}
+				System.out.println(String.format(Locale.ROOT, "%-48s %s", technique + " " + history, classifier));
+			}
+		}
+	}
+
+	private SmoothingTechnique createClassifier(final String technique, final String history) {
+		SmoothingTechnique classifier = new SmoothingTechnique();
+		classifier.backgroundDataPathOption.setValue(this.backgroundFile.getPath());
+		classifier.hashTagOption.setValue(HashTag);
+		classifier.minWordsInTweetOption.setValue(this.minWordsInTweet);
+		classifier.historySizeOption.setValue(this.historySize);
+		classifier.thresholdOption.setValue(this.threshold);
+		classifier.smoothingFunctionOption.setValueViaCLIString(technique);
+		classifier.historyRetentionFunctionOption.setValueViaCLIString(history);
+		classifier.collectMetricsOption.setValue(this.collectMetrics);
+		classifier.prepareForUse();
+		classifier.resetLearning();
+		// Build the background model outside of the measurements.
+		classifier.getVotesForInstance(this.stream.get(0));
+		return classifier;
+	}
+
+	private Tokenizer createTokenizer() {
+		Tokenizer tokenizer = new TweetTokenizer();
+		tokenizer.setHashTag(HashTag);
+		tokenizer.setMinWordsInTweet(this.minWordsInTweet);
+		return tokenizer;
+	}
+
+	private BackgroundModel buildBackgroundModel(final Tokenizer tokenizer) {
+		BackgroundModel bm = new BackgroundModel();
+		ArffFileStream background = new ArffFileStream(this.backgroundFile.getPath(), -1);
+		while (background.hasMoreInstances()) {
+			tokenizer.tokenize(background.nextInstance().stringValue(0));
+			if (tokenizer.accept(true))
+				bm.addTweet(tokenizer);
+		}
+		bm.finish();
+		return bm;
+	}
+
+	// The word ids of the stream tweets that pass the filter, the ids are retained so they stay valid.
+	private List<int[]> resolveStream(final Tokenizer tokenizer, final Vocabulary vocabulary, final boolean isTrain) {
+		List<int[]> tweets = new ArrayList<>();
+		for (Instance instance : this.stream) {
+			tokenizer.tokenize(instance.stringValue(0));
+			if (!tokenizer.accept(isTrain))
+				continue;
+			int[] tweet = Arrays.copyOf(tokenizer.resolve(vocabulary, true), tokenizer.size());
+			for (int id : tweet)
+				vocabulary.retain(id);
+			tweets.add(tweet);
+		}
+		return tweets;
+	}
+
+	private List<Instance> readStream() {
+		List<Instance> instances = new ArrayList<>();
+		ArffFileStream stream = new ArffFileStream(this.streamFile.getPath(), -1);
+		while (stream.hasMoreInstances())
+			instances.add(stream.nextInstance());
+		return instances;
+	}
+}
@@ -0,0 +1,133 @@
+package moa.classifiers.smoothing.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic tweets whose words follow a Zipfian distribution. Tweets about the topic carry
+ * the hash-tag and draw part of their words from a shifted ranking, so the foreground differs from the
+ * background the way a trending topic does.
+ */
+public class ZipfTweets {
+
+	private final String[] words;
+	private final double[] cumulative;
+	private final Random random;
+	private final String hashTag;
+	private final double topicRate;
+	private final int minLength, maxLength;
+
+	/**
+	 * @param vocabularySize the number of distinct words.
+	 * @param exponent the Zipf exponent, about 1 for natural language.
+	 * @param hashTag the hash-tag of the topic tweets, including the '#'.
+	 * @param topicRate the fraction of tweets that are about the topic.
+	 * @param seed the seed, the same seed gives the same tweets.
+	 */
+	public ZipfTweets(final int vocabularySize, final double exponent, final String hashTag,
+					  final double topicRate, final long seed) {
+		this.random = new Random(seed);
+		this.hashTag = hashTag;
+		this.topicRate = topicRate;
+		this.minLength = 5;
+		this.maxLength = 20;
+
+		this.words = new String[vocabularySize];
+		this.cumulative = new double[vocabularySize];
+		double total = 0d;
+		for (int rank = 0; rank < vocabularySize; rank++) {
+			this.words[rank] = ZipfTweets.word(rank);
+			total += 1d / Math.pow(rank + 1, exponent);
+			this.cumulative[rank] = total;
+		}
+		for (int rank = 0; rank < vocabularySize; rank++)
+			this.cumulative[rank] /= total;
+	}
+
+	/**
+	 * Generates the next tweet.
+	 * @param topic true for a tweet about the topic.
+	 * @return the text of the tweet.
+	 */
+	public String nextTweet(final boolean topic) {
+		StringBuilder tweet = new StringBuilder(128);
+		if (topic)
+			tweet.append(this.hashTag).append(' ');
+		int length = this.minLength + this.random.nextInt(this.maxLength - this.minLength + 1);
+		for (int i = 0; i < length; i++) {
+			int rank = this.nextRank();
+			// Topic tweets use half of their words from a ranking shifted away from the background.
+			if (topic && this.random.nextBoolean())
+				rank = (rank + this.words.length / 3) % this.words.length;
+			if (i > 0)
+				tweet.append(' ');
+			tweet.append(this.words[rank]);
+		}
+		return tweet.toString();
+	}
+
+	/**
+	 * Generates the next tweet, about the topic at the topic rate.
+	 * @return the text of the tweet.
+	 */
+	public String nextTweet() {
+		return this.nextTweet(this.random.nextDouble() < this.topicRate);
+	}
+
+	/**
+	 * Writes tweets to an arff file with a string attribute for the text and a {0,1} class, 1 for the
+	 * tweets about the topic.
+	 * @param file the file to write.
+	 * @param tweets the number of tweets.
+	 * @throws IOException if the file can not be written.
+	 */
+	public void writeArff(final File file, final int tweets) throws IOException {
+		this.writeArff(file, tweets, false);
+	}
+
+	/**
+	 * Writes background tweets to an arff file, see writeArff(). The background data is filtered on the
+	 * hash-tag like the training tweets, so every tweet carries it but uses the background ranking.
+	 * @param file the file to write.
+	 * @param tweets the number of tweets.
+	 * @throws IOException if the file can not be written.
+	 */
+	public void writeBackgroundArff(final File file, final int tweets) throws IOException {
+		this.writeArff(file, tweets, true);
+	}
+
+	private void writeArff(final File file, final int tweets, final boolean background) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.println("@relation tweets");
+			out.println("@attribute text string");
+			out.println("@attribute class {0,1}");
+			out.println("@data");
+			for (int i = 0; i < tweets; i++) {
+				boolean topic = !background && this.random.nextDouble() < this.topicRate;
+				String tweet = background ? this.hashTag + " " + this.nextTweet(false) : this.nextTweet(topic);
+				out.println("'" + tweet + "'," + (topic ? 1 : 0));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private int nextRank() {
+		int rank = Arrays.binarySearch(this.cumulative, this.random.nextDouble());
+		return Math.min(rank < 0 ? -rank - 1 : rank, this.words.length - 1);
+	}
+
+	// A distinct lower case word per rank, short words for the common ranks.
+	private static String word(int rank) {
+		StringBuilder word = new StringBuilder(6);
+		do {
+			word.append((char) ('a' + rank % 26));
+			rank = rank / 26 - 1;
+		} while (rank >= 0);
+		return word.toString();
+	}
+}
@@ -0,0 +1,399 @@
+package moa.classifiers.smoothing;
+
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.ForegroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.core.Measurement;
+import moa.options.StringOption;
+import weka.core.Instance;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+/**
+ * Tracks many hash-tags at once. A single Background Model and vocabulary are built and shared, each
+ * hash-tag only has its own history and foreground model, so memory and start up do not grow with the
+ * Background Model for every topic.
+ * A tweet is tokenized once and added to the history of every tracked hash-tag it contains, without
+ * that hash-tag, the same as the tweet would be trained in a SmoothingTechnique tracking that hash-tag.
+ * Scoring gives the perplexity of a tweet for every topic, the votes are those of the topic of the
+ * Hash-Tag parameter.
+ * The Background Data is counted from every tweet with enough words, as there is no single hash-tag
+ * to filter it on.
+ * Precision, recall and accuracy are reported per topic. The class of an instance is the truth for the
+ * topic of the Hash-Tag parameter, for the other topics a tweet is about the topic when it contains its
+ * hash-tag, the same as the tweets the topic is trained on.
+ */
+public class MultiTopicSmoothingTechnique extends SmoothingTechnique {
+
+	private static final long serialVersionUID = 1L;
+
+	protected String[] m_hashTags = new String[0];
+
+	public StringOption hashTagsOption = new StringOption("hashTags", 'x',
+			"The hash-tags to track, separated by commas or spaces. The Hash-Tag parameter is tracked as well.", "");
+
+	/**
+	 * Set the hash-tags to track.
+	 * @param hashTags the hash-tags, a leading '#' is added when missing.
+	 */
+	public void setHashTags(String[] hashTags) {
+		String[] tags = new String[hashTags.length];
+		int length = 0;
+		for (String hashTag : hashTags) {
+			if (hashTag == null || hashTag.isEmpty())
+				continue;
+			String tag = (hashTag.startsWith("#") ? hashTag : "#" + hashTag).toLowerCase();
+			if (!Arrays.asList(tags).subList(0, length).contains(tag))
+				tags[length++] = tag;
+		}
+		m_hashTags = Arrays.copyOf(tags, length);
+	}
+
+	/**
+	 * Get the tracked hash-tags, topic t is the hash-tag at index t.
+	 * @return the tracked hash-tags.
+	 */
+	public String[] getHashTags() { return m_hashTags; }
+
+	// The topic of the Hash-Tag parameter, the class of the instances is about it.
+	protected int classTopic = 0;
+
+	// Confusion matrix counts per topic, those of topic t from 4t on in the order of SmoothingTechnique.
+	protected long[] topicConfusion = new long[0];
+
+	// One foreground model per hash-tag, all on the shared Background Model and vocabulary. Serialized
+	// by writeObject() as a checkpoint of each history.
+	protected transient ForegroundModel[] topicModels = null;
+	// The hash-tags, the id of a hash-tag is its topic.
+	protected transient Vocabulary topicIds = null;
+
+	// Per tweet scratch space: the topic of each token (-1 for other words), the topics the tweet
+	// contains, the resolved ids and the ids of the tweet for one topic.
+	private int[] tokenTopics = new int[64], matchedTopics = new int[16], tweetIds = new int[64],
+			topicTweet = new int[64];
+	// matchedStamp[t] == stamp when topic t was already matched by the current tweet.
+	private int[] matchedStamp = new int[0];
+	private int stamp = 0;
+	// The number of topics the scored tweet contains.
+	private int scoredMatches = 0;
+
+	@Override
+	public void reset() {
+		super.reset();
+		this.topicModels = null;
+		this.topicIds = null;
+	}
+
+	@Override
+	public void resetLearningImpl() {
+		super.resetLearningImpl();
+		String[] listed = this.hashTagsOption.getValue().trim().split("[,\\s]+");
+		String[] hashTags = Arrays.copyOf(listed, listed.length + 1);
+		hashTags[listed.length] = this.getHashTag();
+		setHashTags(hashTags);
+		// Without a Hash-Tag parameter the class is about the first topic.
+		this.classTopic = Math.max(0, Arrays.asList(this.getHashTags()).indexOf(this.getHashTag()));
+		this.topicConfusion = new long[this.getHashTags().length * 4];
+		// Hash-tags are found per topic, the tokenizer keeps every hash-tag as a word.
+		setHashTag("");
+		// Scoring reads every topic model, they are not published as snapshots.
+		if (this.getConcurrentScoring())
+			throw new IllegalArgumentException(
+					"The multi-topic classifier cannot score concurrently, turn off concurrentScoring.");
+		// A checkpoint holds one history and its vocabulary, the topics share the vocabulary.
+		if (!this.getHistoryCheckpointPath().isEmpty())
+			throw new IllegalArgumentException(
+					"The multi-topic classifier cannot checkpoint its histories, clear historyCheckpointPath.");
+	}
+
+	@Override
+	protected boolean isBackgroundFilteredByHashTag() {
+		return false;
+	}
+
+	// The budget is shared evenly by the topics.
+	@Override
+	protected long getHistoryBudget() {
+		return super.getHistoryBudget() / Math.max(1, this.getHashTags().length);
+	}
+
+	@Override
+	protected void initializeForegroundModel() {
+		super.initializeForegroundModel();
+		ReadOnlyBackgroundModel backgroundModel = this.vocabulary.getBase();
+
+		String[] hashTags = this.getHashTags();
+		this.topicIds = new Vocabulary();
+		this.topicModels = new ForegroundModel[hashTags.length];
+		for (int topic = 0; topic < hashTags.length; topic++) {
+			this.topicIds.add(hashTags[topic]);
+			// The model built for the single hash-tag is the first topic.
+			this.topicModels[topic] = topic == 0 ? this.foregroundModel
+					: this.createForegroundModel(backgroundModel, this.createHistory(this.vocabulary));
+		}
+		this.matchedStamp = new int[hashTags.length];
+	}
+
+	// The first topic is the model of the classifier, it is written with the classifier. The checkpoints
+	// of the topics all hold the shared vocabulary as it is now, so restoring each of them gives it back.
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if (this.foregroundModel == null)
+			return;
+		for (int topic = 1; topic < this.topicModels.length; topic++)
+			this.writeHistory(out, this.topicModels[topic]);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (this.foregroundModel == null)
+			return;
+		String[] hashTags = this.getHashTags();
+		this.topicIds = new Vocabulary();
+		this.topicModels = new ForegroundModel[hashTags.length];
+		for (int topic = 0; topic < hashTags.length; topic++) {
+			this.topicIds.add(hashTags[topic]);
+			this.topicModels[topic] = topic == 0 ? this.foregroundModel
+					: this.readHistory(in, this.vocabulary.getBase());
+		}
+	}
+
+	/**
+	 * Trains the history of every tracked hash-tag in the tweet of the instance.
+	 * @param inst the new training instance to include in the model.
+	 */
+	@Override
+	public void trainOnInstanceImpl(Instance inst) {
+		if (this.foregroundModel == null)
+			initializeForegroundModel();
+
+		this.filterTweet(inst.stringValue(this.getTweetIndex()), false);
+		this.trainTokenized(inst, this.tokenizer);
+	}
+
+	/**
+	 * Trains the history of every tracked hash-tag in the tweet the tokenizer holds.
+	 * @param inst the training instance.
+	 * @param tokenizer holds the tokens of the tweet of the instance, they are not resolved.
+	 */
+	@Override
+	protected void trainTokenized(Instance inst, Tokenizer tokenizer) {
+		this.instancesSeen++;
+		this.advanceTime(this.getTime(inst));
+
+		if (!tokenizer.accept(false))
+			return;
+		final int matched = this.matchTopics(tokenizer);
+		if (matched == 0)
+			return;
+
+		// Resolve once for all the topics, the hash-tag of a topic is only added to the vocabulary when
+		// another topic of the tweet keeps it.
+		final int size = tokenizer.size();
+		final char[] chars = tokenizer.getChars();
+		for (int i = 0; i < size; i++) {
+			boolean add = this.tokenTopics[i] < 0 || matched > 1;
+			this.tweetIds[i] = add
+					? this.vocabulary.add(chars, tokenizer.getStart(i), tokenizer.getLength(i), tokenizer.getHash(i))
+					: -1;
+		}
+
+		// Hold on to the words of the tweet, shrinking a topic can evict the tweet just added and remove its
+		// words before the next topic adds them.
+		for (int i = 0; i < size; i++)
+			this.vocabulary.retain(this.tweetIds[i]);
+		final long budget = this.getHistoryBudget();
+		for (int m = 0; m < matched; m++) {
+			int topic = this.matchedTopics[m];
+			this.topicModels[topic].addTweet(this.topicTweet, this.copyTweet(topic, size));
+			this.enforceMemoryBudget(this.topicModels[topic].getHistory(), budget);
+		}
+		for (int i = 0; i < size; i++)
+			this.vocabulary.release(this.tweetIds[i]);
+	}
+
+	/**
+	 * Calculates the perplexity of the tweet of the instance for every topic.
+	 * @param inst the instance to be scored.
+	 * @param perplexities reused when it holds a value per topic.
+	 * @return the perplexity per topic, in the order of getHashTags(), or null if the tweet is filtered.
+	 */
+	public double[] getPerplexities(Instance inst, double[] perplexities) {
+		if (!this.resolveScored(inst))
+			return null;
+
+		final int topics = this.topicModels.length;
+		if (perplexities == null || perplexities.length < topics)
+			perplexities = new double[topics];
+		for (int topic = 0; topic < topics; topic++)
+			perplexities[topic] = this.getPerplexity(topic);
+		return perplexities;
+	}
+
+	/**
+	 * Classifies the tweet for every topic and counts the classification of each topic.
+	 * @param inst the instance to be classified.
+	 * @return a vote per topic, in the order of getHashTags(), 1 if the tweet is about the topic else 0,
+	 * or null if the tweet is filtered.
+	 */
+	public double[] getTopicVotes(Instance inst) {
+		double[] perplexities = this.getPerplexities(inst, null);
+		if (perplexities == null)
+			return null;
+
+		final double threshold = this.getThreshold();
+		for (int topic = 0; topic < perplexities.length; topic++) {
+			perplexities[topic] = perplexities[topic] > threshold ? 1d : 0d;
+			this.countClassification(inst, topic, perplexities[topic] == 1d);
+		}
+		return perplexities;
+	}
+
+	/**
+	 * Classifies the tweet for the topic of the Hash-Tag parameter, which the class of the instances is
+	 * about, and counts the classification of that topic. getTopicVotes() classifies it for every topic.
+	 * @param inst the instance to be classified.
+	 * @return predicted class probability distribution, no votes if the tweet is filtered.
+	 */
+	@Override
+	public double[] getVotesForInstance(Instance inst) {
+		if (!this.resolveScored(inst))
+			return SmoothingTechnique.filteredVotes();
+
+		double classification = this.getPerplexity(this.classTopic) > this.getThreshold() ? 1d : 0d;
+		this.countClassification(inst, this.classTopic, classification == 1d);
+		return new double[] { 1 - classification, classification };
+	}
+
+	/**
+	 * Calculates the votes for a batch of test instances with getVotesForInstance() on each in turn.
+	 * @return the votes, instance i at 2i (class 0) and 2i + 1 (class 1), both 0 if its tweet was filtered.
+	 */
+	@Override
+	public double[] getVotesForInstances(Instance[] instances, int offset, int count, double[] votes) {
+		return this.getVotesOneByOne(instances, offset, count, votes);
+	}
+
+	// Tokenizes the tweet of a scored instance, finds its topics and resolves its ids into tweetIds.
+	// Returns false if the tweet is filtered.
+	private boolean resolveScored(Instance inst) {
+		if (this.foregroundModel == null)
+			initializeForegroundModel();
+
+		if (!this.filterTweet(inst.stringValue(this.getTweetIndex()), false))
+			return false;
+		this.scoredMatches = this.matchTopics(this.tokenizer);
+
+		// Scored tweets do not add to the vocabulary, unknown words get the id -1.
+		System.arraycopy(this.tokenizer.resolve(this.vocabulary, false), 0, this.tweetIds, 0, this.tokenizer.size());
+		return true;
+	}
+
+	// The perplexity of the tweet resolveScored() resolved for the topic.
+	private double getPerplexity(int topic) {
+		final int size = this.tokenizer.size();
+		// Only the tweets with the hash-tag of the topic need it removed.
+		if (this.scoredMatches > 0 && this.matchedStamp[topic] == this.stamp)
+			return this.topicModels[topic].getPerplexity(this.topicTweet, this.copyTweet(topic, size));
+		return this.topicModels[topic].getPerplexity(this.tweetIds, size);
+	}
+
+	// Counts the classification of the tweet resolveScored() resolved for the topic.
+	private void countClassification(Instance inst, int topic, boolean predicted) {
+		boolean actual = topic == this.classTopic ? inst.classValue() == 1
+				: this.scoredMatches > 0 && this.matchedStamp[topic] == this.stamp;
+		this.topicConfusion[topic * 4 + (predicted
+				? (actual ? TRUEPOSITIVE : FALSEPOSITIVE)
+				: (actual ? FALSENEGATIVE : TRUENEGATIVE))]++;
+	}
+
+	// The precision, recall and accuracy of the topic, the names end with the suffix.
+	private Measurement[] getTopicMeasurements(int topic, String suffix) {
+		final int counts = topic * 4;
+		if (counts >= this.topicConfusion.length)
+			return SmoothingTechnique.getConfusionMeasurements(suffix, 0, 0, 0, 0);
+		return SmoothingTechnique.getConfusionMeasurements(suffix, this.topicConfusion[counts + TRUEPOSITIVE],
+				this.topicConfusion[counts + TRUENEGATIVE], this.topicConfusion[counts + FALSEPOSITIVE],
+				this.topicConfusion[counts + FALSENEGATIVE]);
+	}
+
+	/**
+	 * The measurements of the model. Precision, Recall and Accuracy are those of the topic of the Hash-Tag
+	 * parameter, followed by the same for every topic with its hash-tag in the name.
+	 */
+	@Override
+	protected Measurement[] getModelMeasurementsImpl() {
+		Measurement[] measurements = this.getTopicMeasurements(this.classTopic, "");
+		String[] hashTags = this.getHashTags();
+		for (int topic = 0; topic < hashTags.length; topic++)
+			measurements = SmoothingTechnique.concat(measurements, this.getTopicMeasurements(topic, " " + hashTags[topic]));
+		return SmoothingTechnique.concat(measurements, new Measurement[]{
+				new Measurement("Topics", this.getHashTags().length),
+				new Measurement("Foreground words", this.vocabulary == null ? 0 : this.vocabulary.getForegroundWordCount()),
+				new Measurement("Vocabulary bytes", this.vocabulary == null ? 0 : this.vocabulary.getMemoryBytes()),
+				new Measurement("History bytes", this.getHistoryBytes()),
+				new Measurement("History shrinks", this.historyShrinks)
+		});
+	}
+
+	// The bytes used by the histories of all the topics.
+	private long getHistoryBytes() {
+		long bytes = 0;
+		if (this.topicModels != null)
+			for (ForegroundModel model : this.topicModels)
+				bytes += model.getHistory().getMemoryBytes();
+		return bytes;
+	}
+
+	// Only the time based histories use the clock, skip visiting every topic for the others.
+	private void advanceTime(double time) {
+		if (this.getHistoryTechnique() != TIMEDECAY && this.getHistoryTechnique() != SLIDINGTIMEWINDOW)
+			return;
+		for (ForegroundModel model : this.topicModels)
+			model.advanceTime(time);
+	}
+
+	// Finds the topic of each token of the tweet in the tokenizer and the distinct topics of the tweet.
+	private int matchTopics(final Tokenizer tokenizer) {
+		final int size = tokenizer.size();
+		if (this.tokenTopics.length < size) {
+			int capacity = Math.max(size, this.tokenTopics.length * 2);
+			this.tokenTopics = new int[capacity];
+			this.tweetIds = new int[capacity];
+			this.topicTweet = new int[capacity];
+		}
+		if (++this.stamp == 0) {
+			Arrays.fill(this.matchedStamp, 0);
+			this.stamp = 1;
+		}
+
+		final char[] chars = tokenizer.getChars();
+		int matched = 0;
+		for (int i = 0; i < size; i++) {
+			int start = tokenizer.getStart(i);
+			int topic = chars[start] != '#' ? -1
+					: this.topicIds.getId(chars, start, tokenizer.getLength(i), tokenizer.getHash(i));
+			this.tokenTopics[i] = topic;
+			if (topic < 0 || this.matchedStamp[topic] == this.stamp)
+				continue;
+			this.matchedStamp[topic] = this.stamp;
+			if (matched == this.matchedTopics.length)
+				this.matchedTopics = Arrays.copyOf(this.matchedTopics, matched * 2);
+			this.matchedTopics[matched++] = topic;
+		}
+		return matched;
+	}
+
+	// Copies the resolved ids of the tweet without the hash-tag of the topic into topicTweet.
+	private int copyTweet(int topic, int size) {
+		int length = 0;
+		for (int i = 0; i < size; i++)
+			if (this.tokenTopics[i] != topic)
+				this.topicTweet[length++] = this.tweetIds[i];
+		return length;
+	}
+}
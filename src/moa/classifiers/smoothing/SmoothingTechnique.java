@@ -4,16 +4,37 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import moa.classifiers.smoothing.smoothingtechniques.*;
 import moa.classifiers.smoothing.smoothingtechniques.foreground.*;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.CountMinSketch;
 import moa.classifiers.smoothing.smoothingtechniques.foreground.history.Forget;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCheckpoint;
 import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
 import moa.classifiers.smoothing.smoothingtechniques.foreground.history.Queue;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.SlidingTimeWindow;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.TimeDecay;
+import moa.classifiers.smoothing.smoothingtechniques.metrics.Metrics;
+import moa.classifiers.smoothing.smoothingtechniques.metrics.MetricsSink;
+import moa.classifiers.smoothing.smoothingtechniques.metrics.ThresholdEvaluation;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.TweetTokenizer;
 import moa.core.Measurement;
 import moa.core.StringUtils;
 import moa.options.*;
 import moa.streams.ArffFileStream;
+import moa.streams.InstanceStream;
 import weka.core.Instance;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class SmoothingTechnique extends AbstractClassifier implements Classifier {
 
@@ -21,8 +42,6 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 	/** For serialization */
 	private static final long serialVersionUID = 123456l;
 
-	private static final String Punctuation = "\"'.:-!?,;";
-
 	protected int m_minWordsInTweet = 5;
 	protected double m_absoluteDiscountingDelta = 0.9d;
 	protected double m_jalinekMercerSmoothingLambda = 0.4d;
@@ -33,15 +52,38 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 	protected int m_tweetIndex = 0;
 	protected String m_hashTag = "";
 	protected String m_backgroundDataPath = "";
+	protected String m_backgroundSnapshotPath = "";
+	protected boolean m_mapBackgroundSnapshot = false;
+	protected int m_backgroundBuildThreads = 1;
+	protected int m_timestampIndex = -1;
+	protected double m_halfLife = 1000d;
+	protected double m_timeWindow = 1000d;
+	protected int m_sketchWidth = 1 << 16;
+	protected int m_sketchDepth = 4;
+	protected boolean m_sketchConservativeUpdate = false;
+	protected boolean m_sketchCountMeanMin = false;
+	protected boolean m_concurrentScoring = false;
+	protected int m_snapshotInterval = 100;
+	protected boolean m_collectMetrics = false;
+	protected int m_metricsReportInterval = 10000;
+	protected int m_memoryBudget = 0;
+	protected boolean m_evaluateThresholds = false;
+	protected String m_historyCheckpointPath = "";
+	protected int m_historyCheckpointInterval = 100000;
+	protected int m_ingestThreads = 0;
 	protected int m_bmDataClassIndex = -1;
 
 	protected static final int
-			FORGET  = 0,
-			QUEUE   = 1;
+			FORGET              = 0,
+			QUEUE               = 1,
+			TIMEDECAY           = 2,
+			SLIDINGTIMEWINDOW   = 3,
+			COUNTMINSKETCH      = 4;
 	public MultiChoiceOption historyRetentionFunctionOption = new MultiChoiceOption(
 			"historyRetentionTechnique", 'r', "The history retention function to use.",
-			new String[]{ "FORGET", "QUEUE" },
-			new String[]{ "Forget", "Queue (FIFO)"},
+			new String[]{ "FORGET", "QUEUE", "TIMEDECAY", "SLIDINGTIMEWINDOW", "COUNTMINSKETCH" },
+			new String[]{ "Forget", "Queue (FIFO)", "Exponential Time Decay", "Sliding Time Window",
+					"Count-Min Sketch (FIFO)" },
 			QUEUE);
 
 	protected static final int
@@ -66,6 +108,17 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 			'p', "The Background Data Path parameter.",
 			"", "arff", false);
 
+	public FileOption backgroundSnapshotPathOption = new FileOption("backgroundSnapshotPath",
+			'o', "The Background Model snapshot path, rebuilt when the Background Data changes. Empty to disable.",
+			"", "bm", true);
+
+	public FlagOption mapBackgroundSnapshotOption = new FlagOption("mapBackgroundSnapshot",
+			'O', "Read the Background Model snapshot in place off heap, JVMs mapping the same snapshot share its pages.");
+
+	public IntOption backgroundBuildThreadsOption = new IntOption("backgroundBuildThreads",
+			'n', "Threads used to build the Background Model, 0 uses one per processor.",
+			1, 0, Integer.MAX_VALUE);
+
 	public IntOption bmClassIndexOption = new IntOption("bmClassIndex",
 			'c', "The index of the class attribute in the BM data-set, -1 equals the last attribute is the class",
 			-1, -1, Integer.MAX_VALUE);
@@ -87,6 +140,65 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 			'i', "Tweet Index in data parameter.",
 			0, 0, Integer.MAX_VALUE);
 
+	public IntOption timestampIndexOption = new IntOption("timestampIndex",
+			'e', "Timestamp Index in data parameter, -1 counts the instances seen instead.",
+			-1, -1, Integer.MAX_VALUE);
+
+	public FloatOption halfLifeOption = new FloatOption("halfLife",
+			'l', "Half-life of the Exponential Time Decay history, in timestamp units.",
+			1000f, Float.MIN_VALUE, Float.MAX_VALUE);
+
+	public FloatOption timeWindowOption = new FloatOption("timeWindow",
+			'y', "Length of the Sliding Time Window history, in timestamp units.",
+			1000f, 0f, Float.MAX_VALUE);
+
+	public IntOption sketchWidthOption = new IntOption("sketchWidth",
+			'k', "Counters per row of the Count-Min Sketch history, rounded up to a power of two.",
+			1 << 16, 1, 1 << 30);
+
+	public IntOption sketchDepthOption = new IntOption("sketchDepth",
+			'd', "Rows of the Count-Min Sketch history.",
+			4, 1, 32);
+
+	public FlagOption sketchConservativeUpdateOption = new FlagOption("sketchConservativeUpdate",
+			'u', "Use conservative update in the Count-Min Sketch history, can under-estimate after eviction.");
+
+	public FlagOption sketchCountMeanMinOption = new FlagOption("sketchCountMeanMin",
+			'v', "Use the Count-Mean-Min estimate in the Count-Min Sketch history.");
+
+	public FlagOption concurrentScoringOption = new FlagOption("concurrentScoring",
+			'g', "Publish snapshots of the model while training so other threads can score without locks.");
+
+	public IntOption snapshotIntervalOption = new IntOption("snapshotInterval",
+			'q', "Training instances between snapshots when scoring concurrently, each snapshot copies the history.",
+			100, 1, Integer.MAX_VALUE);
+
+	public FlagOption collectMetricsOption = new FlagOption("collectMetrics",
+			'z', "Collect throughput, filtering, perplexity and latency metrics.");
+
+	public IntOption metricsReportIntervalOption = new IntOption("metricsReportInterval",
+			'M', "Training instances between reports to the metrics sink.",
+			10000, 1, Integer.MAX_VALUE);
+
+	public FlagOption evaluateThresholdsOption = new FlagOption("evaluateThresholds",
+			'E', "Count the perplexities of scored tweets per class to report every threshold, scoring takes every word.");
+
+	public FileOption historyCheckpointPathOption = new FileOption("historyCheckpointPath",
+			'H', "The history checkpoint path, restored from when it matches the options and written while training. Empty to disable.",
+			"", "hc", true);
+
+	public IntOption historyCheckpointIntervalOption = new IntOption("historyCheckpointInterval",
+			'I', "Training instances between history checkpoints, written in the background. 0 to only checkpoint on request.",
+			100000, 0, Integer.MAX_VALUE);
+
+	public IntOption ingestThreadsOption = new IntOption("ingestThreads",
+			'P', "Threads tokenizing ahead of training in trainOnStream(), 0 trains on the calling thread only.",
+			0, 0, Integer.MAX_VALUE);
+
+	public IntOption memoryBudgetOption = new IntOption("memoryBudget",
+			'B', "Kilobytes the history may use before it is shrunk, 0 for no budget.",
+			0, 0, Integer.MAX_VALUE);
+
 	public StringOption hashTagOption = new StringOption("hashTag", 't', "Hash-Tag parameter.", "");
 
 	public FloatOption absoluteDiscountingDeltaOption = new FloatOption("absoluteDiscountingDelta",
@@ -207,6 +319,222 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 	 */
 	public void setTweetIndex(int tweetIndex) { m_tweetIndex = tweetIndex; }
 
+	/**
+	 * Get the current value of the timestamp index, -1 if the instances seen are counted instead.
+	 * @return the current value of the timestamp index.
+	 */
+	public int getTimestampIndex() { return m_timestampIndex; }
+
+	/**
+	 * Set the value of the timestamp index, -1 to count the instances seen instead.
+	 * @param timestampIndex the value of the timestamp index.
+	 */
+	public void setTimestampIndex(int timestampIndex) { m_timestampIndex = timestampIndex; }
+
+	/**
+	 * Get the current value of the half-life used by the Exponential Time Decay history.
+	 * @return the current value of the half-life.
+	 */
+	public double getHalfLife() { return m_halfLife; }
+
+	/**
+	 * Set the value of the half-life used by the Exponential Time Decay history.
+	 * @param halfLife the value of the half-life.
+	 */
+	public void setHalfLife(double halfLife) { m_halfLife = halfLife; }
+
+	/**
+	 * Get the current length of the Sliding Time Window.
+	 * @return the current length of the Sliding Time Window.
+	 */
+	public double getTimeWindow() { return m_timeWindow; }
+
+	/**
+	 * Set the length of the Sliding Time Window.
+	 * @param timeWindow the length of the Sliding Time Window.
+	 */
+	public void setTimeWindow(double timeWindow) { m_timeWindow = timeWindow; }
+
+	/**
+	 * Get the current number of counters per row of the Count-Min Sketch history.
+	 * @return the current sketch width.
+	 */
+	public int getSketchWidth() { return m_sketchWidth; }
+
+	/**
+	 * Set the number of counters per row of the Count-Min Sketch history.
+	 * @param sketchWidth the sketch width.
+	 */
+	public void setSketchWidth(int sketchWidth) { m_sketchWidth = sketchWidth; }
+
+	/**
+	 * Get the current number of rows of the Count-Min Sketch history.
+	 * @return the current sketch depth.
+	 */
+	public int getSketchDepth() { return m_sketchDepth; }
+
+	/**
+	 * Set the number of rows of the Count-Min Sketch history.
+	 * @param sketchDepth the sketch depth.
+	 */
+	public void setSketchDepth(int sketchDepth) { m_sketchDepth = sketchDepth; }
+
+	/**
+	 * Check if the Count-Min Sketch history uses conservative update.
+	 * @return true if conservative update is used.
+	 */
+	public boolean getSketchConservativeUpdate() { return m_sketchConservativeUpdate; }
+
+	/**
+	 * Set if the Count-Min Sketch history uses conservative update.
+	 * @param sketchConservativeUpdate true to use conservative update.
+	 */
+	public void setSketchConservativeUpdate(boolean sketchConservativeUpdate) {
+		m_sketchConservativeUpdate = sketchConservativeUpdate;
+	}
+
+	/**
+	 * Check if the Count-Min Sketch history uses the Count-Mean-Min estimate.
+	 * @return true if the Count-Mean-Min estimate is used.
+	 */
+	public boolean getSketchCountMeanMin() { return m_sketchCountMeanMin; }
+
+	/**
+	 * Set if the Count-Min Sketch history uses the Count-Mean-Min estimate.
+	 * @param sketchCountMeanMin true to use the Count-Mean-Min estimate.
+	 */
+	public void setSketchCountMeanMin(boolean sketchCountMeanMin) { m_sketchCountMeanMin = sketchCountMeanMin; }
+
+	/**
+	 * Check if snapshots of the model are published for concurrent scoring.
+	 * @return true if scoring can run concurrently with training.
+	 */
+	public boolean getConcurrentScoring() { return m_concurrentScoring; }
+
+	/**
+	 * Set if snapshots of the model are published for concurrent scoring.
+	 * @param concurrentScoring true to let scoring run concurrently with training.
+	 */
+	public void setConcurrentScoring(boolean concurrentScoring) { m_concurrentScoring = concurrentScoring; }
+
+	/**
+	 * Get the number of training instances between snapshots.
+	 * @return the snapshot interval.
+	 */
+	public int getSnapshotInterval() { return m_snapshotInterval; }
+
+	/**
+	 * Set whether hot path metrics are collected, see getMetrics().
+	 * @param collectMetrics true to collect metrics.
+	 */
+	public void setCollectMetrics(boolean collectMetrics) { m_collectMetrics = collectMetrics; }
+
+	/**
+	 * Get whether hot path metrics are collected.
+	 * @return true if metrics are collected.
+	 */
+	public boolean getCollectMetrics() { return m_collectMetrics; }
+
+	/**
+	 * Set the number of training instances between reports to the metrics sink.
+	 * @param metricsReportInterval the number of training instances.
+	 */
+	public void setMetricsReportInterval(int metricsReportInterval) { m_metricsReportInterval = metricsReportInterval; }
+
+	/**
+	 * Get the number of training instances between reports to the metrics sink.
+	 * @return the number of training instances.
+	 */
+	public int getMetricsReportInterval() { return m_metricsReportInterval; }
+
+	/**
+	 * Set the memory budget of the history.
+	 * @param memoryBudget the kilobytes the history may use, 0 for no budget.
+	 */
+	public void setMemoryBudget(int memoryBudget) { m_memoryBudget = memoryBudget; }
+
+	/**
+	 * Get the memory budget of the history.
+	 * @return the kilobytes the history may use, 0 for no budget.
+	 */
+	public int getMemoryBudget() { return m_memoryBudget; }
+
+	/**
+	 * Set if the perplexities of the scored tweets are counted per class to evaluate every threshold.
+	 * @param evaluateThresholds true to evaluate every threshold.
+	 */
+	public void setEvaluateThresholds(boolean evaluateThresholds) { m_evaluateThresholds = evaluateThresholds; }
+
+	/**
+	 * Check if the perplexities of the scored tweets are counted per class to evaluate every threshold.
+	 * @return true if every threshold is evaluated.
+	 */
+	public boolean getEvaluateThresholds() { return m_evaluateThresholds; }
+
+	/**
+	 * Get the path the history is checkpointed to and restored from.
+	 * @return the path, empty if the history is not checkpointed.
+	 */
+	public String getHistoryCheckpointPath() { return m_historyCheckpointPath; }
+
+	/**
+	 * Set the path the history is checkpointed to and restored from, empty to disable checkpoints.
+	 * @param historyCheckpointPath the path of the checkpoint.
+	 */
+	public void setHistoryCheckpointPath(String historyCheckpointPath) {
+		m_historyCheckpointPath = historyCheckpointPath != null ? historyCheckpointPath : "";
+	}
+
+	/**
+	 * Get the number of training instances between history checkpoints.
+	 * @return the checkpoint interval, 0 if the history is only checkpointed on request.
+	 */
+	public int getHistoryCheckpointInterval() { return m_historyCheckpointInterval; }
+
+	/**
+	 * Set the number of training instances between history checkpoints.
+	 * @param historyCheckpointInterval the checkpoint interval, 0 to only checkpoint on request.
+	 */
+	public void setHistoryCheckpointInterval(int historyCheckpointInterval) {
+		m_historyCheckpointInterval = historyCheckpointInterval;
+	}
+
+	/**
+	 * Get the number of threads tokenizing ahead of training in trainOnStream().
+	 * @return the number of threads, 0 if the stream is trained on the calling thread only.
+	 */
+	public int getIngestThreads() { return m_ingestThreads; }
+
+	/**
+	 * Set the number of threads tokenizing ahead of training in trainOnStream().
+	 * @param ingestThreads the number of threads, 0 to train on the calling thread only.
+	 */
+	public void setIngestThreads(int ingestThreads) { m_ingestThreads = ingestThreads; }
+
+	/**
+	 * Set the sink the metrics are reported to while training, null to stop reporting.
+	 * @param metricsSink the sink.
+	 */
+	public void setMetricsSink(MetricsSink metricsSink) { this.metricsSink = metricsSink; }
+
+	/**
+	 * Get the hot path metrics.
+	 * @return the metrics, null unless they are collected.
+	 */
+	public Metrics getMetrics() { return this.metrics; }
+
+	/**
+	 * Get the perplexities of the scored tweets per class, for the precision/recall curve.
+	 * @return the evaluation, null unless every threshold is evaluated.
+	 */
+	public ThresholdEvaluation getThresholdEvaluation() { return this.thresholdEvaluation; }
+
+	/**
+	 * Set the number of training instances between snapshots.
+	 * @param snapshotInterval the snapshot interval.
+	 */
+	public void setSnapshotInterval(int snapshotInterval) { m_snapshotInterval = snapshotInterval; }
+
 	/**
 	 * Get the current value of the hash-tag to filter by.
 	 * @return the current value of the hash-tag to filter by.
@@ -219,6 +547,48 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 	 */
 	public void setBackgroundDataPath(String backgroundDataPath) { m_backgroundDataPath = backgroundDataPath; }
 
+	/**
+	 * Get the current value of the Background Model snapshot path.
+	 * @return the current value of the Background Model snapshot path.
+	 */
+	public String getBackgroundSnapshotPath() { return m_backgroundSnapshotPath; }
+
+	/**
+	 * Set the value of the Background Model snapshot path, empty to disable snapshots.
+	 * @param backgroundSnapshotPath the value of the Background Model snapshot path.
+	 */
+	public void setBackgroundSnapshotPath(String backgroundSnapshotPath) {
+		m_backgroundSnapshotPath = backgroundSnapshotPath != null ? backgroundSnapshotPath : "";
+	}
+
+	/**
+	 * Check if the Background Model snapshot is memory mapped rather than loaded onto the heap.
+	 * @return true if the snapshot is mapped.
+	 */
+	public boolean getMapBackgroundSnapshot() { return m_mapBackgroundSnapshot; }
+
+	/**
+	 * Set if the Background Model snapshot is memory mapped rather than loaded onto the heap, only used
+	 * with a snapshot path.
+	 * @param mapBackgroundSnapshot true to map the snapshot.
+	 */
+	public void setMapBackgroundSnapshot(boolean mapBackgroundSnapshot) { m_mapBackgroundSnapshot = mapBackgroundSnapshot; }
+
+	/**
+	 * Get the number of threads used to build the Background Model.
+	 * @return the number of threads used to build the Background Model.
+	 */
+	public int getBackgroundBuildThreads() { return m_backgroundBuildThreads; }
+
+	/**
+	 * Set the number of threads used to build the Background Model, 0 uses one per processor.
+	 * @param backgroundBuildThreads the number of threads used to build the Background Model.
+	 */
+	public void setBackgroundBuildThreads(int backgroundBuildThreads) {
+		m_backgroundBuildThreads = backgroundBuildThreads > 0 ? backgroundBuildThreads
+				: Runtime.getRuntime().availableProcessors();
+	}
+
 	/**
 	 * Get the current value of the hash-tag to filter by.
 	 * @return the current value of the hash-tag to filter by.
@@ -273,12 +643,49 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 	 */
 	public int getSmoothingTechnique() { return m_foregroundModel; }
 
-	protected ForegroundModel foregroundModel = null;
+	// Serialized by writeObject() as the Background Model and a checkpoint of the history.
+	protected transient ForegroundModel foregroundModel = null;
+	protected transient Tokenizer tokenizer = null;
+	protected transient Vocabulary vocabulary = null;
+	protected long instancesSeen = 0;
+	// The number of times a history was shrunk to its memory budget.
+	protected long historyShrinks = 0;
+	// The latest snapshot of the foreground model when scoring concurrently, and a tokenizer per scoring thread.
+	protected transient volatile ForegroundModel snapshot = null;
+	protected transient ThreadLocal<Tokenizer> scoringTokenizer = null;
+	// Hot path metrics, null unless they are collected, and where they are reported.
+	protected Metrics metrics = null;
+	protected transient MetricsSink metricsSink = null;
+	// The perplexities of the scored tweets per class, null unless every threshold is evaluated.
+	protected ThresholdEvaluation thresholdEvaluation = null;
+	// The tweet the tokenizer holds after scoring, the history version it was resolved against and if
+	// its ids were resolved. Training the same tweet next (test-then-train) reuses the tokens and ids
+	// instead of tokenizing again. MOA evaluators score a copy of the instance, the copy shares the
+	// String of the tweet so it is compared by identity.
+	private transient String scoredTweet = null;
+	private transient long scoredVersion = 0;
+	private transient boolean scoredResolved = false;
+	// Writes the history checkpoints off the training thread, and the last one written.
+	private transient ExecutorService checkpointWriter = null;
+	private transient Future<?> checkpointWrite = null;
+	// The Background Models written by a copy() in progress on this thread, the copy reads them back by index.
+	private static final ThreadLocal<List<ReadOnlyBackgroundModel>> CopiedBackgroundModels = new ThreadLocal<>();
 
 	public void reset() {
 		if (this.foregroundModel != null) {
 			this.foregroundModel.reset();
-			this.foregroundModel = null;	// Ensure the background model is rebuilt etc.
+			// Only drop the Background Model, copies of the classifier may share it. It is rebuilt etc.
+			this.foregroundModel = null;
+			this.vocabulary = null;
+			this.snapshot = null;
+			this.instancesSeen = 0;
+			this.historyShrinks = 0;
+		}
+		// A checkpoint being written is finished, the thread ends once it is.
+		if (this.checkpointWriter != null) {
+			this.checkpointWriter.shutdown();
+			this.checkpointWriter = null;
+			this.checkpointWrite = null;
 		}
 	}
 
@@ -288,6 +695,9 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 		setHistoryTechnique(this.historyRetentionFunctionOption.getChosenIndex());
 		setSmoothingTechnique(this.smoothingFunctionOption.getChosenIndex());
 		setBackgroundDataPath(this.backgroundDataPathOption.getValue());
+		setBackgroundSnapshotPath(this.backgroundSnapshotPathOption.getValue());
+		setMapBackgroundSnapshot(this.mapBackgroundSnapshotOption.isSet());
+		setBackgroundBuildThreads(this.backgroundBuildThreadsOption.getValue());
 		setBmClassIndex(this.bmClassIndexOption.getValue());
 		setMinWordsInTweet(this.minWordsInTweetOption.getValue());
 		setAbsoluteDiscountingSigma(this.absoluteDiscountingDeltaOption.getValue());
@@ -297,7 +707,25 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 		setHistorySize(this.historySizeOption.getValue());
 		setThreshold(this.thresholdOption.getValue());
 		setTweetIndex(this.tweetIndexOption.getValue());
+		setTimestampIndex(this.timestampIndexOption.getValue());
+		setHalfLife(this.halfLifeOption.getValue());
+		setTimeWindow(this.timeWindowOption.getValue());
+		setSketchWidth(this.sketchWidthOption.getValue());
+		setSketchDepth(this.sketchDepthOption.getValue());
+		setSketchConservativeUpdate(this.sketchConservativeUpdateOption.isSet());
+		setSketchCountMeanMin(this.sketchCountMeanMinOption.isSet());
+		setConcurrentScoring(this.concurrentScoringOption.isSet());
+		setSnapshotInterval(this.snapshotIntervalOption.getValue());
+		setCollectMetrics(this.collectMetricsOption.isSet());
+		setMetricsReportInterval(this.metricsReportIntervalOption.getValue());
+		setMemoryBudget(this.memoryBudgetOption.getValue());
+		setEvaluateThresholds(this.evaluateThresholdsOption.isSet());
+		setHistoryCheckpointPath(this.historyCheckpointPathOption.getValue());
+		setHistoryCheckpointInterval(this.historyCheckpointIntervalOption.getValue());
+		setIngestThreads(this.ingestThreadsOption.getValue());
 		setHashTag(this.hashTagOption.getValue());
+		this.metrics = this.getCollectMetrics() ? new Metrics() : null;
+		this.thresholdEvaluation = this.getEvaluateThresholds() ? new ThresholdEvaluation() : null;
 	}
 
 	/**
@@ -306,176 +734,726 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 	 */
 	@Override
 	public void trainOnInstanceImpl(Instance inst) {
-		if (this.foregroundModel == null)
-			initializeForegroundModel();
+		final boolean timed = this.metrics != null && this.metrics.sample();
+		final long start = timed ? System.nanoTime() : 0L;
+		this.ensureInitialized();
 
-		String instanceTweet =  inst.stringValue(this.getTweetIndex()).toLowerCase();
-		List<String> tweet = Arrays.asList(instanceTweet.split(" "));
+		this.instancesSeen++;
+		this.foregroundModel.advanceTime(this.getTime(inst));
 
 		/* Check if the tweet conditions are met. */
-		if ((tweet = this.filterTweet(tweet, true)) == null)
-			return;
+		// The ids are stale if the history released words since the tweet was scored.
+		final String text = inst.stringValue(this.getTweetIndex());
+		final boolean scored = text == this.scoredTweet
+				&& this.foregroundModel.getHistory().getVersion() == this.scoredVersion;
+		final boolean resolved = scored && this.scoredResolved;
+		boolean accepted = scored ? this.tokenizer.accept(true) : this.filterTweet(text, true);
+		this.scoredTweet = null;
+		this.addTweet(this.tokenizer, accepted, resolved);
+		this.trained(timed, start);
+	}
 
-		// Update foreground model with new tweet if relevant.
-		this.foregroundModel.addTweet(tweet);
+	/**
+	 * Trains on the instances of a stream in order, the same as trainOnInstance() on each in turn. With
+	 * ingest threads the stream is read and tokenized ahead on other threads while the calling thread
+	 * trains, see IngestPipeline.
+	 * @param stream the training instances.
+	 * @param limit the most instances to take from the stream, -1 for all of them.
+	 * @return the number of instances taken from the stream.
+	 */
+	public long trainOnStream(InstanceStream stream, long limit) {
+		if (this.getIngestThreads() <= 0) {
+			long count = 0;
+			for (; (limit < 0 || count < limit) && stream.hasMoreInstances(); count++)
+				this.trainOnInstance(stream.nextInstance());
+			return count;
+		}
+
+		this.ensureInitialized();
+		this.scoredTweet = null;
+		IngestPipeline pipeline = new IngestPipeline(this.tokenizer, this.getIngestThreads());
+		return pipeline.run(stream, limit, this.getTweetIndex(), new IngestPipeline.Writer() {
+			@Override
+			public void train(Instance inst, Tokenizer tokenizer) {
+				// As trainOnInstance() does.
+				if (inst.weight() <= 0d || inst.classIsMissing())
+					return;
+				SmoothingTechnique.this.trainingWeightSeenByModel += inst.weight();
+				SmoothingTechnique.this.trainTokenized(inst, tokenizer);
+			}
+		});
 	}
 
 	/**
-	 * Checks if a tweet is valid.
-	 * @param tweet The tweet t
-	 * @return Returns the index of the hash-tag or -1 if tweet is invalid.
+	 * Trains the classifier with an instance whose tweet was tokenized ahead, called by trainOnStream()
+	 * in the order of the stream.
+	 * @param inst the training instance.
+	 * @param tokenizer holds the tokens of the tweet of the instance, they are not resolved.
 	 */
-	protected List<String> filterTweet(List<String> tweet, boolean isTrain) {
-		// Sanitize input.
-		boolean changed = false;
-		List<String> newTweet = new ArrayList<>();
-		for (String word : tweet) {
-			if (word.isEmpty())
-				continue;
-			// Filter leading and trailing punctuation.
-			word = word.replaceAll("^[^a-zA-Z#]+", "");
+	protected void trainTokenized(Instance inst, Tokenizer tokenizer) {
+		this.instancesSeen++;
+		this.foregroundModel.advanceTime(this.getTime(inst));
+		this.addTweet(tokenizer, tokenizer.accept(true), false);
+		this.trained(false, 0L);
+	}
 
-			if (word.isEmpty())
-				continue;
+	// Adds the tweet the tokenizer holds to the foreground model if it was accepted, its ids were resolved
+	// when it was scored if resolved is true.
+	private void addTweet(Tokenizer tokenizer, boolean accepted, boolean resolved) {
+		if (this.metrics != null)
+			this.metrics.countTweet(tokenizer, true);
+		if (accepted) {
+			// Update foreground model with new tweet if relevant.
+			int[] tweet = resolved ? tokenizer.resolveUnknown(this.vocabulary)
+					: tokenizer.resolve(this.vocabulary, true);
+			if (this.metrics != null)
+				this.metrics.countWords(tweet, tokenizer.size(), this.vocabulary.getBase().size(), true);
+			this.foregroundModel.addTweet(tweet, tokenizer.size());
+			this.enforceMemoryBudget(this.foregroundModel.getHistory(), this.getHistoryBudget());
+		}
+	}
 
-			// Skip re-adding the hash-tag.
-			if (word.equals(this.getHashTag())) {
-				changed = true;
-				continue;
+	// Publishes snapshots, checkpoints the history and reports the metrics at their intervals.
+	private void trained(boolean timed, long start) {
+		if (this.getConcurrentScoring() && this.instancesSeen % this.getSnapshotInterval() == 0)
+			this.publishSnapshot();
+		if (this.getHistoryCheckpointInterval() > 0 && this.instancesSeen % this.getHistoryCheckpointInterval() == 0
+				&& !this.getHistoryCheckpointPath().isEmpty())
+			this.checkpointHistory();
+
+		if (this.metrics != null) {
+			if (timed)
+				this.metrics.recordTrain(System.nanoTime() - start);
+			if (this.metricsSink != null && this.instancesSeen % this.getMetricsReportInterval() == 0)
+				this.reportMetrics(this.metricsSink);
+		}
+	}
+
+	/**
+	 * Shrinks the history to three quarters of the budget when it is over it, so it is not shrunk again
+	 * on the next tweet. Once a full history uses less than half of the budget it may keep more tweets
+	 * again. The history only adds up the sizes of its arrays, this is cheap to call per tweet.
+	 * @param history the history to check.
+	 * @param budget the bytes the history may use, 0 for no budget.
+	 */
+	protected void enforceMemoryBudget(HistoryRetentionTechnique history, long budget) {
+		if (budget <= 0)
+			return;
+		if (history.getMemoryBytes() <= budget) {
+			history.relax(budget / 2);
+			return;
+		}
+		history.shrink(budget / 4 * 3);
+		this.historyShrinks++;
+	}
+
+	/**
+	 * Gets the memory budget of each history.
+	 * @return the bytes a history may use, 0 for no budget.
+	 */
+	protected long getHistoryBudget() {
+		return this.getMemoryBudget() * 1024L;
+	}
+
+	private void ensureInitialized() {
+		if (!this.getConcurrentScoring()) {
+			if (this.foregroundModel == null)
+				initializeForegroundModel();
+			return;
+		}
+		// The training thread and the scoring threads may all be first, the snapshot is published last.
+		if (this.snapshot == null) {
+			synchronized (this) {
+				if (this.snapshot == null)
+					initializeForegroundModel();
 			}
+		}
+	}
 
-			newTweet.add(word);
+	/**
+	 * Checkpoints the history to the history checkpoint path, called from the training thread. Training
+	 * only waits for the arrays of the history to be copied, the checkpoint is written in the background.
+	 * If the last checkpoint is still being written no new one is taken, so a slow disk does not queue
+	 * them up, and an error writing the last one is thrown here.
+	 * @return the write of the checkpoint, or of the last one if it is still being written.
+	 */
+	public Future<?> checkpointHistory() {
+		if (this.getHistoryCheckpointPath().isEmpty())
+			throw new IllegalStateException("There is no history checkpoint path.");
+		this.ensureInitialized();
+		final File file = new File(this.getHistoryCheckpointPath());
+		if (this.checkpointWrite != null) {
+			if (!this.checkpointWrite.isDone())
+				return this.checkpointWrite;
+			try {
+				this.checkpointWrite.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Could not write the history checkpoint " + file, e.getCause());
+			} finally {
+				this.checkpointWrite = null;
+			}
 		}
-		tweet = newTweet;
 
-		// Count non-hash-tag words.
-		int wordCount = 0;
-		for(String w : tweet) {
-			if (!w.startsWith("#"))
-				wordCount++;
+		final HistoryCheckpoint checkpoint = this.foregroundModel.getHistory().checkpoint();
+		checkpoint.setPosition(this.instancesSeen);
+		final String key = this.getHistoryCheckpointKey();
+		if (this.checkpointWriter == null) {
+			this.checkpointWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "history-checkpoint");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
+		this.checkpointWrite = this.checkpointWriter.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				checkpoint.save(file, key);
+				return null;
+			}
+		});
+		return this.checkpointWrite;
+	}
 
-		if (wordCount < this.getMinWordsInTweet())
-			return null;
+	/**
+	 * Restores the history from the history checkpoint path, if there is a checkpoint taken with the same
+	 * Background Model and history options. The position in the stream is restored with it.
+	 * @return true if the history was restored.
+	 */
+	protected boolean restoreHistory() {
+		File file = new File(this.getHistoryCheckpointPath());
+		try {
+			HistoryCheckpoint checkpoint = HistoryCheckpoint.load(file, this.getHistoryCheckpointKey());
+			if (checkpoint == null)
+				return false;
+			this.foregroundModel.getHistory().restore(checkpoint);
+			this.instancesSeen = checkpoint.getPosition();
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read the history checkpoint " + file, e);
+		}
+	}
 
-		// If classify, return the tweet cleaned and without topic of interest hash-tag.
-		if (!isTrain)
-			return tweet;
+	/**
+	 * Identifies the Background Model and history options, a history checkpoint is only restored when
+	 * they are the same.
+	 * @return the key of the history checkpoint.
+	 */
+	protected String getHistoryCheckpointKey() {
+		return this.getBackgroundSnapshotKey() + "|" + this.getHistoryTechnique() + "|" + this.getHistorySize() + "|"
+				+ this.getHalfLife() + "|" + this.getTimeWindow() + "|" + this.getSketchWidth() + "|"
+				+ this.getSketchDepth() + "|" + this.getSketchConservativeUpdate() + "|" + this.getSketchCountMeanMin();
+	}
 
-		// Else is train, check length and that the tweet actually did have the hash-tag.
-		if (!changed)   // Hash-tag wasn't in tweet, don't train using tweet.
-			return null;
+	/**
+	 * Copies the classifier through serialization like other MOA classifiers, except that the copy shares
+	 * the Background Model, which does not change once it is built, instead of reading back a copy of it.
+	 * @return the copy.
+	 */
+	@Override
+	public Classifier copy() {
+		if (SmoothingTechnique.CopiedBackgroundModels.get() != null)
+			return super.copy();
+		SmoothingTechnique.CopiedBackgroundModels.set(new ArrayList<ReadOnlyBackgroundModel>());
+		try {
+			return super.copy();
+		} finally {
+			SmoothingTechnique.CopiedBackgroundModels.remove();
+		}
+	}
 
-		wordCount = 0;
-		// Count non-hash-tag words.
-		for(String w : tweet) {
-			if (!w.startsWith("#"))
-				wordCount++;
+	/**
+	 * Writes the options and statistics, then the model as the Background Model, a checkpoint of the
+	 * history and the words skipped. During copy() only the index of the Background Model is written.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeBoolean(this.foregroundModel != null);
+		if (this.foregroundModel == null)
+			return;
+		List<ReadOnlyBackgroundModel> copied = SmoothingTechnique.CopiedBackgroundModels.get();
+		if (copied != null) {
+			out.writeInt(copied.size());
+			copied.add(this.vocabulary.getBase());
+		} else {
+			out.writeInt(-1);
+			out.writeObject(this.vocabulary.getBase());
 		}
+		this.writeHistory(out, this.foregroundModel);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (!in.readBoolean())
+			return;
+		final int copied = in.readInt();
+		ReadOnlyBackgroundModel backgroundModel = copied >= 0 ? SmoothingTechnique.CopiedBackgroundModels.get().get(copied)
+				: (ReadOnlyBackgroundModel) in.readObject();
+
+		this.initializeTokenizer();
+		this.vocabulary = new Vocabulary(backgroundModel);
+		this.foregroundModel = this.readHistory(in, backgroundModel);
+		if (this.getConcurrentScoring())
+			this.publishSnapshot();
+	}
+
+	/**
+	 * Writes the history of a foreground model as a checkpoint, and the words it skipped.
+	 * @param out the stream.
+	 * @param model the foreground model.
+	 * @throws IOException if the stream could not be written.
+	 */
+	protected void writeHistory(ObjectOutputStream out, ForegroundModel model) throws IOException {
+		out.writeObject(model.getHistory().checkpoint());
+		out.writeLong(model.getWordsSkipped());
+	}
+
+	/**
+	 * Reads back a foreground model written by writeHistory(), its history is on the vocabulary.
+	 * @param in the stream.
+	 * @param backgroundModel the Background Model of the classifier.
+	 * @return the foreground model.
+	 * @throws IOException if the stream could not be read.
+	 * @throws ClassNotFoundException if the checkpoint could not be read.
+	 */
+	protected ForegroundModel readHistory(ObjectInputStream in, ReadOnlyBackgroundModel backgroundModel)
+			throws IOException, ClassNotFoundException {
+		HistoryRetentionTechnique history = this.createHistory(this.vocabulary);
+		history.restore((HistoryCheckpoint) in.readObject());
+		ForegroundModel model = this.createForegroundModel(backgroundModel, history);
+		model.setWordsSkipped(in.readLong());
+		return model;
+	}
+
+	/**
+	 * Publishes a read only copy of the foreground model and vocabulary for the scoring threads, called
+	 * from the training thread.
+	 */
+	protected void publishSnapshot() {
+		this.snapshot = this.foregroundModel.snapshot();
+	}
 
-		if (wordCount < this.getMinWordsInTweet())
-			return null;
+	/**
+	 * Gets the time of the instance for the time based history techniques.
+	 * @param inst the instance.
+	 * @return the timestamp attribute, or the number of training instances seen if there is none.
+	 */
+	protected double getTime(Instance inst) {
+		return this.getTimestampIndex() < 0 ? this.instancesSeen : inst.value(this.getTimestampIndex());
+	}
+
+	/**
+	 * Tokenizes a tweet and checks if it is valid, the tokens are left in the tokenizer.
+	 * @param tweet The raw tweet text.
+	 * @param isTrain if true the tweet also has to contain the hash-tag.
+	 * @return Returns true if the tweet is valid.
+	 */
+	protected boolean filterTweet(String tweet, boolean isTrain) {
+		this.scoredTweet = null;
+		this.tokenizer.tokenize(tweet);
+		return this.tokenizer.accept(isTrain);
+	}
+
+	/**
+	 * Creates the tokenizer used to split and filter tweets, override to plug in a different one.
+	 * @return a new tokenizer.
+	 */
+	protected Tokenizer createTokenizer() {
+		return new TweetTokenizer();
+	}
 
-		return tweet;
+	protected void initializeTokenizer() {
+		this.tokenizer = this.createTokenizer();
+		this.tokenizer.setHashTag(this.getHashTag());
+		this.tokenizer.setMinWordsInTweet(this.getMinWordsInTweet());
+		final Tokenizer settings = this.tokenizer;
+		this.scoringTokenizer = new ThreadLocal<Tokenizer>() {
+			@Override
+			protected Tokenizer initialValue() {
+				return settings.copy();
+			}
+		};
 	}
 
 	protected void initializeForegroundModel() {
-		BackgroundModel backgroundModel = this.initializeBackgroundModel();
+		this.initializeTokenizer();
+		ReadOnlyBackgroundModel backgroundModel = this.initializeBackgroundModel();
+
+		// Background words keep their index as id, words only seen in the foreground are added while training.
+		this.vocabulary = new Vocabulary(backgroundModel);
+
+		HistoryRetentionTechnique history = this.createHistory(this.vocabulary);
+		this.checkMemoryBudget(history);
+		this.foregroundModel = this.createForegroundModel(backgroundModel, history);
+		if (!this.getHistoryCheckpointPath().isEmpty())
+			this.restoreHistory();
+
+		if (this.getConcurrentScoring())
+			this.publishSnapshot();
+		if (this.metrics != null)
+			this.metrics.start();
+	}
 
-		// Initialize the specified History Retention Technique.
-		HistoryRetentionTechnique history;
+	/**
+	 * Creates the chosen History Retention Technique.
+	 * @param vocabulary the vocabulary the word ids belong to.
+	 * @return the new history.
+	 */
+	protected HistoryRetentionTechnique createHistory(Vocabulary vocabulary) {
 		switch (this.getHistoryTechnique()) {
-			case FORGET : history = new Forget(this.getHistorySize()); break;
-			case QUEUE : history = new Queue(this.getHistorySize()); break;
-			default : history = new Queue(this.getHistorySize());
+			case FORGET : return new Forget(vocabulary, this.getHistorySize());
+			case QUEUE : return new Queue(vocabulary, this.getHistorySize());
+			case TIMEDECAY : return new TimeDecay(vocabulary, this.getHistorySize(), this.getHalfLife());
+			case SLIDINGTIMEWINDOW : return new SlidingTimeWindow(vocabulary, this.getHistorySize(), this.getTimeWindow());
+			case COUNTMINSKETCH :
+				return new CountMinSketch(vocabulary, this.getHistorySize(), this.getSketchWidth(),
+						this.getSketchDepth(), this.getSketchConservativeUpdate(), this.getSketchCountMeanMin());
+			default : return new Queue(vocabulary, this.getHistorySize());
 		}
+	}
+
+	/**
+	 * Checks that the memory budget leaves room for the tweets of the history. Shrinking cannot free the
+	 * fixed part of the history, a budget it fills would evict every tweet.
+	 * @param history a history as createHistory() makes them.
+	 * @throws IllegalArgumentException if the budget is too small.
+	 */
+	protected void checkMemoryBudget(HistoryRetentionTechnique history) {
+		final long budget = this.getHistoryBudget();
+		if (budget > 0 && history.getFixedBytes() >= budget / 4 * 3)
+			throw new IllegalArgumentException("The memory budget of " + budget / 1024 + " KB per history is too "
+					+ "small, the " + history.getClass().getSimpleName() + " history alone needs "
+					+ (history.getFixedBytes() + 1023) / 1024 + " KB. Raise the budget above "
+					+ ((history.getFixedBytes() * 4 / 3 + 1023) / 1024) + " KB or use a smaller sketch.");
+	}
 
-		// Initialize the specified foreground model.
+	/**
+	 * Creates the chosen foreground model.
+	 * @param backgroundModel the background model.
+	 * @param history the history of the foreground model.
+	 * @return the new foreground model.
+	 */
+	protected ForegroundModel createForegroundModel(ReadOnlyBackgroundModel backgroundModel, HistoryRetentionTechnique history) {
 		switch (this.getSmoothingTechnique()) {
 			case ABSOLUTEDISCOUNTING :
-				this.foregroundModel =
-						new AbsoluteDiscounting(backgroundModel, history, this.getThreshold(),
-								this.getAbsoluteDiscountingDelta());
-				break;
+				return new AbsoluteDiscounting(backgroundModel, history, this.getThreshold(),
+						this.getAbsoluteDiscountingDelta());
 			case JALINEKMERCERSMOOTHING :
-				this.foregroundModel =
-						new JalinekMercerSmoothing(backgroundModel, history, this.getThreshold(),
-								this.getJalinekMercerSmoothingLambda());
-				break;
+				return new JalinekMercerSmoothing(backgroundModel, history, this.getThreshold(),
+						this.getJalinekMercerSmoothingLambda());
 			case BAYESIANSMOOTHING :
-				this.foregroundModel =
-						new BayesianSmoothing(backgroundModel, history, this.getThreshold(),
-								this.getBayesianSmoothingMu());
-				break;
+				return new BayesianSmoothing(backgroundModel, history, this.getThreshold(),
+						this.getBayesianSmoothingMu());
 			case STUPIDBACKOFF :
-				this.foregroundModel =
-						new StupidBackoff(backgroundModel, history, this.getThreshold(),
-								this.getStupidBackoffAlpha());
-				break;
+				return new StupidBackoff(backgroundModel, history, this.getThreshold(),
+						this.getStupidBackoffAlpha());
 			case BACKGROUNDONLY :
-				this.foregroundModel =
-						new BackgroundOnly(backgroundModel, history, this.getThreshold());
-				break;
+				return new BackgroundOnly(backgroundModel, history, this.getThreshold());
 			default :
-				this.foregroundModel =
-						new StupidBackoff(backgroundModel, history, this.getThreshold(),
-								this.getStupidBackoffAlpha());
+				return new StupidBackoff(backgroundModel, history, this.getThreshold(),
+						this.getStupidBackoffAlpha());
+		}
+	}
+
+	protected ReadOnlyBackgroundModel initializeBackgroundModel() {
+		File snapshot = this.getBackgroundSnapshotPath().isEmpty() ? null : new File(this.getBackgroundSnapshotPath());
+		String snapshotKey = this.getBackgroundSnapshotKey();
+		try {
+			ReadOnlyBackgroundModel backgroundModel = snapshot == null ? null : this.loadBackgroundModel(snapshot, snapshotKey);
+			if (backgroundModel != null)
+				return backgroundModel;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read the Background Model snapshot " + snapshot, e);
 		}
+
+		ReadOnlyBackgroundModel backgroundModel = this.buildBackgroundModel();
+
+		try {
+			if (snapshot != null) {
+				backgroundModel.save(snapshot, snapshotKey);
+				// Drop the built model for the shared mapping.
+				if (this.getMapBackgroundSnapshot())
+					backgroundModel = MappedBackgroundModel.open(snapshot, snapshotKey);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the Background Model snapshot " + snapshot, e);
+		}
+		return backgroundModel;
 	}
 
-	protected BackgroundModel initializeBackgroundModel() {
-		List<String> backgroundWords = new ArrayList<>();
-		ArffFileStream stream = new ArffFileStream(this.backgroundDataPathOption.getValue(), this.getBmClassIndex());
+	private ReadOnlyBackgroundModel loadBackgroundModel(File snapshot, String snapshotKey) throws IOException {
+		return this.getMapBackgroundSnapshot() ? MappedBackgroundModel.open(snapshot, snapshotKey)
+				: BackgroundModel.load(snapshot, snapshotKey);
+	}
+
+	protected BackgroundModel buildBackgroundModel() {
+		ArffFileStream stream = new ArffFileStream(this.getBackgroundDataPath(), this.getBmClassIndex());
 		int tweetIndex = this.getTweetIndex();
+		boolean requireHashTag = this.isBackgroundFilteredByHashTag();
+		if (this.getBackgroundBuildThreads() > 1)
+			return new ParallelBackgroundModelBuilder(this.tokenizer, this.getBackgroundBuildThreads(), requireHashTag)
+					.build(stream, tweetIndex);
+
+		BackgroundModel backgroundModel = new BackgroundModel();
+		// Count while streaming so memory is bound by the vocabulary rather than the data set.
 		while (stream.hasMoreInstances()) {
-			String tweet = stream.nextInstance().stringValue(tweetIndex).toLowerCase();
-			List<String> tweetWords = Arrays.asList(tweet.split(" "));
 			// Invalid tweet.
-			if ((tweetWords = this.filterTweet(tweetWords, true)) == null)
+			if (!this.filterTweet(stream.nextInstance().stringValue(tweetIndex), requireHashTag))
 				continue;
 
-			backgroundWords.addAll(tweetWords);
+			backgroundModel.addTweet(this.tokenizer);
 		}
 
-		BackgroundModel backgroundModel = new BackgroundModel();
-		backgroundModel.buildProbabilities(backgroundWords);
+		backgroundModel.finish();
 		return backgroundModel;
 	}
 
 	/**
-	 * Calculates the class membership probabilities for the given test instance.
+	 * Check if the Background Data is filtered like training tweets, only counting tweets with the hash-tag.
+	 * @return true if background tweets need the hash-tag.
+	 */
+	protected boolean isBackgroundFilteredByHashTag() {
+		return true;
+	}
+
+	/**
+	 * Identifies the Background Data file and the settings the Background Model depends on, a snapshot
+	 * is only used when its key matches.
+	 * @return the key of the Background Model.
+	 */
+	protected String getBackgroundSnapshotKey() {
+		File data = new File(this.getBackgroundDataPath());
+		return data.getAbsolutePath() + "|" + data.length() + "|" + data.lastModified() + "|"
+				+ this.getBmClassIndex() + "|" + this.getTweetIndex() + "|" + this.getMinWordsInTweet() + "|"
+				+ this.getHashTag() + "|" + this.isBackgroundFilteredByHashTag() + "|"
+				+ this.tokenizer.getClass().getName();
+	}
+
+	/**
+	 * The votes for a tweet that is filtered: no votes, as the classifier has always returned for a tweet
+	 * it does not score. The flat layout of getVotesForInstances() can not leave an instance out, it holds
+	 * 0 for both classes of a filtered tweet instead.
+	 * @return new votes for a filtered tweet.
+	 */
+	protected static double[] filteredVotes() {
+		return new double[0];
+	}
+
+	/**
+	 * Checks if the votes returned by getVotesForInstance() are those of a filtered tweet, see filteredVotes().
+	 * @param votes the votes of an instance.
+	 * @return true if the tweet of the instance was filtered.
+	 */
+	protected static boolean isFiltered(double[] votes) {
+		return votes.length == 0;
+	}
+
+	/**
+	 * Calculates the class membership probabilities for the given test instance. Scoring does not move
+	 * the clock of the history, only training does.
 	 * @param inst the instance to be classified.
-	 * @return predicted class probability distribution.
+	 * @return predicted class probability distribution, no votes if the tweet is filtered.
 	 */
 	@Override
 	public double[] getVotesForInstance(Instance inst) {
-		if (this.foregroundModel == null)
-			initializeForegroundModel();
+		if (this.metrics == null || !this.metrics.sample())
+			return this.getVotes(inst);
+		final long start = System.nanoTime();
+		double[] votes = this.getVotes(inst);
+		this.metrics.recordScore(System.nanoTime() - start);
+		return votes;
+	}
 
-		String instanceTweet =  inst.stringValue(this.getTweetIndex()).toLowerCase();
-		List<String> tweet = new ArrayList<>(Arrays.asList(instanceTweet.split(" ")));
+	private double[] getVotes(Instance inst) {
+		this.ensureInitialized();
+		if (this.getConcurrentScoring())
+			return this.getVotesFromSnapshot(inst);
 
 		/* Check if the tweet conditions are met. */
-		tweet = this.filterTweet(tweet, false);
-		if (tweet == null)
-			return new double[0];
+		final String text = inst.stringValue(this.getTweetIndex());
+		boolean accepted = this.filterTweet(text, false);
+		this.scoredTweet = text;
+		this.scoredVersion = this.foregroundModel.getHistory().getVersion();
+		this.scoredResolved = accepted;
+		if (this.metrics != null)
+			this.metrics.countTweet(this.tokenizer, false);
+		if (!accepted)
+			return SmoothingTechnique.filteredVotes();
+
+		// Scored tweets do not add to the vocabulary, unknown words get the id -1.
+		int[] tweet = this.tokenizer.resolve(this.vocabulary, false);
 
 		// If 1 predicts (1 - 1, 1) (0, 1) (so class 1) else predicts (1 - 0,0) (1, 0) (so class 0)
-		double classification = this.foregroundModel.getClassification(tweet) ? 1d : 0d;
+		double classification = this.classify(this.foregroundModel, tweet, this.tokenizer.size(), inst) ? 1d : 0d;
+		this.countClassification(inst, classification);
+
+		return new double[] { 1 - classification, classification };
+	}
+
+	// Classifies with the early exit unless the tweet is sampled for the perplexity metrics.
+	private boolean classify(ForegroundModel model, int[] tweet, int length, Instance inst) {
+		boolean sampled = false;
+		if (this.metrics != null) {
+			this.metrics.countWords(tweet, length, this.vocabulary.getBase().size(), false);
+			sampled = this.metrics.sample();
+		}
+		if (!sampled && this.thresholdEvaluation == null)
+			return model.getClassification(tweet, length);
+		double perplexity = model.getPerplexity(tweet, length);
+		if (sampled)
+			this.metrics.recordPerplexity(perplexity);
+		if (this.thresholdEvaluation != null)
+			this.thresholdEvaluation.record(perplexity, inst.classValue() == 1);
+		return perplexity > model.getThreshold();
+	}
+
+	/**
+	 * Calculates the class membership probabilities from the latest snapshot, safe to call from many
+	 * threads while one thread trains.
+	 * @param inst the instance to be classified.
+	 * @return predicted class probability distribution.
+	 */
+	protected double[] getVotesFromSnapshot(Instance inst) {
+		final ForegroundModel model = this.snapshot;
+		final Tokenizer tokenizer = this.scoringTokenizer.get();
+
+		tokenizer.tokenize(inst.stringValue(this.getTweetIndex()));
+		if (this.metrics != null)
+			this.metrics.countTweet(tokenizer, false);
+		if (!tokenizer.accept(false))
+			return SmoothingTechnique.filteredVotes();
+
+		int[] tweet = tokenizer.resolve(model.getCounts().getVocabulary(), false);
+		double classification = this.classify(model, tweet, tokenizer.size(), inst) ? 1d : 0d;
+		this.countClassification(inst, classification);
+
+		return new double[] { 1 - classification, classification };
+	}
+
+	/**
+	 * Calculates the votes for a batch of test instances, the same votes as getVotesForInstance() on each
+	 * in turn. The tweets are tokenized into one buffer of word ids and scored in one pass of the
+	 * foreground model instead of word by word. With concurrent scoring every instance is scored on its own
+	 * against the latest snapshot, as the buffers of the batch belong to the training thread.
+	 * @param instances the instances to be classified.
+	 * @param offset the index of the first instance.
+	 * @param count the number of instances.
+	 * @param votes reused when it holds 2 x count values, else a new array is returned.
+	 * @return the votes, instance i at 2i (class 0) and 2i + 1 (class 1), both 0 if its tweet was filtered.
+	 */
+	public double[] getVotesForInstances(Instance[] instances, int offset, int count, double[] votes) {
+		if (this.getConcurrentScoring())
+			return this.getVotesOneByOne(instances, offset, count, votes);
+		final boolean timed = this.metrics != null && this.metrics.sample();
+		final long started = timed ? System.nanoTime() : 0L;
+		this.ensureInitialized();
+		if (votes == null || votes.length < count * 2)
+			votes = new double[count * 2];
+
+		this.scoreBatch(instances, offset, count, votes);
+
+		// Each instance of a sampled batch is recorded at the average latency.
+		if (timed && count > 0) {
+			long latency = (System.nanoTime() - started) / count;
+			for (int i = 0; i < count; i++)
+				this.metrics.recordScore(latency);
+		}
+		return votes;
+	}
 
-		/* Precision Recall */
+	/**
+	 * Calculates the votes for a batch of test instances with getVotesForInstance() on each in turn, for
+	 * the subclasses that score every instance on its own. The same layout as getVotesForInstances().
+	 * @param instances the instances to be classified.
+	 * @param offset the index of the first instance.
+	 * @param count the number of instances.
+	 * @param votes reused when it holds 2 x count values, else a new array is returned.
+	 * @return the votes, instance i at 2i (class 0) and 2i + 1 (class 1), both 0 if its tweet was filtered.
+	 */
+	protected final double[] getVotesOneByOne(Instance[] instances, int offset, int count, double[] votes) {
+		if (votes == null || votes.length < count * 2)
+			votes = new double[count * 2];
+		for (int i = 0; i < count; i++) {
+			double[] instanceVotes = this.getVotesForInstance(instances[offset + i]);
+			boolean filtered = SmoothingTechnique.isFiltered(instanceVotes);
+			votes[i * 2] = filtered ? 0d : instanceVotes[0];
+			votes[i * 2 + 1] = filtered ? 0d : instanceVotes[1];
+		}
+		return votes;
+	}
+
+	// Reused between batches.
+	protected transient int[] batchWords = null, batchOffsets = null;
+	protected transient double[] batchPerplexities = null;
+	protected transient boolean[] batchAccepted = null;
+
+	private void scoreBatch(Instance[] instances, int offset, int count, double[] votes) {
+		if (this.batchOffsets == null || this.batchOffsets.length < count + 1) {
+			this.batchOffsets = new int[count + 1];
+			this.batchPerplexities = new double[count];
+			this.batchAccepted = new boolean[count];
+		}
+		if (this.batchWords == null)
+			this.batchWords = new int[count * 16];
+
+		// Tokenize into one buffer, filtered tweets take up no words.
+		int words = 0;
+		this.batchOffsets[0] = 0;
+		for (int i = 0; i < count; i++) {
+			this.batchAccepted[i] = this.filterTweet(instances[offset + i].stringValue(this.getTweetIndex()), false);
+			if (this.metrics != null)
+				this.metrics.countTweet(this.tokenizer, false);
+			if (this.batchAccepted[i]) {
+				int length = this.tokenizer.size();
+				if (words + length > this.batchWords.length)
+					this.batchWords = Arrays.copyOf(this.batchWords, Math.max(words + length, this.batchWords.length * 2));
+				int[] tweet = this.tokenizer.resolve(this.vocabulary, false);
+				if (this.metrics != null)
+					this.metrics.countWords(tweet, length, this.vocabulary.getBase().size(), false);
+				System.arraycopy(tweet, 0, this.batchWords, words, length);
+				words += length;
+			}
+			this.batchOffsets[i + 1] = words;
+		}
+
+		this.foregroundModel.getPerplexities(this.batchWords, this.batchOffsets, count, this.batchPerplexities);
+
+		final double threshold = this.foregroundModel.getThreshold();
+		for (int i = 0; i < count; i++) {
+			int vote = i * 2;
+			if (!this.batchAccepted[i]) {
+				votes[vote] = 0d;
+				votes[vote + 1] = 0d;
+				continue;
+			}
+			// Sampled like the perplexities of single instances, see classify().
+			if (this.metrics != null && this.metrics.sample())
+				this.metrics.recordPerplexity(this.batchPerplexities[i]);
+			if (this.thresholdEvaluation != null)
+				this.thresholdEvaluation.record(this.batchPerplexities[i], instances[offset + i].classValue() == 1);
+			double classification = this.batchPerplexities[i] > threshold ? 1d : 0d;
+			this.countClassification(instances[offset + i], classification);
+			votes[vote] = 1 - classification;
+			votes[vote + 1] = classification;
+		}
+	}
+
+	/* Precision Recall */
+	private void countClassification(Instance inst, double classification) {
 		if (classification == 1)
 			if (inst.classValue() == 1)
-				this.truePositive++;
+				this.confusion.incrementAndGet(TRUEPOSITIVE);
 			else
-				this.falsePositive++;
+				this.confusion.incrementAndGet(FALSEPOSITIVE);
 		else
 			if (inst.classValue() == 1)
-				this.falseNegative++;
+				this.confusion.incrementAndGet(FALSENEGATIVE);
 			else
-				this.trueNegative++;
-
-		return new double[] { 1 - classification, classification };
+				this.confusion.incrementAndGet(TRUENEGATIVE);
 	}
 
 	/**
@@ -495,26 +1473,122 @@ public class SmoothingTechnique extends AbstractClassifier implements Classifier
 		return str.toString();
 	}
 
-	double truePositive = 0, trueNegative = 0, falsePositive = 0, falseNegative = 0;
+	// Confusion matrix counts, atomic so concurrent scoring threads can count without a lock.
+	protected static final int
+			TRUEPOSITIVE    = 0,
+			TRUENEGATIVE    = 1,
+			FALSEPOSITIVE   = 2,
+			FALSENEGATIVE   = 3;
+	protected final AtomicLongArray confusion = new AtomicLongArray(4);
 
 	@Override
 	protected Measurement[] getModelMeasurementsImpl() {
-		final double tpfp = this.truePositive + this.falsePositive,
-				tpfn = this.truePositive + this.falseNegative,
-				totalSeen = this.trueNegative + this.truePositive + this.falseNegative + this.falsePositive;
+		final double truePositive = this.confusion.get(TRUEPOSITIVE),
+				trueNegative = this.confusion.get(TRUENEGATIVE),
+				falsePositive = this.confusion.get(FALSEPOSITIVE),
+				falseNegative = this.confusion.get(FALSENEGATIVE);
+		Measurement[] measurements = new Measurement[]{
+				new Measurement("Words skipped", this.foregroundModel == null ? 0 : this.foregroundModel.getWordsSkipped()),
+				new Measurement("Background model bytes", this.vocabulary == null || this.vocabulary.getBase() == null ? 0
+						: this.vocabulary.getBase().getMemoryBytes()),
+				new Measurement("Vocabulary bytes", this.vocabulary == null ? 0 : this.vocabulary.getMemoryBytes()),
+				new Measurement("History count bytes",
+						this.foregroundModel == null ? 0 : this.foregroundModel.getHistory().getCountsBytes()),
+				new Measurement("History queue bytes",
+						this.foregroundModel == null ? 0 : this.foregroundModel.getHistory().getQueueBytes()),
+				new Measurement("History shrinks", this.historyShrinks)
+		};
+		measurements = SmoothingTechnique.concat(SmoothingTechnique.getConfusionMeasurements("", truePositive,
+				trueNegative, falsePositive, falseNegative), measurements);
+		if (this.metrics != null)
+			measurements = SmoothingTechnique.concat(measurements, this.getMetricsMeasurements(this.metrics));
+		if (this.thresholdEvaluation != null)
+			measurements = SmoothingTechnique.concat(measurements, this.getThresholdMeasurements(this.thresholdEvaluation));
+		return measurements;
+	}
+
+	/**
+	 * The precision, recall and accuracy of confusion matrix counts.
+	 * @param suffix appended to the name of each measurement.
+	 * @return the measurements, all 0 while nothing is counted.
+	 */
+	protected static Measurement[] getConfusionMeasurements(String suffix, double truePositive, double trueNegative,
+			double falsePositive, double falseNegative) {
+		final double tpfp = truePositive + falsePositive,
+				tpfn = truePositive + falseNegative,
+				totalSeen = trueNegative + truePositive + falseNegative + falsePositive;
 
-		double precision = tpfp == 0d ? 0d : this.truePositive / tpfp;
-		double recall = tpfn == 0d ? 0d : this.truePositive / tpfn;
+		double precision = tpfp == 0d ? 0d : truePositive / tpfp;
+		double recall = tpfn == 0d ? 0d : truePositive / tpfn;
 
-		double accuracy = totalSeen == 0d ? 0d : (this.trueNegative + this.truePositive) / totalSeen;
+		double accuracy = totalSeen == 0d ? 0d : (trueNegative + truePositive) / totalSeen;
 
 		return new Measurement[]{
-				new Measurement("Precision", precision),
-				new Measurement("Recall", recall),
-				new Measurement("Accuracy", accuracy)
+				new Measurement("Precision" + suffix, precision),
+				new Measurement("Recall" + suffix, recall),
+				new Measurement("Accuracy" + suffix, accuracy)
 		};
 	}
 
+	private Measurement[] getMetricsMeasurements(final Metrics metrics) {
+		final HistoryRetentionTechnique history = this.foregroundModel == null ? null : this.foregroundModel.getHistory();
+		final long trained = metrics.getTrainedTweets();
+		return new Measurement[]{
+				new Measurement("Tokens per second", metrics.getTokensPerSecond()),
+				new Measurement("Filtered too short", metrics.getTooShort()),
+				new Measurement("Filtered without hash-tag", metrics.getNoHashTag()),
+				new Measurement("History words", history == null ? 0 : history.getTotalUniqueWordCount()),
+				new Measurement("Evicted words per tweet",
+						history == null || trained == 0 ? 0 : history.getEvictedWords() / (double) trained),
+				new Measurement("Background hit ratio", metrics.getBackgroundHitRatio()),
+				new Measurement("Perplexity p50", metrics.getPerplexities().getValueAtPercentile(50d)),
+				new Measurement("Perplexity p90", metrics.getPerplexities().getValueAtPercentile(90d)),
+				new Measurement("Train latency p50 (ns)", metrics.getTrainLatency().getValueAtPercentile(50d)),
+				new Measurement("Train latency p99 (ns)", metrics.getTrainLatency().getValueAtPercentile(99d)),
+				new Measurement("Score latency p50 (ns)", metrics.getScoreLatency().getValueAtPercentile(50d)),
+				new Measurement("Score latency p99 (ns)", metrics.getScoreLatency().getValueAtPercentile(99d))
+		};
+	}
+
+	// Every threshold at once, followed by the 11 point interpolated precision/recall curve.
+	private Measurement[] getThresholdMeasurements(final ThresholdEvaluation evaluation) {
+		final double[] summary = evaluation.summarize();
+		Measurement[] measurements = new Measurement[6 + 11];
+		measurements[0] = new Measurement("Best F1", summary[ThresholdEvaluation.BESTF1]);
+		measurements[1] = new Measurement("Best F1 threshold", summary[ThresholdEvaluation.BESTF1THRESHOLD]);
+		measurements[2] = new Measurement("Best F1 precision", summary[ThresholdEvaluation.BESTF1PRECISION]);
+		measurements[3] = new Measurement("Best F1 recall", summary[ThresholdEvaluation.BESTF1RECALL]);
+		measurements[4] = new Measurement("ROC AUC", summary[ThresholdEvaluation.ROCAUC]);
+		measurements[5] = new Measurement("Average precision", summary[ThresholdEvaluation.AVERAGEPRECISION]);
+		for (int i = 0; i <= 10; i++)
+			measurements[6 + i] = new Measurement(String.format(Locale.ROOT, "Interpolated precision at recall %.1f", i / 10d),
+					evaluation.getInterpolatedPrecision(i / 10d));
+		return measurements;
+	}
+
+	protected static Measurement[] concat(final Measurement[] first, final Measurement[] second) {
+		Measurement[] all = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, all, first.length, second.length);
+		return all;
+	}
+
+	/**
+	 * Sends the metrics to the sink, called every metricsReportInterval training instances when a sink
+	 * is set. Does nothing unless metrics are collected.
+	 * @param sink receives the metrics.
+	 */
+	public void reportMetrics(MetricsSink sink) {
+		if (this.metrics == null)
+			return;
+		this.metrics.report(sink);
+		if (this.foregroundModel != null) {
+			HistoryRetentionTechnique history = this.foregroundModel.getHistory();
+			sink.gauge("history.words", history.getTotalUniqueWordCount());
+			sink.counter("history.evictedWords", history.getEvictedWords());
+			sink.counter("classify.wordsSkipped", this.foregroundModel.getWordsSkipped());
+		}
+	}
+
 	@Override
 	public void getModelDescription(StringBuilder out, int indent) {
 		StringUtils.appendIndented(out, indent, toString());
@@ -0,0 +1,297 @@
+package moa.classifiers.smoothing;
+
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.*;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.core.Measurement;
+import moa.options.StringOption;
+import weka.core.Instance;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Evaluates many smoothing techniques, parameters and thresholds in one run. The tokenizer, Background
+ * Model and history are shared, each configuration only adds a foreground model over the same history,
+ * so the stream and Background Data are read once for the whole sweep.
+ * A scored tweet looks up the history count and background probability of each word once, every
+ * foreground model then calculates its perplexity from them and the perplexity is compared with
+ * every threshold. Precision, recall and accuracy are reported per configuration.
+ * The classifier itself votes and trains as a SmoothingTechnique with its own options, which is the
+ * first configuration.
+ * Only the smoothing techniques, their parameters and the thresholds are swept. The history retention
+ * technique and its settings (history size, half-life, time window, memory budget) are those of the
+ * classifier for every configuration, as all of them read the one history; sweep them with separate runs.
+ */
+public class SweepSmoothingTechnique extends SmoothingTechnique {
+
+	private static final long serialVersionUID = 1L;
+
+	protected double[] m_sweepDeltas = new double[0];
+	protected double[] m_sweepLambdas = new double[0];
+	protected double[] m_sweepMus = new double[0];
+	protected double[] m_sweepAlphas = new double[0];
+	protected double[] m_sweepThresholds = new double[0];
+
+	public StringOption sweepDeltasOption = new StringOption("sweepDeltas", 'A',
+			"Absolute Discounting deltas to sweep, separated by commas or spaces.", "");
+
+	public StringOption sweepLambdasOption = new StringOption("sweepLambdas", 'L',
+			"Jalinek-Mercer lambdas to sweep, separated by commas or spaces.", "");
+
+	public StringOption sweepMusOption = new StringOption("sweepMus", 'U',
+			"Bayesian Smoothing mus to sweep, separated by commas or spaces.", "");
+
+	public StringOption sweepAlphasOption = new StringOption("sweepAlphas", 'S',
+			"Stupid Backoff alphas to sweep, separated by commas or spaces.", "");
+
+	public StringOption sweepThresholdsOption = new StringOption("sweepThresholds", 'T',
+			"Thresholds to sweep, separated by commas or spaces. The Threshold parameter is swept as well.", "");
+
+	public void setSweepDeltas(double[] sweepDeltas) { m_sweepDeltas = sweepDeltas; }
+
+	public double[] getSweepDeltas() { return m_sweepDeltas; }
+
+	public void setSweepLambdas(double[] sweepLambdas) { m_sweepLambdas = sweepLambdas; }
+
+	public double[] getSweepLambdas() { return m_sweepLambdas; }
+
+	public void setSweepMus(double[] sweepMus) { m_sweepMus = sweepMus; }
+
+	public double[] getSweepMus() { return m_sweepMus; }
+
+	public void setSweepAlphas(double[] sweepAlphas) { m_sweepAlphas = sweepAlphas; }
+
+	public double[] getSweepAlphas() { return m_sweepAlphas; }
+
+	public void setSweepThresholds(double[] sweepThresholds) { m_sweepThresholds = sweepThresholds; }
+
+	public double[] getSweepThresholds() { return m_sweepThresholds; }
+
+	// One foreground model per smoothing technique and parameter, all over the history of the classifier.
+	// They hold no state of their own, they are created again when the classifier is deserialized.
+	protected transient ForegroundModel[] sweepModels = null;
+	protected String[] sweepNames = null;
+	// The thresholds, the first is the Threshold parameter.
+	protected double[] thresholds = null;
+	// Confusion matrix counts of configuration c (model c / thresholds, threshold c % thresholds) at 4 x c.
+	protected long[] sweepConfusion = null;
+
+	// Per tweet scratch space: the history count, background probability and probability of each word.
+	private transient double[] counts = new double[64], backgroundProbabilities = new double[64], probabilities = new double[64];
+
+	@Override
+	public void reset() {
+		super.reset();
+		this.sweepModels = null;
+		this.sweepConfusion = null;
+	}
+
+	@Override
+	public void resetLearningImpl() {
+		super.resetLearningImpl();
+		setSweepDeltas(SweepSmoothingTechnique.parse(this.sweepDeltasOption.getValue()));
+		setSweepLambdas(SweepSmoothingTechnique.parse(this.sweepLambdasOption.getValue()));
+		setSweepMus(SweepSmoothingTechnique.parse(this.sweepMusOption.getValue()));
+		setSweepAlphas(SweepSmoothingTechnique.parse(this.sweepAlphasOption.getValue()));
+		setSweepThresholds(SweepSmoothingTechnique.parse(this.sweepThresholdsOption.getValue()));
+		// Scoring reads every swept model, they are not published as snapshots.
+		if (this.getConcurrentScoring())
+			throw new IllegalArgumentException("The sweep cannot score concurrently, turn off concurrentScoring.");
+	}
+
+	@Override
+	protected void initializeForegroundModel() {
+		super.initializeForegroundModel();
+		this.initializeSweepModels();
+		this.sweepConfusion = new long[4 * this.sweepModels.length * this.thresholds.length];
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.counts = new double[64];
+		this.backgroundProbabilities = new double[64];
+		this.probabilities = new double[64];
+		if (this.foregroundModel != null)
+			this.initializeSweepModels();
+	}
+
+	// Creates the swept models over the history of the classifier and the thresholds.
+	private void initializeSweepModels() {
+		ReadOnlyBackgroundModel backgroundModel = this.vocabulary.getBase();
+		HistoryRetentionTechnique history = this.foregroundModel.getHistory();
+		final double threshold = this.getThreshold();
+
+		List<ForegroundModel> models = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		// The model of the classifier is the first.
+		models.add(this.foregroundModel);
+		names.add(this.getClassifierName());
+		for (double delta : this.getSweepDeltas()) {
+			models.add(new AbsoluteDiscounting(backgroundModel, history, threshold, delta));
+			names.add(SweepSmoothingTechnique.name("ABSOLUTEDISCOUNTING delta", delta));
+		}
+		for (double lambda : this.getSweepLambdas()) {
+			models.add(new JalinekMercerSmoothing(backgroundModel, history, threshold, lambda));
+			names.add(SweepSmoothingTechnique.name("JALINEKMERCERSMOOTHING lambda", lambda));
+		}
+		for (double mu : this.getSweepMus()) {
+			models.add(new BayesianSmoothing(backgroundModel, history, threshold, mu));
+			names.add(SweepSmoothingTechnique.name("BAYESIANSMOOTHING mu", mu));
+		}
+		for (double alpha : this.getSweepAlphas()) {
+			models.add(new StupidBackoff(backgroundModel, history, threshold, alpha));
+			names.add(SweepSmoothingTechnique.name("STUPIDBACKOFF alpha", alpha));
+		}
+		this.sweepModels = models.toArray(new ForegroundModel[models.size()]);
+		this.sweepNames = names.toArray(new String[names.size()]);
+
+		double[] sweepThresholds = this.getSweepThresholds();
+		this.thresholds = new double[sweepThresholds.length + 1];
+		this.thresholds[0] = threshold;
+		System.arraycopy(sweepThresholds, 0, this.thresholds, 1, sweepThresholds.length);
+	}
+
+	/**
+	 * Classifies the tweet with the options of the classifier and counts the classification of every
+	 * configuration of the sweep.
+	 * @param inst the instance to be classified.
+	 * @return the votes of the first configuration.
+	 */
+	@Override
+	public double[] getVotesForInstance(Instance inst) {
+		double[] votes = super.getVotesForInstance(inst);
+		// Not accepted, the tweet is not scored by any configuration.
+		if (SmoothingTechnique.isFiltered(votes))
+			return votes;
+
+		final int length = this.tokenizer.size();
+		final int[] tweet = this.tokenizer.getIds();
+		if (this.counts.length < length) {
+			int capacity = Math.max(length, this.counts.length * 2);
+			this.counts = new double[capacity];
+			this.backgroundProbabilities = new double[capacity];
+			this.probabilities = new double[capacity];
+		}
+		final HistoryRetentionTechnique history = this.foregroundModel.getHistory();
+		final ReadOnlyBackgroundModel backgroundModel = this.vocabulary.getBase();
+		for (int i = 0; i < length; i++) {
+			this.counts[i] = history.getWordCount(tweet[i]);
+			this.backgroundProbabilities[i] = backgroundModel.getProbability(tweet[i]);
+		}
+
+		final boolean positive = inst.classValue() == 1;
+		final double[] thresholds = this.thresholds;
+		for (int m = 0, c = 0; m < this.sweepModels.length; m++) {
+			double perplexity = this.sweepModels[m].getPerplexity(this.counts, this.backgroundProbabilities, length,
+					this.probabilities);
+			for (int t = 0; t < thresholds.length; t++, c++) {
+				boolean classification = perplexity > thresholds[t];
+				this.sweepConfusion[4 * c + (classification
+						? (positive ? TRUEPOSITIVE : FALSEPOSITIVE)
+						: (positive ? FALSENEGATIVE : TRUENEGATIVE))]++;
+			}
+		}
+		return votes;
+	}
+
+	/**
+	 * Calculates the votes for a batch of test instances with getVotesForInstance() on each in turn, so
+	 * every configuration of the sweep counts them.
+	 * @return the votes, instance i at 2i (class 0) and 2i + 1 (class 1), both 0 if its tweet was filtered.
+	 */
+	@Override
+	public double[] getVotesForInstances(Instance[] instances, int offset, int count, double[] votes) {
+		return this.getVotesOneByOne(instances, offset, count, votes);
+	}
+
+	/**
+	 * Get the number of configurations in the sweep, the smoothing techniques and parameters times the thresholds.
+	 * @return the number of configurations, 0 before the model is initialized.
+	 */
+	public int getConfigurationCount() {
+		return this.sweepModels == null ? 0 : this.sweepModels.length * this.thresholds.length;
+	}
+
+	/**
+	 * Describes a configuration of the sweep.
+	 * @param configuration the configuration, from 0 to getConfigurationCount() - 1.
+	 * @return the smoothing technique, its parameter and the threshold.
+	 */
+	public String getConfigurationName(int configuration) {
+		int thresholds = this.thresholds.length;
+		return this.sweepNames[configuration / thresholds]
+				+ SweepSmoothingTechnique.name(" threshold", this.thresholds[configuration % thresholds]);
+	}
+
+	/**
+	 * Get the precision, recall and accuracy of a configuration of the sweep.
+	 * @param configuration the configuration, from 0 to getConfigurationCount() - 1.
+	 * @return the precision, recall and accuracy.
+	 */
+	public double[] getConfigurationResults(int configuration) {
+		final double truePositive = this.sweepConfusion[4 * configuration + TRUEPOSITIVE],
+				trueNegative = this.sweepConfusion[4 * configuration + TRUENEGATIVE],
+				falsePositive = this.sweepConfusion[4 * configuration + FALSEPOSITIVE],
+				falseNegative = this.sweepConfusion[4 * configuration + FALSENEGATIVE];
+		final double tpfp = truePositive + falsePositive,
+				tpfn = truePositive + falseNegative,
+				totalSeen = trueNegative + truePositive + falseNegative + falsePositive;
+		return new double[] {
+				tpfp == 0d ? 0d : truePositive / tpfp,
+				tpfn == 0d ? 0d : truePositive / tpfn,
+				totalSeen == 0d ? 0d : (trueNegative + truePositive) / totalSeen
+		};
+	}
+
+	@Override
+	protected Measurement[] getModelMeasurementsImpl() {
+		Measurement[] measurements = super.getModelMeasurementsImpl();
+		final int configurations = this.getConfigurationCount();
+		Measurement[] all = Arrays.copyOf(measurements, measurements.length + 3 * configurations);
+		for (int c = 0, m = measurements.length; c < configurations; c++) {
+			String name = this.getConfigurationName(c);
+			double[] results = this.getConfigurationResults(c);
+			all[m++] = new Measurement(name + " precision", results[0]);
+			all[m++] = new Measurement(name + " recall", results[1]);
+			all[m++] = new Measurement(name + " accuracy", results[2]);
+		}
+		return all;
+	}
+
+	// Names the smoothing technique and parameter of the classifier like the swept ones.
+	private String getClassifierName() {
+		switch (this.getSmoothingTechnique()) {
+			case ABSOLUTEDISCOUNTING :
+				return SweepSmoothingTechnique.name("ABSOLUTEDISCOUNTING delta", this.getAbsoluteDiscountingDelta());
+			case JALINEKMERCERSMOOTHING :
+				return SweepSmoothingTechnique.name("JALINEKMERCERSMOOTHING lambda", this.getJalinekMercerSmoothingLambda());
+			case BAYESIANSMOOTHING :
+				return SweepSmoothingTechnique.name("BAYESIANSMOOTHING mu", this.getBayesianSmoothingMu());
+			case BACKGROUNDONLY :
+				return "BACKGROUNDONLY";
+			default :
+				return SweepSmoothingTechnique.name("STUPIDBACKOFF alpha", this.getStupidBackoffAlpha());
+		}
+	}
+
+	private static String name(String parameter, double value) {
+		return String.format(Locale.ROOT, "%s=%s", parameter, value);
+	}
+
+	// Parses a list of numbers separated by commas or spaces.
+	private static double[] parse(String values) {
+		String trimmed = values.trim();
+		if (trimmed.isEmpty())
+			return new double[0];
+		String[] listed = trimmed.split("[,\\s]+");
+		double[] parsed = new double[listed.length];
+		for (int i = 0; i < listed.length; i++)
+			parsed[i] = Double.parseDouble(listed[i]);
+		return parsed;
+	}
+}
@@ -1,8 +1,26 @@
 package moa.classifiers.smoothing.smoothingtechniques;
 
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
-public class BackgroundModel {
+public class BackgroundModel implements ReadOnlyBackgroundModel {
+
+	private static final long serialVersionUID = 1L;
 
 	private static final double VocabularyRestrictCount = 10d;
 	private static final double sigma = 0.5d;
@@ -13,12 +31,38 @@ public class BackgroundModel {
 					"for", "from", "how", "in", "is", "it", "of", "on", "or", "that", "the", "this", "to", "was", "what",
 					"when", "where", "who", "will", "with", "the", "www" }
 	));
+	// The stop words again so tokens can be checked without becoming Strings.
+	private static final Vocabulary StopWordIds = new Vocabulary();
+	static {
+		for (String word : BackgroundModel.StopWords)
+			BackgroundModel.StopWordIds.add(word);
+	}
+
+	// Snapshot file layout, see save().
+	private static final int SnapshotMagic = 0x4D424D53;	// "SMBM" little endian.
+	static final int SnapshotVersion = 2;
+	static final Charset UTF8 = Charset.forName("UTF-8");
 
-	private int totalCount;
-	private final Map<String, Double> probabilities;
+	// Counts while the model is being built, dropped once the probabilities are calculated.
+	private Vocabulary counted;
+	private int[] counts;
+	private long totalCount;
+
+	// Frozen model, words are ordered by descending probability so the common words share cache lines.
+	private String[] words;
+	private int[] hashes;
+	private double[] probabilities;
+	// Natural log of each probability, 0 where the probability is 0, see getLogProbability().
+	private double[] logProbabilities;
+	// The lowest and highest nonzero probabilities, 0 when no word has a probability.
+	private double minimumProbability, maximumProbability;
+	// Open addressing index over the words, each slot holds the word index + 1 (0 is an empty slot).
+	private int[] index;
+	private int indexMask;
+	// Size of the frozen model, 0 until getMemoryBytes() calculates it.
+	private long memoryBytes;
 
 	public BackgroundModel() {
-		this.probabilities = new HashMap<>();
 		this.reset();
 	}
 
@@ -28,11 +72,56 @@ public class BackgroundModel {
 	 */
 	public void buildProbabilities(List<String> words) {
 		this.reset();
-		for (String word : words) {
-			//  Skip stop words in BM.
-			if (!BackgroundModel.StopWords.contains((word)))
-				this.addOccurrence(word);
-		}
+		for (String word : words)
+			this.addWord(word);
+		this.finish();
+	}
+
+	/**
+	 * Count the words of the tweet currently held by the tokenizer, lets the model be built while
+	 * streaming over the background data so only the vocabulary is kept in memory.
+	 * @param tokenizer the tokenizer holding the tweet.
+	 */
+	public void addTweet(Tokenizer tokenizer) {
+		final char[] chars = tokenizer.getChars();
+		for (int i = 0, size = tokenizer.size(); i < size; i++)
+			this.addWord(chars, tokenizer.getStart(i), tokenizer.getLength(i), tokenizer.getHash(i));
+	}
+
+	/**
+	 * Count a single word from the background data set.
+	 * @param word the word to count.
+	 */
+	public void addWord(String word) {
+		//  Skip stop words in BM.
+		if (!BackgroundModel.StopWords.contains((word)))
+			this.addOccurrence(word);
+	}
+
+	/**
+	 * Count the word held in the given range of chars.
+	 * @param hash The hash of the word, equal to the hashCode() of the word as a String.
+	 */
+	public void addWord(char[] chars, int start, int length, int hash) {
+		//  Skip stop words in BM.
+		if (BackgroundModel.StopWordIds.getId(chars, start, length, hash) < 0)
+			this.count(this.counted.add(chars, start, length, hash), 1);
+	}
+
+	/**
+	 * Adds the counts of another model that is still being built to this one.
+	 * @param other the model whose counts to add, it is left unchanged.
+	 */
+	public void addCounts(BackgroundModel other) {
+		for (int id = 0, size = other.counted.size(); id < size; id++)
+			this.count(this.counted.add(other.counted.getWord(id)), other.counts[id]);
+	}
+
+	/**
+	 * Calculates the probabilities of all counted words, the model is read only afterwards until
+	 * it is reset.
+	 */
+	public void finish() {
 		this.calcProbabilities();
 	}
 
@@ -41,37 +130,440 @@ public class BackgroundModel {
 	 * @param word The word to get the probability of.
 	 * @return The probability of the given word
 	 */
-	public Double getProbability(String word) {
-		Double prob = this.probabilities.get(word);
-		return prob == null ? 0f : prob;
+	@Override
+	public double getProbability(String word) {
+		return this.getProbability(this.indexOf(word));
+	}
+
+	/**
+	 * Gets the probability of the word at the given index, vocabulary ids built on this model are indexes.
+	 * @param index The index of the word, out of range indexes (such as -1) have a probability of 0.
+	 * @return The probability of the word.
+	 */
+	@Override
+	public double getProbability(int index) {
+		return index >= 0 && index < this.probabilities.length ? this.probabilities[index] : 0d;
+	}
+
+	/**
+	 * Gets the natural log of the probability of the word at the given index, calculated when the model
+	 * is frozen so scoring does not take the log of background probabilities.
+	 * @param index The index of the word.
+	 * @return The log probability of the word, 0 if its probability is 0 as perplexity leaves those words out.
+	 */
+	@Override
+	public double getLogProbability(int index) {
+		return index >= 0 && index < this.logProbabilities.length ? this.logProbabilities[index] : 0d;
+	}
+
+	/**
+	 * Get the lowest probability of any word that has one, used to bound the score of unseen words.
+	 * @return the lowest nonzero probability, 0 if the model is empty.
+	 */
+	@Override
+	public double getMinimumProbability() {
+		return this.minimumProbability;
+	}
+
+	/**
+	 * Get the highest probability of any word.
+	 * @return the highest probability, 0 if the model is empty.
+	 */
+	@Override
+	public double getMaximumProbability() {
+		return this.maximumProbability;
+	}
+
+	/**
+	 * Gets the index of the given word.
+	 * @param word The word to find.
+	 * @return The index of the word or -1 if it has no probability.
+	 */
+	@Override
+	public int indexOf(String word) {
+		final int hash = word.hashCode();
+		for (int slot = Vocabulary.mix(hash) & this.indexMask; ; slot = (slot + 1) & this.indexMask) {
+			int i = this.index[slot] - 1;
+			if (i < 0)
+				return -1;
+			if (this.hashes[i] == hash && this.words[i].equals(word))
+				return i;
+		}
+	}
+
+	/**
+	 * Gets the index of the word held in the given range of chars.
+	 * @param hash The hash of the word, equal to the hashCode() of the word as a String.
+	 * @return The index of the word or -1 if it has no probability.
+	 */
+	@Override
+	public int indexOf(char[] chars, int start, int length, int hash) {
+		for (int slot = Vocabulary.mix(hash) & this.indexMask; ; slot = (slot + 1) & this.indexMask) {
+			int i = this.index[slot] - 1;
+			if (i < 0)
+				return -1;
+			if (this.hashes[i] == hash && Vocabulary.matches(this.words[i], chars, start, length))
+				return i;
+		}
+	}
+
+	/**
+	 * Gets the word at the given index.
+	 * @param index The index of the word.
+	 * @return The word.
+	 */
+	@Override
+	public String getWord(int index) {
+		return this.words[index];
+	}
+
+	/**
+	 * Get the number of words with a probability.
+	 * @return the number of words.
+	 */
+	@Override
+	public int size() {
+		return this.words.length;
+	}
+
+	/**
+	 * Estimates the bytes used by the frozen model, the words and the arrays over them. The model does
+	 * not change once it is frozen, so the words are only measured on the first call.
+	 * @return the size of the model in bytes.
+	 */
+	@Override
+	public long getMemoryBytes() {
+		if (this.memoryBytes == 0L) {
+			final int size = this.words.length;
+			long bytes = MemoryEstimate.arrayBytes(size, MemoryEstimate.Reference)
+					+ MemoryEstimate.arrayBytes(size, 4) + 2 * MemoryEstimate.arrayBytes(size, 8)
+					+ MemoryEstimate.arrayBytes(this.index.length, 4);
+			for (String word : this.words)
+				bytes += MemoryEstimate.stringBytes(word.length());
+			this.memoryBytes = bytes;
+		}
+		return this.memoryBytes;
 	}
 
 	/**
 	 * Resets the background models probabilities.
 	 */
 	public void reset() {
-		this.probabilities.clear();
 		this.totalCount = 0;
+		this.freeze(new int[0]);
+		this.counted = new Vocabulary();
+		this.counts = new int[1024];
 	}
 
 	protected void addOccurrence(String word) {
-		Double count = this.probabilities.get(word);
-		if (count == null) this.probabilities.put(word, 1d);
-		else this.probabilities.put(word, count + 1);
-		this.totalCount++;
+		this.count(this.counted.add(word), 1);
+	}
+
+	private void count(int id, int occurrences) {
+		if (id == this.counts.length)
+			this.counts = Arrays.copyOf(this.counts, id * 2);
+		this.counts[id] += occurrences;
+		this.totalCount += occurrences;
 	}
 
 	protected void calcProbabilities() {
-		double total = this.totalCount;
-		for (Iterator<Map.Entry<String, Double>> it = this.probabilities.entrySet().iterator(); it.hasNext(); ) {
-			Map.Entry<String, Double> entry = it.next();
-			double wordCount = entry.getValue();
-			if (wordCount <= BackgroundModel.VocabularyRestrictCount) {
-				it.remove();
+		// Sort the kept words by descending count, ties keep the order they were first seen in.
+		long[] order = new long[this.counted.size()];
+		int kept = 0;
+		for (int id = 0; id < order.length; id++) {
+			int wordCount = this.counts[id];
+			if (wordCount <= BackgroundModel.VocabularyRestrictCount)
+				continue;
+			order[kept++] = ((long) (Integer.MAX_VALUE - wordCount) << 32) | id;
+		}
+		order = Arrays.copyOf(order, kept);
+		Arrays.sort(order);
+
+		int[] ids = new int[kept];
+		for (int i = 0; i < kept; i++)
+			ids[i] = (int) order[i];
+		this.freeze(ids);
+	}
+
+	/**
+	 * Replaces the counts with the read only layout holding the given words, the model
+	 * does not change after this until it is reset.
+	 * @param ids the ids of the counted words to keep, in the order they are stored.
+	 */
+	private void freeze(int[] ids) {
+		final int size = ids.length;
+		final double total = this.totalCount;
+		this.words = new String[size];
+		this.hashes = new int[size];
+		this.probabilities = new double[size];
+		for (int i = 0; i < size; i++) {
+			String word = this.counted.getWord(ids[i]);
+			this.words[i] = word;
+			this.hashes[i] = word.hashCode();
+			this.probabilities[i] = Math.max(this.counts[ids[i]] - BackgroundModel.sigma, 0d) / total;
+		}
+
+		// Keep the index at most half full.
+		int capacity = 2;
+		while (capacity < size * 2)
+			capacity <<= 1;
+		this.index = new int[capacity];
+		this.indexMask = capacity - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = Vocabulary.mix(this.hashes[i]) & this.indexMask;
+			while (this.index[slot] != 0)
+				slot = (slot + 1) & this.indexMask;
+			this.index[slot] = i + 1;
+		}
+		this.calcLogProbabilities();
+		this.memoryBytes = 0L;
+
+		this.counted = null;
+		this.counts = null;
+	}
+
+	private void calcLogProbabilities() {
+		this.logProbabilities = new double[this.probabilities.length];
+		double minimum = Double.MAX_VALUE, maximum = 0d;
+		for (int i = 0; i < this.probabilities.length; i++) {
+			final double probability = this.probabilities[i];
+			this.logProbabilities[i] = probability == 0d ? 0d : Math.log(probability);
+			if (probability == 0d)
 				continue;
+			minimum = Math.min(minimum, probability);
+			maximum = Math.max(maximum, probability);
+		}
+		this.minimumProbability = maximum == 0d ? 0d : minimum;
+		this.maximumProbability = maximum;
+	}
+
+	/**
+	 * Writes the frozen model to a binary snapshot that load() can map back in.
+	 * The layout (little endian) is a header of the magic, version and key, padded to 8 bytes,
+	 * then the word count, index capacity, minimum and maximum probability, double[] probabilities,
+	 * double[] log probabilities, int[] hashes, int[] index, int[] UTF-8 offsets of the words (one more
+	 * than the count) and the UTF-8 bytes. MappedBackgroundModel reads the columns in place.
+	 * @param file the file to write, it is replaced atomically.
+	 * @param key identifies what the model was built from, load() only accepts a matching key.
+	 * @throws IOException if the snapshot could not be written.
+	 */
+	@Override
+	public void save(File file, String key) throws IOException {
+		final int size = this.size();
+		byte[] keyBytes = key.getBytes(BackgroundModel.UTF8);
+		byte[][] encoded = new byte[size][];
+		long wordBytes = 0;
+		for (int i = 0; i < size; i++) {
+			encoded[i] = this.words[i].getBytes(BackgroundModel.UTF8);
+			wordBytes += encoded[i].length;
+		}
+		if (wordBytes > Integer.MAX_VALUE)
+			throw new IOException("Background model is too large for a snapshot.");
+
+		final long headerLength = BackgroundModel.getSnapshotHeaderLength(keyBytes.length);
+		final long length = headerLength + 24 + size * 16L + size * 4L + this.index.length * 4L + (size + 1) * 4L
+				+ wordBytes;
+
+		// A temporary file of its own next to the file, so two writers of the file do not write over each other.
+		File temp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean moved = false;
+		try {
+			try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+				out.setLength(length);
+				MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				BackgroundModel.putSnapshotHeader(buffer, keyBytes);
+				buffer.putInt(size).putInt(this.index.length);
+				buffer.putDouble(this.minimumProbability).putDouble(this.maximumProbability);
+				buffer.asDoubleBuffer().put(this.probabilities);
+				buffer.position(buffer.position() + size * 8);
+				buffer.asDoubleBuffer().put(this.logProbabilities);
+				buffer.position(buffer.position() + size * 8);
+				buffer.asIntBuffer().put(this.hashes);
+				buffer.position(buffer.position() + size * 4);
+				buffer.asIntBuffer().put(this.index);
+				buffer.position(buffer.position() + this.index.length * 4);
+				int offset = 0;
+				for (int i = 0; i < size; i++) {
+					buffer.putInt(offset);
+					offset += encoded[i].length;
+				}
+				buffer.putInt(offset);
+				for (int i = 0; i < size; i++)
+					buffer.put(encoded[i]);
+				buffer.force();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if (!moved)
+				Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Loads a model written by save() by memory mapping it.
+	 * @param file the snapshot file.
+	 * @param key the key the snapshot has to have been saved with.
+	 * @return the model, or null if the file is missing, from another version, has another key, is cut short
+	 * or its sizes do not fit the file.
+	 * @throws IOException if the snapshot could not be read.
+	 */
+	public static BackgroundModel load(File file, String key) throws IOException {
+		if (!file.isFile())
+			return null;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (!BackgroundModel.readSnapshotHeader(buffer, key))
+				return null;
+
+			final int size = buffer.getInt(), capacity = buffer.getInt();
+			final double minimum = buffer.getDouble(), maximum = buffer.getDouble();
+			// Check the sizes against the file before allocating, a corrupt snapshot is not used.
+			if (size < 0 || capacity <= 0 || Integer.bitCount(capacity) != 1
+					|| size * 16L + size * 4L + capacity * 4L + (size + 1) * 4L > buffer.remaining())
+				return null;
+			double[] probabilities = new double[size], logProbabilities = new double[size];
+			int[] hashes = new int[size], index = new int[capacity], offsets = new int[size + 1];
+			buffer.asDoubleBuffer().get(probabilities);
+			buffer.position(buffer.position() + size * 8);
+			buffer.asDoubleBuffer().get(logProbabilities);
+			buffer.position(buffer.position() + size * 8);
+			buffer.asIntBuffer().get(hashes);
+			buffer.position(buffer.position() + size * 4);
+			buffer.asIntBuffer().get(index);
+			buffer.position(buffer.position() + capacity * 4);
+			buffer.asIntBuffer().get(offsets);
+			buffer.position(buffer.position() + (size + 1) * 4);
+			if (offsets[0] != 0 || offsets[size] > buffer.remaining())
+				return null;
+			for (int i = 0; i < size; i++)
+				if (offsets[i + 1] < offsets[i])
+					return null;
+			for (int slot : index)
+				if (slot < 0 || slot > size)
+					return null;
+			byte[] bytes = new byte[offsets[size]];
+			buffer.get(bytes);
+
+			String[] words = new String[size];
+			for (int i = 0; i < size; i++)
+				words[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], BackgroundModel.UTF8);
+
+			BackgroundModel model = new BackgroundModel();
+			model.counted = null;
+			model.counts = null;
+			model.words = words;
+			model.hashes = hashes;
+			model.probabilities = probabilities;
+			model.logProbabilities = logProbabilities;
+			model.minimumProbability = minimum;
+			model.maximumProbability = maximum;
+			model.index = index;
+			model.indexMask = capacity - 1;
+			return model;
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the magic, version and key of a snapshot and moves the buffer past the padding of the header.
+	 */
+	static void putSnapshotHeader(ByteBuffer buffer, byte[] keyBytes) {
+		final int start = buffer.position();
+		buffer.putInt(BackgroundModel.SnapshotMagic).putInt(BackgroundModel.SnapshotVersion)
+				.putInt(keyBytes.length).put(keyBytes);
+		buffer.position(start + (int) BackgroundModel.getSnapshotHeaderLength(keyBytes.length));
+	}
+
+	/**
+	 * Checks the magic, version and key of a snapshot and moves the buffer past the header.
+	 * @return true if the snapshot can be used.
+	 */
+	static boolean readSnapshotHeader(ByteBuffer buffer, String key) {
+		if (buffer.remaining() < 12 || buffer.getInt() != BackgroundModel.SnapshotMagic
+				|| buffer.getInt() != BackgroundModel.SnapshotVersion)
+			return false;
+		final int keyLength = buffer.getInt();
+		if (keyLength < 0 || keyLength > buffer.remaining())
+			return false;
+		byte[] keyBytes = new byte[keyLength];
+		buffer.get(keyBytes);
+		// A snapshot cut short in the padding of the header is not used either.
+		final long headerLength = BackgroundModel.getSnapshotHeaderLength(keyBytes.length);
+		if (!key.equals(new String(keyBytes, BackgroundModel.UTF8)) || headerLength > buffer.limit())
+			return false;
+		buffer.position((int) headerLength);
+		return true;
+	}
+
+	// The header padded to 8 bytes, in longs so the key length of a corrupt snapshot does not wrap around.
+	static long getSnapshotHeaderLength(int keyLength) {
+		return (12L + keyLength + 7L) & ~7L;
+	}
+
+	/**
+	 * Serializes the frozen model as its primitive arrays and the UTF-8 bytes of its words rather than
+	 * field by field, see Frozen.
+	 * @return the object written in place of the model.
+	 * @throws ObjectStreamException if the model is still being built.
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		if (this.counted != null && this.counted.size() > 0)
+			throw new NotSerializableException("Only a finished background model can be serialized.");
+		return new Frozen(this);
+	}
+
+	// The serialized form of a frozen model, the same columns as a snapshot.
+	private static final class Frozen implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double minimumProbability, maximumProbability;
+		private final double[] probabilities, logProbabilities;
+		private final int[] hashes, index, offsets;
+		private final byte[] bytes;
+
+		Frozen(final BackgroundModel model) {
+			final int size = model.size();
+			byte[][] encoded = new byte[size][];
+			this.offsets = new int[size + 1];
+			for (int i = 0; i < size; i++) {
+				encoded[i] = model.words[i].getBytes(BackgroundModel.UTF8);
+				this.offsets[i + 1] = this.offsets[i] + encoded[i].length;
 			}
-			double prob = Math.max(wordCount - BackgroundModel.sigma, 0d) / total;
-			this.probabilities.put(entry.getKey(), prob);
+			this.bytes = new byte[this.offsets[size]];
+			for (int i = 0; i < size; i++)
+				System.arraycopy(encoded[i], 0, this.bytes, this.offsets[i], encoded[i].length);
+			this.minimumProbability = model.minimumProbability;
+			this.maximumProbability = model.maximumProbability;
+			this.probabilities = model.probabilities;
+			this.logProbabilities = model.logProbabilities;
+			this.hashes = model.hashes;
+			this.index = model.index;
+		}
+
+		private Object readResolve() {
+			final int size = this.offsets.length - 1;
+			String[] words = new String[size];
+			for (int i = 0; i < size; i++)
+				words[i] = new String(this.bytes, this.offsets[i], this.offsets[i + 1] - this.offsets[i], BackgroundModel.UTF8);
+
+			BackgroundModel model = new BackgroundModel();
+			model.counted = null;
+			model.counts = null;
+			model.words = words;
+			model.hashes = this.hashes;
+			model.probabilities = this.probabilities;
+			model.logProbabilities = this.logProbabilities;
+			model.minimumProbability = this.minimumProbability;
+			model.maximumProbability = this.maximumProbability;
+			model.index = this.index;
+			model.indexMask = this.index.length - 1;
+			return model;
 		}
 	}
 }
@@ -0,0 +1,167 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.streams.InstanceStream;
+import weka.core.Instance;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Trains from a stream in three stages. A reader thread takes the instances from the stream in chunks,
+ * a pool of workers gets the tweets out of the instances of a chunk and tokenizes them, and the calling
+ * thread is the single writer that trains the tokenized tweets in the order of the stream.
+ * Chunks are handed on through bounded queues, once the writer is a few chunks behind the reader waits
+ * for it. Chunks keep their tokenizers and are reused, so the pipeline does not allocate once it runs.
+ * Only the writer changes the model, in the order of the stream, so the model ends up the same as when
+ * every instance is trained in turn.
+ */
+public class IngestPipeline {
+
+	private static final int ChunkSize = 256;
+
+	/**
+	 * Trains the instances of the stream, called on the writer thread in the order of the stream.
+	 */
+	public interface Writer {
+		/**
+		 * Trains an instance whose tweet was tokenized.
+		 * @param inst the instance.
+		 * @param tokenizer holds the tokens of the tweet of the instance, they are not resolved.
+		 */
+		void train(Instance inst, Tokenizer tokenizer);
+	}
+
+	private final Tokenizer tokenizer;
+	private final int threads;
+
+	/**
+	 * @param tokenizer the tokenizer settings to use, every tweet in flight gets its own copy.
+	 * @param threads the number of threads tokenizing.
+	 */
+	public IngestPipeline(final Tokenizer tokenizer, final int threads) {
+		this.tokenizer = tokenizer;
+		this.threads = threads;
+	}
+
+	/**
+	 * Trains the instances of the stream on the calling thread while they are read and tokenized ahead.
+	 * If reading, tokenizing or training fails the instances before it are trained and the error is thrown.
+	 * @param stream the training instances.
+	 * @param limit the most instances to take from the stream, -1 for all of them.
+	 * @param tweetIndex the index of the tweet attribute.
+	 * @param writer trains each instance.
+	 * @return the number of instances trained.
+	 */
+	public long run(final InstanceStream stream, final long limit, final int tweetIndex, final Writer writer) {
+		// A chunk is free, queued, being tokenized or being trained, the ordered queue has room for the end.
+		final int chunks = this.threads * 2 + 2;
+		final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(chunks);
+		final BlockingQueue<Chunk> ordered = new ArrayBlockingQueue<>(chunks + 1);
+		for (int i = 0; i < chunks; i++)
+			free.add(new Chunk(this.tokenizer, tweetIndex));
+
+		final ExecutorService workers = Executors.newFixedThreadPool(this.threads,
+				IngestPipeline.daemonThreads("ingest-tokenizer"));
+		final ExecutorService reader = Executors.newSingleThreadExecutor(IngestPipeline.daemonThreads("ingest-reader"));
+		long trained = 0L;
+		try {
+			Future<Void> read = reader.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws InterruptedException {
+					try {
+						long count = 0L;
+						while ((limit < 0 || count < limit) && stream.hasMoreInstances()) {
+							Chunk chunk = free.take();
+							chunk.length = 0;
+							// The instances read before the stream fails are still trained.
+							try {
+								while (chunk.length < IngestPipeline.ChunkSize && (limit < 0 || count < limit)
+										&& stream.hasMoreInstances()) {
+									Instance inst = stream.nextInstance();
+									chunk.instances[chunk.length++] = inst;
+									count++;
+								}
+							} finally {
+								chunk.tokenized = workers.submit(chunk);
+								ordered.put(chunk);
+							}
+						}
+					} finally {
+						ordered.offer(Chunk.End);
+					}
+					return null;
+				}
+			});
+
+			for (Chunk chunk = ordered.take(); chunk != Chunk.End; chunk = ordered.take()) {
+				chunk.tokenized.get();
+				for (int i = 0; i < chunk.length; i++) {
+					writer.train(chunk.instances[i], chunk.tokenizers[i]);
+					chunk.instances[i] = null;
+				}
+				trained += chunk.length;
+				free.put(chunk);
+			}
+			read.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while training from the stream.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not read or tokenize the training stream.", e.getCause());
+		} finally {
+			reader.shutdownNow();
+			workers.shutdownNow();
+		}
+		return trained;
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	// Up to ChunkSize instances and a tokenizer for each, tokenized by a worker.
+	private static final class Chunk implements Runnable {
+
+		// Marks the end of the stream in the ordered queue.
+		static final Chunk End = new Chunk(null, 0);
+
+		final Instance[] instances;
+		final Tokenizer[] tokenizers;
+		final int tweetIndex;
+		int length;
+		Future<?> tokenized;
+
+		Chunk(final Tokenizer tokenizer, final int tweetIndex) {
+			this.tweetIndex = tweetIndex;
+			if (tokenizer == null) {
+				this.instances = null;
+				this.tokenizers = null;
+				return;
+			}
+			this.instances = new Instance[IngestPipeline.ChunkSize];
+			this.tokenizers = new Tokenizer[IngestPipeline.ChunkSize];
+			for (int i = 0; i < IngestPipeline.ChunkSize; i++)
+				this.tokenizers[i] = tokenizer.copy();
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < this.length; i++)
+				this.tokenizers[i].tokenize(this.instances[i].stringValue(this.tweetIndex));
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Background Model read in place from a snapshot written by BackgroundModel.save(). The columns stay
+ * in the memory mapped file instead of being copied onto the heap, so every JVM on a host that maps the
+ * same snapshot shares one copy in the page cache and the heap only holds a few buffers.
+ * Words are found through the index of the snapshot by comparing their UTF-8 bytes, so lookups give the
+ * same ids and probabilities as the model load() returns. The model is read only and can be read from
+ * any number of threads, reset() drops the mapping. It is serialized as the path and key of the
+ * snapshot, which is mapped again when it is read.
+ */
+public class MappedBackgroundModel implements ReadOnlyBackgroundModel {
+
+	private static final long serialVersionUID = 1L;
+
+	private File file;
+	private String key;
+	private int size, indexMask;
+	private double minimumProbability, maximumProbability;
+	// The columns of the snapshot, read with absolute gets so concurrent readers do not share a position.
+	private ByteBuffer probabilities, logProbabilities, hashes, index, offsets, bytes;
+
+	private MappedBackgroundModel() {
+	}
+
+	/**
+	 * Maps a snapshot written by BackgroundModel.save().
+	 * @param file the snapshot file.
+	 * @param key the key the snapshot has to have been saved with.
+	 * @return the model, or null if the file is missing, from another version, has another key or is cut short.
+	 * @throws IOException if the snapshot could not be read.
+	 */
+	public static MappedBackgroundModel open(File file, String key) throws IOException {
+		if (!file.isFile())
+			return null;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = in.getChannel();
+			final long length = channel.size();
+			ByteBuffer header = MappedBackgroundModel.read(channel, 0, 12);
+			if (header == null)
+				return null;
+			final int keyLength = header.getInt(8);
+			if (keyLength < 0)
+				return null;
+			final long headerLength = BackgroundModel.getSnapshotHeaderLength(keyLength);
+			header = MappedBackgroundModel.read(channel, 0, headerLength + 24);
+			if (header == null || !BackgroundModel.readSnapshotHeader(header, key))
+				return null;
+
+			final int size = header.getInt(), capacity = header.getInt();
+			long position = headerLength + 24;
+			final long end = position + size * 16L + size * 4L + capacity * 4L + (size + 1) * 4L;
+			if (size < 0 || capacity <= 0 || end > length)
+				return null;
+
+			MappedBackgroundModel model = new MappedBackgroundModel();
+			model.probabilities = MappedBackgroundModel.map(channel, position, size * 8L);
+			model.logProbabilities = MappedBackgroundModel.map(channel, position += size * 8L, size * 8L);
+			model.hashes = MappedBackgroundModel.map(channel, position += size * 8L, size * 4L);
+			model.index = MappedBackgroundModel.map(channel, position += size * 4L, capacity * 4L);
+			model.offsets = MappedBackgroundModel.map(channel, position += capacity * 4L, (size + 1) * 4L);
+			position += (size + 1) * 4L;
+			final int wordBytes = model.offsets.getInt(size * 4);
+			if (wordBytes < 0 || position + wordBytes > length)
+				return null;
+			model.bytes = MappedBackgroundModel.map(channel, position, wordBytes);
+
+			model.file = file;
+			model.key = key;
+			model.size = size;
+			model.indexMask = capacity - 1;
+			model.minimumProbability = header.getDouble();
+			model.maximumProbability = header.getDouble();
+			return model;
+		}
+	}
+
+	@Override
+	public double getProbability(String word) {
+		return this.getProbability(this.indexOf(word));
+	}
+
+	@Override
+	public double getProbability(int index) {
+		return index >= 0 && index < this.size ? this.probabilities.getDouble(index << 3) : 0d;
+	}
+
+	@Override
+	public double getLogProbability(int index) {
+		return index >= 0 && index < this.size ? this.logProbabilities.getDouble(index << 3) : 0d;
+	}
+
+	@Override
+	public double getMinimumProbability() {
+		return this.minimumProbability;
+	}
+
+	@Override
+	public double getMaximumProbability() {
+		return this.maximumProbability;
+	}
+
+	@Override
+	public int indexOf(String word) {
+		return this.indexOf(word.toCharArray(), 0, word.length(), word.hashCode());
+	}
+
+	@Override
+	public int indexOf(char[] chars, int start, int length, int hash) {
+		if (this.size == 0)
+			return -1;
+		for (int slot = Vocabulary.mix(hash) & this.indexMask; ; slot = (slot + 1) & this.indexMask) {
+			int i = this.index.getInt(slot << 2) - 1;
+			if (i < 0)
+				return -1;
+			if (this.hashes.getInt(i << 2) == hash && this.matches(i, chars, start, length))
+				return i;
+		}
+	}
+
+	/**
+	 * Gets the word at the given index, decoded from the snapshot on every call.
+	 * @param index The index of the word.
+	 * @return The word.
+	 */
+	@Override
+	public String getWord(int index) {
+		if (index < 0 || index >= this.size)
+			throw new ArrayIndexOutOfBoundsException(index);
+		final int from = this.offsets.getInt(index << 2);
+		byte[] word = new byte[this.offsets.getInt((index + 1) << 2) - from];
+		for (int i = 0; i < word.length; i++)
+			word[i] = this.bytes.get(from + i);
+		return new String(word, BackgroundModel.UTF8);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * The columns are off heap in the page cache, only the buffers over them are on the heap.
+	 * @return 0, see getMappedBytes() for the size of the mapping.
+	 */
+	@Override
+	public long getMemoryBytes() {
+		return 0L;
+	}
+
+	/**
+	 * Get the number of bytes of the snapshot that are mapped.
+	 * @return the size of the columns in bytes.
+	 */
+	public long getMappedBytes() {
+		if (this.size == 0)
+			return 0L;
+		return this.probabilities.capacity() + (long) this.logProbabilities.capacity() + this.hashes.capacity()
+				+ this.index.capacity() + this.offsets.capacity() + this.bytes.capacity();
+	}
+
+	/**
+	 * Writes the mapped columns to a snapshot with the given key, the same file BackgroundModel.save()
+	 * writes for the model.
+	 * @param file the file to write, it is replaced atomically.
+	 * @param key identifies what the model was built from, open() only accepts a matching key.
+	 * @throws IOException if the snapshot could not be written.
+	 */
+	@Override
+	public void save(File file, String key) throws IOException {
+		if (this.file == null)
+			throw new IOException("The mapped background model was reset.");
+		if (file.getCanonicalFile().equals(this.file.getCanonicalFile())) {
+			if (key.equals(this.key))
+				return;
+			throw new IOException("The mapped background model can not replace its own snapshot.");
+		}
+		final byte[] keyBytes = key.getBytes(BackgroundModel.UTF8);
+		ByteBuffer header = ByteBuffer.allocate((int) BackgroundModel.getSnapshotHeaderLength(keyBytes.length) + 24)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		BackgroundModel.putSnapshotHeader(header, keyBytes);
+		header.putInt(this.size).putInt(this.indexMask + 1);
+		header.putDouble(this.minimumProbability).putDouble(this.maximumProbability);
+		header.flip();
+
+		File temp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean moved = false;
+		try {
+			try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE)) {
+				for (ByteBuffer column : new ByteBuffer[] { header, this.probabilities, this.logProbabilities,
+						this.hashes, this.index, this.offsets, this.bytes }) {
+					// A duplicate so concurrent readers do not see the position move.
+					ByteBuffer buffer = column.duplicate();
+					buffer.rewind();
+					while (buffer.hasRemaining())
+						out.write(buffer);
+				}
+				out.force(false);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if (!moved)
+				Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Drops the mapping, the model is empty afterwards. The pages are unmapped once the buffers are
+	 * garbage collected. Only for a model nothing else reads, the classifier never resets the model it reads.
+	 */
+	public void reset() {
+		this.file = null;
+		this.key = null;
+		this.size = 0;
+		this.minimumProbability = 0d;
+		this.maximumProbability = 0d;
+		this.probabilities = this.logProbabilities = this.hashes = this.index = this.offsets = this.bytes = null;
+	}
+
+	// Serialized as the snapshot to map, see Mapping.
+	private Object writeReplace() throws ObjectStreamException {
+		if (this.file == null)
+			throw new NotSerializableException("The mapped background model was reset.");
+		return new Mapping(this.file, this.key);
+	}
+
+	// The serialized form, the snapshot to map.
+	private static final class Mapping implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+		private final String key;
+
+		Mapping(final File file, final String key) {
+			this.file = file;
+			this.key = key;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			IOException cause = null;
+			try {
+				MappedBackgroundModel model = MappedBackgroundModel.open(this.file, this.key);
+				if (model != null)
+					return model;
+			} catch (IOException e) {
+				cause = e;
+			}
+			InvalidObjectException failure = new InvalidObjectException(
+					"Could not map the background model snapshot " + this.file);
+			failure.initCause(cause);
+			throw failure;
+		}
+	}
+
+	// Compares the UTF-8 bytes of the word at the index with the chars, decoding into UTF-16 as it goes.
+	private boolean matches(final int index, final char[] chars, final int start, final int length) {
+		final ByteBuffer bytes = this.bytes;
+		final int to = this.offsets.getInt((index + 1) << 2), end = start + length;
+		int c = start;
+		for (int p = this.offsets.getInt(index << 2); p < to; ) {
+			int b = bytes.get(p++) & 0xFF, codePoint;
+			if (b < 0x80)
+				codePoint = b;
+			else if (b < 0xE0)
+				codePoint = (b & 0x1F) << 6 | (bytes.get(p++) & 0x3F);
+			else if (b < 0xF0)
+				codePoint = (b & 0x0F) << 12 | (bytes.get(p++) & 0x3F) << 6 | (bytes.get(p++) & 0x3F);
+			else
+				codePoint = (b & 0x07) << 18 | (bytes.get(p++) & 0x3F) << 12 | (bytes.get(p++) & 0x3F) << 6
+						| (bytes.get(p++) & 0x3F);
+
+			if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				if (c == end || chars[c++] != codePoint)
+					return false;
+			} else if (end - c < 2 || chars[c++] != Character.highSurrogate(codePoint)
+					|| chars[c++] != Character.lowSurrogate(codePoint))
+				return false;
+		}
+		return c == end;
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Background model column is too large to map.");
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Reads the start of the file, null if it is shorter than that.
+	private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+		if (length > channel.size() - position)
+			return null;
+		ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				return null;
+		buffer.flip();
+		return buffer;
+	}
+}
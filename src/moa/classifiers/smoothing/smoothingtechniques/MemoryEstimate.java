@@ -0,0 +1,38 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+/**
+ * Estimates the bytes used by arrays and strings on a 64 bit HotSpot JVM with compressed references:
+ * 16 byte array headers, 24 byte String objects and every allocation rounded up to 8 bytes.
+ * The models add up the arrays they hold, so accounting is O(1) where walking the object graph with
+ * sizeofag is O(model) and needs the agent on the command line.
+ */
+public final class MemoryEstimate {
+
+	public static final int ArrayHeader = 16, StringObject = 24, Reference = 4;
+
+	private MemoryEstimate() {
+	}
+
+	/**
+	 * Estimates the size of an array.
+	 * @param length the length of the array.
+	 * @param elementBytes the size of an element, Reference for object arrays.
+	 * @return the size in bytes.
+	 */
+	public static long arrayBytes(final long length, final int elementBytes) {
+		return MemoryEstimate.align(ArrayHeader + length * elementBytes);
+	}
+
+	/**
+	 * Estimates the size of a String and its chars.
+	 * @param length the length of the string.
+	 * @return the size in bytes.
+	 */
+	public static long stringBytes(final int length) {
+		return StringObject + MemoryEstimate.arrayBytes(length, 2);
+	}
+
+	private static long align(final long bytes) {
+		return (bytes + 7L) & ~7L;
+	}
+}
@@ -0,0 +1,123 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.streams.InstanceStream;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a background model on a fork-join pool. The stream is read on the calling thread and handed
+ * out in chunks of tweets, each chunk is tokenized and counted into its own table by a worker and the
+ * tables are merged in the order of the stream before the probabilities are calculated.
+ */
+public class ParallelBackgroundModelBuilder {
+
+	private static final int ChunkSize = 2048;
+	// The most threads a ForkJoinPool takes.
+	private static final int MaxThreads = 0x7fff;
+
+	private final Tokenizer tokenizer;
+	private final int threads;
+	private final boolean requireHashTag;
+
+	/**
+	 * @param tokenizer the tokenizer settings to use, every worker gets its own copy.
+	 * @param threads the number of worker threads.
+	 */
+	public ParallelBackgroundModelBuilder(final Tokenizer tokenizer, final int threads) {
+		this(tokenizer, threads, true);
+	}
+
+	/**
+	 * @param tokenizer the tokenizer settings to use, every worker gets its own copy.
+	 * @param threads the number of worker threads.
+	 * @param requireHashTag if true only tweets with the hash-tag of the tokenizer are counted.
+	 */
+	public ParallelBackgroundModelBuilder(final Tokenizer tokenizer, final int threads, final boolean requireHashTag) {
+		this.tokenizer = tokenizer;
+		this.threads = threads;
+		this.requireHashTag = requireHashTag;
+	}
+
+	/**
+	 * Counts the valid tweets of the stream and calculates the probabilities.
+	 * @param stream the background data.
+	 * @param tweetIndex the index of the tweet attribute.
+	 * @return the finished background model.
+	 */
+	public BackgroundModel build(final InstanceStream stream, final int tweetIndex) {
+		final ThreadLocal<Tokenizer> workerTokenizer = new ThreadLocal<Tokenizer>() {
+			@Override
+			protected Tokenizer initialValue() {
+				return ParallelBackgroundModelBuilder.this.tokenizer.copy();
+			}
+		};
+
+		// The chunk counts are merged in the order of the stream, so words are first seen in the same order
+		// as when the model is built on one thread and the model is the same on every run.
+		BackgroundModel backgroundModel = new BackgroundModel();
+		final int threads = Math.max(1, Math.min(this.threads, ParallelBackgroundModelBuilder.MaxThreads));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			// Only keep a few chunks per thread in flight so reading does not run ahead of counting.
+			Deque<ForkJoinTask<CountChunk>> pending = new ArrayDeque<>();
+			String[] chunk = new String[ChunkSize];
+			int length = 0;
+			while (stream.hasMoreInstances()) {
+				chunk[length++] = stream.nextInstance().stringValue(tweetIndex);
+				if (length < ChunkSize)
+					continue;
+				pending.add(pool.submit(new CountChunk(workerTokenizer, chunk, length, this.requireHashTag)));
+				if (pending.size() >= threads * 2)
+					backgroundModel.addCounts(pending.poll().join().counts);
+				chunk = new String[ChunkSize];
+				length = 0;
+			}
+			if (length > 0)
+				pending.add(pool.submit(new CountChunk(workerTokenizer, chunk, length, this.requireHashTag)));
+			while (!pending.isEmpty())
+				backgroundModel.addCounts(pending.poll().join().counts);
+		} finally {
+			pool.shutdown();
+		}
+
+		backgroundModel.finish();
+		return backgroundModel;
+	}
+
+	// Counts the valid tweets of one chunk into a table of its own.
+	private static final class CountChunk extends RecursiveTask<CountChunk> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ThreadLocal<Tokenizer> workerTokenizer;
+		private final String[] tweets;
+		private final int length;
+		private final boolean requireHashTag;
+		final BackgroundModel counts = new BackgroundModel();
+
+		CountChunk(final ThreadLocal<Tokenizer> workerTokenizer, final String[] tweets, final int length,
+				   final boolean requireHashTag) {
+			this.workerTokenizer = workerTokenizer;
+			this.tweets = tweets;
+			this.length = length;
+			this.requireHashTag = requireHashTag;
+		}
+
+		@Override
+		protected CountChunk compute() {
+			Tokenizer tokenizer = this.workerTokenizer.get();
+			for (int i = 0; i < this.length; i++) {
+				tokenizer.tokenize(this.tweets[i]);
+				// Invalid tweet.
+				if (tokenizer.accept(this.requireHashTag))
+					this.counts.addTweet(tokenizer);
+			}
+			return this;
+		}
+	}
+}
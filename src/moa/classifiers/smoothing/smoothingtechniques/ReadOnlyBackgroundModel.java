@@ -0,0 +1,89 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A finished Background Model as the vocabulary and the foreground models read it. A BackgroundModel is
+ * built on the heap and read from once it is finished, a MappedBackgroundModel is read in place from a
+ * snapshot. Neither changes while it is read, so it can be read from any number of threads. Nothing
+ * can be changed through this interface, only the owner of the concrete model clears it.
+ */
+public interface ReadOnlyBackgroundModel extends Serializable {
+
+	/**
+	 * Gets the probability of the given word.
+	 * @param word The word to get the probability of.
+	 * @return The probability of the given word
+	 */
+	double getProbability(String word);
+
+	/**
+	 * Gets the probability of the word at the given index, vocabulary ids built on this model are indexes.
+	 * @param index The index of the word, out of range indexes (such as -1) have a probability of 0.
+	 * @return The probability of the word.
+	 */
+	double getProbability(int index);
+
+	/**
+	 * Gets the natural log of the probability of the word at the given index.
+	 * @param index The index of the word.
+	 * @return The log probability of the word, 0 if its probability is 0 as perplexity leaves those words out.
+	 */
+	double getLogProbability(int index);
+
+	/**
+	 * Get the lowest probability of any word that has one, used to bound the score of unseen words.
+	 * @return the lowest nonzero probability, 0 if the model is empty.
+	 */
+	double getMinimumProbability();
+
+	/**
+	 * Get the highest probability of any word.
+	 * @return the highest probability, 0 if the model is empty.
+	 */
+	double getMaximumProbability();
+
+	/**
+	 * Gets the index of the given word.
+	 * @param word The word to find.
+	 * @return The index of the word or -1 if it has no probability.
+	 */
+	int indexOf(String word);
+
+	/**
+	 * Gets the index of the word held in the given range of chars.
+	 * @param hash The hash of the word, equal to the hashCode() of the word as a String.
+	 * @return The index of the word or -1 if it has no probability.
+	 */
+	int indexOf(char[] chars, int start, int length, int hash);
+
+	/**
+	 * Gets the word at the given index.
+	 * @param index The index of the word.
+	 * @return The word.
+	 */
+	String getWord(int index);
+
+	/**
+	 * Get the number of words with a probability.
+	 * @return the number of words.
+	 */
+	int size();
+
+	/**
+	 * Estimates the bytes of the heap the model uses.
+	 * @return the size of the model in bytes.
+	 */
+	long getMemoryBytes();
+
+	/**
+	 * Writes the model to a binary snapshot that BackgroundModel.load() and MappedBackgroundModel.open()
+	 * read back.
+	 * @param file the file to write, it is replaced atomically.
+	 * @param key identifies what the model was built from, only a matching key reads the snapshot back.
+	 * @throws IOException if the snapshot could not be written.
+	 */
+	void save(File file, String key) throws IOException;
+}
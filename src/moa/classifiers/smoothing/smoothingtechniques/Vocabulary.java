@@ -0,0 +1,340 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import java.util.Arrays;
+
+/**
+ * Maps each word to a dense int id, ids are handed out in the order words are added.
+ * Words can be looked up from a range of a char buffer so tokens do not need to become Strings.
+ * A vocabulary can be built on a background model, the background words then keep their index
+ * in the model as id and only the words the model does not know are stored here.
+ * Those words can be reference counted, a word is removed and its id reused once it is released
+ * by everything that retained it.
+ */
+public class Vocabulary {
+
+	private static final int InitialCapacity = 1024;
+
+	private final ReadOnlyBackgroundModel base;
+	private final int baseSize;
+
+	// Open addressing with linear probing, each slot holds the local id + 1 (0 is an empty slot).
+	private int[] table;
+	private String[] words;
+	private int[] hashes, references;
+	// Local ids that were released and can be handed out again.
+	private int[] free;
+	private int size, freeCount, mask;
+	// Total length of the stored words, for getMemoryBytes().
+	private long wordChars;
+
+	public Vocabulary() {
+		this((ReadOnlyBackgroundModel) null);
+	}
+
+	/**
+	 * @param base the background model whose words take the first ids, it must not change afterwards.
+	 */
+	public Vocabulary(final ReadOnlyBackgroundModel base) {
+		this.base = base;
+		this.baseSize = base == null ? 0 : base.size();
+		this.clear();
+	}
+
+	private Vocabulary(final Vocabulary other) {
+		this.base = other.base;
+		this.baseSize = other.baseSize;
+		this.table = other.table.clone();
+		this.words = other.words.clone();
+		this.hashes = other.hashes.clone();
+		this.references = other.references.clone();
+		this.free = other.free.clone();
+		this.size = other.size;
+		this.freeCount = other.freeCount;
+		this.mask = other.mask;
+		this.wordChars = other.wordChars;
+	}
+
+	/**
+	 * Copies the vocabulary, the copy shares the background model. A copy that is not changed can be
+	 * read from many threads while the original keeps changing.
+	 * @return the copy.
+	 */
+	public Vocabulary copy() {
+		return new Vocabulary(this);
+	}
+
+	/**
+	 * Gets the id of the given word.
+	 * @param word The word to get the id of.
+	 * @return The id of the word or -1 if it is not in the vocabulary.
+	 */
+	public int getId(final String word) {
+		if (this.base != null) {
+			int id = this.base.indexOf(word);
+			if (id >= 0)
+				return id;
+		}
+		final int hash = word.hashCode();
+		for (int slot = Vocabulary.mix(hash) & this.mask; ; slot = (slot + 1) & this.mask) {
+			int id = this.table[slot] - 1;
+			if (id < 0)
+				return -1;
+			if (this.hashes[id] == hash && this.words[id].equals(word))
+				return this.baseSize + id;
+		}
+	}
+
+	/**
+	 * Gets the id of the word held in the given range of chars.
+	 * @param chars The buffer holding the word.
+	 * @param start The index of the first char of the word.
+	 * @param length The length of the word.
+	 * @param hash The hash of the word, equal to the hashCode() of the word as a String.
+	 * @return The id of the word or -1 if it is not in the vocabulary.
+	 */
+	public int getId(final char[] chars, final int start, final int length, final int hash) {
+		if (this.base != null) {
+			int id = this.base.indexOf(chars, start, length, hash);
+			if (id >= 0)
+				return id;
+		}
+		for (int slot = Vocabulary.mix(hash) & this.mask; ; slot = (slot + 1) & this.mask) {
+			int id = this.table[slot] - 1;
+			if (id < 0)
+				return -1;
+			if (this.hashes[id] == hash && Vocabulary.matches(this.words[id], chars, start, length))
+				return this.baseSize + id;
+		}
+	}
+
+	/**
+	 * Adds the word if it is not already in the vocabulary.
+	 * @param word The word to add.
+	 * @return The id of the word.
+	 */
+	public int add(final String word) {
+		int id = this.getId(word);
+		return id >= 0 ? id : this.insert(word, word.hashCode());
+	}
+
+	/**
+	 * Adds the word held in the given range of chars if it is not already in the vocabulary.
+	 * @return The id of the word.
+	 */
+	public int add(final char[] chars, final int start, final int length, final int hash) {
+		int id = this.getId(chars, start, length, hash);
+		return id >= 0 ? id : this.insert(new String(chars, start, length), hash);
+	}
+
+	/**
+	 * Gets the word with the given id.
+	 * @param id The id of the word.
+	 * @return The word.
+	 */
+	public String getWord(final int id) {
+		return id < this.baseSize ? this.base.getWord(id) : this.words[id - this.baseSize];
+	}
+
+	/**
+	 * Get the upper bound of the ids, ids range from 0 to size() - 1 but removed ids leave gaps.
+	 * @return one more than the largest id.
+	 */
+	public int size() {
+		return this.baseSize + this.size;
+	}
+
+	/**
+	 * Get the number of words that are not from the background model.
+	 * @return the number of words stored in this vocabulary.
+	 */
+	public int getForegroundWordCount() {
+		return this.size - this.freeCount;
+	}
+
+	/**
+	 * Adds a reference to the given word, background words are never removed so they are not counted.
+	 * @param id The id of the word.
+	 */
+	public void retain(final int id) {
+		if (id >= this.baseSize)
+			this.references[id - this.baseSize]++;
+	}
+
+	/**
+	 * Removes a reference to the given word, the word is removed once it has no references left.
+	 * @param id The id of the word.
+	 * @throws IllegalStateException if the word has no references, it was released more often than retained.
+	 */
+	public void release(final int id) {
+		if (id < this.baseSize)
+			return;
+		final int local = id - this.baseSize;
+		// A free id is no longer in the table, removing it again would probe for it forever.
+		if (local >= this.size || this.references[local] <= 0)
+			throw new IllegalStateException("The word with id " + id + " has no references to release.");
+		if (--this.references[local] == 0)
+			this.remove(local);
+	}
+
+	/**
+	 * Estimates the bytes used by the words stored in this vocabulary, the background model is not included.
+	 * @return the size of the vocabulary in bytes.
+	 */
+	public long getMemoryBytes() {
+		// Each word is a String and its chars, rounding the chars up to 8 bytes adds 4 on average.
+		final long strings = this.getForegroundWordCount()
+				* (long) (MemoryEstimate.StringObject + MemoryEstimate.ArrayHeader + 4) + this.wordChars * 2;
+		return MemoryEstimate.arrayBytes(this.table.length, 4)
+				+ MemoryEstimate.arrayBytes(this.words.length, MemoryEstimate.Reference)
+				+ MemoryEstimate.arrayBytes(this.hashes.length, 4) + MemoryEstimate.arrayBytes(this.references.length, 4)
+				+ MemoryEstimate.arrayBytes(this.free.length, 4) + strings;
+	}
+
+	/**
+	 * Copies the words that are not from the background model, for a checkpoint.
+	 * @return the word of each id - base size, null where the id is free.
+	 */
+	public String[] getForegroundWords() {
+		return Arrays.copyOf(this.words, this.size);
+	}
+
+	/**
+	 * Copies the references of the words that are not from the background model, for a checkpoint.
+	 * @return the references of each id - base size.
+	 */
+	public int[] getForegroundReferences() {
+		return Arrays.copyOf(this.references, this.size);
+	}
+
+	/**
+	 * Copies the ids that were released and will be handed out again, for a checkpoint.
+	 * @return the free ids less the base size, the last is handed out first.
+	 */
+	public int[] getFreeIds() {
+		return Arrays.copyOf(this.free, this.freeCount);
+	}
+
+	/**
+	 * Replaces the words that are not from the background model, so every word gets back the id it had
+	 * when the arrays were copied and new words are handed the same ids they would have been.
+	 * @param words the word of each id - base size, null where the id is free.
+	 * @param references the references of each id - base size.
+	 * @param free the free ids less the base size, the last is handed out first.
+	 */
+	public void restore(final String[] words, final int[] references, final int[] free) {
+		int capacity = InitialCapacity;
+		while (capacity < words.length)
+			capacity <<= 1;
+		this.table = new int[capacity * 2];
+		this.mask = this.table.length - 1;
+		this.words = Arrays.copyOf(words, capacity);
+		this.hashes = new int[capacity];
+		this.references = Arrays.copyOf(references, capacity);
+		this.free = Arrays.copyOf(free, Math.max(free.length, 16));
+		this.size = words.length;
+		this.freeCount = free.length;
+		this.wordChars = 0;
+		for (int id = 0; id < this.size; id++) {
+			if (this.words[id] == null)
+				continue;
+			this.hashes[id] = this.words[id].hashCode();
+			this.wordChars += this.words[id].length();
+			this.place(id);
+		}
+	}
+
+	/**
+	 * Get the background model the first ids belong to.
+	 * @return the background model or null.
+	 */
+	public ReadOnlyBackgroundModel getBase() {
+		return this.base;
+	}
+
+	/**
+	 * Removes all words that are not from the background model.
+	 */
+	public void clear() {
+		this.table = new int[InitialCapacity * 2];
+		this.mask = this.table.length - 1;
+		this.words = new String[InitialCapacity];
+		this.hashes = new int[InitialCapacity];
+		this.references = new int[InitialCapacity];
+		this.free = new int[16];
+		this.size = 0;
+		this.freeCount = 0;
+		this.wordChars = 0;
+	}
+
+	private int insert(final String word, final int hash) {
+		final int id;
+		if (this.freeCount > 0) {
+			id = this.free[--this.freeCount];
+		} else {
+			if (this.size == this.words.length)
+				this.grow();
+			id = this.size++;
+		}
+		this.words[id] = word;
+		this.hashes[id] = hash;
+		this.references[id] = 0;
+		this.wordChars += word.length();
+		this.place(id);
+		return this.baseSize + id;
+	}
+
+	private void remove(final int id) {
+		int hole = Vocabulary.mix(this.hashes[id]) & this.mask;
+		while (this.table[hole] != id + 1)
+			hole = (hole + 1) & this.mask;
+		// Shift back the following entries that probed past the hole so lookups still find them.
+		for (int slot = (hole + 1) & this.mask; this.table[slot] != 0; slot = (slot + 1) & this.mask) {
+			int home = Vocabulary.mix(this.hashes[this.table[slot] - 1]) & this.mask;
+			if (((slot - home) & this.mask) >= ((slot - hole) & this.mask)) {
+				this.table[hole] = this.table[slot];
+				hole = slot;
+			}
+		}
+		this.table[hole] = 0;
+		this.wordChars -= this.words[id].length();
+		this.words[id] = null;
+
+		if (this.freeCount == this.free.length)
+			this.free = Arrays.copyOf(this.free, this.freeCount * 2);
+		this.free[this.freeCount++] = id;
+	}
+
+	private void place(final int id) {
+		int slot = Vocabulary.mix(this.hashes[id]) & this.mask;
+		while (this.table[slot] != 0)
+			slot = (slot + 1) & this.mask;
+		this.table[slot] = id + 1;
+	}
+
+	// Keep the table at most half full.
+	private void grow() {
+		int capacity = this.words.length * 2;
+		this.words = Arrays.copyOf(this.words, capacity);
+		this.hashes = Arrays.copyOf(this.hashes, capacity);
+		this.references = Arrays.copyOf(this.references, capacity);
+		this.table = new int[capacity * 2];
+		this.mask = this.table.length - 1;
+		for (int id = 0; id < this.size; id++)
+			if (this.words[id] != null)
+				this.place(id);
+	}
+
+	static boolean matches(final String word, final char[] chars, final int start, final int length) {
+		if (word.length() != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (word.charAt(i) != chars[start + i])
+				return false;
+		return true;
+	}
+
+	static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -1,14 +1,14 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground;
 
-import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
-import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCounts;
 
 public class AbsoluteDiscounting extends ForegroundModel {
 
 	protected final double delta;
 
-	public AbsoluteDiscounting(final BackgroundModel bm,
-							   final HistoryRetentionTechnique history,
+	public AbsoluteDiscounting(final ReadOnlyBackgroundModel bm,
+							   final HistoryCounts history,
 							   final double threshold,
 							   final double delta) {
 		super(bm, history, threshold);
@@ -16,14 +16,37 @@ public class AbsoluteDiscounting extends ForegroundModel {
 	}
 
 	@Override
-	protected double getProbability(final String word) {
+	protected ForegroundModel withHistory(final HistoryCounts history) {
+		return new AbsoluteDiscounting(this.bm, history, this.threshold, this.delta);
+	}
+
+	@Override
+	protected double getProbability(final double count, final double backgroundProbability) {
 		//max(c(w;h) - delta, 0).
-		double topLeft = Math.max(this.history.getWordCount(word) - this.delta, 0);
+		double topLeft = Math.max(count - this.delta, 0);
 		// Sum over w, c(w;h).
 		double bottom =  this.history.getAllWordsCounts();
 		// (delta x w_n) x PBw.
-		double topRight = this.delta * this.history.getTotalUniqueWordCount() * this.bm.getProbability(word);
+		double topRight = this.delta * this.history.getTotalUniqueWordCount() * backgroundProbability;
 
 		return (topLeft + topRight) / bottom;
 	}
+
+	// A word has delta x w_n x P_B(w) from the background or at least the smallest count less delta.
+	@Override
+	protected double getLowestLogProbability() {
+		final double bottom = this.history.getAllWordsCounts();
+		final double minimumCount = this.history.getMinimumWordCount();
+		double lowest = this.delta * this.history.getTotalUniqueWordCount() * this.bm.getMinimumProbability();
+		lowest = Math.min(lowest, this.delta < minimumCount ? minimumCount - this.delta : 0d);
+		return bottom == 0 ? Double.NEGATIVE_INFINITY : Math.log(lowest / bottom);
+	}
+
+	@Override
+	protected double getHighestLogProbability() {
+		final double bottom = this.history.getAllWordsCounts();
+		double highest = Math.max(bottom - this.delta, 0)
+				+ this.delta * this.history.getTotalUniqueWordCount() * this.bm.getMaximumProbability();
+		return bottom == 0 ? Double.POSITIVE_INFINITY : Math.log(highest / bottom);
+	}
 }
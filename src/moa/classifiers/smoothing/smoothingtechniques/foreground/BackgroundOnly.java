@@ -1,18 +1,39 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground;
 
-import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
-import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCounts;
 
 public class BackgroundOnly extends ForegroundModel {
 
-	public BackgroundOnly(final BackgroundModel bm,
-						  final HistoryRetentionTechnique history,
+	public BackgroundOnly(final ReadOnlyBackgroundModel bm,
+						  final HistoryCounts history,
 						  final double threshold) {
 		super(bm, history, threshold);
 	}
 
 	@Override
-	protected double getProbability(final String word) {
-		return super.bm.getProbability(word);
+	protected ForegroundModel withHistory(final HistoryCounts history) {
+		return new BackgroundOnly(this.bm, history, this.threshold);
+	}
+
+	@Override
+	protected double getProbability(final double count, final double backgroundProbability) {
+		return backgroundProbability;
+	}
+
+	// The background log probabilities are calculated when the model is frozen.
+	@Override
+	protected double getLogProbability(final int word) {
+		return this.bm.getLogProbability(word);
+	}
+
+	@Override
+	protected double getLowestLogProbability() {
+		return Math.log(this.bm.getMinimumProbability());
+	}
+
+	@Override
+	protected double getHighestLogProbability() {
+		return Math.log(this.bm.getMaximumProbability());
 	}
 }
@@ -1,14 +1,14 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground;
 
-import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
-import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCounts;
 
 public class BayesianSmoothing extends ForegroundModel {
 
 	protected final double mu;
 
-	public BayesianSmoothing(final BackgroundModel bm,
-							 final HistoryRetentionTechnique history,
+	public BayesianSmoothing(final ReadOnlyBackgroundModel bm,
+							 final HistoryCounts history,
 							 final double threshold,
 							 final double mu) {
 		super(bm, history, threshold);
@@ -16,9 +16,26 @@ public class BayesianSmoothing extends ForegroundModel {
 	}
 
 	@Override
-	protected double getProbability(final String word) {
+	protected ForegroundModel withHistory(final HistoryCounts history) {
+		return new BayesianSmoothing(this.bm, history, this.threshold, this.mu);
+	}
+
+	@Override
+	protected double getProbability(final double count, final double backgroundProbability) {
 		// c(w;h) + mu x P_B(W) / (Sum over w c(w;h)) + mu
-		return (this.history.getWordCount(word) + (this.mu * this.bm.getProbability(word))) /
-				(this.history.getAllWordsCounts() + this.mu);
+		return (count + (this.mu * backgroundProbability)) / (this.history.getAllWordsCounts() + this.mu);
+	}
+
+	// A word has mu x P_B(w) from the background or at least the smallest count.
+	@Override
+	protected double getLowestLogProbability() {
+		final double bottom = this.history.getAllWordsCounts() + this.mu;
+		return Math.log(Math.min(this.mu * this.bm.getMinimumProbability(), this.history.getMinimumWordCount()) / bottom);
+	}
+
+	@Override
+	protected double getHighestLogProbability() {
+		final double allWordsCounts = this.history.getAllWordsCounts();
+		return Math.log((allWordsCounts + this.mu * this.bm.getMaximumProbability()) / (allWordsCounts + this.mu));
 	}
 }
@@ -1,71 +1,354 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground;
 
-import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCounts;
 import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
 
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class ForegroundModel {
 
-	protected final BackgroundModel bm;
-	protected final HistoryRetentionTechnique history;
+	protected final ReadOnlyBackgroundModel bm;
+	protected final HistoryCounts history;
+	// The history that is trained, null when the model is a snapshot.
+	private final HistoryRetentionTechnique trainedHistory;
 	protected final double threshold;
 	protected static final double log2 = Math.log(2);
+	// Scratch space for the word probabilities, counts and background probabilities of a batch per thread,
+	// see getPerplexities().
+	private static final ThreadLocal<double[][]> Probabilities = new ThreadLocal<double[][]>() {
+		@Override
+		protected double[][] initialValue() {
+			return new double[][] { new double[0], new double[0], new double[0] };
+		}
+	};
+
+	// Log probabilities of the words for one version of the history, direct mapped on the word id.
+	private static final int LogCacheSize = 1 << 10;
+	// Snapshots are scored from many threads, their models do not cache.
+	private final boolean cacheLogs;
+	// Each slot holds the word id + 1 (0 is an empty slot) and the history version the log belongs to.
+	private int[] logCacheWords;
+	private long[] logCacheVersions;
+	private double[] logCacheValues;
+	// Words getClassification() did not need to score, shared with the snapshots of the model.
+	private AtomicLong wordsSkipped = new AtomicLong();
 
-	public ForegroundModel(final BackgroundModel bm,
-						   final HistoryRetentionTechnique history,
+	/**
+	 * @param bm the background model.
+	 * @param history the history to train, or a snapshot of one for a read only model.
+	 * @param threshold the perplexity above which a tweet is classified as on topic.
+	 */
+	public ForegroundModel(final ReadOnlyBackgroundModel bm,
+						   final HistoryCounts history,
 						   final double threshold) {
 		this.bm = bm;
 		this.history = history;
 		this.threshold = threshold;
+		this.trainedHistory = history instanceof HistoryRetentionTechnique ? (HistoryRetentionTechnique) history : null;
+		this.cacheLogs = this.trainedHistory != null;
 	}
 
 	/**
 	 * Add the words in the supplied tweet to the current history technique,
 	 * manages the max history requirements internally.
-	 * @param tweet the tweet to add to the current history.
+	 * @param tweet the word ids of the tweet to add to the current history.
+	 * @param length the number of words in the tweet.
+	 */
+	public final void addTweet(int[] tweet, int length) {
+		this.getHistory().addTweet(tweet, length);
+	}
+
+	/**
+	 * Moves the clock of the history forward, see HistoryRetentionTechnique.advanceTime().
+	 * @param time the timestamp of the current instance.
+	 */
+	public final void advanceTime(double time) {
+		this.getHistory().advanceTime(time);
+	}
+
+	/**
+	 * Creates the same foreground model with the same parameters over a different history.
+	 * @param history the history of the new model.
+	 * @return the new foreground model, it shares the background model.
+	 */
+	protected abstract ForegroundModel withHistory(HistoryCounts history);
+
+	/**
+	 * Copies the model over a snapshot of its history, see HistoryRetentionTechnique.snapshot().
+	 * The copy can be scored from any number of threads while this model keeps training, its word ids
+	 * are those of getCounts().getVocabulary() of the copy.
+	 * @return the read only copy.
+	 */
+	public final ForegroundModel snapshot() {
+		ForegroundModel snapshot = this.withHistory(this.history.snapshot());
+		snapshot.wordsSkipped = this.wordsSkipped;
+		return snapshot;
+	}
+
+	/**
+	 * Get the history the model trains.
+	 * @return the history.
+	 * @throws IllegalStateException if the model is a read only snapshot.
+	 */
+	public final HistoryRetentionTechnique getHistory() {
+		if (this.trainedHistory == null)
+			throw new IllegalStateException("A snapshot of a foreground model is read only.");
+		return this.trainedHistory;
+	}
+
+	/**
+	 * Get the counts the model scores with, the history or the snapshot of it.
+	 * @return the counts.
 	 */
-	public final void addTweet(List<String> tweet) {
-		this.history.addTweet(tweet);
+	public final HistoryCounts getCounts() {
+		return this.history;
 	}
 
-	// The specific foreground models probability calculation.
-	protected abstract double getProbability(String word);
+	/**
+	 * The probability of a word from its count in the history and its background probability, the formula
+	 * of the model. Every way of scoring words calls it, the totals are read from the history.
+	 * @param count the history count of the word.
+	 * @param backgroundProbability the background probability of the word.
+	 * @return the probability of the word.
+	 */
+	protected abstract double getProbability(double count, double backgroundProbability);
+
+	// The probability of a word, word is -1 if it is not in the vocabulary.
+	protected final double getProbability(final int word) {
+		return this.getProbability(this.history.getWordCount(word), this.getBackgroundProbability(word));
+	}
+
+	/**
+	 * Gets the background probability of the given word, the vocabulary is built on the background
+	 * model so the id is the index of the word in the model.
+	 * @param word The id of the word, -1 for a word that is not in the vocabulary.
+	 * @return The background probability of the word.
+	 */
+	protected final double getBackgroundProbability(final int word) {
+		return this.bm.getProbability(word);
+	}
+
+	/**
+	 * Calculates the probability of each word in [from, to) from its count in the history and its
+	 * background probability into the same slots of probabilities.
+	 * @param counts the history count of each word.
+	 * @param backgroundProbabilities the background probability of each word.
+	 * @param from the first word to calculate.
+	 * @param to one past the last word to calculate.
+	 * @param probabilities receives the probabilities.
+	 */
+	protected final void getProbabilities(final double[] counts, final double[] backgroundProbabilities,
+										  final int from, final int to, final double[] probabilities) {
+		for (int i = from; i < to; i++)
+			probabilities[i] = this.getProbability(counts[i], backgroundProbabilities[i]);
+	}
 
 	/**
 	 * Calculates the perplexity for the the given tweet.
-	 * @param tweet The tweet to calculate the perplexity for.
+	 * @param tweet The word ids of the tweet to calculate the perplexity for.
+	 * @param length the number of words in the tweet.
 	 * @return The perplexity of the given tweet.
 	 */
-	public final double getPerplexity(List<String> tweet) {
-		double sum = 0d, prob;
+	public final double getPerplexity(int[] tweet, int length) {
+		double sum = 0d;
+
+		for (int i = 0; i < length; i++)
+			sum += this.getLogProbability(tweet[i]);
+		return ForegroundModel.toPerplexity(sum, length);
+	}
+
+	/**
+	 * Calculates the perplexity of a tweet from the counts and background probabilities of its words, so
+	 * they are looked up once for any number of models over the same history and background model.
+	 * The same value as getPerplexity() on the word ids.
+	 * @param counts the history count of each word.
+	 * @param backgroundProbabilities the background probability of each word.
+	 * @param length the number of words in the tweet.
+	 * @param probabilities scratch space for at least length probabilities.
+	 * @return The perplexity of the tweet.
+	 */
+	public final double getPerplexity(double[] counts, double[] backgroundProbabilities, int length,
+									  double[] probabilities) {
+		this.getProbabilities(counts, backgroundProbabilities, 0, length, probabilities);
+		double sum = 0d;
+		for (int i = 0; i < length; i++)
+			sum += ForegroundModel.log(probabilities[i]);
+		return ForegroundModel.toPerplexity(sum, length);
+	}
+
+	/**
+	 * Gets the natural log of the probability of the given word, the logs are cached until the history
+	 * changes so words that are scored again before the next training tweet do not take the log again.
+	 * @param word The id of the word, -1 for a word that is not in the vocabulary.
+	 * @return The log probability, 0 if the probability is 0 as perplexity leaves those words out.
+	 */
+	protected double getLogProbability(final int word) {
+		if (word < 0 || !this.cacheLogs)
+			return ForegroundModel.log(this.getProbability(word));
+		final long version = this.history.getVersion();
+		final int slot = word & (ForegroundModel.LogCacheSize - 1);
+		if (this.logCacheWords != null && this.logCacheWords[slot] == word + 1 && this.logCacheVersions[slot] == version)
+			return this.logCacheValues[slot];
+		return this.cacheLog(slot, word, version, this.getProbability(word));
+	}
 
-		for (String w : tweet) {
-			prob = this.getProbability(w);
-			if (prob == 0d)
-				continue;
-			sum += Math.log(prob);
+	// As getLogProbability() when the probability of the word is already known.
+	private double getLogProbability(final int word, final double probability, final long version) {
+		if (word < 0 || !this.cacheLogs)
+			return ForegroundModel.log(probability);
+		final int slot = word & (ForegroundModel.LogCacheSize - 1);
+		if (this.logCacheWords != null && this.logCacheWords[slot] == word + 1 && this.logCacheVersions[slot] == version)
+			return this.logCacheValues[slot];
+		return this.cacheLog(slot, word, version, probability);
+	}
+
+	private double cacheLog(final int slot, final int word, final long version, final double probability) {
+		if (this.logCacheWords == null) {
+			this.logCacheWords = new int[ForegroundModel.LogCacheSize];
+			this.logCacheVersions = new long[ForegroundModel.LogCacheSize];
+			this.logCacheValues = new double[ForegroundModel.LogCacheSize];
 		}
+		final double log = ForegroundModel.log(probability);
+		this.logCacheWords[slot] = word + 1;
+		this.logCacheVersions[slot] = version;
+		this.logCacheValues[slot] = log;
+		return log;
+	}
+
+	private static double log(final double probability) {
+		return probability == 0d ? 0d : Math.log(probability);
+	}
+
+	/**
+	 * Calculates the perplexity of many tweets, the same values as getPerplexity() on each of them.
+	 * The counts and background probabilities of all the words are looked up in one pass, their
+	 * probabilities calculated in a second and then summed per tweet.
+	 * @param words the word ids of all the tweets one after the other.
+	 * @param offsets tweet t is words[offsets[t], offsets[t + 1]).
+	 * @param tweets the number of tweets.
+	 * @param perplexities receives the perplexity of each tweet.
+	 */
+	public final void getPerplexities(int[] words, int[] offsets, int tweets, double[] perplexities) {
+		final int end = offsets[tweets];
+		final double[][] scratch = ForegroundModel.Probabilities.get();
+		if (scratch[0].length < end) {
+			int capacity = Math.max(end, scratch[0].length * 2);
+			for (int i = 0; i < scratch.length; i++)
+				scratch[i] = new double[capacity];
+		}
+		final double[] probabilities = scratch[0], counts = scratch[1], backgroundProbabilities = scratch[2];
+		for (int i = offsets[0]; i < end; i++) {
+			counts[i] = this.history.getWordCount(words[i]);
+			backgroundProbabilities[i] = this.getBackgroundProbability(words[i]);
+		}
+		this.getProbabilities(counts, backgroundProbabilities, offsets[0], end, probabilities);
+
+		final long version = this.history.getVersion();
+		for (int t = 0; t < tweets; t++) {
+			final int from = offsets[t], to = offsets[t + 1];
+			double sum = 0d;
+			for (int i = from; i < to; i++)
+				sum += this.getLogProbability(words[i], probabilities[i], version);
+			perplexities[t] = ForegroundModel.toPerplexity(sum, to - from);
+		}
+	}
+
+	/**
+	 * Get the perplexity above which a tweet is classified as on topic.
+	 * @return the threshold.
+	 */
+	public final double getThreshold() {
+		return this.threshold;
+	}
+
+	// Turns the sum of the natural log probabilities of a tweet into its perplexity.
+	private static double toPerplexity(double sum, final int length) {
 		// Make it log base 2 and 1 / N
-		sum /= (ForegroundModel.log2 * tweet.size());
+		sum /= (ForegroundModel.log2 * length);
 		sum *= -1;
 
 		return Math.pow(2, sum);
 	}
 
-	//todo:
-	public final boolean getClassification(List<String> tweet) {
-		double perplexity = this.getPerplexity(tweet);
-		return perplexity > this.threshold;
+	/**
+	 * Classifies the tweet, the same as getPerplexity() > getThreshold() but without scoring every word.
+	 * The perplexity is above the threshold when the sum of the log probabilities is below
+	 * -length x log(threshold). After each word the sum is bounded by the lowest and highest log
+	 * probability the remaining words can have, and the tweet is classified as soon as both ends of
+	 * the bound fall on the same side, otherwise the perplexity is calculated exactly.
+	 * @param tweet The word ids of the tweet to classify.
+	 * @param length the number of words in the tweet.
+	 * @return true if the perplexity of the tweet is above the threshold.
+	 */
+	public final boolean getClassification(int[] tweet, int length) {
+		if (length == 0 || !(this.threshold > 0d))
+			return this.getPerplexity(tweet, length) > this.threshold;
+
+		// Words with a probability of 0 add 0, so every remaining word adds between lowest and highest.
+		final double lowest = Math.min(this.getLowestLogProbability(), 0d),
+				highest = Math.max(this.getHighestLogProbability(), 0d);
+		final double target = -Math.log(this.threshold) * length;
+		// Leaves the decisions that rounding could change to the exact perplexity.
+		final double margin = 1e-9 * (1d + Math.abs(target));
+
+		double sum = 0d;
+		for (int i = 0; i < length - 1; i++) {
+			sum += this.getLogProbability(tweet[i]);
+			final int remaining = length - i - 1;
+			if (sum + remaining * highest < target - margin) {
+				this.wordsSkipped.addAndGet(remaining);
+				return true;
+			}
+			if (sum + remaining * lowest > target + margin) {
+				this.wordsSkipped.addAndGet(remaining);
+				return false;
+			}
+		}
+		sum += this.getLogProbability(tweet[length - 1]);
+		return ForegroundModel.toPerplexity(sum, length) > this.threshold;
+	}
+
+	/**
+	 * Bounds the log probability of any word from below for getClassification(), the models override it
+	 * from their current totals assuming no word counts more than getAllWordsCounts() of the history.
+	 * @return the lowest nonzero log probability a word can have, negative infinity if it is not bounded.
+	 */
+	protected double getLowestLogProbability() {
+		return Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Bounds the log probability of any word from above for getClassification().
+	 * @return the highest log probability a word can have, positive infinity if it is not bounded.
+	 */
+	protected double getHighestLogProbability() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Get the number of words getClassification() did not score because the tweet was already classified,
+	 * including the words skipped by snapshots of the model.
+	 * @return the number of skipped words.
+	 */
+	public final long getWordsSkipped() {
+		return this.wordsSkipped.get();
+	}
+
+	/**
+	 * Set the number of words getClassification() did not score, used when the model is restored.
+	 * @param wordsSkipped the number of skipped words.
+	 */
+	public final void setWordsSkipped(final long wordsSkipped) {
+		this.wordsSkipped.set(wordsSkipped);
 	}
 
 	/**
-	 * Clears the current history.
+	 * Clears the current history. The Background Model is left as it is, copies of the classifier and
+	 * snapshots of the history still read it.
 	 */
 	public final void reset() {
-		if (this.bm != null)
-			this.bm.reset();
-		if (this.history != null)
-			this.history.reset();
+		if (this.trainedHistory != null)
+			this.trainedHistory.reset();
 	}
 }
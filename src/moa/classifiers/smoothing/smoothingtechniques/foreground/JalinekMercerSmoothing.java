@@ -1,14 +1,14 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground;
 
-import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
-import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCounts;
 
 public class JalinekMercerSmoothing extends ForegroundModel {
 
 	protected final double lambda, invLambda;
 
-	public JalinekMercerSmoothing(final BackgroundModel bm,
-								  final HistoryRetentionTechnique history,
+	public JalinekMercerSmoothing(final ReadOnlyBackgroundModel bm,
+								  final HistoryCounts history,
 								  final double threshold,
 								  final double lambda) {
 		super(bm, history, threshold);
@@ -17,16 +17,36 @@ public class JalinekMercerSmoothing extends ForegroundModel {
 	}
 
 	@Override
-	protected double getProbability(final String word) {
-		int count = this.history.getAllWordsCounts();
-		double backgroundInfluence = this.invLambda * this.bm.getProbability(word);
+	protected ForegroundModel withHistory(final HistoryCounts history) {
+		return new JalinekMercerSmoothing(this.bm, history, this.threshold, this.lambda);
+	}
+
+	@Override
+	protected double getProbability(final double wordCount, final double backgroundProbability) {
+		double count = this.history.getAllWordsCounts();
+		double backgroundInfluence = this.invLambda * backgroundProbability;
 		// Remove divide by zero error (assume div by 0 = 0).
 		if (count == 0)
 			return backgroundInfluence;
 
-		double foregroundInfluence = this.lambda * (this.history.getWordCount(word) / count);
+		double foregroundInfluence = this.lambda * (wordCount / count);
 
 		// lambda x (c(w;h) / Sum c(w;h)) + (1 - lambda) x P_B(w)
 		return foregroundInfluence + backgroundInfluence;
 	}
+
+	@Override
+	protected double getLowestLogProbability() {
+		final double count = this.history.getAllWordsCounts();
+		double lowest = this.invLambda * this.bm.getMinimumProbability();
+		if (count != 0)
+			lowest = Math.min(lowest, this.lambda * (this.history.getMinimumWordCount() / count));
+		return Math.log(lowest);
+	}
+
+	@Override
+	protected double getHighestLogProbability() {
+		double highest = this.invLambda * this.bm.getMaximumProbability();
+		return Math.log(this.history.getAllWordsCounts() == 0 ? highest : this.lambda + highest);
+	}
 }
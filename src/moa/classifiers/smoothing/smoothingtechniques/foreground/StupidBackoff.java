@@ -1,14 +1,14 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground;
 
-import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
-import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.ReadOnlyBackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCounts;
 
 public class StupidBackoff extends ForegroundModel {
 
 	protected final double alpha, normalizeCount, normalizeProbability;
 
-	public StupidBackoff(final BackgroundModel bm,
-						 final HistoryRetentionTechnique history,
+	public StupidBackoff(final ReadOnlyBackgroundModel bm,
+						 final HistoryCounts history,
 						 final double threshold,
 						 final double alpha) {
 		super(bm, history, threshold);
@@ -18,24 +18,43 @@ public class StupidBackoff extends ForegroundModel {
 		this.normalizeProbability = alpha / (1f + alpha);
 	}
 
+	@Override
+	protected ForegroundModel withHistory(final HistoryCounts history) {
+		return new StupidBackoff(this.bm, history, this.threshold, this.alpha);
+	}
+
 	// Equivalent to the stupid backoff score but normalized into a probability.
 	@Override
-	protected final double getProbability(final String word) {
-		int currWordCount = this.history.getWordCount(word);
+	protected final double getProbability(final double currWordCount, final double backgroundProbability) {
 		if (currWordCount == 0)
-			return this.normalizeProbability * this.bm.getProbability(word);
-		return this.normalizeCount * ((double)currWordCount / this.history.getAllWordsCounts());
+			return this.normalizeProbability * backgroundProbability;
+		return this.normalizeCount * (currWordCount / this.history.getAllWordsCounts());
+	}
+
+	@Override
+	protected double getLowestLogProbability() {
+		final double total = this.history.getAllWordsCounts();
+		double lowest = this.normalizeProbability * this.bm.getMinimumProbability();
+		if (total != 0)
+			lowest = Math.min(lowest, this.normalizeCount * (this.history.getMinimumWordCount() / total));
+		return Math.log(lowest);
+	}
+
+	@Override
+	protected double getHighestLogProbability() {
+		double highest = this.normalizeProbability * this.bm.getMaximumProbability();
+		return Math.log(this.history.getAllWordsCounts() == 0 ? highest : Math.max(highest, this.normalizeCount));
 	}
 
 	/**
 	 * Calculates the stupid backoff score for the given word.
-	 * @param word The word to calculate the score for.
+	 * @param word The id of the word to calculate the score for.
 	 * @return The stupid backoff score for the given word.
 	 */
-	public final double getScore(final String word) {
-		int currWordCount = this.history.getWordCount(word);
+	public final double getScore(final int word) {
+		double currWordCount = this.history.getWordCount(word);
 		if (currWordCount <= 0)
-			return this.alpha * this.bm.getProbability(word);
-		return ((double)currWordCount / this.history.getAllWordsCounts());
+			return this.alpha * this.getBackgroundProbability(word);
+		return (currWordCount / this.history.getAllWordsCounts());
 	}
 }
@@ -0,0 +1,204 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.MemoryEstimate;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import java.util.Arrays;
+
+/**
+ * A FIFO history like Queue whose word counts are kept in a Count-Min Sketch, so the memory used for
+ * counting is fixed by the width and depth rather than the number of distinct words.
+ * Counts are over-estimated by collisions, Count-Mean-Min estimation subtracts the expected noise of
+ * each row. Conservative update lowers the over-estimate further but, because evicted tweets are
+ * decremented from every row, can then under-estimate; estimates never go below 0.
+ */
+public class CountMinSketch extends Queue {
+
+	private final int width, depth, mask;
+	private final boolean conservativeUpdate, countMeanMin;
+	// depth rows of width counters, row r of a word is counters[r * width + hash(r, word)].
+	protected int[] counters;
+	// Estimated number of distinct words, a word counts when its estimate goes from 0 to 1.
+	protected int uniqueWords;
+	private final double[] meanMinEstimates;
+
+	/**
+	 * @param width the number of counters per row, rounded up to a power of two.
+	 * @param depth the number of rows.
+	 * @param conservativeUpdate if true a word only raises the rows that are at its current estimate.
+	 * @param countMeanMin if true use the Count-Mean-Min estimate instead of the minimum.
+	 */
+	public CountMinSketch(final Vocabulary vocabulary, final int historySize, final int width, final int depth,
+						  final boolean conservativeUpdate, final boolean countMeanMin) {
+		super(vocabulary, historySize);
+		int capacity = 1;
+		while (capacity < width && capacity < (1 << 30))
+			capacity <<= 1;
+		this.width = capacity;
+		this.mask = capacity - 1;
+		this.depth = depth;
+		this.conservativeUpdate = conservativeUpdate;
+		this.countMeanMin = countMeanMin;
+		this.counters = new int[capacity * depth];
+		this.meanMinEstimates = new double[depth];
+	}
+
+	@Override
+	public void addWord(final int word) {
+		// Every queued occurrence keeps a reference, the sketch cannot tell when a word's count reaches 0.
+		this.vocabulary.retain(word);
+		final int estimate = this.estimate(word);
+		if (estimate == 0)
+			this.uniqueWords++;
+		for (int row = 0; row < this.depth; row++) {
+			int index = this.index(row, word);
+			if (!this.conservativeUpdate)
+				this.counters[index]++;
+			else if (this.counters[index] <= estimate)
+				this.counters[index] = estimate + 1;
+		}
+		super.totalCount++;
+	}
+
+	@Override
+	protected void removeWord(final int word) {
+		for (int row = 0; row < this.depth; row++) {
+			int index = this.index(row, word);
+			if (this.counters[index] > 0)
+				this.counters[index]--;
+		}
+		if (this.estimate(word) == 0 && this.uniqueWords > 0)
+			this.uniqueWords--;
+		super.totalCount--;
+		super.evictedWords++;
+		this.vocabulary.release(word);
+	}
+
+	@Override
+	public double getWordCount(final int word) {
+		if (word < 0)
+			return 0d;
+		if (!this.countMeanMin)
+			return this.estimate(word);
+
+		// Count-Mean-Min, the median over the rows of the counter less the average of the other counters.
+		final double total = super.totalCount;
+		int minimum = Integer.MAX_VALUE;
+		for (int row = 0; row < this.depth; row++) {
+			int counter = this.counters[this.index(row, word)];
+			minimum = Math.min(minimum, counter);
+			this.meanMinEstimates[row] = counter - (total - counter) / Math.max(this.width - 1, 1);
+		}
+		double median = CountMinSketch.median(this.meanMinEstimates, this.depth);
+		return Math.max(0d, Math.min(median, minimum));
+	}
+
+	// Count-Mean-Min estimates are not whole numbers.
+	@Override
+	public double getMinimumWordCount() {
+		return this.countMeanMin ? 0d : 1d;
+	}
+
+	@Override
+	public int getTotalUniqueWordCount() {
+		return this.uniqueWords;
+	}
+
+	/**
+	 * Copies the estimates of the words in the queue. Words outside of the queue read 0 from the copy
+	 * where the sketch itself could give them a collision count.
+	 * @param counts receives the estimates.
+	 */
+	@Override
+	protected void copyCounts(final WordWeights counts) {
+		for (int i = 0; i < super.wordsSize; i++) {
+			int word = super.words[(super.wordsFirst + i) & super.wordsMask];
+			if (counts.get(word) == 0d)
+				counts.add(word, this.getWordCount(word));
+		}
+	}
+
+	// The sketch is a fixed size whatever the number of distinct words.
+	@Override
+	public long getCountsBytes() {
+		return this.getFixedBytes() + super.set.getMemoryBytes();
+	}
+
+	// The sketch keeps its size when the history is shrunk.
+	@Override
+	public long getFixedBytes() {
+		return MemoryEstimate.arrayBytes(this.counters.length, 4)
+				+ MemoryEstimate.arrayBytes(this.meanMinEstimates.length, 8);
+	}
+
+	/**
+	 * Get the number of bytes used by the counters.
+	 * @return the size of the sketch in bytes.
+	 */
+	public long getSketchBytes() {
+		return this.counters.length * 4L;
+	}
+
+	@Override
+	protected void saveState(final HistoryCheckpoint checkpoint) {
+		super.saveState(checkpoint);
+		checkpoint.putLongs(this.width, this.depth, this.uniqueWords);
+		checkpoint.putInts(this.counters.clone());
+	}
+
+	@Override
+	protected void restoreState(final HistoryCheckpoint checkpoint) {
+		super.restoreState(checkpoint);
+		final long[] state = checkpoint.nextLongs();
+		if (state[0] != this.width || state[1] != this.depth)
+			throw new IllegalArgumentException("The history checkpoint has a sketch of " + state[0] + " by "
+					+ state[1] + ".");
+		this.uniqueWords = (int) state[2];
+		this.counters = checkpoint.nextInts();
+	}
+
+	/**
+	 * Clears the current history, queue and sketch.
+	 * Also calls Queue.reset()
+	 */
+	@Override
+	public void reset() {
+		// Called from the constructor before the sketch exists.
+		if (this.counters != null) {
+			for (int i = 0; i < super.wordsSize; i++)
+				this.vocabulary.release(super.words[(super.wordsFirst + i) & super.wordsMask]);
+			Arrays.fill(this.counters, 0);
+		}
+		this.uniqueWords = 0;
+		super.reset();
+	}
+
+	// The minimum over the rows.
+	private int estimate(final int word) {
+		int minimum = Integer.MAX_VALUE;
+		for (int row = 0; row < this.depth; row++)
+			minimum = Math.min(minimum, this.counters[this.index(row, word)]);
+		return minimum;
+	}
+
+	private int index(final int row, final int word) {
+		// An independent multiplicative hash per row.
+		int hash = (word + 1) * (0x9E3779B9 + (row << 1) * 0x632BE5AB);
+		hash ^= hash >>> 15;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		return row * this.width + (hash & this.mask);
+	}
+
+	private static double median(final double[] values, final int length) {
+		// Depth is small, insertion sort in place.
+		for (int i = 1; i < length; i++) {
+			double value = values[i];
+			int j = i - 1;
+			for (; j >= 0 && values[j] > value; j--)
+				values[j + 1] = values[j];
+			values[j + 1] = value;
+		}
+		return (length & 1) == 1 ? values[length / 2] : (values[length / 2 - 1] + values[length / 2]) / 2d;
+	}
+}
@@ -1,16 +1,16 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
 
-import java.util.List;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
 
 public class Forget extends HistoryRetentionTechnique {
 
-	public Forget(final int historySize) {
-		super(historySize);
+	public Forget(final Vocabulary vocabulary, final int historySize) {
+		super(vocabulary, historySize);
 	}
 
-	protected void addInternalTweet(final List<String> tweet) {
-		for (String word : tweet)
-			this.addWord(word);
+	protected void addInternalTweet(final int[] tweet, final int length) {
+		for (int i = 0; i < length; i++)
+			this.addWord(tweet[i]);
 	}
 
 	/**
@@ -18,6 +18,7 @@ public class Forget extends HistoryRetentionTechnique {
 	 */
 	@Override
 	protected void handleMaxHistorySize() {
+		super.evictedWords += super.totalCount;
 		super.reset();
 		super.currentHistorySize = 0;
 	}
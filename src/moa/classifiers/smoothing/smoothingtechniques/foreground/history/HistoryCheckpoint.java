@@ -0,0 +1,358 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of a history at one point in time: its counts, queued tweets and clock as flat arrays, and
+ * the words of its vocabulary that are not from the background model with their ids. A checkpoint is
+ * captured on the thread that trains the history by copying the arrays, so it can be written to disk
+ * from any other thread while training goes on, and restored into a new history of the same technique.
+ * Each technique adds its sections in saveState() and reads them back in the same order in
+ * restoreState(). Word ids, hash tables and rings are kept as they are, so a restored history carries
+ * on exactly as the one it was captured from. Serialized, it is the same arrays.
+ */
+public class HistoryCheckpoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// File layout, see save().
+	private static final int Magic = 0x43484D53;	// "SMHC" little endian.
+	private static final int Version = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BufferSize = 1 << 20;
+
+	private static final int INTS = 0,
+			DOUBLES = 1,
+			LONGS = 2;
+
+	private final String technique;
+	private final int baseSize;
+	// The position in the stream, the number of training instances seen, kept for the classifier.
+	private long position;
+
+	private final List<Object> sections = new ArrayList<>();
+	private final List<Integer> types = new ArrayList<>();
+	private transient int next;
+
+	// The foreground words of the vocabulary by id - baseSize (null where an id is free), their
+	// references and the free ids.
+	private String[] words;
+	private int[] references, free;
+
+	HistoryCheckpoint(final String technique, final Vocabulary vocabulary) {
+		this.technique = technique;
+		this.baseSize = vocabulary.getBase() == null ? 0 : vocabulary.getBase().size();
+		this.words = vocabulary.getForegroundWords();
+		this.references = vocabulary.getForegroundReferences();
+		this.free = vocabulary.getFreeIds();
+	}
+
+	private HistoryCheckpoint(final String technique, final int baseSize) {
+		this.technique = technique;
+		this.baseSize = baseSize;
+	}
+
+	/**
+	 * Get the name of the history technique the checkpoint was captured from.
+	 * @return the class name of the history.
+	 */
+	public String getTechnique() {
+		return this.technique;
+	}
+
+	/**
+	 * Get the position in the stream the checkpoint was captured at.
+	 * @return the number of training instances seen, 0 unless it was set.
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * Set the position in the stream the checkpoint was captured at, it is saved with the history.
+	 * @param position the number of training instances seen.
+	 */
+	public void setPosition(final long position) {
+		this.position = position;
+	}
+
+	void putInts(final int[] values) {
+		this.put(values, INTS);
+	}
+
+	void putDoubles(final double... values) {
+		this.put(values, DOUBLES);
+	}
+
+	void putLongs(final long... values) {
+		this.put(values, LONGS);
+	}
+
+	int[] nextInts() {
+		return ((int[]) this.next(INTS)).clone();
+	}
+
+	double[] nextDoubles() {
+		return ((double[]) this.next(DOUBLES)).clone();
+	}
+
+	long[] nextLongs() {
+		return (long[]) this.next(LONGS);
+	}
+
+	/**
+	 * Replaces the foreground words of the vocabulary with those of the checkpoint and rewinds to the
+	 * first section, called before the history reads its sections.
+	 * @param vocabulary the vocabulary of the history restored into.
+	 */
+	void restoreVocabulary(final Vocabulary vocabulary) {
+		final int baseSize = vocabulary.getBase() == null ? 0 : vocabulary.getBase().size();
+		if (baseSize != this.baseSize)
+			throw new IllegalArgumentException("The history checkpoint was taken over another background model.");
+		vocabulary.restore(this.words, this.references, this.free);
+		this.next = 0;
+	}
+
+	/**
+	 * Writes the checkpoint through a file channel, safe to call from any thread once it is captured.
+	 * The layout (little endian) is the magic, version, key and technique, the position and background
+	 * model size, the foreground words as UTF-8 (length -1 for a free id), their references and the
+	 * free ids, then each section as its type, length and values.
+	 * @param file the file to write, it is replaced atomically.
+	 * @param key identifies what the history was trained with, load() only accepts a matching key.
+	 * @throws IOException if the checkpoint could not be written.
+	 */
+	public void save(final File file, final String key) throws IOException {
+		// A temporary file of its own next to the file, so two writers of the file do not write over each other.
+		File temp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean moved = false;
+		try {
+			try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE)) {
+				Output out = new Output(channel);
+				out.putInt(HistoryCheckpoint.Magic);
+				out.putInt(HistoryCheckpoint.Version);
+				out.putString(key);
+				out.putString(this.technique);
+				out.putLong(this.position);
+				out.putInt(this.baseSize);
+				out.putInt(this.words.length);
+				for (String word : this.words)
+					out.putString(word);
+				out.putInts(this.references);
+				out.putInts(this.free);
+				out.putInt(this.sections.size());
+				for (int s = 0; s < this.sections.size(); s++) {
+					final int type = this.types.get(s);
+					out.putInt(type);
+					if (type == INTS)
+						out.putInts((int[]) this.sections.get(s));
+					else if (type == DOUBLES)
+						out.putDoubles((double[]) this.sections.get(s));
+					else
+						out.putLongs((long[]) this.sections.get(s));
+				}
+				out.flush();
+				channel.force(false);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if (!moved)
+				Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Loads a checkpoint written by save() by memory mapping it.
+	 * @param file the checkpoint file.
+	 * @param key the key the checkpoint has to have been saved with.
+	 * @return the checkpoint, or null if the file is missing, from another version, has another key or is cut short.
+	 * @throws IOException if the checkpoint could not be read.
+	 */
+	public static HistoryCheckpoint load(final File file, final String key) throws IOException {
+		if (!file.isFile())
+			return null;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			if (in.length() > Integer.MAX_VALUE)
+				throw new IOException("History checkpoint is too large to map.");
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != HistoryCheckpoint.Magic || buffer.getInt() != HistoryCheckpoint.Version
+					|| !key.equals(HistoryCheckpoint.getString(buffer)))
+				return null;
+
+			final String technique = HistoryCheckpoint.getString(buffer);
+			final long position = buffer.getLong();
+			HistoryCheckpoint checkpoint = new HistoryCheckpoint(technique, buffer.getInt());
+			checkpoint.position = position;
+			checkpoint.words = new String[HistoryCheckpoint.getLength(buffer, 4)];
+			for (int i = 0; i < checkpoint.words.length; i++)
+				checkpoint.words[i] = HistoryCheckpoint.getString(buffer);
+			checkpoint.references = HistoryCheckpoint.getInts(buffer, HistoryCheckpoint.getLength(buffer, 4));
+			checkpoint.free = HistoryCheckpoint.getInts(buffer, HistoryCheckpoint.getLength(buffer, 4));
+			for (int s = 0, sections = buffer.getInt(); s < sections; s++) {
+				final int type = buffer.getInt(), length = HistoryCheckpoint.getLength(buffer, type == INTS ? 4 : 8);
+				final Object values;
+				if (type == INTS) {
+					values = HistoryCheckpoint.getInts(buffer, length);
+				} else if (type == DOUBLES) {
+					double[] doubles = new double[length];
+					buffer.asDoubleBuffer().get(doubles);
+					buffer.position(buffer.position() + length * 8);
+					values = doubles;
+				} else if (type == LONGS) {
+					long[] longs = new long[length];
+					buffer.asLongBuffer().get(longs);
+					buffer.position(buffer.position() + length * 8);
+					values = longs;
+				} else {
+					return null;
+				}
+				checkpoint.sections.add(values);
+				checkpoint.types.add(type);
+			}
+			return checkpoint;
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			return null;
+		}
+	}
+
+	private void put(final Object values, final int type) {
+		this.sections.add(values);
+		this.types.add(type);
+	}
+
+	private Object next(final int type) {
+		if (this.next == this.sections.size() || this.types.get(this.next) != type)
+			throw new IllegalStateException("The history checkpoint does not match " + this.technique + ".");
+		return this.sections.get(this.next++);
+	}
+
+	private static String getString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0)
+			return null;
+		if (length > buffer.remaining())
+			throw new BufferUnderflowException();
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, HistoryCheckpoint.UTF8);
+	}
+
+	// Reads the number of values that follow, a corrupt length larger than the rest of the file is not allocated.
+	private static int getLength(final ByteBuffer buffer, final int valueBytes) {
+		final int length = buffer.getInt();
+		if (length < 0)
+			throw new NegativeArraySizeException();
+		if ((long) length * valueBytes > buffer.remaining())
+			throw new BufferUnderflowException();
+		return length;
+	}
+
+	private static int[] getInts(final ByteBuffer buffer, final int length) {
+		int[] ints = new int[length];
+		buffer.asIntBuffer().get(ints);
+		buffer.position(buffer.position() + length * 4);
+		return ints;
+	}
+
+	// Buffers the writes to the channel, arrays are copied in bulk.
+	private static final class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(HistoryCheckpoint.BufferSize)
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		Output(final FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(final int value) throws IOException {
+			this.reserve(4);
+			this.buffer.putInt(value);
+		}
+
+		void putLong(final long value) throws IOException {
+			this.reserve(8);
+			this.buffer.putLong(value);
+		}
+
+		// null is written as length -1.
+		void putString(final String value) throws IOException {
+			if (value == null) {
+				this.putInt(-1);
+				return;
+			}
+			byte[] bytes = value.getBytes(HistoryCheckpoint.UTF8);
+			this.putInt(bytes.length);
+			for (int i = 0; i < bytes.length; ) {
+				this.reserve(1);
+				int n = Math.min(bytes.length - i, this.buffer.remaining());
+				this.buffer.put(bytes, i, n);
+				i += n;
+			}
+		}
+
+		void putInts(final int[] values) throws IOException {
+			this.putInt(values.length);
+			for (int i = 0; i < values.length; ) {
+				this.reserve(4);
+				int n = Math.min(values.length - i, this.buffer.remaining() / 4);
+				this.buffer.asIntBuffer().put(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 4);
+				i += n;
+			}
+		}
+
+		void putDoubles(final double[] values) throws IOException {
+			this.putInt(values.length);
+			for (int i = 0; i < values.length; ) {
+				this.reserve(8);
+				int n = Math.min(values.length - i, this.buffer.remaining() / 8);
+				this.buffer.asDoubleBuffer().put(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 8);
+				i += n;
+			}
+		}
+
+		void putLongs(final long[] values) throws IOException {
+			this.putInt(values.length);
+			for (int i = 0; i < values.length; ) {
+				this.reserve(8);
+				int n = Math.min(values.length - i, this.buffer.remaining() / 8);
+				this.buffer.asLongBuffer().put(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 8);
+				i += n;
+			}
+		}
+
+		void flush() throws IOException {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining())
+				this.channel.write(this.buffer);
+			this.buffer.clear();
+		}
+
+		private void reserve(final int bytes) throws IOException {
+			if (this.buffer.remaining() < bytes)
+				this.flush();
+		}
+	}
+}
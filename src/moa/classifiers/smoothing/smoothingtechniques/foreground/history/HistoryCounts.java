@@ -0,0 +1,53 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+/**
+ * The counts of a history as the foreground models read them. A HistoryRetentionTechnique is the live
+ * history that is trained, a HistorySnapshot a read only copy of its counts at one point in time.
+ */
+public interface HistoryCounts {
+
+	/**
+	 * Gets the count of the given word in the history, time based techniques can weight the count.
+	 * @param word The id of the word, -1 for a word that is not in the vocabulary.
+	 * @return The count of the word.
+	 */
+	double getWordCount(int word);
+
+	/**
+	 * Get the sum of the counts of all the words in the history.
+	 * @return the total count.
+	 */
+	double getAllWordsCounts();
+
+	/**
+	 * Get the smallest nonzero count getWordCount() can return, used to bound the probability of words.
+	 * @return the smallest nonzero count, 0 if there is no such bound.
+	 */
+	double getMinimumWordCount();
+
+	/**
+	 * Get the number of distinct words currently in the history.
+	 * @return the number of distinct words.
+	 */
+	int getTotalUniqueWordCount();
+
+	/**
+	 * Get the version of the counts, it changes whenever a count may have changed.
+	 * @return the version of the counts.
+	 */
+	long getVersion();
+
+	/**
+	 * Get the vocabulary the word ids of the history belong to.
+	 * @return the vocabulary.
+	 */
+	Vocabulary getVocabulary();
+
+	/**
+	 * Copies the counts into a read only history that other threads can score against.
+	 * @return the snapshot.
+	 */
+	HistoryCounts snapshot();
+}
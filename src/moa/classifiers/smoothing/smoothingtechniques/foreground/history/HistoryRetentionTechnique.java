@@ -1,65 +1,306 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import moa.classifiers.smoothing.smoothingtechniques.MemoryEstimate;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
 
-public abstract class HistoryRetentionTechnique {
+public abstract class HistoryRetentionTechnique implements HistoryCounts {
+
+	// The word counts grow as needed, only small histories are sized up front.
+	private static final int MaxPresizedWords = 1 << 12;
 
 	private final int historySize;
+	// The number of tweets kept, historySize unless shrink() lowered it to stay within a memory budget.
+	private int historyLimit;
 
+	protected final Vocabulary vocabulary;
 	protected int currentHistorySize, totalCount;
-	protected final Map<String, Integer> set;
+	// Changes whenever a count may have changed, see getVersion().
+	protected long version;
+	// Word occurrences the technique has dropped from the history, see getEvictedWords().
+	protected long evictedWords;
+	protected final WordCounts set;
 
-	public HistoryRetentionTechnique(final int historySize) {
+	public HistoryRetentionTechnique(final Vocabulary vocabulary, final int historySize) {
+		this.vocabulary = vocabulary;
 		this.historySize = historySize;
-		this.set = new HashMap<>(historySize);
+		this.historyLimit = historySize;
+		this.set = new WordCounts(Math.min(historySize, MaxPresizedWords));
 		this.reset();
 	}
 
 	/**
 	 * Add the words in the supplied tweet to the current history, manages the max
 	 * history requirements internally.
-	 * @param tweet the tweet to add to the current history.
+	 * @param tweet the word ids of the tweet to add to the current history.
+	 * @param length the number of words in the tweet.
 	 */
-	public final void addTweet(final List<String> tweet) {
+	public final void addTweet(final int[] tweet, final int length) {
+		// Hold on to the words of the tweet so forgetting the history cannot remove them from the vocabulary.
+		for (int i = 0; i < length; i++)
+			this.vocabulary.retain(tweet[i]);
+
 		// If we have met our history cap, 'forget' the history.
-		if (this.currentHistorySize == this.historySize)
+		if (this.currentHistorySize >= this.historyLimit)
 			this.handleMaxHistorySize();
 		this.currentHistorySize++;
 
-		this.addInternalTweet(tweet);
+		this.addInternalTweet(tweet, length);
+
+		for (int i = 0; i < length; i++)
+			this.vocabulary.release(tweet[i]);
+		this.version++;
 	}
 
-	protected abstract void addInternalTweet(final List<String> tweet);
+	protected abstract void addInternalTweet(final int[] tweet, final int length);
 
-	public final void addWord(final String word) {
-		Integer count = this.set.get(word);
-		if (count == null) this.set.put(word, 1);
-		else this.set.put(word, count + 1);
+	public void addWord(final int word) {
+		// The history keeps a reference to every word it counts.
+		if (this.set.increment(word) == 1)
+			this.vocabulary.retain(word);
 		this.totalCount++;
 	}
 
+	/**
+	 * Removes one occurrence of the word, words that are no longer counted are dropped.
+	 * @param word The id of the word.
+	 */
+	protected void removeWord(final int word) {
+		if (this.set.decrement(word) == 0)
+			this.vocabulary.release(word);
+		this.totalCount--;
+		this.evictedWords++;
+	}
+
 	protected abstract void handleMaxHistorySize();
 
-	public final Integer getWordCount(final String word) {
-		return this.set.containsKey(word) ? this.set.get(word) : 0;
+	/**
+	 * Moves the clock of the history forward, only time based techniques use it. Called when training.
+	 * @param time the timestamp of the current training instance.
+	 */
+	public void advanceTime(final double time) {
+	}
+
+	/**
+	 * Gets the count of the given word in the history, time based techniques can weight the count.
+	 * @param word The id of the word, -1 for a word that is not in the vocabulary.
+	 * @return The count of the word.
+	 */
+	@Override
+	public double getWordCount(final int word) {
+		return word < 0 ? 0 : this.set.get(word);
 	}
 
-	public final int getAllWordsCounts() {
+	@Override
+	public double getAllWordsCounts() {
 		return this.totalCount;
 	}
 
-	public final int getTotalUniqueWordCount() {
+	/**
+	 * Get the smallest nonzero count getWordCount() can return, used to bound the probability of words.
+	 * The counts of occurrences are whole numbers, so it is 1 unless a technique weights the counts.
+	 * @return the smallest nonzero count, 0 if there is no such bound.
+	 */
+	@Override
+	public double getMinimumWordCount() {
+		return 1d;
+	}
+
+	/**
+	 * Get the number of distinct words currently in the history.
+	 * @return the number of distinct words.
+	 */
+	@Override
+	public int getTotalUniqueWordCount() {
 		return this.set.size();
 	}
 
+	/**
+	 * Copies the counts and the vocabulary into a read only history that other threads can score against
+	 * while this one keeps training.
+	 * @return the snapshot.
+	 */
+	@Override
+	public HistoryCounts snapshot() {
+		return new HistorySnapshot(this, this.vocabulary.copy());
+	}
+
+	/**
+	 * Adds the count of every word in the history to the given weights, used to take a snapshot.
+	 * @param counts receives the counts, as getWordCount() returns them.
+	 */
+	protected void copyCounts(final WordWeights counts) {
+		for (int slot = 0, capacity = this.set.capacity(); slot < capacity; slot++) {
+			int word = this.set.getKey(slot);
+			if (word >= 0)
+				counts.add(word, this.getWordCount(word));
+		}
+	}
+
+	/**
+	 * Get the version of the counts, it changes whenever a tweet is added, the history is reset or the clock
+	 * moves the counts of a time based technique, so values calculated from the counts can be cached.
+	 * @return the version of the counts.
+	 */
+	@Override
+	public final long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Get the number of word occurrences the technique has dropped to stay within its history, for time
+	 * decay the words that decayed away. Clearing the history with reset() does not count.
+	 * @return the number of evicted words.
+	 */
+	public final long getEvictedWords() {
+		return this.evictedWords;
+	}
+
+	public final int getHistorySize() {
+		return this.historySize;
+	}
+
+	/**
+	 * Get the number of tweets the history keeps, the history size unless shrink() has lowered it.
+	 * @return the number of tweets.
+	 */
+	public final int getHistoryLimit() {
+		return this.historyLimit;
+	}
+
+	/**
+	 * Sets the number of tweets the history keeps, at most the history size.
+	 * @param limit the number of tweets, at least 1.
+	 */
+	protected final void limitHistory(final int limit) {
+		this.historyLimit = Math.max(1, Math.min(this.historySize, limit));
+	}
+
+	/**
+	 * Raises the number of tweets the history keeps by an eighth, up to the history size, when the history
+	 * is full and uses less than the given number of bytes, so the limit shrink() set recovers.
+	 * @param bytes the size the full history has to stay below.
+	 */
+	public void relax(final long bytes) {
+		if (this.historyLimit < this.historySize && this.currentHistorySize >= this.historyLimit
+				&& this.getMemoryBytes() < bytes)
+			this.limitHistory(this.historyLimit + Math.max(1, this.historyLimit / 8));
+	}
+
+	/**
+	 * Estimates the bytes used by the counts of the words, a map or sketch depending on the technique.
+	 * @return the size of the counts in bytes.
+	 */
+	public long getCountsBytes() {
+		return this.set.getMemoryBytes();
+	}
+
+	/**
+	 * Estimates the bytes used to remember the tweets so they can be evicted later.
+	 * @return the size of the queued tweets in bytes, 0 if the technique does not keep them.
+	 */
+	public long getQueueBytes() {
+		return 0L;
+	}
+
+	/**
+	 * Estimates the bytes of the history that shrink() cannot free, they do not depend on the tweets kept.
+	 * @return the fixed size of the history in bytes.
+	 */
+	public long getFixedBytes() {
+		return 0L;
+	}
+
+	/**
+	 * Estimates the bytes used by the history, the words themselves are in the vocabulary.
+	 * @return the size of the history in bytes.
+	 */
+	public final long getMemoryBytes() {
+		return this.getCountsBytes() + this.getQueueBytes();
+	}
+
+	/**
+	 * Shrinks the history to at most the given number of bytes, used to keep to a memory budget.
+	 * This forgets the whole history and lowers the number of tweets kept before the next time in
+	 * proportion to the bytes that were used, techniques that know the order of their tweets override
+	 * it to evict the oldest first.
+	 * @param bytes the size to shrink to.
+	 */
+	public void shrink(final long bytes) {
+		final long used = this.getMemoryBytes();
+		if (used > bytes)
+			this.limitHistory((int) (this.currentHistorySize * bytes / used));
+		this.evictedWords += this.totalCount;
+		this.reset();
+		this.set.compact();
+	}
+
+	/**
+	 * Captures the state of the history and its vocabulary, must be called from the thread that trains
+	 * it. The arrays are copied, so the checkpoint can be saved from another thread while training goes on.
+	 * @return the checkpoint.
+	 */
+	public final HistoryCheckpoint checkpoint() {
+		HistoryCheckpoint checkpoint = new HistoryCheckpoint(this.getClass().getName(), this.vocabulary);
+		this.saveState(checkpoint);
+		return checkpoint;
+	}
+
+	/**
+	 * Replaces the state of the history and the foreground words of its vocabulary with a checkpoint of
+	 * the same technique and parameters, so the vocabulary must not be shared with another history.
+	 * @param checkpoint the checkpoint to restore.
+	 */
+	public final void restore(final HistoryCheckpoint checkpoint) {
+		if (!checkpoint.getTechnique().equals(this.getClass().getName()))
+			throw new IllegalArgumentException("Cannot restore a " + checkpoint.getTechnique() + " checkpoint into "
+					+ this.getClass().getName() + ".");
+		checkpoint.restoreVocabulary(this.vocabulary);
+		this.restoreState(checkpoint);
+		this.version++;
+	}
+
+	/**
+	 * Adds the state of the history to a checkpoint, techniques add their own after calling this.
+	 * @param checkpoint the checkpoint being captured.
+	 */
+	protected void saveState(final HistoryCheckpoint checkpoint) {
+		checkpoint.putLongs(this.historySize, this.historyLimit, this.currentHistorySize, this.totalCount,
+				this.evictedWords);
+		this.set.saveState(checkpoint);
+	}
+
+	/**
+	 * Reads back the state saveState() added, in the same order.
+	 * @param checkpoint the checkpoint being restored.
+	 */
+	protected void restoreState(final HistoryCheckpoint checkpoint) {
+		final long[] state = checkpoint.nextLongs();
+		if (state[0] != this.historySize)
+			throw new IllegalArgumentException("The history checkpoint has a history size of " + state[0] + ".");
+		this.historyLimit = (int) state[1];
+		this.currentHistorySize = (int) state[2];
+		this.totalCount = (int) state[3];
+		this.evictedWords = state[4];
+		this.set.restoreState(checkpoint);
+	}
+
+	@Override
+	public final Vocabulary getVocabulary() {
+		return this.vocabulary;
+	}
+
 	/**
 	 * Clears the current history.
 	 */
 	public void reset() {
+		for (int slot = 0, capacity = this.set.capacity(); slot < capacity; slot++) {
+			int word = this.set.getKey(slot);
+			if (word >= 0)
+				this.vocabulary.release(word);
+		}
 		this.set.clear();
 		this.totalCount = 0;
 		this.currentHistorySize = 0;
+		this.version++;
 	}
 }
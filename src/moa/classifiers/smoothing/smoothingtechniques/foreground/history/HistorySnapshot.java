@@ -0,0 +1,72 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+/**
+ * A read only copy of the counts of a history at one point in time. It never changes after it is
+ * built, so any number of threads can score against it without locks and always see totals that
+ * match the word counts.
+ */
+public final class HistorySnapshot implements HistoryCounts {
+
+	private final Vocabulary vocabulary;
+	private final WordWeights counts;
+	private final double allWordsCounts, minimumWordCount;
+	private final int uniqueWords;
+	private final long version;
+
+	/**
+	 * Copies the current counts of the history, must be called from the thread that trains it.
+	 * @param history the history to copy.
+	 * @param vocabulary a copy of the vocabulary of the history that is not changed afterwards.
+	 */
+	public HistorySnapshot(final HistoryRetentionTechnique history, final Vocabulary vocabulary) {
+		this.vocabulary = vocabulary;
+		this.counts = new WordWeights(history.getTotalUniqueWordCount());
+		history.copyCounts(this.counts);
+		this.allWordsCounts = history.getAllWordsCounts();
+		this.minimumWordCount = history.getMinimumWordCount();
+		this.uniqueWords = history.getTotalUniqueWordCount();
+		this.version = history.getVersion();
+	}
+
+	@Override
+	public double getWordCount(final int word) {
+		return word < 0 ? 0d : this.counts.get(word);
+	}
+
+	@Override
+	public double getAllWordsCounts() {
+		return this.allWordsCounts;
+	}
+
+	@Override
+	public double getMinimumWordCount() {
+		return this.minimumWordCount;
+	}
+
+	@Override
+	public int getTotalUniqueWordCount() {
+		return this.uniqueWords;
+	}
+
+	// The version of the history the counts were copied at.
+	@Override
+	public long getVersion() {
+		return this.version;
+	}
+
+	@Override
+	public Vocabulary getVocabulary() {
+		return this.vocabulary;
+	}
+
+	/**
+	 * A snapshot does not change, so it is its own snapshot.
+	 * @return this snapshot.
+	 */
+	@Override
+	public HistoryCounts snapshot() {
+		return this;
+	}
+}
@@ -1,22 +1,47 @@
 package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
 
-import java.util.LinkedList;
-import java.util.List;
+import moa.classifiers.smoothing.smoothingtechniques.MemoryEstimate;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
 
 public class Queue extends HistoryRetentionTechnique {
 
-	protected final java.util.Queue<List<String>> queue;
+	// The rings start with room for this many tweets and double as the history fills up to its size.
+	private static final int InitialTweets = 64;
+	private static final int ExpectedWordsPerTweet = 16;
 
-	public Queue(final int historySize) {
-		super(historySize);
-		this.queue = new LinkedList<>();
+	// FIFO of tweets, the length of each tweet in one ring and the word ids of all tweets in another.
+	protected int[] lengths;
+	protected int first, tweets;
+	protected int[] words;
+	protected int wordsFirst, wordsSize, wordsMask;
+
+	public Queue(final Vocabulary vocabulary, final int historySize) {
+		super(vocabulary, historySize);
+		int tweetCapacity = Math.max(1, Math.min(historySize, InitialTweets));
+		this.lengths = new int[tweetCapacity];
+		this.words = new int[Queue.powerOfTwoAtLeast((long) tweetCapacity * ExpectedWordsPerTweet)];
+		this.wordsMask = this.words.length - 1;
 	}
 
 	@Override
-	protected void addInternalTweet(List<String> tweet) {
-		this.queue.add(tweet);
-		for (String word : tweet)
-			this.addWord(word);
+	protected void addInternalTweet(final int[] tweet, final int length) {
+		if (this.tweets == this.lengths.length)
+			this.growLengths();
+		if (this.wordsSize + length > this.words.length)
+			this.growWords(this.wordsSize + length);
+
+		int last = this.first + this.tweets;
+		this.lengths[last < this.lengths.length ? last : last - this.lengths.length] = length;
+		this.tweets++;
+
+		final int[] words = this.words;
+		final int mask = this.wordsMask;
+		int position = this.wordsFirst + this.wordsSize;
+		for (int i = 0; i < length; i++) {
+			words[(position + i) & mask] = tweet[i];
+			this.addWord(tweet[i]);
+		}
+		this.wordsSize += length;
 	}
 
 	/**
@@ -24,28 +49,123 @@ public class Queue extends HistoryRetentionTechnique {
 	 */
 	@Override
 	protected void handleMaxHistorySize() {
-		this.removeTweet(this.queue.poll());
+		if (this.tweets > 0)
+			this.removeOldestTweet();
 	}
 
-	protected void removeTweet(List<String> tweet) {
+	protected void removeOldestTweet() {
 		super.currentHistorySize--;
-		for (String word : tweet)
-			this.removeWord(word);
-	}
+		final int length = this.lengths[this.first];
+		if (++this.first == this.lengths.length)
+			this.first = 0;
+		this.tweets--;
 
-	protected void removeWord(String word) {
-		super.set.put(word, this.set.get(word) - 1);
-		super.totalCount--;
+		final int[] words = this.words;
+		final int mask = this.wordsMask;
+		for (int i = 0, position = this.wordsFirst; i < length; i++)
+			this.removeWord(words[(position + i) & mask]);
+		this.wordsFirst = (this.wordsFirst + length) & mask;
+		this.wordsSize -= length;
 	}
 
 	/**
-	 * Clears the current history and queue.
+	 * Clears the current history and queue, the rings keep their size.
 	 * Also calls HistoryRetentionTechnique.reset()
 	 */
 	@Override
 	public void reset() {
 		super.reset();
-		if (this.queue != null)
-			this.queue.clear();
+		this.first = 0;
+		this.tweets = 0;
+		this.wordsFirst = 0;
+		this.wordsSize = 0;
+	}
+
+	@Override
+	public long getQueueBytes() {
+		return MemoryEstimate.arrayBytes(this.lengths.length, 4) + MemoryEstimate.arrayBytes(this.words.length, 4);
+	}
+
+	/**
+	 * Evicts the oldest tweets, an eighth of the queue at a time, until the compacted history fits in the
+	 * given number of bytes. The history then keeps no more tweets than it has left.
+	 * @param bytes the size to shrink to.
+	 */
+	@Override
+	public void shrink(final long bytes) {
+		this.compact();
+		while (this.tweets > 0 && this.getMemoryBytes() > bytes) {
+			for (int evict = Math.max(1, this.tweets / 8); evict > 0 && this.tweets > 0; evict--)
+				this.removeOldestTweet();
+			this.compact();
+		}
+		this.limitHistory(this.tweets);
+		super.version++;
+	}
+
+	@Override
+	protected void saveState(final HistoryCheckpoint checkpoint) {
+		super.saveState(checkpoint);
+		checkpoint.putLongs(this.first, this.tweets, this.wordsFirst, this.wordsSize);
+		checkpoint.putInts(this.lengths.clone());
+		checkpoint.putInts(this.words.clone());
+	}
+
+	@Override
+	protected void restoreState(final HistoryCheckpoint checkpoint) {
+		super.restoreState(checkpoint);
+		final long[] state = checkpoint.nextLongs();
+		this.first = (int) state[0];
+		this.tweets = (int) state[1];
+		this.wordsFirst = (int) state[2];
+		this.wordsSize = (int) state[3];
+		this.lengths = checkpoint.nextInts();
+		this.words = checkpoint.nextInts();
+		this.wordsMask = this.words.length - 1;
+	}
+
+	/**
+	 * Shrinks the rings and the counts to the smallest sizes that hold the queued tweets.
+	 */
+	protected void compact() {
+		this.set.compact();
+		this.resizeLengths(Math.max(this.tweets, 1));
+		this.resizeWords(Queue.powerOfTwoAtLeast(this.wordsSize));
+	}
+
+	private void growLengths() {
+		int capacity = (int) Math.min((long) this.lengths.length * 2, Math.max(this.getHistoryLimit(), 1));
+		this.resizeLengths(Math.max(capacity, this.tweets + 1));
+	}
+
+	private void resizeLengths(final int capacity) {
+		int[] resized = new int[capacity];
+		for (int i = 0, index = this.first; i < this.tweets; i++) {
+			resized[i] = this.lengths[index];
+			if (++index == this.lengths.length)
+				index = 0;
+		}
+		this.lengths = resized;
+		this.first = 0;
+	}
+
+	private void growWords(final int required) {
+		this.resizeWords(Queue.powerOfTwoAtLeast(required));
+	}
+
+	private void resizeWords(final int capacity) {
+		int[] resized = new int[capacity];
+		for (int i = 0; i < this.wordsSize; i++)
+			resized[i] = this.words[(this.wordsFirst + i) & this.wordsMask];
+		this.words = resized;
+		this.wordsMask = resized.length - 1;
+		this.wordsFirst = 0;
+	}
+
+	private static int powerOfTwoAtLeast(final long value) {
+		int capacity = 16;
+		while (capacity < value && capacity < (1 << 30))
+			capacity <<= 1;
+		return capacity;
 	}
 }
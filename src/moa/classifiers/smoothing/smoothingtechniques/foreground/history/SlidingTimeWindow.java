@@ -0,0 +1,125 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.MemoryEstimate;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the tweets of the last window of time. Tweets are grouped into buckets of window / Buckets
+ * by timestamp and a bucket is evicted as a whole once it is entirely older than the window.
+ * historySize still caps the number of tweets, the oldest are evicted first as with a Queue.
+ */
+public class SlidingTimeWindow extends Queue {
+
+	private static final int Buckets = 64;
+
+	protected final double window, bucketWidth;
+	// Ring of buckets, the start time and the number of queued tweets of each.
+	protected double[] bucketStarts;
+	protected int[] bucketTweets;
+	protected int firstBucket, buckets;
+	protected double now;
+
+	public SlidingTimeWindow(final Vocabulary vocabulary, final int historySize, final double window) {
+		super(vocabulary, historySize);
+		this.window = window;
+		this.bucketWidth = window / SlidingTimeWindow.Buckets;
+		this.bucketStarts = new double[SlidingTimeWindow.Buckets * 2];
+		this.bucketTweets = new int[SlidingTimeWindow.Buckets * 2];
+	}
+
+	@Override
+	public void advanceTime(final double time) {
+		if (time <= this.now)
+			return;
+		this.now = time;
+		final double oldest = this.now - this.window;
+		while (this.buckets > 0 && this.bucketStarts[this.firstBucket] + this.bucketWidth <= oldest) {
+			this.removeOldestTweet();
+			super.version++;
+		}
+	}
+
+	@Override
+	protected void addInternalTweet(final int[] tweet, final int length) {
+		int last = this.buckets == 0 ? -1 : this.bucketIndex(this.buckets - 1);
+		if (last < 0 || this.now >= this.bucketStarts[last] + this.bucketWidth) {
+			if (this.buckets == this.bucketStarts.length)
+				this.growBuckets();
+			last = this.bucketIndex(this.buckets++);
+			this.bucketStarts[last] = this.bucketWidth > 0d
+					? Math.floor(this.now / this.bucketWidth) * this.bucketWidth : this.now;
+			this.bucketTweets[last] = 0;
+		}
+		this.bucketTweets[last]++;
+		super.addInternalTweet(tweet, length);
+	}
+
+	@Override
+	protected void removeOldestTweet() {
+		super.removeOldestTweet();
+		if (--this.bucketTweets[this.firstBucket] == 0) {
+			if (++this.firstBucket == this.bucketStarts.length)
+				this.firstBucket = 0;
+			this.buckets--;
+		}
+	}
+
+	@Override
+	public long getQueueBytes() {
+		return super.getQueueBytes() + MemoryEstimate.arrayBytes(this.bucketStarts.length, 8)
+				+ MemoryEstimate.arrayBytes(this.bucketTweets.length, 4);
+	}
+
+	@Override
+	protected void saveState(final HistoryCheckpoint checkpoint) {
+		super.saveState(checkpoint);
+		checkpoint.putDoubles(this.window, this.now);
+		checkpoint.putLongs(this.firstBucket, this.buckets);
+		checkpoint.putDoubles(this.bucketStarts.clone());
+		checkpoint.putInts(this.bucketTweets.clone());
+	}
+
+	@Override
+	protected void restoreState(final HistoryCheckpoint checkpoint) {
+		super.restoreState(checkpoint);
+		final double[] time = checkpoint.nextDoubles();
+		if (time[0] != this.window)
+			throw new IllegalArgumentException("The history checkpoint has a time window of " + time[0] + ".");
+		this.now = time[1];
+		final long[] state = checkpoint.nextLongs();
+		this.firstBucket = (int) state[0];
+		this.buckets = (int) state[1];
+		this.bucketStarts = checkpoint.nextDoubles();
+		this.bucketTweets = checkpoint.nextInts();
+	}
+
+	/**
+	 * Clears the current history and buckets.
+	 * Also calls Queue.reset()
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		this.firstBucket = 0;
+		this.buckets = 0;
+	}
+
+	private int bucketIndex(final int bucket) {
+		int index = this.firstBucket + bucket;
+		return index < this.bucketStarts.length ? index : index - this.bucketStarts.length;
+	}
+
+	private void growBuckets() {
+		double[] starts = new double[this.bucketStarts.length * 2];
+		int[] tweets = new int[starts.length];
+		for (int i = 0; i < this.buckets; i++) {
+			starts[i] = this.bucketStarts[this.bucketIndex(i)];
+			tweets[i] = this.bucketTweets[this.bucketIndex(i)];
+		}
+		this.bucketStarts = starts;
+		this.bucketTweets = tweets;
+		this.firstBucket = 0;
+	}
+}
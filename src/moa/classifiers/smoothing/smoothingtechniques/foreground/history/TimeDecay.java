@@ -0,0 +1,188 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+/**
+ * Every occurrence of a word loses half its weight each half-life. Rather than touching every word as
+ * time passes, weights are stored scaled up by 2^(time added / half-life) and divided by the current
+ * scale when read, so adding a tweet stays O(words in the tweet).
+ * Every historySize tweets the weights are rescaled and words that have decayed away are dropped.
+ */
+public class TimeDecay extends HistoryRetentionTechnique {
+
+	// Words whose decayed count is below this are dropped when the history is pruned.
+	private static final double MinWeight = 1e-3;
+	// Rescale the stored weights well before the scale can overflow.
+	private static final double MaxExponent = 512d;
+
+	protected final double halfLife;
+	protected WordWeights weights;
+	// The stored weights are relative to the origin, scale is 2^((now - origin) / halfLife).
+	protected double origin, now, scale, totalWeight;
+
+	public TimeDecay(final Vocabulary vocabulary, final int historySize, final double halfLife) {
+		super(vocabulary, historySize);
+		this.halfLife = halfLife;
+		this.weights = new WordWeights(Math.min(historySize, 1 << 16));
+		this.scale = 1d;
+	}
+
+	@Override
+	public void advanceTime(final double time) {
+		if (time <= this.now)
+			return;
+		this.now = time;
+		double exponent = (this.now - this.origin) / this.halfLife;
+		if (exponent > TimeDecay.MaxExponent)
+			this.prune();
+		else
+			this.scale = Math.pow(2d, exponent);
+		super.version++;
+	}
+
+	@Override
+	protected void addInternalTweet(final int[] tweet, final int length) {
+		for (int i = 0; i < length; i++) {
+			// The history keeps a reference to every word it weights.
+			if (this.weights.add(tweet[i], this.scale))
+				this.vocabulary.retain(tweet[i]);
+		}
+		this.totalWeight += this.scale * length;
+	}
+
+	/**
+	 * Drops the words that have decayed away every time the max history is reached.
+	 */
+	@Override
+	protected void handleMaxHistorySize() {
+		this.prune();
+		super.currentHistorySize = 0;
+	}
+
+	@Override
+	public double getWordCount(final int word) {
+		return word < 0 ? 0d : this.weights.get(word) / this.scale;
+	}
+
+	@Override
+	public double getAllWordsCounts() {
+		return this.totalWeight / this.scale;
+	}
+
+	// Weights decay continuously until the next prune, there is no smallest count.
+	@Override
+	public double getMinimumWordCount() {
+		return 0d;
+	}
+
+	@Override
+	public int getTotalUniqueWordCount() {
+		return this.weights.size();
+	}
+
+	@Override
+	public long getCountsBytes() {
+		return this.weights.getMemoryBytes() + super.set.getMemoryBytes();
+	}
+
+	/**
+	 * Prunes the history, doubling the weight a word needs to be kept each pass until the weights fit in
+	 * the given number of bytes.
+	 * @param bytes the size to shrink to.
+	 */
+	@Override
+	public void shrink(final long bytes) {
+		double minWeight = TimeDecay.MinWeight;
+		this.prune(minWeight);
+		while (this.weights.size() > 0 && this.getMemoryBytes() > bytes) {
+			minWeight *= 2d;
+			this.prune(minWeight);
+		}
+		super.version++;
+	}
+
+	@Override
+	protected void saveState(final HistoryCheckpoint checkpoint) {
+		super.saveState(checkpoint);
+		checkpoint.putDoubles(this.halfLife, this.origin, this.now, this.scale, this.totalWeight);
+		this.weights.saveState(checkpoint);
+	}
+
+	@Override
+	protected void restoreState(final HistoryCheckpoint checkpoint) {
+		super.restoreState(checkpoint);
+		final double[] state = checkpoint.nextDoubles();
+		if (state[0] != this.halfLife)
+			throw new IllegalArgumentException("The history checkpoint has a half-life of " + state[0] + ".");
+		this.origin = state[1];
+		this.now = state[2];
+		this.scale = state[3];
+		this.totalWeight = state[4];
+		this.weights = new WordWeights(0);
+		this.weights.restoreState(checkpoint);
+	}
+
+	@Override
+	protected void copyCounts(final WordWeights counts) {
+		for (int slot = 0, capacity = this.weights.capacity(); slot < capacity; slot++) {
+			int word = this.weights.getKey(slot);
+			if (word >= 0)
+				counts.add(word, this.getWordCount(word));
+		}
+	}
+
+	/**
+	 * Rescales the weights to the current time and drops the words whose weight has decayed below MinWeight.
+	 */
+	protected void prune() {
+		this.prune(TimeDecay.MinWeight);
+	}
+
+	/**
+	 * Rescales the weights to the current time and drops the words whose weight is below the given weight.
+	 * @param minWeight the weight a word needs to be kept.
+	 */
+	protected void prune(final double minWeight) {
+		final double scale = Math.pow(2d, (this.now - this.origin) / this.halfLife);
+		WordWeights pruned = new WordWeights(this.weights.size());
+		double total = 0d;
+		for (int slot = 0, capacity = this.weights.capacity(); slot < capacity; slot++) {
+			int word = this.weights.getKey(slot);
+			if (word < 0)
+				continue;
+			double weight = this.weights.getValue(slot) / scale;
+			if (weight < minWeight) {
+				this.vocabulary.release(word);
+				super.evictedWords++;
+				continue;
+			}
+			pruned.add(word, weight);
+			total += weight;
+		}
+		this.weights = pruned;
+		this.totalWeight = total;
+		this.origin = this.now;
+		this.scale = 1d;
+	}
+
+	/**
+	 * Clears the current history.
+	 * Also calls HistoryRetentionTechnique.reset()
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		// Called from the constructor before the weights exist.
+		if (this.weights == null)
+			return;
+		for (int slot = 0, capacity = this.weights.capacity(); slot < capacity; slot++) {
+			int word = this.weights.getKey(slot);
+			if (word >= 0)
+				this.vocabulary.release(word);
+		}
+		this.weights = new WordWeights(Math.min(this.getHistorySize(), 1 << 16));
+		this.totalWeight = 0d;
+		this.origin = this.now;
+		this.scale = 1d;
+	}
+}
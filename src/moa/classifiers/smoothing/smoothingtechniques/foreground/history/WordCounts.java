@@ -0,0 +1,197 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.MemoryEstimate;
+
+import java.util.Arrays;
+
+/**
+ * Counts per word id, an open addressing int to int map so counting does not box.
+ * Words are removed as soon as their count drops to 0, so size() is the number of live words.
+ */
+public class WordCounts {
+
+	private static final int MinCapacity = 16;
+
+	// Each key slot holds id + 1 (0 is an empty slot), linear probing.
+	private int[] keys, values;
+	private int size, mask;
+
+	public WordCounts(final int expectedSize) {
+		int capacity = MinCapacity;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		this.allocate(capacity);
+	}
+
+	/**
+	 * Gets the count of the given word.
+	 * @param id The id of the word.
+	 * @return The count of the word, 0 if it has not been seen.
+	 */
+	public int get(final int id) {
+		final int key = id + 1;
+		for (int slot = WordCounts.mix(id) & this.mask; ; slot = (slot + 1) & this.mask) {
+			int k = this.keys[slot];
+			if (k == key)
+				return this.values[slot];
+			if (k == 0)
+				return 0;
+		}
+	}
+
+	/**
+	 * Adds one to the count of the given word.
+	 * @param id The id of the word.
+	 * @return The new count of the word.
+	 */
+	public int increment(final int id) {
+		final int key = id + 1;
+		int slot = WordCounts.mix(id) & this.mask;
+		for (int k; (k = this.keys[slot]) != 0; slot = (slot + 1) & this.mask) {
+			if (k == key)
+				return ++this.values[slot];
+		}
+		this.keys[slot] = key;
+		this.values[slot] = 1;
+		if (++this.size * 2 > this.keys.length)
+			this.rehash(this.keys.length * 2);
+		return 1;
+	}
+
+	/**
+	 * Takes one from the count of the given word, the word must have been counted.
+	 * @param id The id of the word.
+	 * @return The new count of the word, the word is removed when this is 0.
+	 */
+	public int decrement(final int id) {
+		final int key = id + 1;
+		int slot = WordCounts.mix(id) & this.mask;
+		while (this.keys[slot] != key)
+			slot = (slot + 1) & this.mask;
+		int count = --this.values[slot];
+		if (count == 0)
+			this.removeSlot(slot);
+		return count;
+	}
+
+	/**
+	 * Get the number of slots, used with getKey() and getValue() to visit every word.
+	 * @return the number of slots.
+	 */
+	public int capacity() {
+		return this.keys.length;
+	}
+
+	/**
+	 * Gets the word id held in the given slot.
+	 * @param slot the slot, from 0 to capacity() - 1.
+	 * @return the id of the word or -1 if the slot is empty.
+	 */
+	public int getKey(final int slot) {
+		return this.keys[slot] - 1;
+	}
+
+	/**
+	 * Gets the count held in the given slot.
+	 * @param slot the slot, from 0 to capacity() - 1.
+	 * @return the count of the word in the slot.
+	 */
+	public int getValue(final int slot) {
+		return this.values[slot];
+	}
+
+	/**
+	 * Get the number of words that have a count.
+	 * @return the number of words.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public void clear() {
+		Arrays.fill(this.keys, 0);
+		this.size = 0;
+	}
+
+	private void removeSlot(int hole) {
+		this.size--;
+		// Shift back the following entries that probed past the hole so lookups still find them.
+		for (int slot = (hole + 1) & this.mask; this.keys[slot] != 0; slot = (slot + 1) & this.mask) {
+			int home = WordCounts.mix(this.keys[slot] - 1) & this.mask;
+			if (((slot - home) & this.mask) >= ((slot - hole) & this.mask)) {
+				this.keys[hole] = this.keys[slot];
+				this.values[hole] = this.values[slot];
+				hole = slot;
+			}
+		}
+		this.keys[hole] = 0;
+	}
+
+	/**
+	 * Estimates the bytes used by the map.
+	 * @return the size of the map in bytes.
+	 */
+	public long getMemoryBytes() {
+		return 2 * MemoryEstimate.arrayBytes(this.keys.length, 4);
+	}
+
+	/**
+	 * Shrinks the map to the smallest capacity that keeps it at most half full, removing words does not.
+	 */
+	public void compact() {
+		int capacity = MinCapacity;
+		while (capacity < this.size * 2)
+			capacity <<= 1;
+		if (capacity < this.keys.length)
+			this.rehash(capacity);
+	}
+
+	/**
+	 * Adds the slots of the map to the checkpoint as they are.
+	 * @param checkpoint the checkpoint being captured.
+	 */
+	void saveState(final HistoryCheckpoint checkpoint) {
+		checkpoint.putInts(this.keys.clone());
+		checkpoint.putInts(this.values.clone());
+	}
+
+	/**
+	 * Replaces the slots of the map with the next ones of the checkpoint.
+	 * @param checkpoint the checkpoint being restored.
+	 */
+	void restoreState(final HistoryCheckpoint checkpoint) {
+		this.keys = checkpoint.nextInts();
+		this.values = checkpoint.nextInts();
+		this.mask = this.keys.length - 1;
+		this.size = 0;
+		for (int key : this.keys)
+			if (key != 0)
+				this.size++;
+	}
+
+	private void allocate(final int capacity) {
+		this.keys = new int[capacity];
+		this.values = new int[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private void rehash(final int capacity) {
+		final int[] oldKeys = this.keys, oldValues = this.values;
+		this.allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			int key = oldKeys[i];
+			if (key == 0)
+				continue;
+			int slot = WordCounts.mix(key - 1) & this.mask;
+			while (this.keys[slot] != 0)
+				slot = (slot + 1) & this.mask;
+			this.keys[slot] = key;
+			this.values[slot] = oldValues[i];
+		}
+	}
+
+	private static int mix(int id) {
+		id *= 0x9E3779B9;
+		return id ^ (id >>> 16);
+	}
+}
@@ -0,0 +1,165 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.MemoryEstimate;
+
+/**
+ * Fractional weights per word id, an open addressing int to double map for histories that
+ * weight their counts.
+ */
+public class WordWeights {
+
+	private static final int MinCapacity = 16;
+
+	// Each key slot holds id + 1 (0 is an empty slot), linear probing.
+	private int[] keys;
+	private double[] values;
+	private int size, mask;
+
+	public WordWeights(final int expectedSize) {
+		int capacity = MinCapacity;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		this.allocate(capacity);
+	}
+
+	/**
+	 * Gets the weight of the given word.
+	 * @param id The id of the word.
+	 * @return The weight of the word, 0 if it has no weight.
+	 */
+	public double get(final int id) {
+		final int key = id + 1;
+		for (int slot = WordWeights.mix(id) & this.mask; ; slot = (slot + 1) & this.mask) {
+			int k = this.keys[slot];
+			if (k == key)
+				return this.values[slot];
+			if (k == 0)
+				return 0d;
+		}
+	}
+
+	/**
+	 * Adds to the weight of the given word.
+	 * @param id The id of the word.
+	 * @param weight The weight to add.
+	 * @return true if the word had no weight before.
+	 */
+	public boolean add(final int id, final double weight) {
+		final int key = id + 1;
+		int slot = WordWeights.mix(id) & this.mask;
+		for (int k; (k = this.keys[slot]) != 0; slot = (slot + 1) & this.mask) {
+			if (k == key) {
+				this.values[slot] += weight;
+				return false;
+			}
+		}
+		this.keys[slot] = key;
+		this.values[slot] = weight;
+		if (++this.size * 2 > this.keys.length)
+			this.rehash(this.keys.length * 2);
+		return true;
+	}
+
+	/**
+	 * Get the number of words that have a weight.
+	 * @return the number of words.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Get the number of slots, used with getKey() and getValue() to visit every word.
+	 * @return the number of slots.
+	 */
+	public int capacity() {
+		return this.keys.length;
+	}
+
+	/**
+	 * Gets the word id held in the given slot.
+	 * @param slot the slot, from 0 to capacity() - 1.
+	 * @return the id of the word or -1 if the slot is empty.
+	 */
+	public int getKey(final int slot) {
+		return this.keys[slot] - 1;
+	}
+
+	/**
+	 * Gets the weight held in the given slot.
+	 * @param slot the slot, from 0 to capacity() - 1.
+	 * @return the weight of the word in the slot.
+	 */
+	public double getValue(final int slot) {
+		return this.values[slot];
+	}
+
+	/**
+	 * Estimates the bytes used by the map.
+	 * @return the size of the map in bytes.
+	 */
+	public long getMemoryBytes() {
+		return MemoryEstimate.arrayBytes(this.keys.length, 4) + MemoryEstimate.arrayBytes(this.values.length, 8);
+	}
+
+	/**
+	 * Shrinks the map to the smallest capacity that keeps it at most half full, removing words does not.
+	 */
+	public void compact() {
+		int capacity = MinCapacity;
+		while (capacity < this.size * 2)
+			capacity <<= 1;
+		if (capacity < this.keys.length)
+			this.rehash(capacity);
+	}
+
+	/**
+	 * Adds the slots of the map to the checkpoint as they are.
+	 * @param checkpoint the checkpoint being captured.
+	 */
+	void saveState(final HistoryCheckpoint checkpoint) {
+		checkpoint.putInts(this.keys.clone());
+		checkpoint.putDoubles(this.values.clone());
+	}
+
+	/**
+	 * Replaces the slots of the map with the next ones of the checkpoint.
+	 * @param checkpoint the checkpoint being restored.
+	 */
+	void restoreState(final HistoryCheckpoint checkpoint) {
+		this.keys = checkpoint.nextInts();
+		this.values = checkpoint.nextDoubles();
+		this.mask = this.keys.length - 1;
+		this.size = 0;
+		for (int key : this.keys)
+			if (key != 0)
+				this.size++;
+	}
+
+	private void allocate(final int capacity) {
+		this.keys = new int[capacity];
+		this.values = new double[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private void rehash(final int capacity) {
+		final int[] oldKeys = this.keys;
+		final double[] oldValues = this.values;
+		this.allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			int key = oldKeys[i];
+			if (key == 0)
+				continue;
+			int slot = WordWeights.mix(key - 1) & this.mask;
+			while (this.keys[slot] != 0)
+				slot = (slot + 1) & this.mask;
+			this.keys[slot] = key;
+			this.values[slot] = oldValues[i];
+		}
+	}
+
+	private static int mix(int id) {
+		id *= 0x9E3779B9;
+		return id ^ (id >>> 16);
+	}
+}
@@ -0,0 +1,110 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts non-negative values in logarithmic buckets, in the manner of HdrHistogram: every power of two
+ * is split into SubBuckets linear buckets, so a value is known to within 1 / SubBuckets of itself
+ * whatever its size and recording is one atomic increment into a fixed array.
+ */
+public class LogHistogram implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int SubBits = 3, SubBuckets = 1 << SubBits;
+	// Values below SubBuckets have a bucket each, then SubBuckets per power of two up to 2^63.
+	private static final int Buckets = (64 - SubBits) * SubBuckets;
+
+	private final AtomicLongArray counts = new AtomicLongArray(LogHistogram.Buckets);
+
+	/**
+	 * Counts the value, negative values count as 0.
+	 * @param value the value to record.
+	 */
+	public void record(final long value) {
+		this.counts.getAndIncrement(LogHistogram.index(Math.max(value, 0L)));
+	}
+
+	/**
+	 * Counts a value that is not a whole number, it is rounded. NaN is not counted.
+	 * @param value the value to record.
+	 */
+	public void record(final double value) {
+		if (!Double.isNaN(value))
+			this.record(Math.round(value));
+	}
+
+	/**
+	 * Get the number of values recorded.
+	 * @return the number of values.
+	 */
+	public long getCount() {
+		long count = 0L;
+		for (int i = 0; i < LogHistogram.Buckets; i++)
+			count += this.counts.get(i);
+		return count;
+	}
+
+	/**
+	 * Get the value that the given percentage of the recorded values are at or below.
+	 * @param percentile the percentage, from 0 to 100.
+	 * @return the highest value of the bucket holding the percentile, 0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final long count = this.getCount();
+		if (count == 0L)
+			return 0L;
+		final long rank = Math.max(1L, (long) Math.ceil(count * Math.min(percentile, 100d) / 100d));
+		long seen = 0L;
+		for (int i = 0; i < LogHistogram.Buckets; i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank)
+				return LogHistogram.highestValue(i);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Get the number of values recorded in a bucket, for sinks that export the whole distribution.
+	 * @param bucket the bucket, from 0 to getBuckets() - 1.
+	 * @return the number of values in the bucket.
+	 */
+	public long getBucketCount(final int bucket) {
+		return this.counts.get(bucket);
+	}
+
+	/**
+	 * Get the highest value that is counted in a bucket.
+	 * @param bucket the bucket, from 0 to getBuckets() - 1.
+	 * @return the highest value of the bucket.
+	 */
+	public static long highestValue(final int bucket) {
+		return bucket == LogHistogram.Buckets - 1 ? Long.MAX_VALUE : LogHistogram.lowestValue(bucket + 1) - 1L;
+	}
+
+	public static int getBuckets() {
+		return LogHistogram.Buckets;
+	}
+
+	public void reset() {
+		for (int i = 0; i < LogHistogram.Buckets; i++)
+			this.counts.set(i, 0L);
+	}
+
+	private static int index(final long value) {
+		if (value < LogHistogram.SubBuckets)
+			return (int) value;
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exponent - LogHistogram.SubBits)) & (LogHistogram.SubBuckets - 1);
+		return (exponent - LogHistogram.SubBits + 1) * LogHistogram.SubBuckets + sub;
+	}
+
+	private static long lowestValue(final int bucket) {
+		if (bucket < LogHistogram.SubBuckets)
+			return bucket;
+		final int exponent = bucket / LogHistogram.SubBuckets + LogHistogram.SubBits - 1;
+		final long sub = bucket % LogHistogram.SubBuckets;
+		return (LogHistogram.SubBuckets + sub) << (exponent - LogHistogram.SubBits);
+	}
+}
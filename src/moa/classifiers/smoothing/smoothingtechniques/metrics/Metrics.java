@@ -0,0 +1,136 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The hot path metrics of a classifier: tokens, filtered tweets, background hits, perplexities and the
+ * latency of training and scoring. Every instrument is striped or atomic, so the training thread and
+ * any number of scoring threads record without locks.
+ * Counts are exact. Latencies and perplexities are recorded for a random sample of the calls, see
+ * sample(), as timing a call and scoring every word of a tweet cost more than the call itself saves.
+ */
+public class Metrics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// One call in SampleRate is timed and has its perplexity recorded.
+	private static final int SampleRate = 16;
+
+	private final StripedCounter tokens = new StripedCounter(), tooShort = new StripedCounter(),
+			noHashTag = new StripedCounter(), resolvedTokens = new StripedCounter(),
+			backgroundHits = new StripedCounter(), trainedTweets = new StripedCounter();
+	private final LogHistogram trainLatency = new LogHistogram(), scoreLatency = new LogHistogram(),
+			perplexities = new LogHistogram();
+	private volatile long started = System.nanoTime();
+
+	/**
+	 * Restarts the clock of getTokensPerSecond(), called once the classifier is ready so building the
+	 * Background Model is not included.
+	 */
+	public void start() {
+		this.started = System.nanoTime();
+	}
+
+	/**
+	 * Decides if the current call is sampled, each thread draws from its own random numbers.
+	 * @return true for one call in SampleRate.
+	 */
+	public boolean sample() {
+		return ThreadLocalRandom.current().nextInt(Metrics.SampleRate) == 0;
+	}
+
+	/**
+	 * Counts the tokens of the tweet in the tokenizer and, if it is not accepted, why.
+	 * @param tokenizer the tokenizer holding the tweet.
+	 * @param isTrain if true the tweet was filtered for training.
+	 */
+	public void countTweet(final Tokenizer tokenizer, final boolean isTrain) {
+		this.tokens.add(tokenizer.size());
+		final int check = tokenizer.check(isTrain);
+		if (check == Tokenizer.TOOSHORT)
+			this.tooShort.increment();
+		else if (check == Tokenizer.NOHASHTAG)
+			this.noHashTag.increment();
+	}
+
+	/**
+	 * Counts the resolved word ids of an accepted tweet that are words of the Background Model.
+	 * @param ids the word ids.
+	 * @param length the number of words.
+	 * @param backgroundWords the number of words in the Background Model, their ids are their index.
+	 * @param isTrain if true the tweet was added to the history.
+	 */
+	public void countWords(final int[] ids, final int length, final int backgroundWords, final boolean isTrain) {
+		int hits = 0;
+		for (int i = 0; i < length; i++)
+			if (ids[i] >= 0 && ids[i] < backgroundWords)
+				hits++;
+		this.resolvedTokens.add(length);
+		this.backgroundHits.add(hits);
+		if (isTrain)
+			this.trainedTweets.increment();
+	}
+
+	public void recordTrain(final long nanos) {
+		this.trainLatency.record(nanos);
+	}
+
+	public void recordScore(final long nanos) {
+		this.scoreLatency.record(nanos);
+	}
+
+	public void recordPerplexity(final double perplexity) {
+		this.perplexities.record(perplexity);
+	}
+
+	/**
+	 * Get the rate tokens were tokenized at since start(), for training and scoring together.
+	 * @return the tokens per second.
+	 */
+	public double getTokensPerSecond() {
+		final double seconds = (System.nanoTime() - this.started) / 1e9d;
+		return seconds <= 0d ? 0d : this.tokens.sum() / seconds;
+	}
+
+	/**
+	 * Get the fraction of the words of accepted tweets found in the Background Model.
+	 * @return the hit ratio, 0 if no words were resolved.
+	 */
+	public double getBackgroundHitRatio() {
+		final long resolved = this.resolvedTokens.sum();
+		return resolved == 0L ? 0d : this.backgroundHits.sum() / (double) resolved;
+	}
+
+	public long getTokens() { return this.tokens.sum(); }
+
+	public long getTooShort() { return this.tooShort.sum(); }
+
+	public long getNoHashTag() { return this.noHashTag.sum(); }
+
+	public long getTrainedTweets() { return this.trainedTweets.sum(); }
+
+	public LogHistogram getTrainLatency() { return this.trainLatency; }
+
+	public LogHistogram getScoreLatency() { return this.scoreLatency; }
+
+	public LogHistogram getPerplexities() { return this.perplexities; }
+
+	/**
+	 * Sends the metrics to the sink.
+	 * @param sink receives the metrics.
+	 */
+	public void report(final MetricsSink sink) {
+		sink.counter("tokens", this.getTokens());
+		sink.counter("filtered.tooShort", this.getTooShort());
+		sink.counter("filtered.noHashTag", this.getNoHashTag());
+		sink.counter("tweets.trained", this.getTrainedTweets());
+		sink.gauge("tokens.perSecond", this.getTokensPerSecond());
+		sink.gauge("background.hitRatio", this.getBackgroundHitRatio());
+		sink.histogram("latency.train", this.trainLatency);
+		sink.histogram("latency.score", this.scoreLatency);
+		sink.histogram("perplexity", this.perplexities);
+	}
+}
@@ -0,0 +1,29 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+/**
+ * Receives the metrics of a classifier, see SmoothingTechnique.reportMetrics(). Implement it to forward
+ * the metrics to a monitoring system, the names are stable and use dots as separators.
+ */
+public interface MetricsSink {
+
+	/**
+	 * A count that only grows while the classifier is not reset.
+	 * @param name the name of the metric.
+	 * @param value the current count.
+	 */
+	void counter(String name, long value);
+
+	/**
+	 * A value that can go up and down.
+	 * @param name the name of the metric.
+	 * @param value the current value.
+	 */
+	void gauge(String name, double value);
+
+	/**
+	 * A distribution of values, the histogram is live and keeps recording after the call.
+	 * @param name the name of the metric.
+	 * @param histogram the histogram.
+	 */
+	void histogram(String name, LogHistogram histogram);
+}
@@ -0,0 +1,69 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads add to without contending, each thread adds to its own stripe and reading
+ * the count sums the stripes. Adding is one uncontended atomic add, reading is the slow side.
+ */
+public class StripedCounter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// Each stripe is on its own 64 byte cache line so threads on different stripes do not share one.
+	private static final int Padding = 8;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param stripes the number of stripes, rounded up to a power of two.
+	 */
+	public StripedCounter(final int stripes) {
+		int capacity = 1;
+		while (capacity < stripes && capacity < (1 << 16))
+			capacity <<= 1;
+		this.mask = capacity - 1;
+		this.cells = new AtomicLongArray(capacity * StripedCounter.Padding);
+	}
+
+	/**
+	 * Adds to the stripe of the current thread.
+	 * @param value the amount to add.
+	 */
+	public void add(final long value) {
+		this.cells.getAndAdd(this.stripe(), value);
+	}
+
+	public void increment() {
+		this.add(1L);
+	}
+
+	/**
+	 * Get the count, concurrent adds may or may not be included.
+	 * @return the sum of the stripes.
+	 */
+	public long sum() {
+		long sum = 0L;
+		for (int i = 0; i < this.cells.length(); i += StripedCounter.Padding)
+			sum += this.cells.get(i);
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < this.cells.length(); i += StripedCounter.Padding)
+			this.cells.set(i, 0L);
+	}
+
+	private int stripe() {
+		// Thread ids are sequential, mix them so neighbouring threads spread over the stripes.
+		final long id = Thread.currentThread().getId();
+		final int hash = ((int) id ^ (int) (id >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & this.mask) * StripedCounter.Padding;
+	}
+}
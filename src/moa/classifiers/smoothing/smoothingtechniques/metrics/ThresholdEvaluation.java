@@ -0,0 +1,187 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the perplexities of the scored tweets per class in logarithmic buckets, so every threshold can
+ * be evaluated from one pass over the stream: the precision/recall curve, the threshold with the best
+ * F1 and the areas under the ROC and precision/recall curves.
+ * Like LogHistogram every power of two is split into linear buckets, here SubBuckets of them from the
+ * bits of the double, so a perplexity is known to within 1 / SubBuckets of itself and recording is one
+ * atomic increment. Thresholds are evaluated at the bucket edges, the tweets at or above an edge are
+ * positive, which to within a bucket is the perplexity above the threshold of SmoothingTechnique.
+ */
+public class ThresholdEvaluation implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int SubBits = 6, SubBuckets = 1 << SubBits;
+	// Perplexities are at least 1, below 2^MaxExponent they have SubBuckets per power of two, the
+	// last bucket counts the rest.
+	private static final int MaxExponent = 48;
+	private static final int Buckets = ThresholdEvaluation.MaxExponent * ThresholdEvaluation.SubBuckets + 1;
+
+	// The results of summarize().
+	public static final int
+			BESTF1              = 0,
+			BESTF1THRESHOLD     = 1,
+			BESTF1PRECISION     = 2,
+			BESTF1RECALL        = 3,
+			ROCAUC              = 4,
+			AVERAGEPRECISION    = 5;
+
+	private final AtomicLongArray positives = new AtomicLongArray(ThresholdEvaluation.Buckets),
+			negatives = new AtomicLongArray(ThresholdEvaluation.Buckets);
+
+	/**
+	 * Counts the perplexity of a scored tweet. NaN is not counted.
+	 * @param perplexity the perplexity of the tweet.
+	 * @param positive true if the tweet is of class 1.
+	 */
+	public void record(final double perplexity, final boolean positive) {
+		if (Double.isNaN(perplexity))
+			return;
+		(positive ? this.positives : this.negatives).getAndIncrement(ThresholdEvaluation.index(perplexity));
+	}
+
+	/**
+	 * Get the number of tweets recorded of a class.
+	 * @param positive true for class 1.
+	 * @return the number of tweets.
+	 */
+	public long getCount(final boolean positive) {
+		final AtomicLongArray counts = positive ? this.positives : this.negatives;
+		long count = 0L;
+		for (int i = 0; i < ThresholdEvaluation.Buckets; i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * Calculates the precision/recall curve over the bucket edges that tweets fall between, from the
+	 * lowest threshold to the highest.
+	 * @return the threshold, precision and recall of each point.
+	 */
+	public double[][] getPrecisionRecallCurve() {
+		final long[] positives = ThresholdEvaluation.copy(this.positives), negatives = ThresholdEvaluation.copy(this.negatives);
+		final double totalPositives = ThresholdEvaluation.sum(positives);
+		double truePositives = totalPositives, falsePositives = ThresholdEvaluation.sum(negatives);
+
+		double[][] curve = new double[ThresholdEvaluation.Buckets][];
+		int points = 0;
+		for (int b = 0; b < ThresholdEvaluation.Buckets - 1 && truePositives + falsePositives > 0d; b++) {
+			if (positives[b] == 0L && negatives[b] == 0L)
+				continue;
+			truePositives -= positives[b];
+			falsePositives -= negatives[b];
+			curve[points++] = new double[] {
+					ThresholdEvaluation.lowestValue(b + 1),
+					ThresholdEvaluation.precision(truePositives, falsePositives),
+					totalPositives == 0d ? 0d : truePositives / totalPositives
+			};
+		}
+		double[][] trimmed = new double[points][];
+		System.arraycopy(curve, 0, trimmed, 0, points);
+		return trimmed;
+	}
+
+	/**
+	 * Gets the precision at the given recall interpolated as the highest precision at that recall or
+	 * above, the points of the 11 point precision/recall curve.
+	 * @param recall the recall, from 0 to 1.
+	 * @return the precision, 0 if no threshold reaches the recall.
+	 */
+	public double getInterpolatedPrecision(final double recall) {
+		double precision = 0d;
+		for (double[] point : this.getPrecisionRecallCurve())
+			if (point[2] >= recall)
+				precision = Math.max(precision, point[1]);
+		// Below the lowest bucket every tweet is positive.
+		final double positives = this.getCount(true), total = positives + this.getCount(false);
+		return total == 0d ? 0d : Math.max(precision, positives / total);
+	}
+
+	/**
+	 * Evaluates every threshold in one pass over the buckets.
+	 * @return the best F1 with its threshold, precision and recall, the area under the ROC curve and the
+	 * average precision, indexed by BESTF1, BESTF1THRESHOLD, BESTF1PRECISION, BESTF1RECALL, ROCAUC and
+	 * AVERAGEPRECISION. All 0 until both classes were recorded.
+	 */
+	public double[] summarize() {
+		final long[] positives = ThresholdEvaluation.copy(this.positives), negatives = ThresholdEvaluation.copy(this.negatives);
+		final double totalPositives = ThresholdEvaluation.sum(positives), totalNegatives = ThresholdEvaluation.sum(negatives);
+		double[] summary = new double[6];
+		if (totalPositives == 0d || totalNegatives == 0d)
+			return summary;
+
+		// From the highest threshold down, each bucket turns its tweets positive.
+		double truePositives = 0d, falsePositives = 0d, negativesBelow = totalNegatives, recall = 0d;
+		for (int b = ThresholdEvaluation.Buckets - 1; b >= 0; b--) {
+			if (positives[b] == 0L && negatives[b] == 0L)
+				continue;
+			negativesBelow -= negatives[b];
+			// A positive scores above the negatives of lower buckets and ties half of its own.
+			summary[ROCAUC] += positives[b] * (negativesBelow + negatives[b] / 2d);
+
+			truePositives += positives[b];
+			falsePositives += negatives[b];
+			final double precision = ThresholdEvaluation.precision(truePositives, falsePositives);
+			final double nextRecall = truePositives / totalPositives;
+			summary[AVERAGEPRECISION] += (nextRecall - recall) * precision;
+			recall = nextRecall;
+
+			final double f1 = precision + recall == 0d ? 0d : 2d * precision * recall / (precision + recall);
+			if (f1 > summary[BESTF1]) {
+				summary[BESTF1] = f1;
+				summary[BESTF1THRESHOLD] = b == 0 ? 0d : ThresholdEvaluation.lowestValue(b);
+				summary[BESTF1PRECISION] = precision;
+				summary[BESTF1RECALL] = recall;
+			}
+		}
+		summary[ROCAUC] /= totalPositives * totalNegatives;
+		return summary;
+	}
+
+	public void reset() {
+		for (int i = 0; i < ThresholdEvaluation.Buckets; i++) {
+			this.positives.set(i, 0L);
+			this.negatives.set(i, 0L);
+		}
+	}
+
+	private static int index(final double perplexity) {
+		if (!(perplexity >= 1d))
+			return 0;
+		final int exponent = Math.getExponent(perplexity);
+		if (exponent >= ThresholdEvaluation.MaxExponent)
+			return ThresholdEvaluation.Buckets - 1;
+		final int sub = (int) (Double.doubleToRawLongBits(perplexity) >>> (52 - ThresholdEvaluation.SubBits))
+				& (ThresholdEvaluation.SubBuckets - 1);
+		return exponent * ThresholdEvaluation.SubBuckets + sub;
+	}
+
+	// The lowest perplexity counted in a bucket, the edge between it and the bucket below.
+	private static double lowestValue(final int bucket) {
+		final int exponent = bucket / ThresholdEvaluation.SubBuckets, sub = bucket % ThresholdEvaluation.SubBuckets;
+		return Math.scalb(1d + sub / (double) ThresholdEvaluation.SubBuckets, exponent);
+	}
+
+	private static double precision(final double truePositives, final double falsePositives) {
+		return truePositives + falsePositives == 0d ? 1d : truePositives / (truePositives + falsePositives);
+	}
+
+	private static long[] copy(final AtomicLongArray counts) {
+		long[] copy = new long[counts.length()];
+		for (int i = 0; i < copy.length; i++)
+			copy[i] = counts.get(i);
+		return copy;
+	}
+
+	private static double sum(final long[] counts) {
+		double sum = 0d;
+		for (long count : counts)
+			sum += count;
+		return sum;
+	}
+}
@@ -0,0 +1,201 @@
+package moa.classifiers.smoothing.smoothingtechniques.tokenizer;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a tweet into tokens in a single scan, the tokens are kept as ranges into a reused
+ * character buffer so tokenizing does not allocate once the buffers have grown to fit.
+ */
+public abstract class Tokenizer {
+
+	private static final int InitialTokens = 32;
+
+	protected char[] chars = new char[256];
+	protected int[] starts = new int[InitialTokens], lengths = new int[InitialTokens], hashes = new int[InitialTokens],
+			ids = new int[InitialTokens];
+	protected int size, wordCount;
+	protected boolean containsHashTag;
+
+	protected char[] hashTag = new char[0];
+	protected int minWordsInTweet;
+
+	/**
+	 * Tokenize the given tweet, replacing the previous tokens.
+	 * @param text the raw tweet text.
+	 */
+	public abstract void tokenize(String text);
+
+	/**
+	 * Create a new tokenizer of the same type and with the same settings, tokenizers hold per
+	 * tweet buffers so each thread needs its own.
+	 * @return the new tokenizer.
+	 */
+	public Tokenizer copy() {
+		Tokenizer tokenizer = this.newInstance();
+		tokenizer.hashTag = this.hashTag;
+		tokenizer.minWordsInTweet = this.minWordsInTweet;
+		return tokenizer;
+	}
+
+	protected abstract Tokenizer newInstance();
+
+	/**
+	 * Set the hash-tag that is stripped from tweets and required when training.
+	 * @param hashTag the lower case hash-tag, including the leading '#'.
+	 */
+	public void setHashTag(String hashTag) {
+		this.hashTag = hashTag == null ? new char[0] : hashTag.toCharArray();
+	}
+
+	/**
+	 * Set the minimum number of non hash-tag words a tweet needs to be accepted.
+	 * @param minWordsInTweet the minimum number of words.
+	 */
+	public void setMinWordsInTweet(int minWordsInTweet) { this.minWordsInTweet = minWordsInTweet; }
+
+	// The results of check(), why a tweet is not accepted.
+	public static final int
+			ACCEPTED    = 0,
+			TOOSHORT    = 1,
+			NOHASHTAG   = 2;
+
+	/**
+	 * Checks if the current tweet is valid.
+	 * @param isTrain if true the tweet also has to contain the hash-tag.
+	 * @return true if the tweet meets the conditions.
+	 */
+	public final boolean accept(boolean isTrain) {
+		return this.check(isTrain) == ACCEPTED;
+	}
+
+	/**
+	 * Checks if the current tweet is valid and if not, why.
+	 * @param isTrain if true the tweet also has to contain the hash-tag.
+	 * @return ACCEPTED, TOOSHORT if it has too few words or NOHASHTAG if a training tweet lacks the hash-tag.
+	 */
+	public final int check(boolean isTrain) {
+		if (this.wordCount < this.minWordsInTweet)
+			return TOOSHORT;
+		// Hash-tag wasn't in tweet, don't train using tweet.
+		return !isTrain || this.containsHashTag ? ACCEPTED : NOHASHTAG;
+	}
+
+	/**
+	 * Get the number of tokens in the current tweet, the hash-tag is not included.
+	 * @return the number of tokens.
+	 */
+	public final int size() { return this.size; }
+
+	/**
+	 * Get the number of tokens that are not hash-tags.
+	 * @return the number of non hash-tag words.
+	 */
+	public final int getWordCount() { return this.wordCount; }
+
+	/**
+	 * Check if the hash-tag was found (and stripped) in the current tweet.
+	 * @return true if the hash-tag was found.
+	 */
+	public final boolean containsHashTag() { return this.containsHashTag; }
+
+	public final char[] getChars() { return this.chars; }
+
+	public final int getStart(int index) { return this.starts[index]; }
+
+	public final int getLength(int index) { return this.lengths[index]; }
+
+	/**
+	 * Get the hash of a token, equal to the hashCode() of the token as a String.
+	 * @param index the index of the token.
+	 * @return the hash of the token.
+	 */
+	public final int getHash(int index) { return this.hashes[index]; }
+
+	/**
+	 * Get the ids of the tokens, only valid after resolve() has been called for the current tweet.
+	 * @return the ids of the tokens, the first size() entries are used.
+	 */
+	public final int[] getIds() { return this.ids; }
+
+	/**
+	 * Look up the vocabulary id of every token.
+	 * @param vocabulary the vocabulary to look the tokens up in.
+	 * @param add if true unknown tokens are added to the vocabulary, else their id is -1.
+	 * @return the ids of the tokens.
+	 */
+	public final int[] resolve(Vocabulary vocabulary, boolean add) {
+		final int[] ids = this.ids;
+		for (int i = 0; i < this.size; i++)
+			ids[i] = add ? vocabulary.add(this.chars, this.starts[i], this.lengths[i], this.hashes[i])
+					: vocabulary.getId(this.chars, this.starts[i], this.lengths[i], this.hashes[i]);
+		return ids;
+	}
+
+	/**
+	 * Adds the tokens that resolve(vocabulary, false) left unknown to the vocabulary, so a tweet that
+	 * was scored can be trained without looking up its known tokens again.
+	 * @param vocabulary the vocabulary the tokens were resolved in.
+	 * @return the ids of the tokens.
+	 */
+	public final int[] resolveUnknown(Vocabulary vocabulary) {
+		final int[] ids = this.ids;
+		for (int i = 0; i < this.size; i++)
+			if (ids[i] < 0)
+				ids[i] = vocabulary.add(this.chars, this.starts[i], this.lengths[i], this.hashes[i]);
+		return ids;
+	}
+
+	/**
+	 * Create a String for the given token.
+	 * @param index the index of the token.
+	 * @return the token.
+	 */
+	public final String getToken(int index) {
+		return new String(this.chars, this.starts[index], this.lengths[index]);
+	}
+
+	/**
+	 * Add all the tokens of the current tweet to the given list.
+	 * @param out the list to add the tokens to.
+	 * @return the given list.
+	 */
+	public final List<String> getTokens(List<String> out) {
+		for (int i = 0; i < this.size; i++)
+			out.add(this.getToken(i));
+		return out;
+	}
+
+	protected final void clear(int textLength) {
+		if (this.chars.length < textLength)
+			this.chars = new char[Math.max(textLength, this.chars.length * 2)];
+		this.size = 0;
+		this.wordCount = 0;
+		this.containsHashTag = false;
+	}
+
+	protected final void addToken(int start, int length, int hash) {
+		if (this.size == this.starts.length) {
+			int capacity = this.size * 2;
+			this.starts = Arrays.copyOf(this.starts, capacity);
+			this.lengths = Arrays.copyOf(this.lengths, capacity);
+			this.hashes = Arrays.copyOf(this.hashes, capacity);
+			this.ids = new int[capacity];
+		}
+		this.starts[this.size] = start;
+		this.lengths[this.size] = length;
+		this.hashes[this.size] = hash;
+		this.size++;
+	}
+
+	protected final boolean isHashTag(int start, int length) {
+		if (length != this.hashTag.length || length == 0)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (this.chars[start + i] != this.hashTag[i])
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,61 @@
+package moa.classifiers.smoothing.smoothingtechniques.tokenizer;
+
+/**
+ * Splits on spaces, lower cases and strips leading characters that are not a letter or '#',
+ * all in one pass over the tweet.
+ */
+public class TweetTokenizer extends Tokenizer {
+
+	@Override
+	protected Tokenizer newInstance() {
+		return new TweetTokenizer();
+	}
+
+	@Override
+	public void tokenize(String text) {
+		final int length = text.length();
+		this.clear(length);
+		final char[] chars = this.chars;
+		text.getChars(0, length, chars, 0);
+
+		int i = 0;
+		while (i < length) {
+			// Filter leading punctuation, this also skips the separating spaces.
+			char c = 0;
+			while (i < length) {
+				c = TweetTokenizer.toLowerCase(chars[i]);
+				chars[i] = c;
+				if ((c >= 'a' && c <= 'z') || c == '#')
+					break;
+				i++;
+			}
+			if (i == length)
+				break;
+
+			int start = i, hash = c;
+			for (i++; i < length && chars[i] != ' '; i++) {
+				c = TweetTokenizer.toLowerCase(chars[i]);
+				chars[i] = c;
+				hash = 31 * hash + c;
+			}
+
+			int tokenLength = i - start;
+			// Skip re-adding the hash-tag.
+			if (this.isHashTag(start, tokenLength)) {
+				this.containsHashTag = true;
+				continue;
+			}
+
+			this.addToken(start, tokenLength, hash);
+			// Count non-hash-tag words.
+			if (chars[start] != '#')
+				this.wordCount++;
+		}
+	}
+
+	private static char toLowerCase(char c) {
+		if (c < 128)
+			return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+		return Character.toLowerCase(c);
+	}
+}
@@ -0,0 +1,136 @@
+package moa.classifiers.smoothing;
+
+import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
+import moa.classifiers.smoothing.test.Fixtures;
+import moa.core.Measurement;
+import moa.streams.ArffFileStream;
+import weka.core.Instance;
+
+import java.io.IOException;
+import java.util.List;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class MultiTopicSmoothingTechniqueTest {
+
+	// The class topic is not the first, no tweet has the other hash-tag.
+	private static final String[] HashTags = { "#missing", "#topic" };
+
+	private final List<Instance> stream;
+
+	public MultiTopicSmoothingTechniqueTest() throws IOException {
+		this.stream = Fixtures.readInstances(Fixtures.streamTweets());
+	}
+
+	public void testEachTopicVotesLikeAClassifierOfItsHashTag() throws IOException {
+		MultiTopicSmoothingTechnique multi = this.createMulti();
+		SmoothingTechnique[] singles = new SmoothingTechnique[HashTags.length];
+		for (int topic = 0; topic < HashTags.length; topic++)
+			singles[topic] = this.createSingle(HashTags[topic]);
+
+		int[] positives = new int[HashTags.length];
+		int scored = 0;
+		for (int i = 0; i < this.stream.size(); i++) {
+			Instance inst = this.stream.get(i);
+			double[] votes = multi.getTopicVotes(inst);
+			for (int topic = 0; topic < HashTags.length; topic++) {
+				double[] expected = singles[topic].getVotesForInstance(inst);
+				assertEquals("filtered " + i, expected.length == 0, votes == null);
+				if (votes != null) {
+					assertEquals(HashTags[topic] + " vote of " + i, expected[1], votes[topic], 0d);
+					positives[topic] += (int) votes[topic];
+				}
+				singles[topic].trainOnInstance(inst);
+			}
+			if (votes != null)
+				scored++;
+			multi.trainOnInstance(inst);
+		}
+		assertTrue("positives of both topics", positives[0] > 0 && positives[1] > 0);
+
+		// The class is the truth of the class topic, the other topic is never about its hash-tag.
+		Measurement[] measurements = multi.getModelMeasurementsImpl();
+		Measurement[] expected = singles[1].getModelMeasurementsImpl();
+		for (String name : new String[] { "Precision", "Recall", "Accuracy" })
+			assertEquals(name + " #topic", this.value(expected, name), this.value(measurements, name + " #topic"), 0d);
+		assertEquals("Precision #missing", 0d, this.value(measurements, "Precision #missing"), 0d);
+		assertEquals("Recall #missing", 0d, this.value(measurements, "Recall #missing"), 0d);
+		assertEquals("Accuracy #missing", 1d - positives[0] / (double) scored,
+				this.value(measurements, "Accuracy #missing"), 1e-12);
+	}
+
+	public void testVotesAndMeasurementsAreThoseOfTheClassTopic() throws IOException {
+		MultiTopicSmoothingTechnique multi = this.createMulti();
+		SmoothingTechnique single = this.createSingle("#topic");
+		for (int i = 0; i < this.stream.size(); i++) {
+			Instance inst = this.stream.get(i);
+			assertArrayEquals("votes of " + i, single.getVotesForInstance(inst), multi.getVotesForInstance(inst), 0d);
+			single.trainOnInstance(inst);
+			multi.trainOnInstance(inst);
+		}
+
+		Measurement[] measurements = multi.getModelMeasurementsImpl();
+		Measurement[] expected = single.getModelMeasurementsImpl();
+		for (String name : new String[] { "Precision", "Recall", "Accuracy" }) {
+			assertEquals(name, this.value(expected, name), this.value(measurements, name), 0d);
+			assertEquals(name + " #topic", this.value(expected, name), this.value(measurements, name + " #topic"), 0d);
+			assertEquals(name + " #missing", 0d, this.value(measurements, name + " #missing"), 0d);
+		}
+	}
+
+	public void testTrainingFromAStreamWithIngestThreadsIsTheSameAsOneByOne() throws IOException {
+		MultiTopicSmoothingTechnique expected = this.createMulti();
+		for (Instance inst : this.stream)
+			expected.trainOnInstance(inst);
+		MultiTopicSmoothingTechnique ingested = this.createMulti();
+		ingested.ingestThreadsOption.setValue(3);
+		ingested.prepareForUse();
+		ingested.trainOnStream(new ArffFileStream(Fixtures.streamTweets().getPath(), -1), -1);
+		for (int i = 0; i < this.stream.size(); i++) {
+			double[] perplexities = expected.getPerplexities(this.stream.get(i), null);
+			if (perplexities == null)
+				assertNull("filtered " + i, ingested.getPerplexities(this.stream.get(i), null));
+			else
+				assertArrayEquals("perplexities of " + i, perplexities, ingested.getPerplexities(this.stream.get(i), null), 0d);
+		}
+	}
+
+	private MultiTopicSmoothingTechnique createMulti() throws IOException {
+		MultiTopicSmoothingTechnique multi = Fixtures.configure(new MultiTopicSmoothingTechnique());
+		multi.hashTagsOption.setValue("missing, topic");
+		multi.prepareForUse();
+		return multi;
+	}
+
+	// A classifier of one hash-tag with the Background Model of the multi-topic classifier.
+	private SmoothingTechnique createSingle(final String hashTag) throws IOException {
+		SmoothingTechnique single = Fixtures.configure(new SmoothingTechnique() {
+			@Override
+			protected boolean isBackgroundFilteredByHashTag() {
+				return false;
+			}
+
+			// The multi-topic classifier keeps the hash-tags in the background words.
+			@Override
+			protected BackgroundModel buildBackgroundModel() {
+				this.tokenizer.setHashTag("");
+				try {
+					return super.buildBackgroundModel();
+				} finally {
+					this.tokenizer.setHashTag(this.getHashTag());
+				}
+			}
+		});
+		single.hashTagOption.setValue(hashTag);
+		single.prepareForUse();
+		return single;
+	}
+
+	private double value(final Measurement[] measurements, final String name) {
+		for (Measurement measurement : measurements)
+			if (measurement.getName().equals(name))
+				return measurement.getValue();
+		fail("no measurement " + name);
+		return 0d;
+	}
+}
@@ -0,0 +1,327 @@
+package moa.classifiers.smoothing;
+
+import moa.classifiers.smoothing.smoothingtechniques.metrics.LogHistogram;
+import moa.classifiers.smoothing.smoothingtechniques.metrics.Metrics;
+import moa.classifiers.smoothing.smoothingtechniques.metrics.MetricsSink;
+import moa.classifiers.smoothing.smoothingtechniques.metrics.ThresholdEvaluation;
+import moa.classifiers.smoothing.test.Fixtures;
+import moa.streams.ArffFileStream;
+import weka.core.Instance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class SmoothingTechniqueTest {
+
+	private static final String[] SmoothingTechniques = { "ABSOLUTEDISCOUNTING", "JALINEKMERCERSMOOTHING",
+			"BAYESIANSMOOTHING", "STUPIDBACKOFF", "BACKGROUNDONLY" };
+	private static final String[] HistoryTechniques = { "FORGET", "QUEUE", "TIMEDECAY", "SLIDINGTIMEWINDOW",
+			"COUNTMINSKETCH" };
+
+	private final List<Instance> stream;
+
+	public SmoothingTechniqueTest() throws IOException {
+		this.stream = Fixtures.readInstances(Fixtures.streamTweets());
+	}
+
+	public void testAFilteredTweetHasNoVotes() throws IOException {
+		SmoothingTechnique classifier = this.create("STUPIDBACKOFF", "QUEUE");
+		for (Instance inst : this.stream) {
+			if (inst.stringValue(0).split(" ").length < 4) {
+				assertEquals("votes", 0, classifier.getVotesForInstance(inst).length);
+				double[] votes = classifier.getVotesForInstances(new Instance[] { inst }, 0, 1, null);
+				assertArrayEquals("batch votes", new double[] { 0d, 0d }, votes, 0d);
+				return;
+			}
+		}
+		fail("no short tweet");
+	}
+
+	public void testBatchVotesAreTheVotesOfEachInstance() throws IOException {
+		for (String smoothing : SmoothingTechniqueTest.SmoothingTechniques) {
+			for (String history : SmoothingTechniqueTest.HistoryTechniques) {
+				String name = smoothing + " " + history;
+				SmoothingTechnique single = this.create(smoothing, history);
+				SmoothingTechnique batch = this.create(smoothing, history);
+				Instance[] instances = this.stream.toArray(new Instance[0]);
+				double[] votes = null;
+				// Odd batches leave the end of the reused votes from the batch before.
+				for (int start = 0, size = 1; start < instances.length; start += size, size = size % 97 + 13) {
+					int count = Math.min(size, instances.length - start);
+					votes = batch.getVotesForInstances(instances, start, count, votes);
+					for (int i = 0; i < count; i++) {
+						double[] expected = single.getVotesForInstance(instances[start + i]);
+						if (expected.length == 0)
+							expected = new double[] { 0d, 0d };
+						assertEquals(name + " class 0 of " + (start + i), expected[0], votes[i * 2], 0d);
+						assertEquals(name + " class 1 of " + (start + i), expected[1], votes[i * 2 + 1], 0d);
+					}
+					for (int i = 0; i < count; i++) {
+						single.trainOnInstance(instances[start + i]);
+						batch.trainOnInstance(instances[start + i]);
+					}
+				}
+				assertEquals(name + " measurements", this.confusion(single), this.confusion(batch));
+			}
+		}
+	}
+
+	public void testSnapshotVotesAreTheVotesOfTheModel() throws IOException {
+		// A snapshot of the sketch reads 0 for the words outside the queue, the default width has no
+		// collisions that would give them a count in the sketch itself.
+		for (String history : SmoothingTechniqueTest.HistoryTechniques) {
+			SmoothingTechnique expected = this.create("STUPIDBACKOFF", history);
+			SmoothingTechnique concurrent = this.create("STUPIDBACKOFF", history, true);
+			Instance[] instances = this.stream.toArray(new Instance[0]);
+			for (int i = 0; i < instances.length; i++) {
+				double[] votes = expected.getVotesForInstance(instances[i]);
+				assertArrayEquals(history + " votes of " + i, votes, concurrent.getVotesForInstance(instances[i]), 0d);
+				if (votes.length == 0)
+					votes = new double[] { 0d, 0d };
+				assertArrayEquals(history + " batch votes of " + i, votes,
+						concurrent.getVotesForInstances(instances, i, 1, null), 0d);
+				expected.trainOnInstance(instances[i]);
+				concurrent.trainOnInstance(instances[i]);
+			}
+		}
+	}
+
+	public void testScoresFromManyThreadsWhileTraining() throws Exception {
+		final SmoothingTechnique classifier = this.create("STUPIDBACKOFF", "QUEUE", true);
+		final Instance[] instances = this.stream.toArray(new Instance[0]);
+		final AtomicBoolean training = new AtomicBoolean(true);
+		final AtomicLong scored = new AtomicLong();
+		ExecutorService threads = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> scoring = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final int first = t;
+				scoring.add(threads.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = first; training.get(); i = (i + 7) % instances.length) {
+							double[] votes = classifier.getVotesForInstance(instances[i]);
+							if (votes.length > 0) {
+								assertEquals("votes", 1d, votes[0] + votes[1], 0d);
+								scored.incrementAndGet();
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			SmoothingTechnique expected = this.create("STUPIDBACKOFF", "QUEUE");
+			for (Instance inst : instances) {
+				classifier.trainOnInstance(inst);
+				expected.trainOnInstance(inst);
+			}
+			training.set(false);
+			for (Future<?> future : scoring)
+				future.get();
+
+			long classified = 0;
+			for (int i = 0; i < 4; i++)
+				classified += classifier.confusion.get(i);
+			assertEquals("every scored tweet is counted", scored.get(), classified);
+			// The last snapshot was taken after the last instance.
+			for (int i = 0; i < instances.length; i++)
+				assertArrayEquals("votes of " + i, expected.getVotesForInstance(instances[i]),
+						classifier.getVotesForInstance(instances[i]), 0d);
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	public void testACopySharesTheBackgroundModelButNotTheHistory() throws IOException {
+		SmoothingTechnique classifier = this.create("STUPIDBACKOFF", "QUEUE");
+		SmoothingTechnique expected = this.create("STUPIDBACKOFF", "QUEUE");
+		this.train(classifier, 0, 1000);
+		this.train(expected, 0, 1000);
+
+		SmoothingTechnique copy = (SmoothingTechnique) classifier.copy();
+		assertSame("Background Model", classifier.vocabulary.getBase(), copy.vocabulary.getBase());
+		assertNotSame("history", classifier.foregroundModel.getHistory(), copy.foregroundModel.getHistory());
+		this.assertSameVotes("copy", classifier, copy);
+
+		// Training the copy leaves the original as it was.
+		this.train(copy, 1000, 2000);
+		this.assertSameVotes("original", expected, classifier);
+
+		// Resetting the original leaves the copy and the Background Model they share as they were.
+		SmoothingTechnique trained = (SmoothingTechnique) copy.copy();
+		int words = copy.vocabulary.getBase().size();
+		classifier.resetLearning();
+		assertEquals("background words", words, copy.vocabulary.getBase().size());
+		this.assertSameVotes("copy after reset", trained, copy);
+	}
+
+	public void testASerializedClassifierCarriesOnLikeTheOriginal() throws IOException, ClassNotFoundException {
+		for (String history : SmoothingTechniqueTest.HistoryTechniques) {
+			SmoothingTechnique classifier = this.create("ABSOLUTEDISCOUNTING", history);
+			this.train(classifier, 0, 1000);
+			SmoothingTechnique read = Fixtures.serializeAndRead(classifier);
+			assertNotSame(history + " Background Model", classifier.vocabulary.getBase(), read.vocabulary.getBase());
+			this.assertSameVotes(history + " read", classifier, read);
+			this.train(classifier, 1000, 2000);
+			this.train(read, 1000, 2000);
+			this.assertSameVotes(history + " trained on", classifier, read);
+		}
+	}
+
+	public void testTrainingFromAStreamWithIngestThreadsIsTheSameAsOneByOne() throws IOException {
+		for (String history : SmoothingTechniqueTest.HistoryTechniques) {
+			SmoothingTechnique expected = this.create("BAYESIANSMOOTHING", history);
+			this.train(expected, 0, 1500);
+			SmoothingTechnique ingested = this.create("BAYESIANSMOOTHING", history);
+			ingested.ingestThreadsOption.setValue(3);
+			ingested.prepareForUse();
+			assertEquals(history + " trained", 1500,
+					ingested.trainOnStream(new ArffFileStream(Fixtures.streamTweets().getPath(), -1), 1500));
+			this.assertSameVotes(history, expected, ingested);
+			assertEquals(history + " foreground words", expected.vocabulary.getForegroundWordCount(),
+					ingested.vocabulary.getForegroundWordCount());
+		}
+	}
+
+	public void testTrainingAScoredTweetIsTheSameAsTrainingIt() throws IOException {
+		for (String history : SmoothingTechniqueTest.HistoryTechniques) {
+			SmoothingTechnique expected = this.create("ABSOLUTEDISCOUNTING", history);
+			this.train(expected, 0, 2000);
+			SmoothingTechnique prequential = this.create("ABSOLUTEDISCOUNTING", history);
+			for (int i = 0; i < 2000; i++) {
+				Instance inst = this.stream.get(i);
+				// Evaluators score a copy, it shares the text of the tweet.
+				if (i % 10 != 1)
+					prequential.getVotesForInstance((Instance) inst.copy());
+				// Every tenth tweet is scored before the tweet ahead of it is trained, then trained with
+				// the tokens of a history that changed since.
+				if (i % 10 == 0)
+					prequential.getVotesForInstance(this.stream.get(i + 1));
+				prequential.trainOnInstance(inst);
+			}
+			this.assertSameVotes(history, expected, prequential);
+			assertEquals(history + " foreground words", expected.vocabulary.getForegroundWordCount(),
+					prequential.vocabulary.getForegroundWordCount());
+		}
+	}
+
+	public void testEvaluatingThresholdsCountsEveryScoredTweetAndLeavesTheVotes() throws IOException {
+		SmoothingTechnique expected = this.create("BAYESIANSMOOTHING", "QUEUE");
+		SmoothingTechnique evaluated = this.create("BAYESIANSMOOTHING", "QUEUE");
+		evaluated.evaluateThresholdsOption.set();
+		evaluated.prepareForUse();
+		long positives = 0, negatives = 0;
+		for (Instance inst : this.stream) {
+			double[] votes = expected.getVotesForInstance(inst);
+			assertArrayEquals("votes", votes, evaluated.getVotesForInstance(inst), 0d);
+			if (votes.length > 0) {
+				if (inst.classValue() == 1)
+					positives++;
+				else
+					negatives++;
+			}
+			expected.trainOnInstance(inst);
+			evaluated.trainOnInstance(inst);
+		}
+		assertEquals("positives", positives, evaluated.getThresholdEvaluation().getCount(true));
+		assertEquals("negatives", negatives, evaluated.getThresholdEvaluation().getCount(false));
+		assertTrue("ROC AUC", evaluated.getThresholdEvaluation().summarize()[ThresholdEvaluation.ROCAUC] > 0.5d);
+	}
+
+	public void testMetricsCountEveryTrainedTweetAndLeaveTheVotes() throws IOException {
+		SmoothingTechnique expected = this.create("JALINEKMERCERSMOOTHING", "QUEUE");
+		SmoothingTechnique measured = this.create("JALINEKMERCERSMOOTHING", "QUEUE");
+		measured.collectMetricsOption.set();
+		measured.metricsReportIntervalOption.setValue(500);
+		measured.prepareForUse();
+		final Map<String, Long> counters = new HashMap<>();
+		final List<String> reported = new ArrayList<>();
+		measured.setMetricsSink(new MetricsSink() {
+			@Override
+			public void counter(final String name, final long value) {
+				counters.put(name, value);
+				reported.add(name);
+			}
+
+			@Override
+			public void gauge(final String name, final double value) {
+				reported.add(name);
+			}
+
+			@Override
+			public void histogram(final String name, final LogHistogram histogram) {
+				reported.add(name);
+			}
+		});
+		this.train(expected, 0, 2000);
+		this.train(measured, 0, 2000);
+
+		Metrics metrics = measured.getMetrics();
+		assertTrue("too short", metrics.getTooShort() > 0);
+		assertTrue("no hash-tag", metrics.getNoHashTag() > 0);
+		assertEquals("each tweet once", 2000, metrics.getTooShort() + metrics.getNoHashTag()
+				+ metrics.getTrainedTweets());
+		// Reported after every 500 instances, the last report after the last instance.
+		assertEquals("reports", 4 * 12, reported.size());
+		assertEquals("trained tweets", metrics.getTrainedTweets(), (long) counters.get("tweets.trained"));
+		assertEquals("evicted words", expected.foregroundModel.getHistory().getEvictedWords(),
+				(long) counters.get("history.evictedWords"));
+
+		// Sampled tweets are scored without the early exit, they are classified the same.
+		this.assertSameVotes("votes", expected, measured);
+		assertTrue("perplexities", metrics.getPerplexities().getCount() > 0);
+		assertTrue("latencies", metrics.getScoreLatency().getCount() > 0);
+		assertTrue("hit ratio", metrics.getBackgroundHitRatio() > 0d && metrics.getBackgroundHitRatio() <= 1d);
+	}
+
+	private void train(final SmoothingTechnique classifier, final int from, final int to) {
+		for (int i = from; i < to; i++)
+			classifier.trainOnInstance(this.stream.get(i));
+	}
+
+	// Scores every instance with both classifiers, a scored tweet is not trained so neither changes.
+	private void assertSameVotes(final String message, final SmoothingTechnique expected,
+			final SmoothingTechnique actual) {
+		for (int i = 0; i < this.stream.size(); i++)
+			assertArrayEquals(message + ", votes of " + i, expected.getVotesForInstance(this.stream.get(i)),
+					actual.getVotesForInstance(this.stream.get(i)), 0d);
+	}
+
+	private SmoothingTechnique create(final String smoothing, final String history) throws IOException {
+		return this.create(smoothing, history, false);
+	}
+
+	// Scoring concurrently publishes a snapshot after every training instance.
+	private SmoothingTechnique create(final String smoothing, final String history, final boolean concurrentScoring)
+			throws IOException {
+		SmoothingTechnique classifier = Fixtures.configure(new SmoothingTechnique());
+		classifier.smoothingFunctionOption.setChosenLabel(smoothing);
+		classifier.historyRetentionFunctionOption.setChosenLabel(history);
+		classifier.timestampIndexOption.setValue(1);
+		classifier.halfLifeOption.setValue(100f);
+		classifier.timeWindowOption.setValue(200f);
+		if (concurrentScoring) {
+			classifier.concurrentScoringOption.set();
+			classifier.snapshotIntervalOption.setValue(1);
+		}
+		classifier.prepareForUse();
+		return classifier;
+	}
+
+	// The precision, recall and accuracy the classifier measured.
+	private String confusion(final SmoothingTechnique classifier) {
+		String description = classifier.toString();
+		return description.substring(0, description.indexOf(", Words skipped"));
+	}
+}
@@ -0,0 +1,167 @@
+package moa.classifiers.smoothing;
+
+import moa.classifiers.smoothing.test.Fixtures;
+import weka.core.Instance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class SweepSmoothingTechniqueTest {
+
+	private static final String[] HistoryTechniques = { "FORGET", "QUEUE", "TIMEDECAY", "SLIDINGTIMEWINDOW",
+			"COUNTMINSKETCH" };
+	// Parameters that floats hold exactly, so the float options of a single classifier have the same values.
+	private static final String Deltas = "0.5, 0.75", Lambdas = "0.25", Mus = "1000", Alphas = "0.5 0.125",
+			Thresholds = "100,1000";
+
+	private final List<Instance> stream;
+
+	public SweepSmoothingTechniqueTest() throws IOException {
+		this.stream = Fixtures.readInstances(Fixtures.streamTweets());
+	}
+
+	public void testEachConfigurationCountsLikeASingleClassifier() throws IOException {
+		for (String history : SweepSmoothingTechniqueTest.HistoryTechniques) {
+			SweepSmoothingTechnique sweep = this.createSweep(history);
+			List<SmoothingTechnique> singles = this.createSingles(history);
+			for (Instance inst : this.stream) {
+				double[] votes = sweep.getVotesForInstance(inst);
+				// The sweep votes with its own options, the first configuration.
+				assertArrayEquals(history + " votes", singles.get(0).getVotesForInstance(inst), votes, 0d);
+				for (int c = 1; c < singles.size(); c++)
+					singles.get(c).getVotesForInstance(inst);
+				sweep.trainOnInstance(inst);
+				for (SmoothingTechnique single : singles)
+					single.trainOnInstance(inst);
+			}
+
+			// The models of the configurations are created with the foreground model, on the first instance.
+			assertEquals(history + " configurations", singles.size(), sweep.getConfigurationCount());
+			for (int c = 0; c < singles.size(); c++) {
+				String name = history + " " + sweep.getConfigurationName(c);
+				for (int k = 0; k < 4; k++)
+					assertEquals(name + " confusion " + k, singles.get(c).confusion.get(k),
+							sweep.sweepConfusion[4 * c + k]);
+			}
+			assertEquals("first configuration", "STUPIDBACKOFF alpha=0.30000001192092896 threshold=400.0",
+					sweep.getConfigurationName(0));
+			assertEquals("last configuration", "STUPIDBACKOFF alpha=0.125 threshold=1000.0",
+					sweep.getConfigurationName(singles.size() - 1));
+		}
+	}
+
+	public void testBatchVotesCountEveryConfiguration() throws IOException {
+		SweepSmoothingTechnique single = this.createSweep("QUEUE");
+		SweepSmoothingTechnique batch = this.createSweep("QUEUE");
+		Instance[] instances = this.stream.toArray(new Instance[0]);
+		for (int start = 0; start < instances.length; start += 50) {
+			double[] votes = batch.getVotesForInstances(instances, start, 50, null);
+			for (int i = 0; i < 50; i++) {
+				double[] expected = single.getVotesForInstance(instances[start + i]);
+				if (expected.length == 0)
+					expected = new double[] { 0d, 0d };
+				assertEquals("class 1 of " + (start + i), expected[1], votes[i * 2 + 1], 0d);
+			}
+			for (int i = 0; i < 50; i++) {
+				single.trainOnInstance(instances[start + i]);
+				batch.trainOnInstance(instances[start + i]);
+			}
+		}
+		assertEquals("configurations", Arrays.toString(single.sweepConfusion), Arrays.toString(batch.sweepConfusion));
+	}
+
+	public void testASerializedSweepCarriesOnLikeTheOriginal() throws IOException, ClassNotFoundException {
+		SweepSmoothingTechnique sweep = this.createSweep("QUEUE");
+		for (int i = 0; i < 1000; i++) {
+			sweep.getVotesForInstance(this.stream.get(i));
+			sweep.trainOnInstance(this.stream.get(i));
+		}
+		SweepSmoothingTechnique read = Fixtures.serializeAndRead(sweep);
+		for (int i = 1000; i < this.stream.size(); i++) {
+			sweep.getVotesForInstance(this.stream.get(i));
+			read.getVotesForInstance(this.stream.get(i));
+			sweep.trainOnInstance(this.stream.get(i));
+			read.trainOnInstance(this.stream.get(i));
+		}
+		assertEquals("configurations", Arrays.toString(sweep.sweepConfusion), Arrays.toString(read.sweepConfusion));
+	}
+
+	public void testConcurrentScoringIsRejected() throws IOException {
+		SweepSmoothingTechnique sweep = Fixtures.configure(new SweepSmoothingTechnique());
+		sweep.concurrentScoringOption.set();
+		try {
+			sweep.prepareForUse();
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private SweepSmoothingTechnique createSweep(final String history) throws IOException {
+		SweepSmoothingTechnique sweep = Fixtures.configure(new SweepSmoothingTechnique());
+		this.setOptions(sweep, "STUPIDBACKOFF", history);
+		sweep.sweepDeltasOption.setValue(SweepSmoothingTechniqueTest.Deltas);
+		sweep.sweepLambdasOption.setValue(SweepSmoothingTechniqueTest.Lambdas);
+		sweep.sweepMusOption.setValue(SweepSmoothingTechniqueTest.Mus);
+		sweep.sweepAlphasOption.setValue(SweepSmoothingTechniqueTest.Alphas);
+		sweep.sweepThresholdsOption.setValue(SweepSmoothingTechniqueTest.Thresholds);
+		sweep.prepareForUse();
+		return sweep;
+	}
+
+	// A classifier per configuration of createSweep(), in the order of the sweep.
+	private List<SmoothingTechnique> createSingles(final String history) throws IOException {
+		List<SmoothingTechnique> singles = new ArrayList<>();
+		double[] thresholds = { Fixtures.Threshold, 100d, 1000d };
+		for (double threshold : thresholds)
+			singles.add(this.prepare(this.createSingle("STUPIDBACKOFF", history, threshold)));
+		for (double delta : new double[] { 0.5d, 0.75d })
+			for (double threshold : thresholds) {
+				SmoothingTechnique single = this.createSingle("ABSOLUTEDISCOUNTING", history, threshold);
+				single.absoluteDiscountingDeltaOption.setValue(delta);
+				singles.add(this.prepare(single));
+			}
+		for (double threshold : thresholds) {
+			SmoothingTechnique single = this.createSingle("JALINEKMERCERSMOOTHING", history, threshold);
+			single.jalinekMercerSmoothingLambdaOption.setValue(0.25d);
+			singles.add(this.prepare(single));
+		}
+		for (double threshold : thresholds) {
+			SmoothingTechnique single = this.createSingle("BAYESIANSMOOTHING", history, threshold);
+			single.bayesianSmoothingMuOption.setValue(1000d);
+			singles.add(this.prepare(single));
+		}
+		for (double alpha : new double[] { 0.5d, 0.125d })
+			for (double threshold : thresholds) {
+				SmoothingTechnique single = this.createSingle("STUPIDBACKOFF", history, threshold);
+				single.stupidBackoffAlphaOption.setValue(alpha);
+				singles.add(this.prepare(single));
+			}
+		return singles;
+	}
+
+	private SmoothingTechnique createSingle(final String smoothing, final String history, final double threshold)
+			throws IOException {
+		SmoothingTechnique single = Fixtures.configure(new SmoothingTechnique());
+		this.setOptions(single, smoothing, history);
+		single.thresholdOption.setValue(threshold);
+		return single;
+	}
+
+	private SmoothingTechnique prepare(final SmoothingTechnique classifier) {
+		classifier.prepareForUse();
+		return classifier;
+	}
+
+	private void setOptions(final SmoothingTechnique classifier, final String smoothing, final String history) {
+		classifier.smoothingFunctionOption.setChosenLabel(smoothing);
+		classifier.historyRetentionFunctionOption.setChosenLabel(history);
+		classifier.timestampIndexOption.setValue(1);
+		classifier.halfLifeOption.setValue(100f);
+		classifier.timeWindowOption.setValue(200f);
+	}
+}
@@ -0,0 +1,259 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.TweetTokenizer;
+import moa.classifiers.smoothing.test.Fixtures;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class BackgroundModelTest {
+
+	public void testDiscountsTheCountsOfTheWordsWithEnoughOccurrences() {
+		BackgroundModel bm = new BackgroundModel();
+		bm.buildProbabilities(BackgroundModelTest.occurrences("rare", 20, "common", 40, "seldom", 10, "the", 5));
+
+		// seldom is counted in the total but kept out of the model, the stop word is not counted at all.
+		assertEquals("size", 2, bm.size());
+		assertEquals("common", 39.5d / 70d, bm.getProbability("common"), 0d);
+		assertEquals("rare", 19.5d / 70d, bm.getProbability("rare"), 0d);
+		assertEquals("too few occurrences", -1, bm.indexOf("seldom"));
+		assertEquals("stop word", -1, bm.indexOf("the"));
+		assertEquals("unknown", 0d, bm.getProbability("unknown"), 0d);
+		assertEquals("minimum", 19.5d / 70d, bm.getMinimumProbability(), 0d);
+		assertEquals("maximum", 39.5d / 70d, bm.getMaximumProbability(), 0d);
+	}
+
+	public void testOrdersTheWordsByDescendingCount() {
+		BackgroundModel bm = new BackgroundModel();
+		bm.buildProbabilities(BackgroundModelTest.occurrences("bb", 20, "cc", 30, "aa", 20, "dd", 50));
+		assertEquals("first", "dd", bm.getWord(0));
+		assertEquals("second", "cc", bm.getWord(1));
+		assertEquals("ties keep the order they were first seen in", "bb", bm.getWord(2));
+		assertEquals("last", "aa", bm.getWord(3));
+		for (int i = 0; i < bm.size(); i++)
+			assertEquals("index of " + bm.getWord(i), i, bm.indexOf(bm.getWord(i)));
+	}
+
+	public void testLooksUpWordsFromARangeOfChars() {
+		BackgroundModel bm = Fixtures.backgroundModel("alpha", "beta");
+		char[] chars = "xbetax".toCharArray();
+		assertEquals("range", bm.indexOf("beta"), bm.indexOf(chars, 1, 4, "beta".hashCode()));
+		assertEquals("another range", -1, bm.indexOf(chars, 0, 4, "xbet".hashCode()));
+	}
+
+	public void testAnEmptyModelHasNoProbabilities() {
+		BackgroundModel bm = new BackgroundModel();
+		bm.finish();
+		assertEquals("size", 0, bm.size());
+		assertEquals("minimum", 0d, bm.getMinimumProbability(), 0d);
+		assertEquals("lookup", -1, bm.indexOf("alpha"));
+	}
+
+	public void testCachesTheLogOfEveryProbability() {
+		BackgroundModel bm = Fixtures.backgroundModel("alpha", "beta", "gamma");
+		for (int i = 0; i < bm.size(); i++)
+			assertEquals("log of " + bm.getWord(i), Math.log(bm.getProbability(i)), bm.getLogProbability(i), 0d);
+		assertEquals("out of range", 0d, bm.getLogProbability(-1), 0d);
+		assertEquals("out of range", 0d, bm.getProbability(bm.size()), 0d);
+	}
+
+	public void testCountsTweetsFromTheTokenizerLikeTheirWords() {
+		Tokenizer tokenizer = new TweetTokenizer();
+		BackgroundModel streamed = new BackgroundModel();
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			tokenizer.tokenize("The word" + i % 7 + " is in tweet" + i % 3 + " of #Topic ...again");
+			streamed.addTweet(tokenizer);
+			tokenizer.getTokens(words);
+		}
+		streamed.finish();
+		BackgroundModel listed = new BackgroundModel();
+		listed.buildProbabilities(words);
+
+		assertEquals("words with enough occurrences", 12, streamed.size());
+		BackgroundModelTest.assertSameModel(listed, streamed);
+	}
+
+	public void testResetStartsANewModel() {
+		BackgroundModel bm = Fixtures.backgroundModel("alpha", "beta");
+		bm.reset();
+		bm.buildProbabilities(BackgroundModelTest.occurrences("gamma", 20));
+		assertEquals("size", 1, bm.size());
+		assertEquals("old word", -1, bm.indexOf("alpha"));
+		assertEquals("new word", 19.5d / 20d, bm.getProbability("gamma"), 0d);
+	}
+
+	public void testSnapshotLoadsBackTheSameModel() throws IOException {
+		BackgroundModel bm = BackgroundModelTest.manyWords();
+		File directory = Fixtures.createDirectory();
+		try {
+			File file = new File(directory, "bm.snapshot");
+			bm.save(file, "key");
+			BackgroundModelTest.assertSameModel(bm, BackgroundModel.load(file, "key"));
+		} finally {
+			Fixtures.deleteDirectory(directory);
+		}
+	}
+
+	public void testSnapshotIsOnlyLoadedWithItsKey() throws IOException {
+		BackgroundModel bm = Fixtures.backgroundModel("alpha", "beta");
+		File directory = Fixtures.createDirectory();
+		try {
+			File file = new File(directory, "bm.snapshot");
+			assertNull("missing file", BackgroundModel.load(file, "key"));
+			bm.save(file, "key");
+			assertNull("another key", BackgroundModel.load(file, "other key"));
+			assertNull("a prefix of the key", BackgroundModel.load(file, "ke"));
+		} finally {
+			Fixtures.deleteDirectory(directory);
+		}
+	}
+
+	public void testSaveReplacesTheSnapshotAndLeavesNoTemporaryFile() throws IOException {
+		File directory = Fixtures.createDirectory();
+		try {
+			File file = new File(directory, "bm.snapshot");
+			Fixtures.backgroundModel("alpha", "beta").save(file, "first");
+			Fixtures.backgroundModel("gamma").save(file, "second");
+			assertNull("replaced", BackgroundModel.load(file, "first"));
+			assertEquals("the second model", 0, BackgroundModel.load(file, "second").indexOf("gamma"));
+			assertEquals("files", 1, directory.list().length);
+		} finally {
+			Fixtures.deleteDirectory(directory);
+		}
+	}
+
+	public void testFailedSaveDeletesItsTemporaryFile() throws IOException {
+		File directory = Fixtures.createDirectory();
+		try {
+			// A directory that is not empty cannot be replaced by the snapshot.
+			File file = new File(directory, "bm.snapshot");
+			assertTrue("directory", file.mkdir());
+			assertTrue("file in the directory", new File(file, "taken").createNewFile());
+			try {
+				Fixtures.backgroundModel("alpha").save(file, "key");
+				fail("saved over a directory");
+			} catch (IOException expected) {
+			}
+			assertEquals("files", 1, directory.list().length);
+		} finally {
+			new File(directory, "bm.snapshot/taken").delete();
+			Fixtures.deleteDirectory(directory);
+		}
+	}
+
+	public void testCutShortSnapshotsAreNotLoaded() throws IOException {
+		File directory = Fixtures.createDirectory();
+		try {
+			File file = new File(directory, "bm.snapshot");
+			Fixtures.backgroundModel("alpha", "beta", "köln").save(file, "key");
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			for (int length = 0; length < bytes.length; length++) {
+				Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+				assertNull("cut to " + length + " of " + bytes.length + " bytes", BackgroundModel.load(file, "key"));
+			}
+		} finally {
+			Fixtures.deleteDirectory(directory);
+		}
+	}
+
+	public void testSnapshotsWithSizesThatDoNotFitAreNotLoaded() throws IOException {
+		File directory = Fixtures.createDirectory();
+		try {
+			File file = new File(directory, "bm.snapshot");
+			Fixtures.backgroundModel("alpha", "beta").save(file, "key");
+			final byte[] bytes = Files.readAllBytes(file.toPath());
+			// The header is 12 bytes and the key padded to 8, the word count and index capacity follow.
+			final int sizes = (int) BackgroundModel.getSnapshotHeaderLength(3);
+			final int words = 2, capacity = 4;
+			final int offsets = sizes + 24 + words * 16 + words * 4 + capacity * 4;
+
+			BackgroundModelTest.assertNotLoaded(file, bytes, 8, -1, "negative key length");
+			BackgroundModelTest.assertNotLoaded(file, bytes, 4, BackgroundModel.SnapshotVersion + 1, "another version");
+			BackgroundModelTest.assertNotLoaded(file, bytes, sizes, Integer.MAX_VALUE, "word count");
+			BackgroundModelTest.assertNotLoaded(file, bytes, sizes, -1, "negative word count");
+			BackgroundModelTest.assertNotLoaded(file, bytes, sizes + 4, 3, "capacity not a power of two");
+			BackgroundModelTest.assertNotLoaded(file, bytes, sizes + 4, 1 << 20, "capacity");
+			BackgroundModelTest.assertNotLoaded(file, bytes, offsets - 4, words + 1, "index slot");
+			BackgroundModelTest.assertNotLoaded(file, bytes, offsets, 1, "first offset");
+			BackgroundModelTest.assertNotLoaded(file, bytes, offsets + 4, 10, "decreasing offsets");
+			BackgroundModelTest.assertNotLoaded(file, bytes, offsets + 8, 1 << 20, "word bytes");
+		} finally {
+			Fixtures.deleteDirectory(directory);
+		}
+	}
+
+	public void testSerializesTheFinishedModel() throws IOException, ClassNotFoundException {
+		BackgroundModel bm = BackgroundModelTest.manyWords();
+		BackgroundModelTest.assertSameModel(bm, Fixtures.serializeAndRead(bm));
+		BackgroundModel empty = new BackgroundModel();
+		empty.finish();
+		assertEquals("empty", 0, Fixtures.serializeAndRead(empty).size());
+	}
+
+	public void testAModelStillCountingIsNotSerialized() throws IOException, ClassNotFoundException {
+		BackgroundModel bm = new BackgroundModel();
+		bm.addWord("alpha");
+		try {
+			Fixtures.serializeAndRead(bm);
+			fail("serialized the counts");
+		} catch (NotSerializableException expected) {
+		}
+	}
+
+	// Writes the snapshot bytes with the little endian int at the position replaced, it must not load.
+	private static void assertNotLoaded(final File file, final byte[] bytes, final int position, final int value,
+			final String message) throws IOException {
+		ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		corrupt.putInt(position, value);
+		Files.write(file.toPath(), corrupt.array());
+		assertNull(message, BackgroundModel.load(file, "key"));
+	}
+
+	// A model of 60 words, one with a character UTF-8 encodes in two bytes.
+	static BackgroundModel manyWords() {
+		String[] words = new String[60];
+		for (int i = 0; i < words.length; i++)
+			words[i] = "word" + i;
+		words[7] = "köln";
+		return Fixtures.backgroundModel(words);
+	}
+
+	/**
+	 * Checks that two models hold the same words, probabilities and lookups.
+	 */
+	static void assertSameModel(final ReadOnlyBackgroundModel expected, final ReadOnlyBackgroundModel actual) {
+		assertEquals("size", expected.size(), actual.size());
+		assertEquals("minimum", expected.getMinimumProbability(), actual.getMinimumProbability(), 0d);
+		assertEquals("maximum", expected.getMaximumProbability(), actual.getMaximumProbability(), 0d);
+		for (int i = 0; i < expected.size(); i++) {
+			String word = expected.getWord(i);
+			assertEquals("word " + i, word, actual.getWord(i));
+			assertEquals("index of " + word, i, actual.indexOf(word));
+			char[] chars = (" " + word).toCharArray();
+			assertEquals("index of the chars of " + word, i, actual.indexOf(chars, 1, word.length(), word.hashCode()));
+			assertEquals("probability of " + word, expected.getProbability(i), actual.getProbability(i), 0d);
+			assertEquals("log probability of " + word, expected.getLogProbability(i), actual.getLogProbability(i), 0d);
+		}
+		assertEquals("unknown", -1, actual.indexOf("not a background word"));
+	}
+
+	// The words repeated, given as pairs of a word and its number of occurrences.
+	static List<String> occurrences(final Object... wordsAndCounts) {
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < wordsAndCounts.length; i += 2)
+			for (int n = 0; n < (Integer) wordsAndCounts[i + 1]; n++)
+				words.add((String) wordsAndCounts[i]);
+		return words;
+	}
+}
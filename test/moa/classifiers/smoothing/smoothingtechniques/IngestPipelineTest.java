@@ -0,0 +1,121 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.TweetTokenizer;
+import moa.classifiers.smoothing.test.Fixtures;
+import moa.streams.ArffFileStream;
+import weka.core.Instance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class IngestPipelineTest {
+
+	private final Tokenizer tokenizer = new TweetTokenizer();
+	private final List<Instance> stream;
+
+	public IngestPipelineTest() throws IOException {
+		this.tokenizer.setHashTag("#topic");
+		this.tokenizer.setMinWordsInTweet(4);
+		this.stream = Fixtures.readInstances(Fixtures.streamTweets());
+	}
+
+	public void testTrainsTheTokenizedTweetsInTheOrderOfTheStream() throws IOException {
+		for (int threads : new int[] { 1, 4 }) {
+			Recorder recorder = new Recorder(-1);
+			long trained = new IngestPipeline(this.tokenizer, threads).run(this.open(-1), -1, 0, recorder);
+			assertEquals("trained", this.stream.size(), trained);
+			this.assertRecorded(threads + " threads", recorder, this.stream.size());
+		}
+	}
+
+	public void testTakesNoMoreThanTheLimit() throws IOException {
+		for (long limit : new long[] { 0, 1, 300 }) {
+			Recorder recorder = new Recorder(-1);
+			ArffFileStream instances = this.open(-1);
+			assertEquals("trained", limit, new IngestPipeline(this.tokenizer, 2).run(instances, limit, 0, recorder));
+			this.assertRecorded("limit " + limit, recorder, (int) limit);
+			assertEquals("the next instance is left in the stream", this.stream.get((int) limit).stringValue(0),
+					instances.nextInstance().stringValue(0));
+		}
+	}
+
+	public void testTrainsTheInstancesReadBeforeTheStreamFails() throws IOException {
+		Recorder recorder = new Recorder(-1);
+		try {
+			new IngestPipeline(this.tokenizer, 3).run(this.open(700), -1, 0, recorder);
+			fail("the stream failed");
+		} catch (RuntimeException expected) {
+			assertEquals("cause", "broken stream", expected.getCause().getMessage());
+		}
+		this.assertRecorded("before the failure", recorder, 700);
+	}
+
+	public void testStopsWhenTheWriterFails() throws IOException {
+		Recorder recorder = new Recorder(500);
+		try {
+			new IngestPipeline(this.tokenizer, 3).run(this.open(-1), -1, 0, recorder);
+			fail("the writer failed");
+		} catch (IllegalStateException expected) {
+			assertEquals("message", "broken writer", expected.getMessage());
+		}
+		this.assertRecorded("before the failure", recorder, 500);
+	}
+
+	// The stream of the instances, nextInstance() fails on the instance at failAt unless it is -1.
+	private ArffFileStream open(final int failAt) throws IOException {
+		return new ArffFileStream(Fixtures.streamTweets().getPath(), -1) {
+			private static final long serialVersionUID = 1L;
+			private int read = 0;
+
+			@Override
+			public Instance nextInstance() {
+				if (this.read++ == failAt)
+					throw new IllegalStateException("broken stream");
+				return super.nextInstance();
+			}
+		};
+	}
+
+	// Checks the writer was given the first instances of the stream in order, each with its own tokens.
+	private void assertRecorded(final String message, final Recorder recorder, final int instances) {
+		assertEquals(message + ", instances", instances, recorder.times.size());
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < instances; i++) {
+			Instance inst = this.stream.get(i);
+			assertEquals(message + ", time of " + i, inst.value(1), recorder.times.get(i), 0d);
+			this.tokenizer.tokenize(inst.stringValue(0));
+			tokens.clear();
+			this.tokenizer.getTokens(tokens);
+			assertEquals(message + ", tokens of " + i, tokens, recorder.tokens.get(i));
+			assertEquals(message + ", accepted " + i, this.tokenizer.accept(true), (boolean) recorder.accepted.get(i));
+		}
+	}
+
+	// Records what the writer is given, failing on the instance at failAt unless it is -1.
+	private static final class Recorder implements IngestPipeline.Writer {
+
+		final List<Double> times = new ArrayList<>();
+		final List<List<String>> tokens = new ArrayList<>();
+		final List<Boolean> accepted = new ArrayList<>();
+		private final int failAt;
+
+		Recorder(final int failAt) {
+			this.failAt = failAt;
+		}
+
+		@Override
+		public void train(final Instance inst, final Tokenizer tokenizer) {
+			if (this.times.size() == this.failAt)
+				throw new IllegalStateException("broken writer");
+			this.times.add(inst.value(1));
+			List<String> words = new ArrayList<>();
+			tokenizer.getTokens(words);
+			this.tokens.add(words);
+			this.accepted.add(tokenizer.accept(true));
+		}
+	}
+}
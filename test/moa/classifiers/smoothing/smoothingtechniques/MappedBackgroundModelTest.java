@@ -0,0 +1,147 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import moa.classifiers.smoothing.test.Fixtures;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class MappedBackgroundModelTest {
+
+	private File directory, file;
+
+	public MappedBackgroundModelTest() throws IOException {
+		this.directory = Fixtures.createDirectory();
+		this.file = new File(this.directory, "bm.snapshot");
+	}
+
+	public void testMapsTheSameModelTheSnapshotWasSavedFrom() throws IOException {
+		try {
+			BackgroundModel bm = BackgroundModelTest.manyWords();
+			bm.save(this.file, "key");
+			MappedBackgroundModel mapped = MappedBackgroundModel.open(this.file, "key");
+			BackgroundModelTest.assertSameModel(bm, mapped);
+			assertEquals("on the heap", 0L, mapped.getMemoryBytes());
+			assertTrue("mapped", mapped.getMappedBytes() > 0L);
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testComparesWordsOfEveryUTF8Length() throws IOException {
+		try {
+			// One, two, three and four UTF-8 bytes per character, the last is a surrogate pair in UTF-16.
+			BackgroundModel bm = Fixtures.backgroundModel("plain", "köln", "日本", "smile😀");
+			bm.save(this.file, "key");
+			MappedBackgroundModel mapped = MappedBackgroundModel.open(this.file, "key");
+			BackgroundModelTest.assertSameModel(bm, mapped);
+			assertEquals("a prefix", -1, mapped.indexOf("smile"));
+			assertEquals("another character", -1, mapped.indexOf("kéln"));
+			assertEquals("a longer word", -1, mapped.indexOf("日本語"));
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testIsOnlyMappedWithItsKey() throws IOException {
+		try {
+			assertNull("missing file", MappedBackgroundModel.open(this.file, "key"));
+			Fixtures.backgroundModel("alpha").save(this.file, "key");
+			assertNull("another key", MappedBackgroundModel.open(this.file, "other key"));
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testSavesTheSnapshotItWasMappedFrom() throws IOException {
+		try {
+			BackgroundModel bm = BackgroundModelTest.manyWords();
+			bm.save(this.file, "key");
+			MappedBackgroundModel mapped = MappedBackgroundModel.open(this.file, "key");
+
+			File copy = new File(this.directory, "copy.snapshot"), expected = new File(this.directory, "expected.snapshot");
+			mapped.save(copy, "new key");
+			bm.save(expected, "new key");
+			assertTrue("the bytes BackgroundModel.save() writes",
+					Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(copy.toPath())));
+
+			mapped.save(this.file, "key");
+			try {
+				mapped.save(this.file, "new key");
+				fail("replaced the mapped snapshot");
+			} catch (IOException expectedFailure) {
+			}
+			BackgroundModelTest.assertSameModel(bm, MappedBackgroundModel.open(this.file, "key"));
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testIsSerializedAsTheSnapshotToMap() throws IOException, ClassNotFoundException {
+		try {
+			BackgroundModel bm = BackgroundModelTest.manyWords();
+			bm.save(this.file, "key");
+			MappedBackgroundModel mapped = MappedBackgroundModel.open(this.file, "key");
+			BackgroundModelTest.assertSameModel(bm, Fixtures.serializeAndRead(mapped));
+
+			mapped.reset();
+			assertEquals("size", 0, mapped.size());
+			assertEquals("unknown", -1, mapped.indexOf("word1"));
+			try {
+				Fixtures.serializeAndRead(mapped);
+				fail("serialized a reset model");
+			} catch (NotSerializableException expected) {
+			}
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testCutShortSnapshotsAreNotMapped() throws IOException {
+		try {
+			Fixtures.backgroundModel("alpha", "beta", "köln").save(this.file, "key");
+			byte[] bytes = Files.readAllBytes(this.file.toPath());
+			for (int length = 0; length < bytes.length; length++) {
+				Files.write(this.file.toPath(), Arrays.copyOf(bytes, length));
+				assertNull("cut to " + length + " of " + bytes.length + " bytes", MappedBackgroundModel.open(this.file, "key"));
+			}
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testSnapshotsWithSizesThatDoNotFitAreNotMapped() throws IOException {
+		try {
+			Fixtures.backgroundModel("alpha", "beta").save(this.file, "key");
+			final byte[] bytes = Files.readAllBytes(this.file.toPath());
+			final int sizes = (int) BackgroundModel.getSnapshotHeaderLength(3);
+			final int words = 2, capacity = 4;
+			final int offsets = sizes + 24 + words * 16 + words * 4 + capacity * 4;
+
+			this.assertNotMapped(bytes, 8, -1, "negative key length");
+			this.assertNotMapped(bytes, 8, Integer.MAX_VALUE, "key length");
+			this.assertNotMapped(bytes, 4, BackgroundModel.SnapshotVersion + 1, "another version");
+			this.assertNotMapped(bytes, sizes, Integer.MAX_VALUE, "word count");
+			this.assertNotMapped(bytes, sizes, -1, "negative word count");
+			this.assertNotMapped(bytes, sizes + 4, 0, "no index");
+			this.assertNotMapped(bytes, offsets + 8, 1 << 20, "word bytes");
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	// Writes the snapshot bytes with the little endian int at the position replaced, it must not be mapped.
+	private void assertNotMapped(final byte[] bytes, final int position, final int value, final String message)
+			throws IOException {
+		ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		corrupt.putInt(position, value);
+		Files.write(this.file.toPath(), corrupt.array());
+		assertNull(message, MappedBackgroundModel.open(this.file, "key"));
+	}
+}
@@ -0,0 +1,58 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.Tokenizer;
+import moa.classifiers.smoothing.smoothingtechniques.tokenizer.TweetTokenizer;
+import moa.classifiers.smoothing.test.Fixtures;
+import moa.streams.ArffFileStream;
+import weka.core.Instance;
+
+import java.io.File;
+import java.io.IOException;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class ParallelBackgroundModelBuilderTest {
+
+	// More tweets than fit in a few chunks, the last chunk is not full.
+	private static final int Tweets = 10000;
+
+	private final Tokenizer tokenizer = new TweetTokenizer();
+
+	public ParallelBackgroundModelBuilderTest() {
+		this.tokenizer.setHashTag("#topic");
+		this.tokenizer.setMinWordsInTweet(5);
+	}
+
+	public void testBuildsTheSameModelAsOneThread() throws IOException {
+		this.assertSameAsOneThread(true);
+	}
+
+	public void testBuildsTheSameModelWithoutTheHashTag() throws IOException {
+		this.assertSameAsOneThread(false);
+	}
+
+	private void assertSameAsOneThread(final boolean requireHashTag) throws IOException {
+		File directory = Fixtures.createDirectory();
+		try {
+			File file = new File(directory, "background.arff");
+			Fixtures.writeTweets(file, Tweets, 7);
+
+			BackgroundModel expected = new BackgroundModel();
+			for (Instance instance : Fixtures.readInstances(file)) {
+				this.tokenizer.tokenize(instance.stringValue(0));
+				if (this.tokenizer.accept(requireHashTag))
+					expected.addTweet(this.tokenizer);
+			}
+			expected.finish();
+			assertTrue("words", expected.size() > 100);
+
+			for (int threads : new int[] { 1, 4 }) {
+				BackgroundModel built = new ParallelBackgroundModelBuilder(this.tokenizer, threads, requireHashTag)
+						.build(new ArffFileStream(file.getPath(), -1), 0);
+				BackgroundModelTest.assertSameModel(expected, built);
+			}
+		} finally {
+			Fixtures.deleteDirectory(directory);
+		}
+	}
+}
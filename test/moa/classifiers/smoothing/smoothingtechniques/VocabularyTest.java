@@ -0,0 +1,163 @@
+package moa.classifiers.smoothing.smoothingtechniques;
+
+import moa.classifiers.smoothing.test.Fixtures;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class VocabularyTest {
+
+	public void testHandsOutDenseIdsInTheOrderWordsAreAdded() {
+		Vocabulary vocabulary = new Vocabulary();
+		assertEquals("first", 0, vocabulary.add("alpha"));
+		assertEquals("second", 1, vocabulary.add("beta"));
+		assertEquals("again", 0, vocabulary.add("alpha"));
+		assertEquals("size", 2, vocabulary.size());
+		assertEquals("word", "beta", vocabulary.getWord(1));
+		assertEquals("unknown", -1, vocabulary.getId("gamma"));
+	}
+
+	public void testFindsWordsFromARangeOfChars() {
+		Vocabulary vocabulary = new Vocabulary();
+		char[] chars = "xxbetaxx alpha".toCharArray();
+		int beta = vocabulary.add(chars, 2, 4, "beta".hashCode());
+		assertEquals("added as a String", beta, vocabulary.getId("beta"));
+		assertEquals("found by range", beta, vocabulary.getId(chars, 2, 4, "beta".hashCode()));
+		assertEquals("same hash, another range", -1, vocabulary.getId(chars, 1, 4, "beta".hashCode()));
+		assertEquals("unknown", -1, vocabulary.getId(chars, 9, 5, "alpha".hashCode()));
+	}
+
+	public void testKeepsEveryWordWhileGrowing() {
+		Vocabulary vocabulary = new Vocabulary();
+		for (int i = 0; i < 10000; i++)
+			assertEquals("id of word" + i, i, vocabulary.add("word" + i));
+		for (int i = 0; i < 10000; i++) {
+			assertEquals("id of word" + i, i, vocabulary.getId("word" + i));
+			assertEquals("word " + i, "word" + i, vocabulary.getWord(i));
+		}
+	}
+
+	public void testBackgroundWordsKeepTheirIndexAsId() {
+		BackgroundModel bm = Fixtures.backgroundModel("common", "rare");
+		Vocabulary vocabulary = new Vocabulary(bm);
+
+		assertEquals("background word", 1, vocabulary.getId("rare"));
+		assertEquals("a stop word is not in the background", -1, vocabulary.getId("the"));
+		int the = vocabulary.add("the");
+		assertEquals("foreground ids follow the background", bm.size(), the);
+		assertEquals("foreground word", "the", vocabulary.getWord(the));
+		assertEquals("background word", "common", vocabulary.getWord(vocabulary.getId("common")));
+		assertEquals("only the foreground is stored", 1, vocabulary.getForegroundWordCount());
+	}
+
+	public void testCopyIsNotChangedByTheOriginal() {
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.add("alpha");
+		Vocabulary copy = vocabulary.copy();
+		vocabulary.add("beta");
+		copy.add("gamma");
+
+		assertEquals("copy", -1, copy.getId("beta"));
+		assertEquals("copy", 1, copy.getId("gamma"));
+		assertEquals("original", 1, vocabulary.getId("beta"));
+		assertEquals("original", -1, vocabulary.getId("gamma"));
+	}
+
+	public void testRemovesAWordOnceItIsReleasedByEverythingThatRetainedIt() {
+		Vocabulary vocabulary = new Vocabulary();
+		int alpha = vocabulary.add("alpha");
+		int beta = vocabulary.add("beta");
+		vocabulary.retain(alpha);
+		vocabulary.retain(alpha);
+		vocabulary.retain(beta);
+
+		vocabulary.release(alpha);
+		assertEquals("still retained", alpha, vocabulary.getId("alpha"));
+		vocabulary.release(alpha);
+		assertEquals("removed", -1, vocabulary.getId("alpha"));
+		assertEquals("foreground words", 1, vocabulary.getForegroundWordCount());
+		assertEquals("the id is reused", alpha, vocabulary.add("gamma"));
+		assertEquals("other words keep their id", beta, vocabulary.getId("beta"));
+	}
+
+	public void testReleasingAWordWithoutReferencesFails() {
+		Vocabulary vocabulary = new Vocabulary();
+		int alpha = vocabulary.add("alpha");
+		try {
+			vocabulary.release(alpha);
+			fail("released a word that was never retained");
+		} catch (IllegalStateException expected) {
+		}
+		vocabulary.retain(alpha);
+		vocabulary.release(alpha);
+		try {
+			vocabulary.release(alpha);
+			fail("released a removed word");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	public void testBackgroundWordsAreNotReferenceCounted() {
+		Vocabulary vocabulary = new Vocabulary(Fixtures.backgroundModel("alpha"));
+		int alpha = vocabulary.getId("alpha");
+		vocabulary.release(alpha);
+		assertEquals("never removed", alpha, vocabulary.getId("alpha"));
+	}
+
+	public void testFindsEveryWordAfterRandomRemovals() {
+		Random random = new Random(5);
+		Vocabulary vocabulary = new Vocabulary();
+		Map<String, Integer> references = new HashMap<>();
+		for (int operation = 1; operation <= 50000; operation++) {
+			String word = "word" + random.nextInt(3000);
+			Integer count = references.get(word);
+			if (count != null && random.nextBoolean()) {
+				vocabulary.release(vocabulary.getId(word));
+				if (count == 1)
+					references.remove(word);
+				else
+					references.put(word, count - 1);
+			} else {
+				vocabulary.retain(vocabulary.add(word));
+				references.put(word, count == null ? 1 : count + 1);
+			}
+			if (operation % 5000 == 0) {
+				assertEquals("words", references.size(), vocabulary.getForegroundWordCount());
+				for (int i = 0; i < 3000; i++) {
+					int id = vocabulary.getId("word" + i);
+					assertEquals("word" + i + " is in the vocabulary", references.containsKey("word" + i), id >= 0);
+					if (id >= 0)
+						assertEquals("word of the id of word" + i, "word" + i, vocabulary.getWord(id));
+				}
+			}
+		}
+	}
+
+	public void testRestoreGivesBackTheIdsOfTheWords() {
+		Vocabulary vocabulary = new Vocabulary();
+		for (int i = 0; i < 2000; i++)
+			vocabulary.retain(vocabulary.add("word" + i));
+		for (int i = 0; i < 2000; i += 3)
+			vocabulary.release(vocabulary.getId("word" + i));
+
+		Vocabulary restored = new Vocabulary();
+		restored.restore(vocabulary.getForegroundWords(), vocabulary.getForegroundReferences(), vocabulary.getFreeIds());
+		for (int i = 0; i < 2000; i++)
+			assertEquals("id of word" + i, vocabulary.getId("word" + i), restored.getId("word" + i));
+		assertEquals("the same free id is handed out", vocabulary.add("new"), restored.add("new"));
+		restored.release(restored.getId("word1"));
+		assertEquals("references", -1, restored.getId("word1"));
+	}
+
+	public void testClearRemovesTheForegroundWords() {
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.add("alpha");
+		vocabulary.clear();
+		assertEquals("size", 0, vocabulary.size());
+		assertEquals("removed", -1, vocabulary.getId("alpha"));
+		assertEquals("ids start over", 0, vocabulary.add("beta"));
+	}
+}
@@ -0,0 +1,215 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground;
+
+import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryCounts;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.HistoryRetentionTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.foreground.history.Queue;
+import moa.classifiers.smoothing.test.Fixtures;
+
+import java.util.Random;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class ForegroundModelTest {
+
+	// Word ids below BackgroundWords are background words, the others up to Words only foreground words.
+	private static final int BackgroundWords = 40, Words = 70;
+
+	private final BackgroundModel bm;
+	private final Vocabulary vocabulary;
+	// Trained tweets only have words of the vocabulary, scored tweets also words of neither model.
+	private final int[][] tweets, scored;
+
+	public ForegroundModelTest() {
+		String[] words = new String[ForegroundModelTest.BackgroundWords];
+		for (int i = 0; i < words.length; i++)
+			words[i] = "w" + i;
+		this.bm = Fixtures.backgroundModel(words);
+		this.vocabulary = new Vocabulary(this.bm);
+		// Retained once so the histories can not remove them and the ids stay the same.
+		for (int i = ForegroundModelTest.BackgroundWords; i < ForegroundModelTest.Words; i++)
+			this.vocabulary.retain(this.vocabulary.add("f" + i));
+		this.tweets = ForegroundModelTest.random(300, 5, false);
+		this.scored = ForegroundModelTest.random(200, 6, true);
+	}
+
+	public void testClassifiesLikeThePerplexity() {
+		for (String name : new String[] { "AD", "JMS", "BS", "SB", "BO" }) {
+			Queue history = new Queue(this.vocabulary, 50);
+			ForegroundModel perplexities = ForegroundModelTest.create(name, this.bm, history, 1d);
+			for (int t = 0; t < 200; t++)
+				history.addTweet(this.tweets[t], this.tweets[t].length);
+
+			// Thresholds right at the perplexity of some tweets, around them and far off.
+			double[] thresholds = new double[62];
+			for (int i = 0; i < 20; i++) {
+				double perplexity = perplexities.getPerplexity(this.scored[i], this.scored[i].length);
+				thresholds[3 * i] = perplexity;
+				thresholds[3 * i + 1] = perplexity * 0.9;
+				thresholds[3 * i + 2] = perplexity * 1.1;
+			}
+			thresholds[60] = 1d;
+			thresholds[61] = 1e12;
+
+			long skipped = 0;
+			for (double threshold : thresholds) {
+				ForegroundModel model = ForegroundModelTest.create(name, this.bm, history, threshold);
+				for (int t = 0; t < this.scored.length; t++) {
+					int[] tweet = this.scored[t];
+					assertEquals(name + " at " + threshold + ", tweet " + t,
+							model.getPerplexity(tweet, tweet.length) > threshold,
+							model.getClassification(tweet, tweet.length));
+				}
+				skipped += model.getWordsSkipped();
+			}
+			assertTrue(name + " skipped words", skipped > 0);
+		}
+	}
+
+	public void testScoresWithTheFormulaWhileTraining() {
+		for (String name : new String[] { "AD", "JMS", "BS", "SB", "BO" }) {
+			Queue history = new Queue(this.vocabulary, 50);
+			ForegroundModel model = ForegroundModelTest.create(name, this.bm, history, Fixtures.Threshold);
+			double[] counts = new double[20], backgroundProbabilities = new double[20], scratch = new double[20];
+			for (int t = 0; t < this.tweets.length; t++) {
+				// The logs cached for the previous tweet belong to an older version of the history.
+				int[] tweet = this.scored[t % this.scored.length];
+				double expected = ForegroundModelTest.perplexity(model, tweet);
+				assertEquals(name + ", tweet " + t, expected, model.getPerplexity(tweet, tweet.length),
+						expected * 1e-12);
+				for (int i = 0; i < tweet.length; i++) {
+					counts[i] = history.getWordCount(tweet[i]);
+					backgroundProbabilities[i] = this.bm.getProbability(tweet[i]);
+				}
+				assertEquals(name + " from counts, tweet " + t, model.getPerplexity(tweet, tweet.length),
+						model.getPerplexity(counts, backgroundProbabilities, tweet.length, scratch), expected * 1e-12);
+				model.addTweet(this.tweets[t], this.tweets[t].length);
+			}
+		}
+	}
+
+	public void testBatchScoresLikeEachTweet() {
+		int[] offsets = new int[101];
+		int[] words = new int[100 * 20];
+		for (int t = 0; t < 100; t++) {
+			int[] tweet = this.scored[t];
+			System.arraycopy(tweet, 0, words, offsets[t], tweet.length);
+			offsets[t + 1] = offsets[t] + tweet.length;
+		}
+		for (String name : new String[] { "AD", "JMS", "BS", "SB", "BO" }) {
+			Queue history = new Queue(this.vocabulary, 50);
+			ForegroundModel model = ForegroundModelTest.create(name, this.bm, history, Fixtures.Threshold);
+			for (int t = 0; t < 300; t++) {
+				model.addTweet(this.tweets[t], this.tweets[t].length);
+				if (t % 100 != 99)
+					continue;
+				double[] perplexities = new double[100];
+				model.getPerplexities(words, offsets, 100, perplexities);
+				for (int i = 0; i < 100; i++) {
+					int[] tweet = this.scored[i];
+					assertEquals(name + " after " + t + ", tweet " + i, model.getPerplexity(tweet, tweet.length),
+							perplexities[i], 0d);
+				}
+			}
+		}
+	}
+
+	public void testBoundsTheLogProbabilityOfEveryWord() {
+		for (String name : new String[] { "AD", "JMS", "BS", "SB", "BO" }) {
+			Queue history = new Queue(this.vocabulary, 50);
+			ForegroundModel model = ForegroundModelTest.create(name, this.bm, history, Fixtures.Threshold);
+			for (int t = 0; t < this.tweets.length; t++) {
+				model.addTweet(this.tweets[t], this.tweets[t].length);
+				if (t % 50 != 0)
+					continue;
+				double lowest = model.getLowestLogProbability(), highest = model.getHighestLogProbability();
+				for (int word = -1; word < ForegroundModelTest.Words; word++) {
+					double probability = model.getProbability(word);
+					if (probability == 0d)
+						continue;
+					assertTrue(name + " above the lowest, word " + word, Math.log(probability) >= lowest);
+					assertTrue(name + " below the highest, word " + word, Math.log(probability) <= highest);
+				}
+			}
+		}
+	}
+
+	public void testSnapshotsScoreLikeTheModel() {
+		for (String name : new String[] { "AD", "JMS", "BS", "SB", "BO" }) {
+			Queue history = new Queue(this.vocabulary, 50);
+			ForegroundModel model = ForegroundModelTest.create(name, this.bm, history, Fixtures.Threshold);
+			for (int t = 0; t < 200; t++)
+				model.addTweet(this.tweets[t], this.tweets[t].length);
+			ForegroundModel snapshot = model.snapshot();
+			try {
+				snapshot.getHistory();
+				fail("IllegalStateException expected");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			HistoryCounts counts = snapshot.getCounts();
+			assertFalse("read only", counts instanceof HistoryRetentionTechnique);
+
+			for (int t = 0; t < this.scored.length; t++) {
+				int[] tweet = this.scored[t];
+				assertEquals(name + ", tweet " + t, model.getPerplexity(tweet, tweet.length),
+						snapshot.getPerplexity(tweet, tweet.length), 0d);
+				assertEquals(name + " classification, tweet " + t, model.getClassification(tweet, tweet.length),
+						snapshot.getClassification(tweet, tweet.length));
+			}
+			// The snapshot counts the words it skipped for the model.
+			assertEquals(name + " skipped", model.getWordsSkipped(), snapshot.getWordsSkipped());
+
+			// Training the model leaves the snapshot as it was.
+			int[] tweet = this.scored[0];
+			double before = snapshot.getPerplexity(tweet, tweet.length);
+			for (int t = 200; t < 300; t++)
+				model.addTweet(this.tweets[t], this.tweets[t].length);
+			assertEquals(name + " after training", before, snapshot.getPerplexity(tweet, tweet.length), 0d);
+		}
+	}
+
+	private static ForegroundModel create(final String name, final BackgroundModel bm, final HistoryCounts history,
+			final double threshold) {
+		// The default parameters of the classifier.
+		switch (name) {
+			case "AD":
+				return new AbsoluteDiscounting(bm, history, threshold, 0.9f);
+			case "JMS":
+				return new JalinekMercerSmoothing(bm, history, threshold, 0.4f);
+			case "BS":
+				return new BayesianSmoothing(bm, history, threshold, 10000f);
+			case "SB":
+				return new StupidBackoff(bm, history, threshold, 0.3f);
+			default:
+				return new BackgroundOnly(bm, history, threshold);
+		}
+	}
+
+	// The perplexity of the tweet from the probabilities of its words, words with no probability are left out.
+	private static double perplexity(final ForegroundModel model, final int[] tweet) {
+		double sum = 0d;
+		for (int word : tweet) {
+			double probability = model.getProbability(word);
+			if (probability != 0d)
+				sum += Math.log(probability);
+		}
+		return Math.pow(2, -sum / (Math.log(2) * tweet.length));
+	}
+
+	// Tweets of 1 to 20 word ids, common words more likely, with unknown words some are -1 for a word in neither model.
+	private static int[][] random(final int count, final long seed, final boolean unknown) {
+		Random random = new Random(seed);
+		int[][] tweets = new int[count][];
+		for (int t = 0; t < count; t++) {
+			tweets[t] = new int[1 + random.nextInt(20)];
+			for (int i = 0; i < tweets[t].length; i++) {
+				double uniform = random.nextDouble();
+				int word = (int) (ForegroundModelTest.Words * uniform * uniform);
+				tweets[t][i] = unknown && random.nextInt(20) == 0 ? -1 : word;
+			}
+		}
+		return tweets;
+	}
+}
@@ -0,0 +1,100 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class CountMinSketchTest {
+
+	private static final int Words = 300;
+
+	public void testCountsExactlyWithoutCollisions() {
+		// A few of the 300 words share a counter in one row, the minimum over the rows is still exact.
+		this.assertExact(false, Words);
+		// Conservative update can under-estimate a word that shared a counter, the first 100 words share none.
+		this.assertExact(true, 100);
+	}
+
+	private void assertExact(final boolean conservativeUpdate, final int words) {
+		int[][] tweets = HistoryTweets.random(2000, words, 21);
+		CountMinSketch sketch = new CountMinSketch(HistoryTweets.vocabulary(words), 200, 1 << 16, 4,
+				conservativeUpdate, false);
+		for (int t = 0; t < tweets.length; t++) {
+			sketch.addTweet(tweets[t], tweets[t].length);
+			if (t % 97 == 0 || t == tweets.length - 1)
+				HistoryTweets.assertCounts("conservative " + conservativeUpdate + " after tweet " + t, sketch,
+						tweets, Math.max(0, t + 1 - 200), t + 1, words);
+		}
+	}
+
+	public void testOverEstimatesWhileOnlyAdding() {
+		int[][] tweets = HistoryTweets.random(500, Words, 22);
+		CountMinSketch plain = new CountMinSketch(HistoryTweets.vocabulary(Words), 1000, 16, 3, false, false);
+		CountMinSketch conservative = new CountMinSketch(HistoryTweets.vocabulary(Words), 1000, 16, 3, true, false);
+		int[] counts = new int[Words];
+		for (int[] tweet : tweets) {
+			plain.addTweet(tweet, tweet.length);
+			conservative.addTweet(tweet, tweet.length);
+			for (int word : tweet)
+				counts[word]++;
+		}
+		for (int word = 0; word < Words; word++) {
+			assertTrue("plain estimate of " + word, plain.getWordCount(word) >= counts[word]);
+			assertTrue("conservative estimate of " + word, conservative.getWordCount(word) >= counts[word]);
+			assertTrue("conservative update is tighter for " + word,
+					conservative.getWordCount(word) <= plain.getWordCount(word));
+		}
+	}
+
+	public void testEvictionNeverLeavesANegativeCounter() {
+		for (boolean conservativeUpdate : new boolean[] { false, true }) {
+			int[][] tweets = HistoryTweets.random(1000, Words, 23);
+			CountMinSketch sketch = new CountMinSketch(HistoryTweets.vocabulary(Words), 50, 16, 3,
+					conservativeUpdate, false);
+			for (int[] tweet : tweets)
+				sketch.addTweet(tweet, tweet.length);
+			// Empty tweets push every word out of the queue.
+			for (int t = 0; t < 50; t++)
+				sketch.addTweet(new int[0], 0);
+
+			for (int counter : sketch.counters) {
+				assertTrue("conservative " + conservativeUpdate + ", counter " + counter, counter >= 0);
+				if (!conservativeUpdate)
+					assertEquals("every increment is decremented", 0, counter);
+			}
+			assertEquals("total", 0d, sketch.getAllWordsCounts(), 0d);
+		}
+	}
+
+	public void testCountMeanMinSubtractsTheNoise() {
+		int[][] tweets = HistoryTweets.random(500, Words, 24);
+		CountMinSketch minimum = new CountMinSketch(HistoryTweets.vocabulary(Words), 1000, 64, 5, false, false);
+		CountMinSketch meanMin = new CountMinSketch(HistoryTweets.vocabulary(Words), 1000, 64, 5, false, true);
+		for (int[] tweet : tweets) {
+			minimum.addTweet(tweet, tweet.length);
+			meanMin.addTweet(tweet, tweet.length);
+		}
+		for (int word = 0; word < Words; word++) {
+			assertTrue("not above the minimum for " + word, meanMin.getWordCount(word) <= minimum.getWordCount(word));
+			assertTrue("not negative for " + word, meanMin.getWordCount(word) >= 0d);
+		}
+		assertEquals("not whole numbers", 0d, meanMin.getMinimumWordCount(), 0d);
+	}
+
+	public void testReleasesTheWordsItEvicts() {
+		Vocabulary vocabulary = new Vocabulary();
+		CountMinSketch sketch = new CountMinSketch(vocabulary, 2, 1 << 10, 3, true, false);
+		sketch.addTweet(HistoryTweets.resolve(vocabulary, "old", "kept"), 2);
+		sketch.addTweet(HistoryTweets.resolve(vocabulary, "kept"), 1);
+		sketch.addTweet(HistoryTweets.resolve(vocabulary, "new"), 1);
+
+		assertEquals("evicted", -1, vocabulary.getId("old"));
+		assertEquals("still counted", 1d, sketch.getWordCount(vocabulary.getId("kept")), 0d);
+		assertEquals("unique words", 2, sketch.getTotalUniqueWordCount());
+		sketch.reset();
+		assertEquals("words after reset", 0, vocabulary.getForegroundWordCount());
+		assertEquals("unique words after reset", 0, sketch.getTotalUniqueWordCount());
+		for (int counter : sketch.counters)
+			assertEquals("cleared", 0, counter);
+	}
+}
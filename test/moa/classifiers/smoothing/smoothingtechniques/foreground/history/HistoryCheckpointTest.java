@@ -0,0 +1,192 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+import moa.classifiers.smoothing.test.Fixtures;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class HistoryCheckpointTest {
+
+	private static final int Words = 400;
+	// Some of the words are background words, which keep their index as id.
+	private static final BackgroundModel Background = Fixtures.backgroundModel("w1", "w3", "w5", "w50", "w300");
+	private static final String[] Techniques = { "Forget", "Queue", "TimeDecay", "SlidingTimeWindow", "CountMinSketch" };
+
+	private final int[][] tweets = HistoryTweets.random(2000, Words, 31);
+	private File directory, file;
+
+	public HistoryCheckpointTest() throws IOException {
+		this.directory = Fixtures.createDirectory();
+		this.file = new File(this.directory, "history.checkpoint");
+	}
+
+	public void testARestoredHistoryCarriesOnLikeTheOriginal() throws IOException {
+		try {
+			for (String technique : HistoryCheckpointTest.Techniques) {
+				Vocabulary vocabulary = new Vocabulary(HistoryCheckpointTest.Background);
+				HistoryRetentionTechnique history = HistoryCheckpointTest.create(technique, vocabulary, 300);
+				this.train(history, 0, 1000);
+				HistoryCheckpoint checkpoint = history.checkpoint();
+				checkpoint.setPosition(1000);
+				checkpoint.save(this.file, "key");
+
+				HistoryCheckpoint loaded = HistoryCheckpoint.load(this.file, "key");
+				assertEquals(technique + " position", 1000, loaded.getPosition());
+				assertEquals(technique + " technique", history.getClass().getName(), loaded.getTechnique());
+				HistoryRetentionTechnique restored = HistoryCheckpointTest.create(technique,
+						new Vocabulary(HistoryCheckpointTest.Background), 300);
+				restored.restore(loaded);
+				HistoryCheckpointTest.assertSameHistory(technique + " restored", history, restored);
+
+				this.train(history, 1000, 2000);
+				this.train(restored, 1000, 2000);
+				HistoryCheckpointTest.assertSameHistory(technique + " trained on", history, restored);
+			}
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testASerializedCheckpointRestoresTheSameHistory() throws IOException, ClassNotFoundException {
+		for (String technique : HistoryCheckpointTest.Techniques) {
+			HistoryRetentionTechnique history = HistoryCheckpointTest.create(technique,
+					new Vocabulary(HistoryCheckpointTest.Background), 300);
+			this.train(history, 0, 1000);
+			HistoryRetentionTechnique restored = HistoryCheckpointTest.create(technique,
+					new Vocabulary(HistoryCheckpointTest.Background), 300);
+			restored.restore(Fixtures.serializeAndRead(history.checkpoint()));
+			this.train(history, 1000, 1500);
+			this.train(restored, 1000, 1500);
+			HistoryCheckpointTest.assertSameHistory(technique, history, restored);
+		}
+	}
+
+	public void testIsOnlyRestoredIntoTheSameHistory() {
+		HistoryRetentionTechnique history = HistoryCheckpointTest.create("Queue",
+				new Vocabulary(HistoryCheckpointTest.Background), 300);
+		this.train(history, 0, 100);
+		HistoryCheckpoint checkpoint = history.checkpoint();
+		try {
+			HistoryCheckpointTest.create("Forget", new Vocabulary(HistoryCheckpointTest.Background), 300).restore(checkpoint);
+			fail("restored another technique");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			HistoryCheckpointTest.create("Queue", new Vocabulary(HistoryCheckpointTest.Background), 200).restore(checkpoint);
+			fail("restored another history size");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			HistoryCheckpointTest.create("Queue", new Vocabulary(), 300).restore(checkpoint);
+			fail("restored over another background model");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	public void testIsOnlyLoadedWithItsKey() throws IOException {
+		try {
+			assertNull("missing file", HistoryCheckpoint.load(this.file, "key"));
+			this.smallCheckpoint().save(this.file, "key");
+			assertNull("another key", HistoryCheckpoint.load(this.file, "other key"));
+			assertNotNull("its key", HistoryCheckpoint.load(this.file, "key"));
+			assertEquals("files", 1, this.directory.list().length);
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testCutShortCheckpointsAreNotLoaded() throws IOException {
+		try {
+			this.smallCheckpoint().save(this.file, "key");
+			byte[] bytes = Files.readAllBytes(this.file.toPath());
+			for (int length = 0; length < bytes.length; length++) {
+				Files.write(this.file.toPath(), Arrays.copyOf(bytes, length));
+				assertNull("cut to " + length + " of " + bytes.length + " bytes", HistoryCheckpoint.load(this.file, "key"));
+			}
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	public void testCheckpointsWithLengthsThatDoNotFitAreNotLoaded() throws IOException {
+		try {
+			this.smallCheckpoint().save(this.file, "key");
+			final byte[] bytes = Files.readAllBytes(this.file.toPath());
+			// The magic, version, key and technique, the position and background size, then the words.
+			final int words = 4 + 4 + 4 + 3 + 4 + Queue.class.getName().length() + 8 + 4;
+			for (int length : new int[] { Integer.MAX_VALUE, 1 << 28, -2 }) {
+				this.assertNotLoaded(bytes, 8, length, "key length " + length);
+				this.assertNotLoaded(bytes, 15, length, "technique length " + length);
+				this.assertNotLoaded(bytes, words, length, "word count " + length);
+				this.assertNotLoaded(bytes, words + 4, length, "length of the first word " + length);
+			}
+		} finally {
+			Fixtures.deleteDirectory(this.directory);
+		}
+	}
+
+	// Writes the checkpoint bytes with the little endian int at the position replaced, it must not load.
+	private void assertNotLoaded(final byte[] bytes, final int position, final int value, final String message)
+			throws IOException {
+		ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		corrupt.putInt(position, value);
+		Files.write(this.file.toPath(), corrupt.array());
+		assertNull(message, HistoryCheckpoint.load(this.file, "key"));
+	}
+
+	// A Queue of a few tweets of words that are not background words.
+	private HistoryCheckpoint smallCheckpoint() {
+		Vocabulary vocabulary = new Vocabulary(HistoryCheckpointTest.Background);
+		Queue queue = new Queue(vocabulary, 10);
+		queue.addTweet(HistoryTweets.resolve(vocabulary, "alpha", "beta"), 2);
+		queue.addTweet(HistoryTweets.resolve(vocabulary, "köln", "alpha", "w1"), 3);
+		return queue.checkpoint();
+	}
+
+	// Trains the tweets from to to, words "w<id>" and one unit of time per tweet, as the classifier does.
+	private void train(final HistoryRetentionTechnique history, final int from, final int to) {
+		for (int t = from; t < to; t++) {
+			history.advanceTime(t);
+			String[] words = new String[this.tweets[t].length];
+			for (int i = 0; i < words.length; i++)
+				words[i] = "w" + this.tweets[t][i];
+			history.addTweet(HistoryTweets.resolve(history.getVocabulary(), words), words.length);
+		}
+	}
+
+	private static HistoryRetentionTechnique create(final String technique, final Vocabulary vocabulary,
+			final int historySize) {
+		switch (technique) {
+			case "Forget": return new Forget(vocabulary, historySize);
+			case "Queue": return new Queue(vocabulary, historySize);
+			case "TimeDecay": return new TimeDecay(vocabulary, historySize, 50d);
+			case "SlidingTimeWindow": return new SlidingTimeWindow(vocabulary, historySize, 200d);
+			default: return new CountMinSketch(vocabulary, historySize, 1 << 10, 3, true, false);
+		}
+	}
+
+	// The same words with the same ids and counts.
+	private static void assertSameHistory(final String message, final HistoryRetentionTechnique expected,
+			final HistoryRetentionTechnique actual) {
+		Vocabulary expectedWords = expected.getVocabulary(), actualWords = actual.getVocabulary();
+		assertEquals(message + ", foreground words", expectedWords.getForegroundWordCount(),
+				actualWords.getForegroundWordCount());
+		for (int i = 0; i < Words; i++) {
+			int id = expectedWords.getId("w" + i);
+			assertEquals(message + ", id of w" + i, id, actualWords.getId("w" + i));
+			assertEquals(message + ", count of w" + i, expected.getWordCount(id), actual.getWordCount(id), 0d);
+		}
+		assertEquals(message + ", total", expected.getAllWordsCounts(), actual.getAllWordsCounts(), 0d);
+		assertEquals(message + ", unique words", expected.getTotalUniqueWordCount(), actual.getTotalUniqueWordCount());
+		assertEquals(message + ", evicted words", expected.getEvictedWords(), actual.getEvictedWords());
+		assertEquals(message + ", memory", expected.getMemoryBytes(), actual.getMemoryBytes());
+	}
+}
@@ -0,0 +1,88 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import java.util.Random;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+/**
+ * Tweets of word ids for the history tests, and the counts a history should have for them.
+ */
+final class HistoryTweets {
+
+	private HistoryTweets() {
+	}
+
+	/**
+	 * Creates a vocabulary of the words "w0" to "w(words - 1)" with ids 0 to words - 1, each retained once
+	 * so histories can not remove them and the ids stay the same.
+	 * @param words the number of words.
+	 * @return the vocabulary.
+	 */
+	static Vocabulary vocabulary(final int words) {
+		Vocabulary vocabulary = new Vocabulary();
+		for (int i = 0; i < words; i++)
+			vocabulary.retain(vocabulary.add("w" + i));
+		return vocabulary;
+	}
+
+	/**
+	 * Gets the ids of the words, adding them to the vocabulary without a reference as the classifier does,
+	 * so the history decides when they are removed.
+	 * @param vocabulary the vocabulary.
+	 * @param words the words of the tweet.
+	 * @return the tweet.
+	 */
+	static int[] resolve(final Vocabulary vocabulary, final String... words) {
+		int[] tweet = new int[words.length];
+		for (int i = 0; i < words.length; i++)
+			tweet[i] = vocabulary.add(words[i]);
+		return tweet;
+	}
+
+	/**
+	 * Generates tweets of 1 to 20 word ids, a few words are much more common than the others.
+	 * @param count the number of tweets.
+	 * @param words the number of words, ids are below it.
+	 * @param seed the seed, the same seed gives the same tweets.
+	 * @return the tweets.
+	 */
+	static int[][] random(final int count, final int words, final long seed) {
+		Random random = new Random(seed);
+		int[][] tweets = new int[count][];
+		for (int t = 0; t < count; t++) {
+			tweets[t] = new int[1 + random.nextInt(20)];
+			for (int i = 0; i < tweets[t].length; i++) {
+				double uniform = random.nextDouble();
+				tweets[t][i] = (int) (words * uniform * uniform);
+			}
+		}
+		return tweets;
+	}
+
+	/**
+	 * Checks the exact counts of a history against the tweets it should hold.
+	 * @param history the history.
+	 * @param tweets all the tweets added.
+	 * @param from the first tweet the history should still hold.
+	 * @param to one past the last tweet the history should hold.
+	 * @param words the word ids are below it.
+	 */
+	static void assertCounts(final String message, final HistoryRetentionTechnique history, final int[][] tweets,
+			final int from, final int to, final int words) {
+		int[] counts = new int[words];
+		int total = 0, unique = 0;
+		for (int t = from; t < to; t++) {
+			for (int word : tweets[t]) {
+				if (counts[word]++ == 0)
+					unique++;
+				total++;
+			}
+		}
+		for (int word = 0; word < words; word++)
+			assertEquals(message + ", count of " + word, counts[word], history.getWordCount(word), 0d);
+		assertEquals(message + ", total", total, history.getAllWordsCounts(), 0d);
+		assertEquals(message + ", unique words", unique, history.getTotalUniqueWordCount());
+	}
+}
@@ -0,0 +1,114 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class QueueTest {
+
+	private static final int Words = 500;
+
+	public void testEvictsTheOldestTweetOnceFull() {
+		Vocabulary vocabulary = HistoryTweets.vocabulary(Words);
+		Queue queue = new Queue(vocabulary, 2);
+		queue.addTweet(new int[] { 1, 2 }, 2);
+		queue.addTweet(new int[] { 2, 3, 3 }, 3);
+		queue.addTweet(new int[] { 4 }, 1);
+
+		assertEquals("evicted", 0d, queue.getWordCount(1), 0d);
+		assertEquals("kept", 1d, queue.getWordCount(2), 0d);
+		assertEquals("kept twice", 2d, queue.getWordCount(3), 0d);
+		assertEquals("total", 4d, queue.getAllWordsCounts(), 0d);
+		assertEquals("evicted words", 2, queue.getEvictedWords());
+	}
+
+	public void testCountsTheLastTweetsWhileTheRingsWrapAndGrow() {
+		Vocabulary vocabulary = HistoryTweets.vocabulary(Words);
+		int[][] tweets = HistoryTweets.random(3000, Words, 11);
+		// Larger than the initial rings, so they grow while full histories wrap around.
+		Queue queue = new Queue(vocabulary, 300);
+		for (int t = 0; t < tweets.length; t++) {
+			queue.addTweet(tweets[t], tweets[t].length);
+			if (t % 97 == 0 || t == tweets.length - 1)
+				HistoryTweets.assertCounts("after tweet " + t, queue, tweets, Math.max(0, t + 1 - 300), t + 1, Words);
+		}
+	}
+
+	public void testOnlyTheGivenLengthOfATweetIsAdded() {
+		Queue queue = new Queue(HistoryTweets.vocabulary(Words), 10);
+		queue.addTweet(new int[] { 1, 2, 3 }, 2);
+		assertEquals("past the length", 0d, queue.getWordCount(3), 0d);
+		assertEquals("total", 2d, queue.getAllWordsCounts(), 0d);
+	}
+
+	public void testResetClearsTheQueue() {
+		Vocabulary vocabulary = HistoryTweets.vocabulary(Words);
+		int[][] tweets = HistoryTweets.random(100, Words, 12);
+		Queue queue = new Queue(vocabulary, 30);
+		for (int[] tweet : tweets)
+			queue.addTweet(tweet, tweet.length);
+		queue.reset();
+		HistoryTweets.assertCounts("reset", queue, tweets, 0, 0, Words);
+		for (int t = 50; t < 100; t++)
+			queue.addTweet(tweets[t], tweets[t].length);
+		HistoryTweets.assertCounts("after reset", queue, tweets, 70, 100, Words);
+	}
+
+	public void testEvictedWordsAreRemovedFromTheVocabulary() {
+		Vocabulary vocabulary = new Vocabulary();
+		Queue queue = new Queue(vocabulary, 2);
+		queue.addTweet(HistoryTweets.resolve(vocabulary, "old", "kept"), 2);
+		queue.addTweet(HistoryTweets.resolve(vocabulary, "kept"), 1);
+		queue.addTweet(HistoryTweets.resolve(vocabulary, "new"), 1);
+
+		assertEquals("evicted", -1, vocabulary.getId("old"));
+		assertEquals("still counted", 1d, queue.getWordCount(vocabulary.getId("kept")), 0d);
+		assertEquals("words", queue.getTotalUniqueWordCount(), vocabulary.getForegroundWordCount());
+		queue.reset();
+		assertEquals("words after reset", 0, vocabulary.getForegroundWordCount());
+	}
+
+	public void testTheAddedTweetKeepsItsWordsWhileTheOldestIsEvicted() {
+		Vocabulary vocabulary = new Vocabulary();
+		Queue queue = new Queue(vocabulary, 1);
+		queue.addTweet(HistoryTweets.resolve(vocabulary, "word"), 1);
+		// Evicting the first tweet releases the word the second tweet is adding.
+		int[] tweet = HistoryTweets.resolve(vocabulary, "word", "other");
+		queue.addTweet(tweet, 2);
+		assertEquals("id", tweet[0], vocabulary.getId("word"));
+		assertEquals("count", 1d, queue.getWordCount(tweet[0]), 0d);
+	}
+
+	public void testShrinkEvictsTheOldestTweetsAndLimitsTheHistory() {
+		Vocabulary vocabulary = HistoryTweets.vocabulary(Words);
+		int[][] tweets = HistoryTweets.random(1000, Words, 14);
+		Queue queue = new Queue(vocabulary, 1000);
+		for (int[] tweet : tweets)
+			queue.addTweet(tweet, tweet.length);
+		long bytes = queue.getMemoryBytes();
+
+		queue.shrink(bytes / 2);
+		assertTrue("fits", queue.getMemoryBytes() <= bytes / 2);
+		int kept = queue.tweets;
+		assertTrue("kept some", kept > 0 && kept < 1000);
+		assertEquals("limit", kept, queue.getHistoryLimit());
+		HistoryTweets.assertCounts("shrunk", queue, tweets, 1000 - kept, 1000, Words);
+
+		// The next tweet evicts the oldest at the lower limit.
+		queue.addTweet(tweets[0], tweets[0].length);
+		assertEquals("tweets", kept, queue.tweets);
+		// Once full and small enough the limit is raised again.
+		queue.relax(bytes);
+		assertTrue("relaxed", queue.getHistoryLimit() > kept);
+	}
+
+	public void testForgetClearsTheHistoryOnceFull() {
+		Vocabulary vocabulary = HistoryTweets.vocabulary(Words);
+		int[][] tweets = HistoryTweets.random(25, Words, 13);
+		Forget forget = new Forget(vocabulary, 10);
+		for (int t = 0; t < tweets.length; t++)
+			forget.addTweet(tweets[t], tweets[t].length);
+		// Cleared when the 11th and the 21st tweet came.
+		HistoryTweets.assertCounts("forget", forget, tweets, 20, 25, Words);
+	}
+}
@@ -0,0 +1,61 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import java.util.Random;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class SlidingTimeWindowTest {
+
+	private static final int Words = 300;
+
+	public void testEvictsTheTweetsOlderThanTheWindow() {
+		SlidingTimeWindow window = new SlidingTimeWindow(HistoryTweets.vocabulary(Words), 100, 64d);
+		window.advanceTime(1d);
+		window.addTweet(new int[] { 1 }, 1);
+		window.advanceTime(30d);
+		window.addTweet(new int[] { 2 }, 1);
+		window.advanceTime(65d);
+		assertEquals("in its bucket of [1, 2)", 1d, window.getWordCount(1), 0d);
+		window.advanceTime(66d);
+		assertEquals("evicted", 0d, window.getWordCount(1), 0d);
+		assertEquals("kept", 1d, window.getWordCount(2), 0d);
+		window.advanceTime(1000d);
+		assertEquals("all evicted", 0d, window.getAllWordsCounts(), 0d);
+	}
+
+	public void testKeepsTheTweetsOfTheWindowUpToTheHistorySize() {
+		// With a window of 64 the buckets are one unit of time wide.
+		int[][] tweets = HistoryTweets.random(5000, Words, 17);
+		double[] times = new double[tweets.length];
+		Random random = new Random(18);
+		for (int t = 1; t < times.length; t++)
+			times[t] = times[t - 1] + (random.nextInt(4) == 0 ? random.nextDouble() * 8d : 0d);
+
+		SlidingTimeWindow window = new SlidingTimeWindow(HistoryTweets.vocabulary(Words), 300, 64d);
+		for (int t = 0; t < tweets.length; t++) {
+			window.advanceTime(times[t]);
+			window.addTweet(tweets[t], tweets[t].length);
+			if (t % 89 == 0 || t == tweets.length - 1) {
+				int from = Math.max(0, t + 1 - 300);
+				while (Math.floor(times[from]) + 1d <= times[t] - 64d)
+					from++;
+				HistoryTweets.assertCounts("after tweet " + t, window, tweets, from, t + 1, Words);
+			}
+		}
+	}
+
+	public void testResetClearsTheBuckets() {
+		SlidingTimeWindow window = new SlidingTimeWindow(HistoryTweets.vocabulary(Words), 100, 64d);
+		for (int t = 0; t < 10; t++) {
+			window.advanceTime(t);
+			window.addTweet(new int[] { t }, 1);
+		}
+		window.reset();
+		window.advanceTime(20d);
+		window.addTweet(new int[] { 1 }, 1);
+		window.advanceTime(80d);
+		assertEquals("kept", 1d, window.getWordCount(1), 0d);
+		window.advanceTime(85d);
+		assertEquals("evicted", 0d, window.getAllWordsCounts(), 0d);
+	}
+}
@@ -0,0 +1,72 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class TimeDecayTest {
+
+	public void testHalvesTheCountsEachHalfLife() {
+		TimeDecay decay = new TimeDecay(HistoryTweets.vocabulary(10), 100, 10d);
+		decay.addTweet(new int[] { 1, 2, 2 }, 3);
+		decay.advanceTime(10d);
+		assertEquals("one half-life", 0.5d, decay.getWordCount(1), 1e-12);
+		decay.addTweet(new int[] { 1 }, 1);
+		assertEquals("decayed and new", 1.5d, decay.getWordCount(1), 1e-12);
+		decay.advanceTime(30d);
+		assertEquals("three half-lives", 1.5d / 4, decay.getWordCount(1), 1e-12);
+		assertEquals("twice", 2d / 8, decay.getWordCount(2), 1e-12);
+		assertEquals("total", 2.5d / 4, decay.getAllWordsCounts(), 1e-12);
+		assertEquals("unseen", 0d, decay.getWordCount(3), 0d);
+	}
+
+	public void testTheClockOnlyMovesForward() {
+		TimeDecay decay = new TimeDecay(HistoryTweets.vocabulary(10), 100, 10d);
+		decay.advanceTime(20d);
+		decay.addTweet(new int[] { 1 }, 1);
+		decay.advanceTime(5d);
+		assertEquals("count", 1d, decay.getWordCount(1), 0d);
+	}
+
+	public void testKeepsTheCountsAcrossRescaling() {
+		// Hundreds of half-lives would overflow the scale without rescaling the weights.
+		TimeDecay decay = new TimeDecay(HistoryTweets.vocabulary(10), 100000, 1d);
+		for (int t = 0; t < 2000; t++) {
+			decay.advanceTime(t);
+			decay.addTweet(new int[] { t % 2 }, 1);
+		}
+		assertEquals("latest", 4d / 3, decay.getWordCount(1), 1e-9);
+		assertEquals("total", 2d, decay.getAllWordsCounts(), 1e-9);
+	}
+
+	public void testDropsTheWordsThatDecayedAwayWhenFull() {
+		Vocabulary vocabulary = new Vocabulary();
+		TimeDecay decay = new TimeDecay(vocabulary, 2, 1d);
+		decay.addTweet(HistoryTweets.resolve(vocabulary, "old"), 1);
+		decay.advanceTime(20d);
+		decay.addTweet(HistoryTweets.resolve(vocabulary, "recent"), 1);
+		assertEquals("not pruned yet", 2, decay.getTotalUniqueWordCount());
+		// The third tweet fills the history, words below 1e-3 are dropped.
+		decay.addTweet(HistoryTweets.resolve(vocabulary, "new"), 1);
+
+		assertEquals("removed from the vocabulary", -1, vocabulary.getId("old"));
+		assertEquals("words", 2, decay.getTotalUniqueWordCount());
+		assertEquals("evicted", 1, decay.getEvictedWords());
+		assertEquals("kept", 1d, decay.getWordCount(vocabulary.getId("recent")), 1e-12);
+		assertEquals("total", 2d, decay.getAllWordsCounts(), 1e-12);
+		assertEquals("vocabulary", 2, vocabulary.getForegroundWordCount());
+	}
+
+	public void testResetReleasesEveryWord() {
+		Vocabulary vocabulary = new Vocabulary();
+		TimeDecay decay = new TimeDecay(vocabulary, 10, 1d);
+		decay.addTweet(HistoryTweets.resolve(vocabulary, "alpha", "beta", "alpha"), 3);
+		decay.advanceTime(3d);
+		decay.reset();
+		assertEquals("vocabulary", 0, vocabulary.getForegroundWordCount());
+		assertEquals("words", 0, decay.getTotalUniqueWordCount());
+		assertEquals("total", 0d, decay.getAllWordsCounts(), 0d);
+		decay.addTweet(HistoryTweets.resolve(vocabulary, "alpha"), 1);
+		assertEquals("counted from the time of the reset", 1d, decay.getWordCount(vocabulary.getId("alpha")), 0d);
+	}
+}
@@ -0,0 +1,108 @@
+package moa.classifiers.smoothing.smoothingtechniques.foreground.history;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class WordCountsTest {
+
+	public void testCountsEachWord() {
+		WordCounts counts = new WordCounts(4);
+		assertEquals("new word", 1, counts.increment(7));
+		assertEquals("again", 2, counts.increment(7));
+		assertEquals("another word", 1, counts.increment(0));
+		assertEquals("count", 2, counts.get(7));
+		assertEquals("unseen", 0, counts.get(8));
+		assertEquals("size", 2, counts.size());
+	}
+
+	public void testKeepsEveryCountWhileGrowing() {
+		WordCounts counts = new WordCounts(1);
+		for (int id = 0; id < 5000; id++)
+			for (int n = 0; n <= id % 3; n++)
+				counts.increment(id * 31);
+		assertEquals("size", 5000, counts.size());
+		for (int id = 0; id < 5000; id++)
+			assertEquals("count of " + id * 31, id % 3 + 1, counts.get(id * 31));
+		assertTrue("at most half full", counts.size() * 2 <= counts.capacity());
+	}
+
+	public void testSlotsVisitEveryWordOnce() {
+		WordCounts counts = new WordCounts(16);
+		Map<Integer, Integer> expected = new HashMap<>();
+		for (int id = 0; id < 100; id += 3) {
+			counts.increment(id);
+			counts.increment(id);
+			expected.put(id, 2);
+		}
+		Map<Integer, Integer> visited = new HashMap<>();
+		for (int slot = 0; slot < counts.capacity(); slot++)
+			if (counts.getKey(slot) >= 0)
+				assertNull("visited twice", visited.put(counts.getKey(slot), counts.getValue(slot)));
+		assertEquals("words", expected, visited);
+	}
+
+	public void testDropsAWordOnceItsCountReachesZero() {
+		WordCounts counts = new WordCounts(16);
+		counts.increment(5);
+		counts.increment(5);
+		assertEquals("once", 1, counts.decrement(5));
+		assertEquals("twice", 0, counts.decrement(5));
+		assertEquals("size", 0, counts.size());
+		assertEquals("count", 0, counts.get(5));
+		assertEquals("counted again", 1, counts.increment(5));
+	}
+
+	public void testFindsEveryWordAfterRandomRemovals() {
+		// Few slots for many words, so removals shift back long runs of words that probed past each other.
+		Random random = new Random(3);
+		WordCounts counts = new WordCounts(1);
+		Map<Integer, Integer> expected = new HashMap<>();
+		for (int operation = 1; operation <= 100000; operation++) {
+			int id = random.nextInt(300);
+			Integer count = expected.get(id);
+			if (count != null && random.nextInt(5) < 2) {
+				assertEquals("decrement " + id, count - 1, counts.decrement(id));
+				if (count == 1)
+					expected.remove(id);
+				else
+					expected.put(id, count - 1);
+			} else {
+				assertEquals("increment " + id, count == null ? 1 : count + 1, counts.increment(id));
+				expected.put(id, count == null ? 1 : count + 1);
+			}
+			if (operation % 5000 == 0) {
+				assertEquals("size", expected.size(), counts.size());
+				for (int word = 0; word < 300; word++)
+					assertEquals("count of " + word, expected.containsKey(word) ? expected.get(word) : 0, counts.get(word));
+			}
+		}
+	}
+
+	public void testCompactKeepsTheCounts() {
+		WordCounts counts = new WordCounts(1);
+		for (int id = 0; id < 1000; id++)
+			counts.increment(id);
+		for (int id = 0; id < 1000; id++)
+			if (id % 10 != 0)
+				counts.decrement(id);
+		int capacity = counts.capacity();
+		counts.compact();
+		assertTrue("shrunk", counts.capacity() < capacity);
+		assertEquals("size", 100, counts.size());
+		for (int id = 0; id < 1000; id++)
+			assertEquals("count of " + id, id % 10 == 0 ? 1 : 0, counts.get(id));
+	}
+
+	public void testClearForgetsEveryWord() {
+		WordCounts counts = new WordCounts(16);
+		counts.increment(1);
+		counts.increment(2);
+		counts.clear();
+		assertEquals("size", 0, counts.size());
+		assertEquals("count", 0, counts.get(1));
+		assertEquals("counted again", 1, counts.increment(2));
+	}
+}
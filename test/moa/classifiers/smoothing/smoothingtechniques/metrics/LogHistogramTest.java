@@ -0,0 +1,97 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class LogHistogramTest {
+
+	public void testBucketsCoverEveryValueWithinAnEighth() {
+		long lowest = 0L;
+		for (int bucket = 0; bucket < LogHistogram.getBuckets(); bucket++) {
+			long highest = LogHistogram.highestValue(bucket);
+			assertTrue("bucket " + bucket + " not empty", highest >= lowest);
+			assertTrue("bucket " + bucket + " within an eighth", highest - lowest <= lowest / 8);
+			if (highest == Long.MAX_VALUE) {
+				assertEquals("last bucket", LogHistogram.getBuckets() - 1, bucket);
+				return;
+			}
+			lowest = highest + 1L;
+		}
+		fail("the buckets end below Long.MAX_VALUE");
+	}
+
+	public void testRecordsEachValueInItsBucket() {
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+			LogHistogram histogram = new LogHistogram();
+			histogram.record(value);
+			long highest = histogram.getValueAtPercentile(100d);
+			assertTrue("at or above " + value, highest >= value);
+			assertTrue("within an eighth of " + value, highest - value <= value / 8);
+		}
+	}
+
+	public void testPercentilesAreWithinAnEighthOfTheExactOnes() {
+		Random random = new Random(2);
+		long[] values = new long[20000];
+		LogHistogram histogram = new LogHistogram();
+		for (int i = 0; i < values.length; i++) {
+			// Latencies spread over a few powers of ten.
+			values[i] = (long) Math.exp(5d + 10d * random.nextDouble() * random.nextDouble());
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		assertEquals("count", values.length, histogram.getCount());
+		for (double percentile : new double[] { 0d, 1d, 25d, 50d, 90d, 99d, 99.9d, 100d }) {
+			long exact = values[Math.max(0, (int) Math.ceil(values.length * percentile / 100d) - 1)];
+			long value = histogram.getValueAtPercentile(percentile);
+			assertTrue(percentile + "% at or above " + exact, value >= exact);
+			assertTrue(percentile + "% within an eighth of " + exact, value - exact <= exact / 8);
+		}
+	}
+
+	public void testSmallValuesAreExact() {
+		LogHistogram histogram = new LogHistogram();
+		for (int value = 0; value < 8; value++)
+			histogram.record(value);
+		assertEquals("lowest", 0, histogram.getValueAtPercentile(0d));
+		assertEquals("median", 3, histogram.getValueAtPercentile(50d));
+		assertEquals("highest", 7, histogram.getValueAtPercentile(100d));
+	}
+
+	public void testNegativeValuesCountAsZeroAndNaNIsNotCounted() {
+		LogHistogram histogram = new LogHistogram();
+		assertEquals("empty", 0, histogram.getValueAtPercentile(50d));
+		histogram.record(-5L);
+		histogram.record(Double.NaN);
+		histogram.record(2.6d);
+		assertEquals("count", 2, histogram.getCount());
+		assertEquals("negative", 1, histogram.getBucketCount(0));
+		assertEquals("rounded", 1, histogram.getBucketCount(3));
+		histogram.reset();
+		assertEquals("reset", 0, histogram.getCount());
+	}
+
+	public void testCountsEveryValueFromManyThreads() throws InterruptedException {
+		final LogHistogram histogram = new LogHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++)
+						histogram.record(i % 100);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals("count", 400000, histogram.getCount());
+		for (int value = 0; value < 8; value++)
+			assertEquals("value " + value, 4000, histogram.getBucketCount(value));
+	}
+}
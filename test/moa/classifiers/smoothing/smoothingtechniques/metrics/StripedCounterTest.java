@@ -0,0 +1,38 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class StripedCounterTest {
+
+	public void testSumsTheAddsOfOneThread() {
+		StripedCounter counter = new StripedCounter(3);
+		counter.increment();
+		counter.add(41L);
+		counter.add(-2L);
+		assertEquals("sum", 40, counter.sum());
+		counter.reset();
+		assertEquals("reset", 0, counter.sum());
+	}
+
+	public void testSumsTheAddsOfManyThreads() throws InterruptedException {
+		// More threads than stripes, so some threads share a stripe.
+		for (int stripes : new int[] { 1, 2, 64 }) {
+			final StripedCounter counter = new StripedCounter(stripes);
+			Thread[] threads = new Thread[8];
+			for (int t = 0; t < threads.length; t++) {
+				final int amount = t + 1;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < 100000; i++)
+							counter.add(amount);
+					}
+				};
+				threads[t].start();
+			}
+			for (Thread thread : threads)
+				thread.join();
+			assertEquals(stripes + " stripes", 36L * 100000L, counter.sum());
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package moa.classifiers.smoothing.smoothingtechniques.metrics;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class ThresholdEvaluationTest {
+
+	private static final int Tweets = 5000;
+
+	private final double[] perplexities = new double[ThresholdEvaluationTest.Tweets];
+	private final boolean[] classes = new boolean[ThresholdEvaluationTest.Tweets];
+	private final ThresholdEvaluation evaluation = new ThresholdEvaluation();
+
+	public ThresholdEvaluationTest() {
+		// Perplexities on the bucket edges, so the buckets hold the exact perplexities and every threshold
+		// of the evaluation is one brute force can check exactly. Tweets on topic score higher.
+		Random random = new Random(1);
+		for (int t = 0; t < ThresholdEvaluationTest.Tweets; t++) {
+			this.classes[t] = random.nextInt(10) < 3;
+			int exponent = 1 + random.nextInt(10) + (this.classes[t] ? random.nextInt(6) : 0);
+			this.perplexities[t] = Math.scalb(1d + random.nextInt(64) / 64d, exponent);
+			this.evaluation.record(this.perplexities[t], this.classes[t]);
+		}
+	}
+
+	public void testCountsEachClass() {
+		int positives = 0;
+		for (boolean positive : this.classes)
+			if (positive)
+				positives++;
+		assertEquals("positives", positives, this.evaluation.getCount(true));
+		assertEquals("negatives", ThresholdEvaluationTest.Tweets - positives, this.evaluation.getCount(false));
+	}
+
+	public void testSummaryIsTheBruteForceOne() {
+		double positives = this.evaluation.getCount(true), negatives = this.evaluation.getCount(false);
+		// Every pair of a positive and a negative, ties count half.
+		double pairs = 0d;
+		for (int p = 0; p < ThresholdEvaluationTest.Tweets; p++)
+			for (int n = 0; n < ThresholdEvaluationTest.Tweets; n++)
+				if (this.classes[p] && !this.classes[n])
+					pairs += this.perplexities[p] > this.perplexities[n] ? 1d
+							: this.perplexities[p] == this.perplexities[n] ? 0.5d : 0d;
+
+		// Each perplexity as the threshold from the highest down, tweets at or above it are positive.
+		double bestF1 = 0d, bestThreshold = 0d, bestPrecision = 0d, bestRecall = 0d, averagePrecision = 0d;
+		double recall = 0d;
+		for (double threshold : this.values().descendingSet()) {
+			double[] counts = this.counts(threshold, true);
+			double precision = counts[0] / (counts[0] + counts[1]), nextRecall = counts[0] / positives;
+			averagePrecision += (nextRecall - recall) * precision;
+			recall = nextRecall;
+			double f1 = precision + recall == 0d ? 0d : 2d * precision * recall / (precision + recall);
+			if (f1 > bestF1) {
+				bestF1 = f1;
+				bestThreshold = threshold;
+				bestPrecision = precision;
+				bestRecall = recall;
+			}
+		}
+
+		double[] summary = this.evaluation.summarize();
+		assertEquals("ROC AUC", pairs / (positives * negatives), summary[ThresholdEvaluation.ROCAUC], 1e-12);
+		assertEquals("average precision", averagePrecision, summary[ThresholdEvaluation.AVERAGEPRECISION], 1e-12);
+		assertEquals("best F1", bestF1, summary[ThresholdEvaluation.BESTF1], 1e-12);
+		assertEquals("threshold", bestThreshold, summary[ThresholdEvaluation.BESTF1THRESHOLD], 0d);
+		assertEquals("precision", bestPrecision, summary[ThresholdEvaluation.BESTF1PRECISION], 1e-12);
+		assertEquals("recall", bestRecall, summary[ThresholdEvaluation.BESTF1RECALL], 1e-12);
+	}
+
+	public void testPrecisionRecallCurveIsTheBruteForceOne() {
+		TreeSet<Double> values = this.values();
+		double[][] curve = this.evaluation.getPrecisionRecallCurve();
+		assertEquals("points", values.size(), curve.length);
+		double positives = this.evaluation.getCount(true);
+		int point = 0;
+		for (double value : values) {
+			// The point past each perplexity, the tweets above it are positive.
+			double[] counts = this.counts(value, false);
+			double threshold = curve[point][0];
+			assertTrue("threshold above " + value, threshold > value);
+			Double next = values.higher(value);
+			assertTrue("threshold up to the next perplexity", next == null || threshold <= next);
+			assertEquals("precision past " + value,
+					counts[0] + counts[1] == 0d ? 1d : counts[0] / (counts[0] + counts[1]), curve[point][1], 1e-12);
+			assertEquals("recall past " + value, counts[0] / positives, curve[point][2], 1e-12);
+			point++;
+		}
+
+		for (double recall = 0d; recall <= 1d; recall += 0.1d) {
+			double precision = positives / ThresholdEvaluationTest.Tweets;
+			for (double value : values) {
+				double[] counts = this.counts(value, true);
+				if (counts[0] / positives >= recall)
+					precision = Math.max(precision, counts[0] / (counts[0] + counts[1]));
+			}
+			assertEquals("interpolated at " + recall, precision, this.evaluation.getInterpolatedPrecision(recall),
+					1e-12);
+		}
+	}
+
+	public void testAreasAreCloseForPerplexitiesWithinBuckets() {
+		Random random = new Random(2);
+		ThresholdEvaluation evaluation = new ThresholdEvaluation();
+		double[] perplexities = new double[ThresholdEvaluationTest.Tweets];
+		boolean[] classes = new boolean[ThresholdEvaluationTest.Tweets];
+		for (int t = 0; t < ThresholdEvaluationTest.Tweets; t++) {
+			classes[t] = random.nextBoolean();
+			perplexities[t] = Math.exp(3d + random.nextGaussian() + (classes[t] ? 1d : 0d));
+			evaluation.record(perplexities[t], classes[t]);
+		}
+		double pairs = 0d, positives = evaluation.getCount(true), negatives = evaluation.getCount(false);
+		for (int p = 0; p < ThresholdEvaluationTest.Tweets; p++)
+			for (int n = 0; n < ThresholdEvaluationTest.Tweets; n++)
+				if (classes[p] && !classes[n] && perplexities[p] > perplexities[n])
+					pairs++;
+		assertEquals("ROC AUC", pairs / (positives * negatives), evaluation.summarize()[ThresholdEvaluation.ROCAUC],
+				1e-3);
+	}
+
+	public void testNothingIsSummarizedUntilBothClassesAreRecorded() {
+		ThresholdEvaluation evaluation = new ThresholdEvaluation();
+		evaluation.record(Double.NaN, true);
+		evaluation.record(10d, true);
+		assertEquals("NaN", 1, evaluation.getCount(true));
+		assertArrayEquals("one class", new double[6], evaluation.summarize(), 0d);
+		this.evaluation.reset();
+		assertEquals("reset", 0, this.evaluation.getCount(true) + this.evaluation.getCount(false));
+		assertArrayEquals("after reset", new double[6], this.evaluation.summarize(), 0d);
+	}
+
+	private TreeSet<Double> values() {
+		TreeSet<Double> values = new TreeSet<>();
+		for (double perplexity : this.perplexities)
+			values.add(perplexity);
+		return values;
+	}
+
+	// The true and false positives of the threshold, tweets at or above it if inclusive, otherwise above.
+	private double[] counts(final double threshold, final boolean inclusive) {
+		double[] counts = new double[2];
+		for (int t = 0; t < ThresholdEvaluationTest.Tweets; t++)
+			if (this.perplexities[t] > threshold || inclusive && this.perplexities[t] == threshold)
+				counts[this.classes[t] ? 0 : 1]++;
+		return counts;
+	}
+}
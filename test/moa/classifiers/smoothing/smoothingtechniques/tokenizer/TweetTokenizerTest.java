@@ -0,0 +1,96 @@
+package moa.classifiers.smoothing.smoothingtechniques.tokenizer;
+
+import moa.classifiers.smoothing.smoothingtechniques.Vocabulary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static moa.classifiers.smoothing.test.Assert.*;
+
+public class TweetTokenizerTest {
+
+	private final Tokenizer tokenizer = new TweetTokenizer();
+
+	public TweetTokenizerTest() {
+		this.tokenizer.setHashTag("#topic");
+		this.tokenizer.setMinWordsInTweet(3);
+	}
+
+	public void testSplitsOnSpacesLowerCasesAndStripsLeadingPunctuation() {
+		this.tokenizer.tokenize("...Hello  WORLD ;foo, 42 bar");
+		assertEquals("tokens", Arrays.asList("hello", "world", "foo,", "bar"), this.tokens());
+		assertEquals("words", 4, this.tokenizer.getWordCount());
+	}
+
+	public void testHashesAreThoseOfTheTokensAsStrings() {
+		this.tokenizer.tokenize("Grüße aus KÖLN #Köln straße");
+		for (int i = 0; i < this.tokenizer.size(); i++)
+			assertEquals("hash of " + this.tokenizer.getToken(i), this.tokenizer.getToken(i).hashCode(),
+					this.tokenizer.getHash(i));
+		assertEquals("tokens", Arrays.asList("grüße", "aus", "köln", "#köln", "straße"), this.tokens());
+	}
+
+	public void testStripsTheHashTagAndKeepsOtherHashTags() {
+		this.tokenizer.tokenize("#Topic a b #other c #topicx");
+		assertEquals("tokens", Arrays.asList("a", "b", "#other", "c", "#topicx"), this.tokens());
+		assertTrue("contains the hash-tag", this.tokenizer.containsHashTag());
+		assertEquals("hash-tags are not words", 3, this.tokenizer.getWordCount());
+	}
+
+	public void testChecksTheLengthAndTheHashTagOfTrainingTweets() {
+		this.tokenizer.tokenize("#topic a b #other");
+		assertEquals("too short", Tokenizer.TOOSHORT, this.tokenizer.check(true));
+		assertEquals("too short to score", Tokenizer.TOOSHORT, this.tokenizer.check(false));
+
+		this.tokenizer.tokenize("a b c");
+		assertEquals("training needs the hash-tag", Tokenizer.NOHASHTAG, this.tokenizer.check(true));
+		assertTrue("scored without the hash-tag", this.tokenizer.accept(false));
+
+		this.tokenizer.tokenize("a b #topic c");
+		assertTrue("trained with the hash-tag", this.tokenizer.accept(true));
+	}
+
+	public void testReusedBuffersForgetThePreviousTweet() {
+		StringBuilder tweet = new StringBuilder("#topic");
+		for (int i = 0; i < 100; i++)
+			tweet.append(" word").append((char) ('a' + i % 26));
+		this.tokenizer.tokenize(tweet.toString());
+		assertEquals("long tweet", 100, this.tokenizer.size());
+
+		this.tokenizer.tokenize("x y");
+		assertEquals("tokens", Arrays.asList("x", "y"), this.tokens());
+		assertFalse("hash-tag of the previous tweet", this.tokenizer.containsHashTag());
+		assertEquals("words", 2, this.tokenizer.getWordCount());
+	}
+
+	public void testCopyKeepsTheSettingsButNotTheTokens() {
+		this.tokenizer.tokenize("a b c d");
+		Tokenizer copy = this.tokenizer.copy();
+		assertEquals("no tokens", 0, copy.size());
+
+		copy.tokenize("#topic a b");
+		assertTrue("hash-tag", copy.containsHashTag());
+		assertEquals("minimum words", Tokenizer.TOOSHORT, copy.check(true));
+		assertEquals("the original keeps its tweet", 4, this.tokenizer.size());
+	}
+
+	public void testResolveUnknownAddsOnlyTheUnknownWords() {
+		Vocabulary vocabulary = new Vocabulary();
+		int known = vocabulary.add("b");
+
+		this.tokenizer.tokenize("a b c");
+		int[] scored = Arrays.copyOf(this.tokenizer.resolve(vocabulary, false), this.tokenizer.size());
+		assertArrayEquals("scored ids", new int[] { -1, known, -1 }, scored);
+		assertEquals("scoring adds nothing", 1, vocabulary.size());
+
+		int[] trained = Arrays.copyOf(this.tokenizer.resolveUnknown(vocabulary), this.tokenizer.size());
+		assertArrayEquals("trained ids", new int[] { vocabulary.getId("a"), known, vocabulary.getId("c") }, trained);
+		assertArrayEquals("the same ids as resolving with add", trained,
+				Arrays.copyOf(this.tokenizer.resolve(vocabulary, true), this.tokenizer.size()));
+	}
+
+	private List<String> tokens() {
+		return this.tokenizer.getTokens(new ArrayList<String>());
+	}
+}
@@ -0,0 +1,81 @@
+package moa.classifiers.smoothing.test;
+
+import java.util.Arrays;
+
+/**
+ * The assertions of the tests, each throws an AssertionError with the message and the values compared.
+ */
+public final class Assert {
+
+	private Assert() {
+	}
+
+	public static void fail(final String message) {
+		throw new AssertionError(message);
+	}
+
+	public static void assertTrue(final String message, final boolean condition) {
+		if (!condition)
+			Assert.fail(message);
+	}
+
+	public static void assertFalse(final String message, final boolean condition) {
+		Assert.assertTrue(message, !condition);
+	}
+
+	public static void assertEquals(final String message, final long expected, final long actual) {
+		if (expected != actual)
+			Assert.fail(message + ": expected " + expected + " but was " + actual);
+	}
+
+	/**
+	 * Compares two doubles, NaN equals NaN.
+	 * @param delta the largest difference that still counts as equal, 0 for the same value.
+	 */
+	public static void assertEquals(final String message, final double expected, final double actual,
+			final double delta) {
+		if (Double.compare(expected, actual) != 0 && !(Math.abs(expected - actual) <= delta))
+			Assert.fail(message + ": expected " + expected + " but was " + actual);
+	}
+
+	public static void assertEquals(final String message, final Object expected, final Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual))
+			Assert.fail(message + ": expected " + expected + " but was " + actual);
+	}
+
+	public static void assertSame(final String message, final Object expected, final Object actual) {
+		if (expected != actual)
+			Assert.fail(message + ": expected the same object as " + expected + " but was " + actual);
+	}
+
+	public static void assertNotSame(final String message, final Object unexpected, final Object actual) {
+		if (unexpected == actual)
+			Assert.fail(message + ": expected another object than " + actual);
+	}
+
+	public static void assertNull(final String message, final Object actual) {
+		if (actual != null)
+			Assert.fail(message + ": expected null but was " + actual);
+	}
+
+	public static void assertNotNull(final String message, final Object actual) {
+		if (actual == null)
+			Assert.fail(message + ": expected a value but was null");
+	}
+
+	public static void assertArrayEquals(final String message, final int[] expected, final int[] actual) {
+		if (!Arrays.equals(expected, actual))
+			Assert.fail(message + ": expected " + Arrays.toString(expected) + " but was " + Arrays.toString(actual));
+	}
+
+	/**
+	 * Compares two arrays of doubles value by value, see assertEquals(String, double, double, double).
+	 */
+	public static void assertArrayEquals(final String message, final double[] expected, final double[] actual,
+			final double delta) {
+		if (expected.length != actual.length)
+			Assert.fail(message + ": expected " + Arrays.toString(expected) + " but was " + Arrays.toString(actual));
+		for (int i = 0; i < expected.length; i++)
+			Assert.assertEquals(message + " at " + i, expected[i], actual[i], delta);
+	}
+}
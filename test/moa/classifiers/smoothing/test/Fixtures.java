@@ -0,0 +1,185 @@
+package moa.classifiers.smoothing.test;
+
+import moa.classifiers.smoothing.SmoothingTechnique;
+import moa.classifiers.smoothing.smoothingtechniques.BackgroundModel;
+import moa.streams.ArffFileStream;
+import weka.core.Instance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the models and files the tests share.
+ */
+public final class Fixtures {
+
+	// Gives tweets written by writeTweets() both votes with every smoothing technique.
+	public static final double Threshold = 400d;
+
+	// The tweet files shared by the classifier tests, written once and deleted when the tests exit.
+	private static File tweetsDirectory = null, backgroundTweets = null, streamTweets = null;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Builds a background model of the given words, each counted 20 times more often than the next so they
+	 * keep the given order and all have enough occurrences to get a probability.
+	 * @param words the words, not stop words.
+	 * @return the finished model.
+	 */
+	public static BackgroundModel backgroundModel(final String... words) {
+		List<String> occurrences = new ArrayList<>();
+		for (int i = 0; i < words.length; i++)
+			for (int n = 0; n < (words.length - i) * 20; n++)
+				occurrences.add(words[i]);
+		BackgroundModel bm = new BackgroundModel();
+		bm.buildProbabilities(occurrences);
+		return bm;
+	}
+
+	/**
+	 * Writes random tweets to an arff file with the text, a numeric time (the number of the tweet) and a
+	 * {0,1} class, 1 for the tweets about #topic. Words are drawn from 300 words with the common ones more
+	 * likely, the tweets about the topic draw half of theirs from another ranking. Tweets have 2 to 14
+	 * words, so some are too short for the classifier.
+	 * @param file the file to write.
+	 * @param tweets the number of tweets.
+	 * @param seed the seed, the same seed gives the same tweets.
+	 * @throws IOException if the file could not be written.
+	 */
+	public static void writeTweets(final File file, final int tweets, final long seed) throws IOException {
+		Random random = new Random(seed);
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("@relation tweets");
+			out.println("@attribute text string");
+			out.println("@attribute time numeric");
+			out.println("@attribute class {0,1}");
+			out.println("@data");
+			for (int i = 0; i < tweets; i++) {
+				boolean topic = random.nextInt(10) < 3;
+				StringBuilder tweet = new StringBuilder(topic ? "#Topic" : "...");
+				for (int w = 2 + random.nextInt(13); w > 0; w--) {
+					double uniform = random.nextDouble();
+					int rank = (int) (300 * uniform * uniform);
+					if (topic && random.nextBoolean())
+						rank = (rank + 100) % 300;
+					tweet.append(' ').append(rank % 7 == 0 ? "Word" : "word").append(rank);
+				}
+				out.println("'" + tweet + "'," + i + "," + (topic ? 1 : 0));
+			}
+		}
+	}
+
+	/**
+	 * Gets a file of 5,000 tweets written by writeTweets() to build the Background Model from.
+	 * @return the file.
+	 * @throws IOException if the file could not be written.
+	 */
+	public static synchronized File backgroundTweets() throws IOException {
+		if (Fixtures.backgroundTweets == null)
+			Fixtures.backgroundTweets = Fixtures.writeSharedTweets("background.arff", 5000, 1);
+		return Fixtures.backgroundTweets;
+	}
+
+	/**
+	 * Gets a file of 2,000 tweets written by writeTweets(), others than the background tweets, to train
+	 * and score the classifiers.
+	 * @return the file.
+	 * @throws IOException if the file could not be written.
+	 */
+	public static synchronized File streamTweets() throws IOException {
+		if (Fixtures.streamTweets == null)
+			Fixtures.streamTweets = Fixtures.writeSharedTweets("stream.arff", 2000, 2);
+		return Fixtures.streamTweets;
+	}
+
+	private static File writeSharedTweets(final String name, final int tweets, final long seed) throws IOException {
+		if (Fixtures.tweetsDirectory == null) {
+			Fixtures.tweetsDirectory = Fixtures.createDirectory();
+			// Files registered later are deleted first.
+			Fixtures.tweetsDirectory.deleteOnExit();
+		}
+		File file = new File(Fixtures.tweetsDirectory, name);
+		file.deleteOnExit();
+		Fixtures.writeTweets(file, tweets, seed);
+		return file;
+	}
+
+	/**
+	 * Sets the options the classifier tests share: the Background Model is built from backgroundTweets(),
+	 * tweets about #topic train the history. Set other options, then call prepareForUse().
+	 * @param classifier the classifier to configure.
+	 * @return the classifier.
+	 * @throws IOException if the background tweets could not be written.
+	 */
+	public static <T extends SmoothingTechnique> T configure(final T classifier) throws IOException {
+		classifier.backgroundDataPathOption.setValue(Fixtures.backgroundTweets().getPath());
+		classifier.hashTagOption.setValue("#topic");
+		classifier.minWordsInTweetOption.setValue(4);
+		classifier.historySizeOption.setValue(200);
+		classifier.thresholdOption.setValue(Fixtures.Threshold);
+		return classifier;
+	}
+
+	/**
+	 * Reads all the instances of an arff file, the last attribute is the class.
+	 * @param file the file.
+	 * @return the instances.
+	 */
+	public static List<Instance> readInstances(final File file) {
+		List<Instance> instances = new ArrayList<>();
+		ArffFileStream stream = new ArffFileStream(file.getPath(), -1);
+		while (stream.hasMoreInstances())
+			instances.add(stream.nextInstance());
+		return instances;
+	}
+
+	/**
+	 * Serializes an object and reads it back, as MOA does to copy and store classifiers.
+	 * @param object the object.
+	 * @return the object read back.
+	 * @throws IOException if the object could not be serialized or read back.
+	 * @throws ClassNotFoundException if the class of the object read back was not found.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T serializeAndRead(final T object) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (T) in.readObject();
+		}
+	}
+
+	/**
+	 * Creates an empty directory for the files of a test.
+	 * @return the directory, delete it with deleteDirectory().
+	 * @throws IOException if the directory could not be created.
+	 */
+	public static File createDirectory() throws IOException {
+		return Files.createTempDirectory("smoothing-test").toFile();
+	}
+
+	/**
+	 * Deletes a directory created by createDirectory() and the files in it.
+	 * @param directory the directory.
+	 */
+	public static void deleteDirectory(final File directory) {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+}
@@ -0,0 +1,85 @@
+package moa.classifiers.smoothing.test;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Runs the tests without a test framework. A test class has a public no argument constructor and public
+ * void methods without arguments whose names start with "test", each runs on a new instance of the class.
+ * Without arguments every class named *Test in the directory tree this class was loaded from is run,
+ * else the classes named by the arguments, e.g.
+ * java -cp lib/moa.jar:out:test-out moa.classifiers.smoothing.test.TestRunner
+ * The process exits with status 1 if a test failed.
+ */
+public class TestRunner {
+
+	private int run, failed;
+
+	public static void main(String[] args) throws Exception {
+		List<String> classNames = new ArrayList<>();
+		if (args.length == 0)
+			TestRunner.findTests(TestRunner.getClassRoot(), "", classNames);
+		else
+			Collections.addAll(classNames, args);
+		Collections.sort(classNames);
+
+		TestRunner runner = new TestRunner();
+		for (String className : classNames)
+			runner.runTests(Class.forName(className));
+		System.out.println(runner.run + " tests, " + runner.failed + " failed");
+		System.exit(runner.failed == 0 ? 0 : 1);
+	}
+
+	private void runTests(final Class<?> testClass) throws ReflectiveOperationException {
+		List<Method> tests = new ArrayList<>();
+		for (Method method : testClass.getMethods())
+			if (method.getName().startsWith("test") && method.getParameterTypes().length == 0
+					&& method.getReturnType() == void.class && !Modifier.isStatic(method.getModifiers()))
+				tests.add(method);
+		// getMethods() is in no particular order.
+		Collections.sort(tests, new Comparator<Method>() {
+			@Override
+			public int compare(Method first, Method second) {
+				return first.getName().compareTo(second.getName());
+			}
+		});
+
+		for (Method test : tests) {
+			String name = testClass.getSimpleName() + "." + test.getName();
+			this.run++;
+			try {
+				test.invoke(testClass.getConstructor().newInstance());
+				System.out.println("PASS " + name);
+			} catch (InvocationTargetException e) {
+				this.failed++;
+				System.out.println("FAIL " + name);
+				e.getCause().printStackTrace(System.out);
+			}
+		}
+	}
+
+	// The directory the test classes were loaded from.
+	private static File getClassRoot() throws URISyntaxException {
+		return new File(TestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+	}
+
+	private static void findTests(final File directory, final String packageName, final List<String> classNames) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory())
+				TestRunner.findTests(file, packageName + name + ".", classNames);
+			else if (name.endsWith("Test.class"))
+				classNames.add(packageName + name.substring(0, name.length() - ".class".length()));
+		}
+	}
+}